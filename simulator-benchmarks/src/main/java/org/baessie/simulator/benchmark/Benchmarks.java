@@ -0,0 +1,28 @@
+package org.baessie.simulator.benchmark;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+final class Benchmarks {
+
+	private Benchmarks() {
+
+	}
+
+	/**
+	 * Discards standard out, where the JDBC driver logs every call, so that the
+	 * output of JMH stays readable. The log messages are still formatted.
+	 */
+	static void discardStandardOut() {
+		System.setOut(new PrintStream(new OutputStream() {
+			@Override
+			public void write(final int b) {
+			}
+
+			@Override
+			public void write(final byte[] b, final int off, final int len) {
+			}
+		}));
+	}
+
+}
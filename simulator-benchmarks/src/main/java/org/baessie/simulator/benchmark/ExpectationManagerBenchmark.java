@@ -0,0 +1,92 @@
+package org.baessie.simulator.benchmark;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.baessie.simulator.jdbc.expectation.Expectation;
+import org.baessie.simulator.jdbc.expectation.ExpectationManager;
+import org.baessie.simulator.jdbc.expectation.ExpectedResult;
+import org.baessie.simulator.jdbc.expectation.Row;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Looking up the expected result of a query among a number of other
+ * expectations, kept in memory or in the memory-mapped file. Every set of
+ * parameters runs in its own JVM, so the store can be chosen before the
+ * manager is loaded.
+ *
+ * A lookup uses up the expectation it finds, so every iteration sets up the
+ * expectations for a batch of lookups and measures the whole batch.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 20, batchSize = ExpectationManagerBenchmark.LOOKUPS)
+@Measurement(iterations = 20, batchSize = ExpectationManagerBenchmark.LOOKUPS)
+@Fork(1)
+public class ExpectationManagerBenchmark {
+
+	static final int LOOKUPS = 1000;
+
+	@Param({ "memory", "file" })
+	private String store;
+
+	@Param({ "10", "1000" })
+	private int expectations;
+
+	private File file;
+	private String query;
+
+	@Setup
+	public void setUp() throws Exception {
+		file = File.createTempFile("baessie-benchmark", ".dat");
+		System.setProperty("baessie.jdbc.expectationStore", store);
+		System.setProperty("baessie.jdbc.expectationFile", file.getAbsolutePath());
+		Benchmarks.discardStandardOut();
+		query = createQuery(expectations);
+	}
+
+	@Setup(Level.Iteration)
+	public void addExpectations() {
+		ExpectationManager.resetExpectations();
+		for (int i = 0; i < expectations; i++) {
+			ExpectationManager.addExpectation(createExpectation(i));
+		}
+		for (int i = 0; i < LOOKUPS; i++) {
+			ExpectationManager.addExpectation(createExpectation(expectations));
+		}
+	}
+
+	private static Expectation createExpectation(final int id) {
+		final ExpectedResult result = new ExpectedResult(new Row("id", "name"), Row.list(new Row("java.lang.Integer:" + id, "java.lang.String:name " + id)));
+		return new Expectation(createQuery(id), result);
+	}
+
+	private static String createQuery(final int id) {
+		return "select id, name from customer where id = " + id;
+	}
+
+	@TearDown
+	public void tearDown() {
+		ExpectationManager.resetExpectations();
+		file.delete();
+	}
+
+	@Benchmark
+	public ExpectedResult getExpectedResultFor() {
+		return ExpectationManager.getExpectedResultFor(query);
+	}
+
+}
@@ -0,0 +1,77 @@
+package org.baessie.simulator.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.baessie.simulator.SimulatorException;
+import org.baessie.simulator.SimulatorRequest;
+import org.baessie.simulator.SimulatorResponse;
+import org.baessie.simulator.rest.RestSimulator;
+import org.baessie.simulator.util.SimulatorUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Matching a REST request with a number of query string parameters against
+ * tests on different paths.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RestSimulatorBenchmark {
+
+	private static final String CHARSET = "UTF-8";
+	private static final int TESTS = 100;
+
+	@Param({ "1", "5", "20" })
+	private int parameters;
+
+	private RestSimulator simulator;
+	private byte[] queryString;
+	private String path;
+
+	@Setup
+	public void setUp() throws Exception {
+		simulator = new RestSimulator();
+		final StringBuilder query = new StringBuilder();
+		for (int i = 0; i < parameters; i++) {
+			if (i > 0) {
+				query.append('&');
+			}
+			query.append("param").append(i).append("=value").append(i);
+		}
+		for (int i = 0; i < TESTS; i++) {
+			final SimulatorRequest request = new SimulatorRequest();
+			request.setCharset(CHARSET);
+			request.addParameter(SimulatorUtils.TEST_ID, "TEST " + i);
+			request.addParameter(RestSimulator.PATH, "/customers/" + i);
+			request.addParameter(RestSimulator.QUERYSTRING, query.toString());
+			request.addParameter(RestSimulator.OUT_DATA, "<response><customer>" + i + "</customer></response>");
+			simulator.setupTest(request);
+		}
+		queryString = query.toString().getBytes(CHARSET);
+		path = "/customers/" + (TESTS - 1);
+	}
+
+	@Benchmark
+	public SimulatorResponse executeTest() throws SimulatorException {
+		final SimulatorRequest request = new SimulatorRequest();
+		request.setCharset(CHARSET);
+		request.setPath(path);
+		request.setInputStream(new ByteArrayInputStream(queryString));
+		return simulator.executeTest(request);
+	}
+
+}
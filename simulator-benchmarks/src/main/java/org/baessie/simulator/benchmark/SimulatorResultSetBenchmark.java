@@ -0,0 +1,73 @@
+package org.baessie.simulator.benchmark;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.baessie.simulator.jdbc.driver.SimulatorResultSet;
+import org.baessie.simulator.jdbc.expectation.ExpectedResult;
+import org.baessie.simulator.jdbc.expectation.Row;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Iterating over all rows of a result set and reading every column, by index
+ * and by label.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SimulatorResultSetBenchmark {
+
+	@Param({ "10", "1000" })
+	private int rows;
+
+	private ExpectedResult expectedResult;
+
+	@Setup
+	public void setUp() {
+		Benchmarks.discardStandardOut();
+		final List<Row> list = new ArrayList<Row>();
+		for (int i = 0; i < rows; i++) {
+			list.add(new Row("java.lang.Integer:" + i, "java.lang.String:name " + i, "java.math.BigDecimal:" + i + ".50", "java.sql.Timestamp:1301678923456"));
+		}
+		expectedResult = new ExpectedResult(new Row("id", "name", "balance", "created"), list);
+	}
+
+	@Benchmark
+	public void iterateByIndex(final Blackhole blackhole) throws SQLException {
+		final SimulatorResultSet resultSet = new SimulatorResultSet(expectedResult);
+		while (resultSet.next()) {
+			blackhole.consume(resultSet.getInt(1));
+			blackhole.consume(resultSet.getString(2));
+			blackhole.consume(resultSet.getBigDecimal(3));
+			blackhole.consume(resultSet.getTimestamp(4));
+		}
+	}
+
+	@Benchmark
+	public void iterateByLabel(final Blackhole blackhole) throws SQLException {
+		final SimulatorResultSet resultSet = new SimulatorResultSet(expectedResult);
+		while (resultSet.next()) {
+			blackhole.consume(resultSet.getInt("id"));
+			blackhole.consume(resultSet.getString("name"));
+			blackhole.consume(resultSet.getBigDecimal("balance"));
+			blackhole.consume(resultSet.getTimestamp("created"));
+		}
+	}
+
+}
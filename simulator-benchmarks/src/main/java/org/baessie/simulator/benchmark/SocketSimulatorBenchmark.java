@@ -0,0 +1,73 @@
+package org.baessie.simulator.benchmark;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import org.baessie.simulator.SimulatorRequest;
+import org.baessie.simulator.socket.FrameCodecs;
+import org.baessie.simulator.socket.SocketServerMode;
+import org.baessie.simulator.socket.SocketSimulator;
+import org.baessie.simulator.socket.SocketTestData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Finding the response to a socket request among a number of tests, with exact
+ * requests or wildcard patterns.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SocketSimulatorBenchmark {
+
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+
+	@Param({ "10", "1000" })
+	private int tests;
+
+	@Param({ "false", "true" })
+	private boolean wildcards;
+
+	private SocketSimulator simulator;
+	private ByteBuffer frame;
+
+	@Setup
+	public void setUp() {
+		// Port 0 lets the system pick a free port for the unused server
+		simulator = new SocketSimulator(0, SocketServerMode.NIO, FrameCodecs.fromString(null), CHARSET);
+		for (int i = 0; i < tests; i++) {
+			final SimulatorRequest request = new SimulatorRequest();
+			request.addParameter("testId", "TEST " + i);
+			request.addParameter("request", "GET subscriber?identity=" + i + (wildcards ? "&phonenumber=*" : "&phonenumber=040-123456"));
+			request.addParameter("response", "identity=" + i + "&status=00");
+			request.addParameter("wildcards", String.valueOf(wildcards));
+			simulator.setupTest(request);
+		}
+		frame = CHARSET.encode("GET subscriber?identity=" + (tests - 1) + "&phonenumber=040-123456");
+	}
+
+	@TearDown
+	public void tearDown() {
+		simulator.terminate();
+	}
+
+	@Benchmark
+	public SocketTestData findResponseToSendBack() {
+		return simulator.findResponseToSendBack(frame.duplicate());
+	}
+
+}
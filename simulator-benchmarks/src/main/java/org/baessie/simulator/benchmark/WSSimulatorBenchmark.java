@@ -0,0 +1,95 @@
+package org.baessie.simulator.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.baessie.simulator.SimulatorException;
+import org.baessie.simulator.SimulatorRequest;
+import org.baessie.simulator.SimulatorResponse;
+import org.baessie.simulator.util.SimulatorUtils;
+import org.baessie.simulator.ws.WSMatchingMode;
+import org.baessie.simulator.ws.WSSimulator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Matching a WS request against a number of tests, where the request matches
+ * the first test set up, the last one or none.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WSSimulatorBenchmark {
+
+	private static final String CHARSET = "UTF-8";
+
+	@Param({ "10", "100", "1000" })
+	private int tests;
+
+	@Param({ "DOM", "STREAMING" })
+	private WSMatchingMode matchingMode;
+
+	private WSSimulator simulator;
+	private byte[] first;
+	private byte[] last;
+	private byte[] miss;
+
+	@Setup
+	public void setUp() throws Exception {
+		simulator = new WSSimulator(matchingMode);
+		for (int i = 0; i < tests; i++) {
+			final SimulatorRequest request = new SimulatorRequest();
+			request.setCharset(CHARSET);
+			request.addParameter(SimulatorUtils.TEST_ID, "TEST " + i);
+			request.addParameter(WSSimulator.IN_DATA, createRequest(i));
+			request.addParameter(WSSimulator.OUT_DATA, "<response><customer>" + i + "</customer><status>OK</status></response>");
+			simulator.setupTest(request);
+		}
+		first = createRequest(0).getBytes(CHARSET);
+		last = createRequest(tests - 1).getBytes(CHARSET);
+		miss = createRequest(tests).getBytes(CHARSET);
+	}
+
+	private static String createRequest(final int customer) {
+		return "<request><operation>getCustomer</operation><customer>" + customer + "</customer><fields><field>name</field><field>address</field></fields></request>";
+	}
+
+	@Benchmark
+	public SimulatorResponse hitFirst() throws SimulatorException {
+		return simulator.executeTest(createExecuteRequest(first));
+	}
+
+	@Benchmark
+	public SimulatorResponse hitLast() throws SimulatorException {
+		return simulator.executeTest(createExecuteRequest(last));
+	}
+
+	@Benchmark
+	public Object miss() {
+		try {
+			return simulator.executeTest(createExecuteRequest(miss));
+		} catch (final SimulatorException e) {
+			return e;
+		}
+	}
+
+	private static SimulatorRequest createExecuteRequest(final byte[] body) {
+		final SimulatorRequest request = new SimulatorRequest();
+		request.setCharset(CHARSET);
+		request.setInputStream(new ByteArrayInputStream(body));
+		return request;
+	}
+
+}
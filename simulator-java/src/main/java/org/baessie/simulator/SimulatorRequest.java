@@ -82,9 +82,13 @@ public class SimulatorRequest {
 	}
 
 	public Integer getIntegerParameter(final String key) {
+		final String parameter = getParameter(key);
+		if (parameter == null) {
+			return null;
+		}
 		Integer value = null;
 		try {
-			value = Integer.parseInt(getParameter(key));
+			value = Integer.parseInt(parameter);
 		} catch (final Exception e) {
 			LOG.warn("Could not parse: " + key, e);
 		}
@@ -1,14 +1,28 @@
 package org.baessie.simulator;
 
+import java.io.ByteArrayInputStream;
+import java.util.List;
 import java.util.Map;
 
+import org.baessie.simulator.util.BackReferenceValue;
+import org.baessie.simulator.util.ResponseTemplate;
+import org.baessie.simulator.util.XmlToolkit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
 
 public class SimulatorResponse {
 
+	private static final Logger LOG = LoggerFactory.getLogger(SimulatorResponse.class);
+
 	private Map<String, String> headers;
 	private Document document;
 	private String text;
+	private ResponseTemplate template;
+	private List<BackReferenceValue> backReferenceValues;
+	private Integer delay;
+	private String testId;
 
 	public Map<String, String> getHeaders() {
 		return headers;
@@ -18,7 +32,18 @@ public class SimulatorResponse {
 		this.headers = headers;
 	}
 
+	/**
+	 * Returns the xml response. A response created from a template is only
+	 * parsed into a document when this method is called.
+	 */
 	public Document getDocument() {
+		if (document == null && template != null) {
+			try {
+				document = XmlToolkit.parse(new InputSource(new ByteArrayInputStream(template.render(backReferenceValues))));
+			} catch (final Exception e) {
+				LOG.warn("Failed to parse response", e);
+			}
+		}
 		return document;
 	}
 
@@ -33,4 +58,44 @@ public class SimulatorResponse {
 	public void setText(final String text) {
 		this.text = text;
 	}
+
+	public ResponseTemplate getTemplate() {
+		return template;
+	}
+
+	public List<BackReferenceValue> getBackReferenceValues() {
+		return backReferenceValues;
+	}
+
+	/**
+	 * Sets the xml response as a template and the values of its back
+	 * references.
+	 */
+	public void setTemplate(final ResponseTemplate template, final List<BackReferenceValue> backReferenceValues) {
+		this.template = template;
+		this.backReferenceValues = backReferenceValues;
+	}
+
+	/**
+	 * Returns the number of milliseconds to wait before the response is
+	 * written, or null if it should be written at once.
+	 */
+	public Integer getDelay() {
+		return delay;
+	}
+
+	public void setDelay(final Integer delay) {
+		this.delay = delay;
+	}
+
+	/**
+	 * Returns the id of the test that created the response.
+	 */
+	public String getTestId() {
+		return testId;
+	}
+
+	public void setTestId(final String testId) {
+		this.testId = testId;
+	}
 }
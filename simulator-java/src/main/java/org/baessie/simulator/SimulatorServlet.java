@@ -1,40 +1,113 @@
 package org.baessie.simulator;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
 import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.RejectedExecutionException;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.baessie.simulator.bulk.ImportResult;
+import org.baessie.simulator.bulk.StubImporter;
+import org.baessie.simulator.journal.JournalEntry;
+import org.baessie.simulator.journal.StateStore;
+import org.baessie.simulator.journal.StubJournal;
+import org.baessie.simulator.metrics.MetricsRegistry;
+import org.baessie.simulator.metrics.ProtocolMetrics;
+import org.baessie.simulator.metrics.StubRegistry;
+import org.baessie.simulator.metrics.Transport;
+import org.baessie.simulator.proxy.ProxyRecorder;
+import org.baessie.simulator.proxy.UpstreamResponse;
 import org.baessie.simulator.rest.RestSimulator;
 import org.baessie.simulator.socket.SocketSimulator;
+import org.baessie.simulator.socket.SocketTestData;
+import org.baessie.simulator.util.AccessLog;
+import org.baessie.simulator.util.CountingResponseWrapper;
+import org.baessie.simulator.util.DelayScheduler;
+import org.baessie.simulator.util.ResponseTemplate;
 import org.baessie.simulator.util.SimulatorUtils;
 import org.baessie.simulator.ws.WSSimulator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.Document;
 
+/**
+ * Serves the admin endpoints, which set up, verify and clear tests, and
+ * simulates everything else. The admin endpoints are found by their exact
+ * path below the prefix in the system property {@value #ADMIN_PREFIX_PROPERTY}
+ * (none by default), so a simulated path that merely contains the name of an
+ * admin endpoint is simulated. REST tests at the exact path of an admin
+ * endpoint are refused, since they would never be reached. The metrics of
+ * the simulated requests are served at /metrics in the Prometheus text format.
+ *
+ * If the system property {@value ProxyRecorder#UPSTREAM_PROPERTY} is set,
+ * requests that no test matches are forwarded to that server, and each
+ * successful exchange is set up as a test. If the system property
+ * {@value StubJournal#FILE_PROPERTY} is set, the recorded tests are also
+ * appended to that journal, and the tests already in it are set up when the
+ * servlet is created.
+ *
+ * Tests can be set up in bulk by posting JSON lines or a zip bundle, as read
+ * by {@link StubImporter}, to /bulk/import. The files in the directory given
+ * by the system property {@value StubImporter#DIRECTORY_PROPERTY} are
+ * imported when the servlet is created, before the journal is replayed.
+ *
+ * If the system property {@value StateStore#DIRECTORY_PROPERTY} is set, every
+ * setup, bulk import and clear is made durable in that directory before it is
+ * answered, and the tests and their call counts are restored from it when the
+ * servlet is created. Once the directory holds a state, it already includes
+ * the imported and journaled tests, so they are not set up again.
+ */
 public class SimulatorServlet extends HttpServlet {
 
 	private static final long serialVersionUID = 767208887906992596L;
 	private static final Logger LOG = LoggerFactory.getLogger(SimulatorServlet.class);
 
-	private static final String CLEAR = "clearData";
-	private static final String VERIFY = "verifyTest";
-	private static final String SOCKET_VERIFY = "socket/verify";
-	private static final String WS_SETUP = "ws/setup";
-	private static final String SOCKET_SETUP = "socket/setup";
-	private static final String REST_SETUP = "servlet/setup";
-	private static final String LEGACY_SETUP = "setupTest";
+	public static final String ADMIN_PREFIX_PROPERTY = "baessie.admin.prefix";
+
+	private static final String CLEAR = "/clearData";
+	private static final String VERIFY = "/verifyTest";
+	private static final String SOCKET_VERIFY = "/socket/verify";
+	private static final String WS_SETUP = "/ws/setup";
+	private static final String SOCKET_SETUP = "/socket/setup";
+	private static final String REST_SETUP = "/servlet/setup";
+	private static final String LEGACY_SETUP = "/setupTest";
+	private static final String METRICS = "/metrics";
+	private static final String BULK_IMPORT = "/bulk/import";
+	private static final String WS_ROUTE = "ws";
+	private static final String REST_ROUTE = "rest";
+	// Time an asynchronous request may take in addition to its delay
+	private static final long ASYNC_TIMEOUT_MARGIN = 30000;
 
 	private final WSSimulator wsSimulator;
 	private final RestSimulator restSimulator;
 	private final SocketSimulator socketSimulator;
+	private final DelayScheduler delayScheduler;
+	private final Map<String, AdminRoute> adminRoutes;
+	private final AccessLog accessLog;
+	private final ProtocolMetrics wsMetrics;
+	private final ProtocolMetrics restMetrics;
+	private final MetricsRegistry metrics;
+	private final ProxyRecorder proxyRecorder;
+	private final StubJournal journal;
+	private final StubImporter stubImporter;
+	private final StateStore stateStore;
 
 	public SimulatorServlet() {
 		try {
@@ -43,72 +116,450 @@ public class SimulatorServlet extends HttpServlet {
 			LOG.warn("Failed to load SimulatorUtils", e);
 		}
 		wsSimulator = new WSSimulator();
-		restSimulator = new RestSimulator();
 		socketSimulator = new SocketSimulator();
+		delayScheduler = new DelayScheduler();
+		adminRoutes = createAdminRoutes(readAdminPrefix());
+		// A REST test at the path of an admin endpoint could never be reached
+		restSimulator = new RestSimulator(adminRoutes.keySet());
+		accessLog = AccessLog.create();
+		wsMetrics = new ProtocolMetrics(WS_ROUTE, Transport.HTTP, new StubRegistry() {
+			@Override
+			public boolean contains(final String testId) {
+				return wsSimulator.getCallCount(testId) != null;
+			}
+		});
+		restMetrics = new ProtocolMetrics(REST_ROUTE, Transport.HTTP, new StubRegistry() {
+			@Override
+			public boolean contains(final String testId) {
+				return restSimulator.getCallCount(testId) != null;
+			}
+		});
+		metrics = new MetricsRegistry();
+		metrics.add(wsMetrics);
+		metrics.add(restMetrics);
+		metrics.add(socketSimulator.getMetrics());
+		metrics.registerMBeans();
+		proxyRecorder = ProxyRecorder.create();
+		stubImporter = new StubImporter(wsSimulator, restSimulator, socketSimulator);
+		journal = StubJournal.create();
+		stateStore = recoverState();
+		if (stateStore != null && stateStore.hasState()) {
+			restoreState();
+		} else {
+			final String bulkDirectory = System.getProperty(StubImporter.DIRECTORY_PROPERTY);
+			if (bulkDirectory != null) {
+				importDirectory(new File(bulkDirectory));
+			}
+			if (journal != null) {
+				replayJournal();
+			}
+		}
+		if (stateStore != null) {
+			stateStore.start(new StateStore.CallCounter() {
+				@Override
+				public int getCallCount(final String type, final String testId) {
+					return SimulatorServlet.this.getCallCount(type, testId);
+				}
+			});
+		}
+	}
+
+	private static StateStore recoverState() {
+		final StateStore store = StateStore.create();
+		if (store != null) {
+			try {
+				store.recover();
+			} catch (final IOException e) {
+				LOG.warn("Failed to recover state from " + store.getDirectory() + ", tests will not be kept", e);
+				return null;
+			}
+		}
+		return store;
+	}
+
+	/**
+	 * Sets up the tests of the state store in bulk, with the call counts of
+	 * its last snapshot.
+	 */
+	private void restoreState() {
+		final List<JournalEntry> entries = stateStore.getTests();
+		try {
+			final ImportResult result = stubImporter.importEntries(entries, stateStore.getDirectory().getName());
+			for (final String error : result.getErrors()) {
+				LOG.warn("Failed to restore test {}", error);
+			}
+			for (final JournalEntry entry : result.getImportedEntries()) {
+				final String testId = entry.getParameter(SimulatorUtils.TEST_ID);
+				final int callCount = stateStore.getRestoredCallCount(entry.getType(), testId);
+				if (callCount > 0) {
+					setCallCount(entry.getType(), testId, callCount);
+				}
+			}
+			LOG.info("Restored {} of {} tests from {}", new Object[] { result.getImported(), entries.size(), stateStore.getDirectory() });
+		} catch (final IOException e) {
+			LOG.warn("Failed to restore tests from " + stateStore.getDirectory(), e);
+		}
+	}
+
+	private int getCallCount(final String type, final String testId) {
+		Integer callCount = null;
+		if (JournalEntry.WS.equals(type)) {
+			callCount = wsSimulator.getCallCount(testId);
+		} else if (JournalEntry.REST.equals(type)) {
+			callCount = restSimulator.getCallCount(testId);
+		} else if (JournalEntry.SOCKET.equals(type)) {
+			final SocketTestData testData = socketSimulator.getData().get(testId);
+			callCount = testData != null ? testData.getCallCount().get() : null;
+		}
+		return callCount != null ? callCount : 0;
+	}
+
+	private void setCallCount(final String type, final String testId, final int callCount) {
+		if (JournalEntry.WS.equals(type)) {
+			wsSimulator.setCallCount(testId, callCount);
+		} else if (JournalEntry.REST.equals(type)) {
+			restSimulator.setCallCount(testId, callCount);
+		} else if (JournalEntry.SOCKET.equals(type)) {
+			final SocketTestData testData = socketSimulator.getData().get(testId);
+			if (testData != null) {
+				testData.getCallCount().set(callCount);
+			}
+		}
+	}
+
+	/**
+	 * Makes a test set up at a setup endpoint durable, if the state is kept.
+	 */
+	private void recordSetup(final String type, final SimulatorRequest simulatorRequest, final String testId) {
+		if (stateStore != null && testId != null) {
+			try {
+				stateStore.setup(new JournalEntry(type, new LinkedHashMap<String, String[]>(simulatorRequest.getParameters())));
+			} catch (final IOException e) {
+				LOG.warn("Failed to record test " + testId + " in " + stateStore.getDirectory(), e);
+			}
+		}
+	}
+
+	private void recordImported(final ImportResult result) {
+		if (stateStore != null) {
+			try {
+				stateStore.imported(result.getImportedEntries());
+			} catch (final IOException e) {
+				LOG.warn("Failed to record imported tests in " + stateStore.getDirectory(), e);
+			}
+		}
+	}
+
+	private void importDirectory(final File directory) {
+		try {
+			final ImportResult result = stubImporter.importDirectory(directory);
+			recordImported(result);
+			LOG.info("Imported {} tests from {}", result.getImported(), directory);
+			for (final String error : result.getErrors()) {
+				LOG.warn("Failed to import test from {}", error);
+			}
+		} catch (final IOException e) {
+			LOG.warn("Failed to import tests from " + directory, e);
+		}
+	}
+
+	/**
+	 * Sets up the tests of the journal in bulk.
+	 */
+	private void replayJournal() {
+		try {
+			final List<JournalEntry> entries = journal.read();
+			final ImportResult result = stubImporter.importEntries(entries, journal.getFile().getName());
+			recordImported(result);
+			for (final String error : result.getErrors()) {
+				LOG.warn("Failed to set up test from journal {}", error);
+			}
+			LOG.info("Set up {} of {} tests from journal {}", new Object[] { result.getImported(), entries.size(), journal.getFile() });
+		} catch (final IOException e) {
+			LOG.warn("Failed to read journal " + journal.getFile(), e);
+		}
+	}
+
+	private static String readAdminPrefix() {
+		String prefix = System.getProperty(ADMIN_PREFIX_PROPERTY, "").trim();
+		while (prefix.endsWith("/")) {
+			prefix = prefix.substring(0, prefix.length() - 1);
+		}
+		return prefix.length() == 0 || prefix.startsWith("/") ? prefix : "/" + prefix;
+	}
+
+	private Map<String, AdminRoute> createAdminRoutes(final String prefix) {
+		final Map<String, AdminRoute> routes = new HashMap<String, AdminRoute>();
+		routes.put(prefix + CLEAR, new AdminRoute() {
+			@Override
+			public void handle(final SimulatorRequest simulatorRequest, final HttpServletResponse response) {
+				clearTests(response);
+			}
+		});
+		final AdminRoute wsSetup = new AdminRoute() {
+			@Override
+			public void handle(final SimulatorRequest simulatorRequest, final HttpServletResponse response) {
+				removeTest(simulatorRequest);
+				final String testId = wsSimulator.setupTest(simulatorRequest);
+				recordSetup(JournalEntry.WS, simulatorRequest, testId);
+				writeSetupResponse(response, testId);
+			}
+		};
+		routes.put(prefix + WS_SETUP, wsSetup);
+		routes.put(prefix + LEGACY_SETUP, wsSetup);
+		routes.put(prefix + SOCKET_SETUP, new AdminRoute() {
+			@Override
+			public void handle(final SimulatorRequest simulatorRequest, final HttpServletResponse response) {
+				removeTest(simulatorRequest);
+				final String testId = socketSimulator.setupTest(simulatorRequest);
+				recordSetup(JournalEntry.SOCKET, simulatorRequest, testId);
+				writeSetupResponse(response, testId);
+			}
+		});
+		routes.put(prefix + SOCKET_VERIFY, new AdminRoute() {
+			@Override
+			public void handle(final SimulatorRequest simulatorRequest, final HttpServletResponse response) throws IOException {
+				socketSimulator.verify(simulatorRequest, response);
+			}
+		});
+		routes.put(prefix + REST_SETUP, new AdminRoute() {
+			@Override
+			public void handle(final SimulatorRequest simulatorRequest, final HttpServletResponse response) {
+				removeTest(simulatorRequest);
+				final String testId = restSimulator.setupTest(simulatorRequest);
+				recordSetup(JournalEntry.REST, simulatorRequest, testId);
+				writeSetupResponse(response, testId);
+			}
+		});
+		routes.put(prefix + VERIFY, new AdminRoute() {
+			@Override
+			public void handle(final SimulatorRequest simulatorRequest, final HttpServletResponse response) {
+				verifyTest(simulatorRequest, response);
+			}
+		});
+		routes.put(prefix + BULK_IMPORT, new AdminRoute() {
+			@Override
+			public void handle(final SimulatorRequest simulatorRequest, final HttpServletResponse response) {
+				try {
+					final ImportResult result = stubImporter.importStream(simulatorRequest.getInputStream());
+					recordImported(result);
+					SimulatorUtils.writeTextResponse(response, result.toString());
+				} catch (final IOException e) {
+					LOG.warn("Failed to import tests", e);
+					SimulatorUtils.writeTextResponse(response, "Failed to import tests: " + e.getMessage());
+				}
+			}
+		});
+		routes.put(prefix + METRICS, new AdminRoute() {
+			@Override
+			public void handle(final SimulatorRequest simulatorRequest, final HttpServletResponse response) throws IOException {
+				writeMetrics(response);
+			}
+		});
+		return routes;
 	}
 
 	@Override
-	protected void doPost(final HttpServletRequest request, final HttpServletResponse response) throws ServletException, IOException {
+	public void destroy() {
+		if (stateStore != null) {
+			stateStore.close();
+		}
+		delayScheduler.shutdown();
+		accessLog.close();
+		socketSimulator.terminate();
+		metrics.unregisterMBeans();
+		if (journal != null) {
+			journal.close();
+		}
+		super.destroy();
+	}
+
+	public MetricsRegistry getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Returns the port of the socket simulator.
+	 */
+	public int getSocketPort() {
+		return socketSimulator.getPort();
+	}
+
+	@Override
+	protected void doPost(final HttpServletRequest request, final HttpServletResponse servletResponse) throws ServletException, IOException {
+		final long start = System.nanoTime();
+		final CountingResponseWrapper response = new CountingResponseWrapper(servletResponse);
 
-		final String requestURI = request.getRequestURI();
 		logRequest(request);
 
 		ensureCharsetIsSet(request);
 
 		final SimulatorRequest simulatorRequest = createSimulatorRequest(request);
 
-		final long t0 = System.currentTimeMillis();
-
-		if (contains(requestURI, CLEAR)) {
-			clearTests(response);
-		} else if (contains(requestURI, WS_SETUP)) {
-			removeTest(simulatorRequest);
-			final String testId = wsSimulator.setupTest(simulatorRequest);
-			writeSetupResponse(response, testId);
-		} else if (contains(requestURI, SOCKET_SETUP)) {
-			removeTest(simulatorRequest);
-			final String testId = socketSimulator.setupTest(simulatorRequest);
-			writeSetupResponse(response, testId);
-		} else if (contains(requestURI, SOCKET_VERIFY)) {
-			socketSimulator.verify(simulatorRequest, response);
-		} else if (contains(requestURI, LEGACY_SETUP)) {
-			removeTest(simulatorRequest);
-			final String testId = wsSimulator.setupTest(simulatorRequest);
-			writeSetupResponse(response, testId);
-		} else if (contains(requestURI, REST_SETUP)) {
-			removeTest(simulatorRequest);
-			final String testId = restSimulator.setupTest(simulatorRequest);
-			writeSetupResponse(response, testId);
-		} else if (contains(requestURI, VERIFY)) {
-			verifyTest(simulatorRequest, response);
-		} else if (request.getContentLength() > 0) {
-			if (isXmlRequest(request)) {
-				try {
-					final SimulatorResponse simulatorResponse = wsSimulator.executeTest(simulatorRequest);
-					writeSimulatorResponse(response, simulatorResponse);
-				} catch (final SimulatorException e) {
-					SimulatorUtils.writeTextResponse(response, e.getMessage());
-				}
+		final String path = getPath(request);
+		final AdminRoute adminRoute = adminRoutes.get(path);
+		if (adminRoute != null) {
+			adminRoute.handle(simulatorRequest, response);
+			logAccess(path, simulatorRequest.getParameter(SimulatorUtils.TEST_ID), -1, response, start);
+		} else {
+			final String route = request.getContentLength() > 0 && isXmlRequest(request) ? WS_ROUTE : REST_ROUTE;
+			// The body is kept in case the request has to be forwarded
+			final byte[] body = proxyRecorder.isEnabled() ? bufferBody(simulatorRequest) : null;
+			simulate(request, response, simulatorRequest, route, start, body);
+		}
+	}
+
+	private static byte[] bufferBody(final SimulatorRequest simulatorRequest) throws IOException {
+		final ByteArrayOutputStream body = new ByteArrayOutputStream();
+		final InputStream in = simulatorRequest.getInputStream();
+		if (in != null) {
+			final byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) >= 0) {
+				body.write(buffer, 0, read);
+			}
+		}
+		simulatorRequest.setInputStream(new ByteArrayInputStream(body.toByteArray()));
+		return body.toByteArray();
+	}
+
+	private void simulate(final HttpServletRequest request, final CountingResponseWrapper response, final SimulatorRequest simulatorRequest, final String route,
+			final long start, final byte[] body) {
+		final ProtocolMetrics protocolMetrics = WS_ROUTE.equals(route) ? wsMetrics : restMetrics;
+		protocolMetrics.requestStarted();
+		final long matchStart = System.nanoTime();
+		final SimulatorResponse simulatorResponse;
+		try {
+			if (WS_ROUTE.equals(route)) {
+				simulatorResponse = wsSimulator.prepareResponse(simulatorRequest);
 			} else {
-				try {
-					final SimulatorResponse simulatorResponse = restSimulator.executeTest(simulatorRequest);
-					writeSimulatorResponse(response, simulatorResponse);
-				} catch (final SimulatorException e) {
-					SimulatorUtils.writeTextResponse(response, e.getMessage());
+				simulatorResponse = restSimulator.prepareResponse(simulatorRequest);
+			}
+		} catch (final SimulatorException e) {
+			protocolMetrics.recordMiss(System.nanoTime() - matchStart);
+			if (proxyRecorder.isEnabled()) {
+				forwardAndRecord(request, response, simulatorRequest, route, body);
+			} else {
+				SimulatorUtils.writeTextResponse(response, e.getMessage());
+			}
+			responseWritten(route, null, -1, response, start);
+			return;
+		}
+		final long matchTime = System.nanoTime() - matchStart;
+		final Integer delay = simulatorResponse.getDelay();
+		protocolMetrics.recordMatch(simulatorResponse.getTestId(), matchTime);
+		protocolMetrics.recordDelay(simulatorResponse.getTestId(), delay != null && delay > 0 ? delay : 0);
+		writeSimulatorResponse(request, response, simulatorResponse, route, start, matchTime);
+	}
+
+	/**
+	 * Forwards an unmatched request to the upstream server, writes its
+	 * response and sets it up as a test.
+	 */
+	private void forwardAndRecord(final HttpServletRequest request, final HttpServletResponse response, final SimulatorRequest simulatorRequest, final String route,
+			final byte[] body) {
+		final String path = getPath(request);
+		String queryString = request.getQueryString();
+		byte[] forwardedBody = body;
+		final String charset = simulatorRequest.getCharset() != null ? simulatorRequest.getCharset() : SimulatorUtils.CHARSET;
+		try {
+			if (body.length == 0 && queryString == null && !simulatorRequest.getParameters().isEmpty()) {
+				// The container has already read a posted form into the
+				// parameters
+				forwardedBody = encodeParameters(simulatorRequest.getParameters(), charset).getBytes(charset);
+			}
+			final UpstreamResponse upstreamResponse = proxyRecorder.forward(request.getMethod(), path, queryString, getHeaders(request), forwardedBody);
+			writeUpstreamResponse(response, upstreamResponse);
+
+			final JournalEntry entry;
+			if (WS_ROUTE.equals(route)) {
+				entry = proxyRecorder.recordWS(new String(body, charset), upstreamResponse);
+			} else {
+				if (queryString == null && forwardedBody.length > 0) {
+					queryString = new String(forwardedBody, charset);
 				}
+				entry = proxyRecorder.recordRest(path, queryString, upstreamResponse);
+			}
+			if (entry != null) {
+				setupRecordedTest(entry);
+			}
+		} catch (final IOException e) {
+			LOG.warn("Failed to forward request to " + proxyRecorder.getUpstream(), e);
+			if (!response.isCommitted()) {
+				response.setStatus(HttpServletResponse.SC_BAD_GATEWAY);
+				SimulatorUtils.writeTextResponse(response, "Failed to forward request: " + e.getMessage());
 			}
+		}
+	}
+
+	private void setupRecordedTest(final JournalEntry entry) {
+		final String testId;
+		if (JournalEntry.WS.equals(entry.getType())) {
+			testId = wsSimulator.setupTest(entry.toSimulatorRequest());
 		} else {
+			testId = restSimulator.setupTest(entry.toSimulatorRequest());
+		}
+		if (testId != null && journal != null) {
 			try {
-				final SimulatorResponse simulatorResponse = restSimulator.executeTest(simulatorRequest);
-				writeSimulatorResponse(response, simulatorResponse);
-			} catch (final SimulatorException e) {
-				SimulatorUtils.writeTextResponse(response, e.getMessage());
+				journal.append(entry);
+			} catch (final IOException e) {
+				LOG.warn("Failed to append test to journal " + journal.getFile(), e);
+			}
+		}
+		recordSetup(entry.getType(), entry.toSimulatorRequest(), testId);
+	}
+
+	private static void writeUpstreamResponse(final HttpServletResponse response, final UpstreamResponse upstreamResponse) throws IOException {
+		response.setStatus(upstreamResponse.getStatus());
+		for (final Map.Entry<String, List<String>> header : upstreamResponse.getHeaders().entrySet()) {
+			for (final String value : header.getValue()) {
+				response.addHeader(header.getKey(), value);
+			}
+		}
+		response.getOutputStream().write(upstreamResponse.getBody());
+	}
+
+	private static Map<String, List<String>> getHeaders(final HttpServletRequest request) {
+		final Map<String, List<String>> headers = new LinkedHashMap<String, List<String>>();
+		final Enumeration<String> names = request.getHeaderNames();
+		while (names != null && names.hasMoreElements()) {
+			final String name = names.nextElement();
+			headers.put(name, Collections.list(request.getHeaders(name)));
+		}
+		return headers;
+	}
+
+	private static String encodeParameters(final Map<String, String[]> parameters, final String charset) throws UnsupportedEncodingException {
+		final StringBuilder sb = new StringBuilder();
+		for (final Map.Entry<String, String[]> parameter : parameters.entrySet()) {
+			for (final String value : parameter.getValue()) {
+				if (sb.length() > 0) {
+					sb.append('&');
+				}
+				sb.append(URLEncoder.encode(parameter.getKey(), charset)).append('=').append(URLEncoder.encode(value, charset));
 			}
 		}
+		return sb.toString();
+	}
 
-		final long t1 = System.currentTimeMillis();
+	/**
+	 * Records a simulated response in the metrics and the access log once it
+	 * has been written.
+	 */
+	private void responseWritten(final String route, final String testId, final long matchTime, final CountingResponseWrapper response, final long start) {
+		final ProtocolMetrics protocolMetrics = WS_ROUTE.equals(route) ? wsMetrics : restMetrics;
+		protocolMetrics.recordResponseBytes(testId, response.getCount());
+		protocolMetrics.requestFinished();
+		logAccess(route, testId, matchTime, response, start);
+	}
 
-		LOG.info("Time to handle call to simulator: " + (t1 - t0) + " ms");
+	/**
+	 * Records a written response in the access log, if it is enabled.
+	 */
+	private void logAccess(final String route, final String testId, final long matchTime, final CountingResponseWrapper response, final long start) {
+		if (accessLog.isEnabled()) {
+			accessLog.record(route, testId, matchTime, response.getCount(), System.nanoTime() - start);
+		}
 	}
 
 	private void logRequest(final HttpServletRequest request) {
@@ -127,7 +578,13 @@ public class SimulatorServlet extends HttpServlet {
 		simulatorRequest.setQueryString(request.getQueryString());
 		simulatorRequest.setPath(request.getRequestURI());
 
-		// DEBUG OUTPUT
+		if (LOG.isDebugEnabled()) {
+			logParameters(simulatorRequest);
+		}
+		return simulatorRequest;
+	}
+
+	private void logParameters(final SimulatorRequest simulatorRequest) {
 		for (final Map.Entry<String, String[]> entry : simulatorRequest.getParameters().entrySet()) {
 			final String key = entry.getKey();
 			final String[] values = entry.getValue();
@@ -144,7 +601,6 @@ public class SimulatorServlet extends HttpServlet {
 		if (simulatorRequest.getParameters().size() == 0) {
 			LOG.debug("createSimulatorRequest. No parameters found.");
 		}
-		return simulatorRequest;
 	}
 
 	private void ensureCharsetIsSet(final HttpServletRequest request) {
@@ -171,22 +627,60 @@ public class SimulatorServlet extends HttpServlet {
 		}
 	}
 
-	private void writeSimulatorResponse(final HttpServletResponse response, final SimulatorResponse simulatorResponse) {
-		final Document document = simulatorResponse.getDocument();
-		final String text = simulatorResponse.getText();
-		if (document != null) {
-			final Map<String, String> headers = simulatorResponse.getHeaders();
-			if (headers != null) {
-				for (final Entry<String, String> entry : headers.entrySet()) {
-					LOG.info("Writing response header: {}={}", entry.getKey(), entry.getValue());
-					try {
-						response.setHeader(entry.getKey(), entry.getValue());
-					} catch (final Exception e) {
-						LOG.warn("Failed to write response header", e);
+	/**
+	 * Writes the response once its delay has passed. Delayed responses are
+	 * written asynchronously when the container supports it, so that no
+	 * request thread is held while waiting.
+	 */
+	private void writeSimulatorResponse(final HttpServletRequest request, final CountingResponseWrapper response, final SimulatorResponse simulatorResponse,
+			final String route, final long start, final long matchTime) {
+		final Integer delay = simulatorResponse.getDelay();
+		if (delay == null || delay <= 0) {
+			writeSimulatorResponse(response, simulatorResponse);
+			responseWritten(route, simulatorResponse.getTestId(), matchTime, response, start);
+		} else if (!request.isAsyncSupported()) {
+			SimulatorUtils.delay(delay);
+			writeSimulatorResponse(response, simulatorResponse);
+			responseWritten(route, simulatorResponse.getTestId(), matchTime, response, start);
+		} else {
+			final AsyncContext asyncContext = request.startAsync(request, response);
+			asyncContext.setTimeout(delay + ASYNC_TIMEOUT_MARGIN);
+			try {
+				delayScheduler.schedule(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							writeSimulatorResponse(response, simulatorResponse);
+						} finally {
+							responseWritten(route, simulatorResponse.getTestId(), matchTime, response, start);
+							asyncContext.complete();
+						}
 					}
+				}, delay);
+			} catch (final RejectedExecutionException e) {
+				// The servlet is being destroyed, so the request is completed
+				// at once instead of waiting for the asynchronous timeout
+				LOG.warn("Failed to schedule delayed response of test {}", simulatorResponse.getTestId());
+				try {
+					response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+					SimulatorUtils.writeTextResponse(response, "The simulator is shutting down");
+				} finally {
+					responseWritten(route, simulatorResponse.getTestId(), matchTime, response, start);
+					asyncContext.complete();
 				}
 			}
-			SimulatorUtils.writeXmlResponse(response, document);
+		}
+	}
+
+	private void writeSimulatorResponse(final HttpServletResponse response, final SimulatorResponse simulatorResponse) {
+		final ResponseTemplate template = simulatorResponse.getTemplate();
+		final String text = simulatorResponse.getText();
+		if (template != null) {
+			writeXmlResponseHeaders(response, simulatorResponse);
+			SimulatorUtils.writeXmlResponse(response, template, simulatorResponse.getBackReferenceValues());
+		} else if (simulatorResponse.getDocument() != null) {
+			writeXmlResponseHeaders(response, simulatorResponse);
+			SimulatorUtils.writeXmlResponse(response, simulatorResponse.getDocument());
 		} else if (text != null) {
 			final Map<String, String> headers = simulatorResponse.getHeaders();
 			if (headers != null) {
@@ -201,6 +695,28 @@ public class SimulatorServlet extends HttpServlet {
 
 	}
 
+	private void writeXmlResponseHeaders(final HttpServletResponse response, final SimulatorResponse simulatorResponse) {
+		final Map<String, String> headers = simulatorResponse.getHeaders();
+		if (headers != null) {
+			for (final Entry<String, String> entry : headers.entrySet()) {
+				LOG.debug("Writing response header: {}={}", entry.getKey(), entry.getValue());
+				try {
+					response.setHeader(entry.getKey(), entry.getValue());
+				} catch (final Exception e) {
+					LOG.warn("Failed to write response header", e);
+				}
+			}
+		}
+	}
+
+	private void writeMetrics(final HttpServletResponse response) throws IOException {
+		final StringWriter out = new StringWriter();
+		metrics.write(out);
+		response.setContentType(MetricsRegistry.CONTENT_TYPE);
+		response.setCharacterEncoding(SimulatorUtils.CHARSET);
+		response.getOutputStream().write(out.toString().getBytes(SimulatorUtils.CHARSET));
+	}
+
 	private void writeSetupResponse(final HttpServletResponse response, final String testId) {
 		if (testId != null) {
 			SimulatorUtils.writeTextResponse(response, "Testdata added: testId=" + testId);
@@ -213,6 +729,15 @@ public class SimulatorServlet extends HttpServlet {
 		int numberOfRemovedTests = 0;
 		numberOfRemovedTests += wsSimulator.clearTests();
 		numberOfRemovedTests += restSimulator.clearTests();
+		wsMetrics.clearStubs();
+		restMetrics.clearStubs();
+		if (stateStore != null) {
+			try {
+				stateStore.clear();
+			} catch (final IOException e) {
+				LOG.warn("Failed to record clearing of tests in " + stateStore.getDirectory(), e);
+			}
+		}
 		SimulatorUtils.writeTextResponse(response, "Testdata cleared: number of entries removed=" + numberOfRemovedTests);
 	}
 
@@ -234,6 +759,8 @@ public class SimulatorServlet extends HttpServlet {
 		wsSimulator.removeTest(testId);
 		restSimulator.removeTest(testId);
 		socketSimulator.removeTest(testId);
+		wsMetrics.removeStub(testId);
+		restMetrics.removeStub(testId);
 	}
 
 	private boolean isXmlRequest(final HttpServletRequest request) {
@@ -246,7 +773,19 @@ public class SimulatorServlet extends HttpServlet {
 		doPost(request, response);
 	}
 
-	private boolean contains(final String string, final String fragment) {
-		return string != null && string.contains(fragment);
+	/**
+	 * Returns the path of the request within the web application.
+	 */
+	private static String getPath(final HttpServletRequest request) {
+		final String requestURI = request.getRequestURI();
+		final String contextPath = request.getContextPath();
+		if (requestURI != null && contextPath != null && requestURI.startsWith(contextPath)) {
+			return requestURI.substring(contextPath.length());
+		}
+		return requestURI;
+	}
+
+	private interface AdminRoute {
+		void handle(SimulatorRequest simulatorRequest, HttpServletResponse response) throws IOException;
 	}
 }
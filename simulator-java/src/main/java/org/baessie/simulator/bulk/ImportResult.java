@@ -0,0 +1,55 @@
+package org.baessie.simulator.bulk;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.baessie.simulator.journal.JournalEntry;
+
+/**
+ * Outcome of a bulk import: the number of tests set up, and why each of the
+ * others failed.
+ */
+public class ImportResult {
+
+	private final List<JournalEntry> imported = new ArrayList<JournalEntry>();
+	private final List<String> errors = new ArrayList<String>();
+
+	void addImported(final JournalEntry entry) {
+		imported.add(entry);
+	}
+
+	void addError(final String source, final String message) {
+		errors.add(source + ": " + message);
+	}
+
+	public int getImported() {
+		return imported.size();
+	}
+
+	/**
+	 * Returns the tests that were set up, in the order they were read within
+	 * each type.
+	 */
+	public List<JournalEntry> getImportedEntries() {
+		return Collections.unmodifiableList(imported);
+	}
+
+	/**
+	 * Returns a description of every test that failed, starting with where it
+	 * was found.
+	 */
+	public List<String> getErrors() {
+		return Collections.unmodifiableList(errors);
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder();
+		sb.append("Testdata imported: number of entries added=").append(imported.size()).append(", failed=").append(errors.size());
+		for (final String error : errors) {
+			sb.append('\n').append(error);
+		}
+		return sb.toString();
+	}
+}
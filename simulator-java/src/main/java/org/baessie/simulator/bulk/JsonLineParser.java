@@ -0,0 +1,186 @@
+package org.baessie.simulator.bulk;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parser of the flat JSON objects of a bulk import. Each member of an object
+ * is a string, number, boolean or null, or an array of those, which is all a
+ * setup request needs. Numbers and booleans are kept as they are written, and
+ * null members are left out.
+ */
+public final class JsonLineParser {
+
+	private final String text;
+	private int pos;
+
+	private JsonLineParser(final String text) {
+		this.text = text;
+	}
+
+	/**
+	 * Returns the values of the members of the object, by name.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the text is not a flat JSON object
+	 */
+	public static Map<String, String[]> parse(final String text) {
+		final JsonLineParser parser = new JsonLineParser(text);
+		final Map<String, String[]> members = parser.readObject();
+		parser.skipWhitespace();
+		if (parser.pos < text.length()) {
+			throw parser.error("Unexpected text after object");
+		}
+		return members;
+	}
+
+	private Map<String, String[]> readObject() {
+		expect('{');
+		final Map<String, String[]> members = new LinkedHashMap<String, String[]>();
+		if (peek() == '}') {
+			pos++;
+			return members;
+		}
+		while (true) {
+			final String name = readString();
+			expect(':');
+			final String[] values = peek() == '[' ? readArray() : toArray(readValue());
+			if (values != null) {
+				members.put(name, values);
+			}
+			if (peek() == ',') {
+				pos++;
+			} else {
+				expect('}');
+				return members;
+			}
+		}
+	}
+
+	private String[] readArray() {
+		expect('[');
+		final List<String> values = new ArrayList<String>();
+		if (peek() == ']') {
+			pos++;
+		} else {
+			while (true) {
+				final String value = readValue();
+				if (value != null) {
+					values.add(value);
+				}
+				if (peek() == ',') {
+					pos++;
+				} else {
+					expect(']');
+					break;
+				}
+			}
+		}
+		return values.toArray(new String[values.size()]);
+	}
+
+	private static String[] toArray(final String value) {
+		return value != null ? new String[] { value } : null;
+	}
+
+	private String readValue() {
+		final char c = peek();
+		if (c == '"') {
+			return readString();
+		}
+		if (c == '{' || c == '[') {
+			throw error("Nested objects and arrays are not supported");
+		}
+		final int start = pos;
+		while (pos < text.length() && ",}] \t\r\n".indexOf(text.charAt(pos)) < 0) {
+			pos++;
+		}
+		final String literal = text.substring(start, pos);
+		if ("null".equals(literal)) {
+			return null;
+		}
+		if (!"true".equals(literal) && !"false".equals(literal) && !literal.matches("-?\\d+(\\.\\d+)?([eE][+-]?\\d+)?")) {
+			throw error("Unexpected value '" + literal + "'");
+		}
+		return literal;
+	}
+
+	private String readString() {
+		expect('"');
+		final StringBuilder sb = new StringBuilder();
+		while (true) {
+			if (pos >= text.length()) {
+				throw error("Unterminated string");
+			}
+			final char c = text.charAt(pos++);
+			if (c == '"') {
+				return sb.toString();
+			}
+			if (c != '\\') {
+				sb.append(c);
+				continue;
+			}
+			if (pos >= text.length()) {
+				throw error("Unterminated string");
+			}
+			final char escaped = text.charAt(pos++);
+			switch (escaped) {
+			case 'b':
+				sb.append('\b');
+				break;
+			case 'f':
+				sb.append('\f');
+				break;
+			case 'n':
+				sb.append('\n');
+				break;
+			case 'r':
+				sb.append('\r');
+				break;
+			case 't':
+				sb.append('\t');
+				break;
+			case 'u':
+				if (pos + 4 > text.length()) {
+					throw error("Incomplete unicode escape");
+				}
+				try {
+					sb.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+				} catch (final NumberFormatException e) {
+					throw error("Invalid unicode escape");
+				}
+				pos += 4;
+				break;
+			default:
+				sb.append(escaped);
+			}
+		}
+	}
+
+	private char peek() {
+		skipWhitespace();
+		if (pos >= text.length()) {
+			throw error("Unexpected end of text");
+		}
+		return text.charAt(pos);
+	}
+
+	private void expect(final char c) {
+		if (peek() != c) {
+			throw error("Expected '" + c + "'");
+		}
+		pos++;
+	}
+
+	private void skipWhitespace() {
+		while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+			pos++;
+		}
+	}
+
+	private IllegalArgumentException error(final String message) {
+		return new IllegalArgumentException(message + " at position " + pos);
+	}
+}
@@ -0,0 +1,345 @@
+package org.baessie.simulator.bulk;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.baessie.simulator.SimulatorRequest;
+import org.baessie.simulator.journal.JournalEntry;
+import org.baessie.simulator.rest.RestSimulator;
+import org.baessie.simulator.rest.RestTestData;
+import org.baessie.simulator.socket.SocketSimulator;
+import org.baessie.simulator.util.SimulatorUtils;
+import org.baessie.simulator.ws.WSSimulator;
+import org.baessie.simulator.ws.WSTestData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sets up tests in bulk. Tests are read either as JSON lines or from a zip
+ * bundle, and are compiled on a pool of threads while the rest of the input is
+ * being read. The WS and REST tests of a batch are then added to their
+ * simulators in one snapshot each, replacing tests with the same test ids,
+ * so each index is rebuilt once per batch instead of once per test.
+ *
+ * Every JSON line is an object with the <code>type</code> of the test (ws,
+ * rest or socket) and the parameters of its setup request. A zip bundle holds
+ * JSON line files, ending with .ndjson or .jsonl, and WS tests as pairs of
+ * <code>&lt;testId&gt;.request.xml</code> and
+ * <code>&lt;testId&gt;.response.xml</code> files.
+ *
+ * A test that cannot be read or set up is reported in the result without
+ * stopping the import of the others.
+ */
+public class StubImporter {
+
+	public static final String DIRECTORY_PROPERTY = "baessie.bulk.dir";
+	public static final String TYPE = "type";
+
+	private static final String REQUEST_SUFFIX = ".request.xml";
+	private static final String RESPONSE_SUFFIX = ".response.xml";
+	private static final byte[] ZIP_MAGIC = { 'P', 'K', 3, 4 };
+	private static final String CHARSET = "UTF-8";
+
+	private static final Logger LOG = LoggerFactory.getLogger(StubImporter.class);
+
+	private final WSSimulator wsSimulator;
+	private final RestSimulator restSimulator;
+	private final SocketSimulator socketSimulator;
+	private final int threads;
+
+	public StubImporter(final WSSimulator wsSimulator, final RestSimulator restSimulator, final SocketSimulator socketSimulator) {
+		this(wsSimulator, restSimulator, socketSimulator, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param socketSimulator
+	 *            the simulator for socket tests, or null if they should be
+	 *            reported as failed
+	 * @param threads
+	 *            the number of threads compiling tests
+	 */
+	public StubImporter(final WSSimulator wsSimulator, final RestSimulator restSimulator, final SocketSimulator socketSimulator, final int threads) {
+		this.wsSimulator = wsSimulator;
+		this.restSimulator = restSimulator;
+		this.socketSimulator = socketSimulator;
+		this.threads = threads;
+	}
+
+	/**
+	 * Imports the tests of a stream of JSON lines or a zip bundle, which are
+	 * told apart by their first bytes.
+	 */
+	public ImportResult importStream(final InputStream in) throws IOException {
+		final Batch batch = new Batch();
+		try {
+			read(in, "", batch);
+			return batch.publish();
+		} finally {
+			batch.shutdown();
+		}
+	}
+
+	/**
+	 * Imports the tests of all .ndjson, .jsonl and .zip files in the
+	 * directory, in the order of their names, as one batch.
+	 */
+	public ImportResult importDirectory(final File directory) throws IOException {
+		final File[] files = directory.listFiles();
+		if (files == null) {
+			throw new IOException("Not a directory: " + directory);
+		}
+		Arrays.sort(files);
+		final Batch batch = new Batch();
+		try {
+			for (final File file : files) {
+				final String name = file.getName();
+				if (file.isFile() && (isJsonLines(name) || name.endsWith(".zip"))) {
+					LOG.info("Importing tests from {}", file);
+					final InputStream in = new FileInputStream(file);
+					try {
+						read(in, name + ":", batch);
+					} finally {
+						in.close();
+					}
+				}
+			}
+			return batch.publish();
+		} finally {
+			batch.shutdown();
+		}
+	}
+
+	/**
+	 * Imports the given tests as one batch. The source is reported with the
+	 * test id of each test that fails.
+	 */
+	public ImportResult importEntries(final List<JournalEntry> entries, final String source) throws IOException {
+		final Batch batch = new Batch();
+		try {
+			for (final JournalEntry entry : entries) {
+				batch.submit(source + ":" + entry.getParameter(SimulatorUtils.TEST_ID), entry);
+			}
+			return batch.publish();
+		} finally {
+			batch.shutdown();
+		}
+	}
+
+	private static boolean isJsonLines(final String name) {
+		return name.endsWith(".ndjson") || name.endsWith(".jsonl");
+	}
+
+	private void read(final InputStream in, final String source, final Batch batch) throws IOException {
+		final BufferedInputStream buffered = new BufferedInputStream(in);
+		buffered.mark(ZIP_MAGIC.length);
+		final byte[] magic = new byte[ZIP_MAGIC.length];
+		int length = 0;
+		int read;
+		while (length < magic.length && (read = buffered.read(magic, length, magic.length - length)) >= 0) {
+			length += read;
+		}
+		buffered.reset();
+		if (Arrays.equals(magic, ZIP_MAGIC)) {
+			readZip(new ZipInputStream(buffered), source, batch);
+		} else {
+			readLines(new BufferedReader(new InputStreamReader(buffered, CHARSET)), source, batch);
+		}
+	}
+
+	private void readLines(final BufferedReader reader, final String source, final Batch batch) throws IOException {
+		String line;
+		int lineNumber = 0;
+		while ((line = reader.readLine()) != null) {
+			lineNumber++;
+			if (line.trim().length() == 0) {
+				continue;
+			}
+			final String lineSource = source + "line " + lineNumber;
+			try {
+				final Map<String, String[]> parameters = JsonLineParser.parse(line);
+				final String[] type = parameters.remove(TYPE);
+				if (type == null || type.length != 1) {
+					batch.fail(lineSource, "Missing " + TYPE);
+				} else {
+					batch.submit(lineSource, new JournalEntry(type[0], parameters));
+				}
+			} catch (final IllegalArgumentException e) {
+				batch.fail(lineSource, e.getMessage());
+			}
+		}
+	}
+
+	private void readZip(final ZipInputStream zip, final String source, final Batch batch) throws IOException {
+		// WS tests waiting for the other file of their pair
+		final Map<String, JournalEntry> pending = new LinkedHashMap<String, JournalEntry>();
+		ZipEntry zipEntry;
+		while ((zipEntry = zip.getNextEntry()) != null) {
+			final String name = zipEntry.getName();
+			if (zipEntry.isDirectory()) {
+				continue;
+			} else if (isJsonLines(name)) {
+				// Not closed, since that would close the zip
+				readLines(new BufferedReader(new InputStreamReader(zip, CHARSET)), source + name + ":", batch);
+			} else if (name.endsWith(REQUEST_SUFFIX) || name.endsWith(RESPONSE_SUFFIX)) {
+				final boolean isRequest = name.endsWith(REQUEST_SUFFIX);
+				final String testId = name.substring(0, name.length() - (isRequest ? REQUEST_SUFFIX : RESPONSE_SUFFIX).length());
+				JournalEntry entry = pending.remove(testId);
+				if (entry == null) {
+					entry = new JournalEntry(JournalEntry.WS).addParameter(SimulatorUtils.TEST_ID, testId);
+				}
+				entry.addParameter(isRequest ? WSSimulator.IN_DATA : WSSimulator.OUT_DATA, readText(zip));
+				if (entry.getParameter(WSSimulator.IN_DATA) != null && entry.getParameter(WSSimulator.OUT_DATA) != null) {
+					batch.submit(source + testId, entry);
+				} else {
+					pending.put(testId, entry);
+				}
+			} else {
+				LOG.debug("Skipping {} in bulk import", name);
+			}
+		}
+		for (final Map.Entry<String, JournalEntry> entry : pending.entrySet()) {
+			final boolean hasRequest = entry.getValue().getParameter(WSSimulator.IN_DATA) != null;
+			batch.fail(source + entry.getKey(), "Missing " + entry.getKey() + (hasRequest ? RESPONSE_SUFFIX : REQUEST_SUFFIX));
+		}
+	}
+
+	private static String readText(final InputStream in) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[8192];
+		int read;
+		while ((read = in.read(buffer)) >= 0) {
+			out.write(buffer, 0, read);
+		}
+		return out.toString(CHARSET);
+	}
+
+	/**
+	 * Compiles a test, or only checks its type if it is set up when the batch
+	 * is published.
+	 */
+	private Object compile(final JournalEntry entry) throws Exception {
+		final String type = entry.getType();
+		if (JournalEntry.WS.equals(type)) {
+			return wsSimulator.createTest(entry.toSimulatorRequest());
+		} else if (JournalEntry.REST.equals(type)) {
+			return restSimulator.createTest(entry.toSimulatorRequest());
+		} else if (JournalEntry.SOCKET.equals(type) && socketSimulator != null) {
+			return entry.toSimulatorRequest();
+		}
+		throw new IllegalArgumentException("Unknown test type: " + type);
+	}
+
+	private static String describe(final Throwable e) {
+		return e.getMessage() != null ? e.getMessage() : e.getClass().getName();
+	}
+
+	/**
+	 * Tests of one import, in the order they were read.
+	 */
+	private class Batch {
+		private final ExecutorService executor;
+		private final List<String> sources = new ArrayList<String>();
+		private final List<JournalEntry> entries = new ArrayList<JournalEntry>();
+		private final List<Future<Object>> compiled = new ArrayList<Future<Object>>();
+		private final ImportResult result = new ImportResult();
+
+		Batch() {
+			final AtomicInteger count = new AtomicInteger();
+			executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+				@Override
+				public Thread newThread(final Runnable runnable) {
+					final Thread thread = new Thread(runnable, "StubImporter-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+
+		void submit(final String source, final JournalEntry entry) {
+			sources.add(source);
+			entries.add(entry);
+			compiled.add(executor.submit(new Callable<Object>() {
+				@Override
+				public Object call() throws Exception {
+					return compile(entry);
+				}
+			}));
+		}
+
+		void fail(final String source, final String message) {
+			result.addError(source, message);
+		}
+
+		ImportResult publish() throws IOException {
+			final List<WSTestData> wsTests = new ArrayList<WSTestData>();
+			final List<RestTestData> restTests = new ArrayList<RestTestData>();
+			final List<JournalEntry> compiledEntries = new ArrayList<JournalEntry>();
+			final List<SimulatorRequest> socketRequests = new ArrayList<SimulatorRequest>();
+			final List<Integer> socketIndexes = new ArrayList<Integer>();
+			for (int i = 0; i < compiled.size(); i++) {
+				try {
+					final Object test = compiled.get(i).get();
+					if (test instanceof WSTestData) {
+						wsTests.add((WSTestData) test);
+						compiledEntries.add(entries.get(i));
+					} else if (test instanceof RestTestData) {
+						restTests.add((RestTestData) test);
+						compiledEntries.add(entries.get(i));
+					} else {
+						socketRequests.add((SimulatorRequest) test);
+						socketIndexes.add(i);
+					}
+				} catch (final ExecutionException e) {
+					result.addError(sources.get(i), describe(e.getCause()));
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while compiling tests");
+				}
+			}
+			if (!wsTests.isEmpty()) {
+				wsSimulator.addTests(wsTests);
+			}
+			if (!restTests.isEmpty()) {
+				restSimulator.addTests(restTests);
+			}
+			for (final JournalEntry entry : compiledEntries) {
+				result.addImported(entry);
+			}
+			for (int i = 0; i < socketRequests.size(); i++) {
+				final int index = socketIndexes.get(i);
+				try {
+					socketSimulator.setupTest(socketRequests.get(i));
+					result.addImported(entries.get(index));
+				} catch (final RuntimeException e) {
+					result.addError(sources.get(index), describe(e));
+				}
+			}
+			return result;
+		}
+
+		void shutdown() {
+			executor.shutdownNow();
+		}
+	}
+}
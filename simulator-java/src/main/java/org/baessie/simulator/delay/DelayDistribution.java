@@ -0,0 +1,15 @@
+package org.baessie.simulator.delay;
+
+/**
+ * The delays of the responses of a test. Implementations are safe for
+ * concurrent use and do all expensive work when they are created, so drawing
+ * a delay is cheap.
+ */
+public interface DelayDistribution {
+
+	/**
+	 * Draws the delay of the next response, in milliseconds. Never negative.
+	 */
+	int nextDelay();
+
+}
@@ -0,0 +1,106 @@
+package org.baessie.simulator.delay;
+
+import java.io.IOException;
+
+import org.baessie.simulator.SimulatorRequest;
+
+/**
+ * Creates delay distributions from their textual configuration, in
+ * milliseconds:
+ * <ul>
+ * <li><code>fixed:100</code> - always the same delay</li>
+ * <li><code>uniform:50,150</code> - uniformly distributed between a minimum
+ * and a maximum</li>
+ * <li><code>normal:100,20</code> - normally distributed with a mean and a
+ * standard deviation</li>
+ * <li><code>lognormal:100,0.5</code> - log-normally distributed with a median
+ * and the standard deviation of the logarithm</li>
+ * <li><code>pareto:50,1.5</code> - Pareto distributed with a scale, which is
+ * the minimum delay, and a shape</li>
+ * <li><code>hdr:/path/to/latency.hgrm</code> - a recorded distribution, see
+ * {@link EmpiricalDelay}</li>
+ * </ul>
+ * Random distributions draw the same sequence of delays every time they are
+ * given the same seed.
+ */
+public final class DelayDistributions {
+
+	public static final String DELAY = "delay";
+	public static final String DELAY_DISTRIBUTION = "delayDistribution";
+	public static final String DELAY_SEED = "delaySeed";
+
+	/**
+	 * No delay.
+	 */
+	public static final DelayDistribution NONE = new FixedDelay(0);
+
+	private DelayDistributions() {
+
+	}
+
+	/**
+	 * Creates the delay distribution of a test from the parameters
+	 * {@value #DELAY_DISTRIBUTION} and {@value #DELAY_SEED}, or from the fixed
+	 * delay in the parameter {@value #DELAY} if there is no distribution.
+	 */
+	public static DelayDistribution fromRequest(final SimulatorRequest request) throws IOException {
+		final String distribution = request.getParameter(DELAY_DISTRIBUTION);
+		if (distribution != null && distribution.trim().length() > 0) {
+			final String seed = request.getParameter(DELAY_SEED);
+			return fromString(distribution, seed == null || seed.trim().length() == 0 ? null : Long.valueOf(seed.trim()));
+		}
+		final Integer delay = request.getIntegerParameter(DELAY);
+		return delay == null ? NONE : new FixedDelay(delay);
+	}
+
+	/**
+	 * @param seed
+	 *            the seed of random distributions, or null for a different
+	 *            sequence of delays every time
+	 */
+	public static DelayDistribution fromString(final String str, final Long seed) throws IOException {
+		if (str == null || str.trim().length() == 0) {
+			return NONE;
+		}
+		final String spec = str.trim();
+		final int colon = spec.indexOf(':');
+		if (colon < 0) {
+			throw new IllegalArgumentException("Unknown delay distribution: " + str);
+		}
+		final String type = spec.substring(0, colon);
+		final String argument = spec.substring(colon + 1).trim();
+		final SplitMix64 random = seed == null ? new SplitMix64() : new SplitMix64(seed);
+		if ("hdr".equals(type)) {
+			return EmpiricalDelay.read(argument, random);
+		}
+		final String[] arguments = argument.split(",");
+		if ("fixed".equals(type) && arguments.length == 1) {
+			return new FixedDelay(Integer.parseInt(arguments[0].trim()));
+		} else if (arguments.length == 2) {
+			final double first = Double.parseDouble(arguments[0].trim());
+			final double second = Double.parseDouble(arguments[1].trim());
+			if ("uniform".equals(type)) {
+				return new UniformDelay(first, second, random);
+			} else if ("normal".equals(type)) {
+				return new NormalDelay(first, second, random);
+			} else if ("lognormal".equals(type)) {
+				return new LogNormalDelay(first, second, random);
+			} else if ("pareto".equals(type)) {
+				return new ParetoDelay(first, second, random);
+			}
+		}
+		throw new IllegalArgumentException("Unknown delay distribution: " + str);
+	}
+
+	/**
+	 * Rounds a drawn delay to whole milliseconds, with negative delays as no
+	 * delay and very long delays capped.
+	 */
+	static int toDelay(final double delay) {
+		if (delay <= 0 || Double.isNaN(delay)) {
+			return 0;
+		}
+		return delay >= Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) Math.round(delay);
+	}
+
+}
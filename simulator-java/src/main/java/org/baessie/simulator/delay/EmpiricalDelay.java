@@ -0,0 +1,96 @@
+package org.baessie.simulator.delay;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Delays drawn from a recorded latency distribution, read from the percentile
+ * distribution that HdrHistogram writes with
+ * <code>outputPercentileDistribution</code> (a <code>.hgrm</code> file). The
+ * values of the file are taken as milliseconds. The distribution is turned
+ * into a table of evenly spaced quantiles when it is read, so drawing a delay
+ * is a table lookup.
+ */
+public class EmpiricalDelay implements DelayDistribution {
+
+	private static final int QUANTILES = 4096;
+
+	private final double[] quantiles;
+	private final SplitMix64 random;
+
+	public EmpiricalDelay(final double[] values, final double[] percentiles, final SplitMix64 random) {
+		if (values.length == 0 || values.length != percentiles.length) {
+			throw new IllegalArgumentException("Empty latency distribution");
+		}
+		quantiles = new double[QUANTILES + 1];
+		int point = 0;
+		for (int i = 0; i <= QUANTILES; i++) {
+			final double percentile = (double) i / QUANTILES;
+			while (point < percentiles.length - 1 && percentiles[point] < percentile) {
+				point++;
+			}
+			if (point == 0 || percentiles[point] < percentile) {
+				quantiles[i] = values[point];
+			} else {
+				final double low = percentiles[point - 1];
+				final double span = percentiles[point] - low;
+				final double fraction = span > 0 ? (percentile - low) / span : 1;
+				quantiles[i] = values[point - 1] + fraction * (values[point] - values[point - 1]);
+			}
+		}
+		this.random = random;
+	}
+
+	public static EmpiricalDelay read(final String fileName, final SplitMix64 random) throws IOException {
+		final Reader reader = new InputStreamReader(new FileInputStream(fileName), "UTF-8");
+		try {
+			return read(reader, random);
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Reads the rows of a percentile distribution, which start with a value
+	 * and the percentile, as a fraction, of the values at or below it. Blank
+	 * lines, comments, the header and the summary lines are skipped.
+	 */
+	public static EmpiricalDelay read(final Reader reader, final SplitMix64 random) throws IOException {
+		final BufferedReader in = new BufferedReader(reader);
+		final List<double[]> rows = new ArrayList<double[]>();
+		String line;
+		while ((line = in.readLine()) != null) {
+			final String[] columns = line.trim().split("\\s+");
+			if (columns.length < 2 || line.trim().startsWith("#") || !Character.isDigit(columns[0].charAt(0))) {
+				continue;
+			}
+			final double value = Double.parseDouble(columns[0]);
+			final double percentile = Double.parseDouble(columns[1]);
+			if (!rows.isEmpty() && (percentile < rows.get(rows.size() - 1)[1] || value < rows.get(rows.size() - 1)[0])) {
+				throw new IOException("Latency distribution is not sorted: " + line);
+			}
+			rows.add(new double[] { value, percentile });
+		}
+		final double[] values = new double[rows.size()];
+		final double[] percentiles = new double[rows.size()];
+		for (int i = 0; i < rows.size(); i++) {
+			values[i] = rows.get(i)[0];
+			percentiles[i] = rows.get(i)[1];
+		}
+		return new EmpiricalDelay(values, percentiles, random);
+	}
+
+	@Override
+	public int nextDelay() {
+		final double position = random.nextDouble() * QUANTILES;
+		final int index = (int) position;
+		final double fraction = position - index;
+		return DelayDistributions.toDelay(quantiles[index] + fraction * (quantiles[index + 1] - quantiles[index]));
+	}
+
+}
@@ -0,0 +1,19 @@
+package org.baessie.simulator.delay;
+
+/**
+ * The same delay for every response.
+ */
+public class FixedDelay implements DelayDistribution {
+
+	private final int delay;
+
+	public FixedDelay(final int delay) {
+		this.delay = Math.max(0, delay);
+	}
+
+	@Override
+	public int nextDelay() {
+		return delay;
+	}
+
+}
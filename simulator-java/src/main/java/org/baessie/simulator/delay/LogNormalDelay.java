@@ -0,0 +1,27 @@
+package org.baessie.simulator.delay;
+
+/**
+ * Log-normally distributed delays, given by their median and the standard
+ * deviation of their logarithm.
+ */
+public class LogNormalDelay implements DelayDistribution {
+
+	private final double mu;
+	private final double sigma;
+	private final SplitMix64 random;
+
+	public LogNormalDelay(final double median, final double sigma, final SplitMix64 random) {
+		if (median <= 0 || sigma < 0) {
+			throw new IllegalArgumentException("Invalid log-normal delay: median " + median + ", sigma " + sigma);
+		}
+		mu = Math.log(median);
+		this.sigma = sigma;
+		this.random = random;
+	}
+
+	@Override
+	public int nextDelay() {
+		return DelayDistributions.toDelay(Math.exp(mu + sigma * NormalDelay.inverseCdf(random.nextDouble())));
+	}
+
+}
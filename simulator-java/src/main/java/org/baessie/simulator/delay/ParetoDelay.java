@@ -0,0 +1,27 @@
+package org.baessie.simulator.delay;
+
+/**
+ * Pareto distributed delays, given by their scale, which is the minimum delay,
+ * and their shape. The lower the shape, the heavier the tail.
+ */
+public class ParetoDelay implements DelayDistribution {
+
+	private final double scale;
+	private final double inverseShape;
+	private final SplitMix64 random;
+
+	public ParetoDelay(final double scale, final double shape, final SplitMix64 random) {
+		if (scale <= 0 || shape <= 0) {
+			throw new IllegalArgumentException("Invalid Pareto delay: scale " + scale + ", shape " + shape);
+		}
+		this.scale = scale;
+		inverseShape = 1 / shape;
+		this.random = random;
+	}
+
+	@Override
+	public int nextDelay() {
+		return DelayDistributions.toDelay(scale / Math.pow(random.nextDouble(), inverseShape));
+	}
+
+}
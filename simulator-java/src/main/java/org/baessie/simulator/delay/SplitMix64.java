@@ -0,0 +1,48 @@
+package org.baessie.simulator.delay;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The SplitMix64 generator. It has a single word of state that is advanced
+ * atomically, so one generator can be shared by concurrent requests without
+ * locking, and the same seed always gives the same sequence.
+ */
+public final class SplitMix64 {
+
+	private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+	private static final double DOUBLE_UNIT = 1.0 / (1L << 53);
+	private static final AtomicLong SEED_UNIQUIFIER = new AtomicLong();
+
+	private final AtomicLong state;
+
+	public SplitMix64(final long seed) {
+		state = new AtomicLong(seed);
+	}
+
+	/**
+	 * Creates a generator with a seed that differs between generators and
+	 * runs.
+	 */
+	public SplitMix64() {
+		this(mix(System.nanoTime() + SEED_UNIQUIFIER.addAndGet(GOLDEN_GAMMA)));
+	}
+
+	public long nextLong() {
+		return mix(state.addAndGet(GOLDEN_GAMMA));
+	}
+
+	/**
+	 * Returns a uniformly distributed value in the open interval (0, 1).
+	 */
+	public double nextDouble() {
+		return ((nextLong() >>> 11) + 0.5) * DOUBLE_UNIT;
+	}
+
+	private static long mix(final long seed) {
+		long z = seed;
+		z = (z ^ z >>> 30) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ z >>> 27) * 0x94D049BB133111EBL;
+		return z ^ z >>> 31;
+	}
+
+}
@@ -0,0 +1,26 @@
+package org.baessie.simulator.delay;
+
+/**
+ * Delays uniformly distributed between a minimum and a maximum.
+ */
+public class UniformDelay implements DelayDistribution {
+
+	private final double min;
+	private final double range;
+	private final SplitMix64 random;
+
+	public UniformDelay(final double min, final double max, final SplitMix64 random) {
+		if (max < min) {
+			throw new IllegalArgumentException("Maximum delay is less than minimum: " + max + " < " + min);
+		}
+		this.min = min;
+		range = max - min;
+		this.random = random;
+	}
+
+	@Override
+	public int nextDelay() {
+		return DelayDistributions.toDelay(min + range * random.nextDouble());
+	}
+
+}
@@ -0,0 +1,110 @@
+package org.baessie.simulator.journal;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads and writes the files of this package: a magic number followed by
+ * frames of a length, a payload and a checksum of the payload.
+ */
+final class Frames {
+
+	// Larger frames are taken to be garbage left by a crash
+	static final int MAX_FRAME_SIZE = 64 * 1024 * 1024;
+
+	private static final Logger LOG = LoggerFactory.getLogger(Frames.class);
+
+	private Frames() {
+	}
+
+	static void write(final DataOutputStream out, final byte[] payload) throws IOException {
+		out.writeInt(payload.length);
+		out.write(payload);
+		out.writeInt(checksum(payload, payload.length));
+	}
+
+	static int checksum(final byte[] payload, final int size) {
+		final CRC32 crc = new CRC32();
+		crc.update(payload, 0, size);
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Reads the frames of a file, adding their payloads to the given list
+	 * unless it is null, and returns the length of the file up to the end of
+	 * its last complete frame. A missing or empty file has no frames.
+	 */
+	static long read(final File file, final byte[] magic, final List<byte[]> payloads) throws IOException {
+		if (!file.exists() || file.length() == 0) {
+			return 0;
+		}
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			final byte[] fileMagic = new byte[magic.length];
+			in.readFully(fileMagic);
+			if (!Arrays.equals(fileMagic, magic)) {
+				throw new IOException("Unknown file format: " + file);
+			}
+			long length = magic.length;
+			while (true) {
+				final int size;
+				try {
+					size = in.readInt();
+				} catch (final EOFException e) {
+					return length;
+				}
+				if (size < 0 || size > MAX_FRAME_SIZE) {
+					LOG.warn("{} has an entry of {} bytes at {}", new Object[] { file, size, length });
+					return length;
+				}
+				final byte[] payload = new byte[size];
+				try {
+					in.readFully(payload);
+					if (in.readInt() != checksum(payload, size)) {
+						LOG.warn("{} has a corrupt entry at {}", file, length);
+						return length;
+					}
+				} catch (final EOFException e) {
+					LOG.warn("{} ends with an incomplete entry at {}", file, length);
+					return length;
+				}
+				if (payloads != null) {
+					payloads.add(payload);
+				}
+				length += 4 + size + 4;
+			}
+		} catch (final EOFException e) {
+			// Shorter than the magic number
+			return 0;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Cuts the file at the given length, if it is longer.
+	 */
+	static void truncate(final File file, final long length) throws IOException {
+		if (length < file.length()) {
+			LOG.warn("Cutting incomplete entries off {} at {} bytes", file, length);
+			final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				raf.setLength(length);
+			} finally {
+				raf.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package org.baessie.simulator.journal;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.baessie.simulator.SimulatorRequest;
+
+/**
+ * A test kept in a {@link StubJournal}, stored as the parameters of the setup
+ * request that creates it, so that it is set up exactly as a test posted to
+ * the setup endpoint of its type.
+ */
+public class JournalEntry {
+
+	public static final String WS = "ws";
+	public static final String REST = "rest";
+	public static final String SOCKET = "socket";
+
+	private final String type;
+	private final Map<String, String[]> parameters;
+
+	public JournalEntry(final String type) {
+		this(type, new LinkedHashMap<String, String[]>());
+	}
+
+	public JournalEntry(final String type, final Map<String, String[]> parameters) {
+		this.type = type;
+		this.parameters = parameters;
+	}
+
+	/**
+	 * Returns the type of the test, one of {@link #WS}, {@link #REST} and
+	 * {@link #SOCKET}.
+	 */
+	public String getType() {
+		return type;
+	}
+
+	public Map<String, String[]> getParameters() {
+		return parameters;
+	}
+
+	public JournalEntry addParameter(final String name, final String... values) {
+		parameters.put(name, values);
+		return this;
+	}
+
+	public String getParameter(final String name) {
+		final String[] values = parameters.get(name);
+		return values != null && values.length > 0 ? values[0] : null;
+	}
+
+	/**
+	 * Returns a setup request for the test.
+	 */
+	public SimulatorRequest toSimulatorRequest() {
+		final SimulatorRequest request = new SimulatorRequest();
+		request.addParameters(parameters);
+		return request;
+	}
+}
@@ -0,0 +1,160 @@
+package org.baessie.simulator.journal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One segment of the write-ahead log of a {@link StateStore}. Operations are
+ * first queued in memory, and {@link #sync(long)} returns once they are
+ * written and forced to disk. Whichever thread syncs writes everything queued
+ * so far, so operations queued by many threads while the disk is busy are
+ * made durable by a single write and force.
+ */
+class StateLog {
+
+	private static final byte[] MAGIC = { 'B', 'S', 'W', 1 };
+
+	private final File file;
+	// Not a channel, which would be closed by interrupting a waiting thread
+	private final RandomAccessFile raf;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition synced = lock.newCondition();
+	private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+	private final DataOutputStream pendingOut = new DataOutputStream(pending);
+	private long enqueuedSequence;
+	private long syncedSequence;
+	private boolean syncing;
+	private IOException failure;
+
+	private StateLog(final File file, final RandomAccessFile raf) {
+		this.file = file;
+		this.raf = raf;
+	}
+
+	/**
+	 * Opens a segment for appending, cutting off an incomplete operation left
+	 * at its end by a crash.
+	 */
+	static StateLog open(final File file) throws IOException {
+		final long length = Frames.read(file, MAGIC, null);
+		Frames.truncate(file, length);
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			if (length == 0) {
+				raf.setLength(0);
+				raf.write(MAGIC);
+				raf.getFD().sync();
+			}
+			raf.seek(raf.length());
+		} catch (final IOException e) {
+			raf.close();
+			throw e;
+		}
+		return new StateLog(file, raf);
+	}
+
+	/**
+	 * Returns the complete operations of a segment, in the order they were
+	 * appended.
+	 */
+	static List<StateOperation> read(final File file) throws IOException {
+		final List<byte[]> payloads = new ArrayList<byte[]>();
+		Frames.read(file, MAGIC, payloads);
+		final List<StateOperation> operations = new ArrayList<StateOperation>(payloads.size());
+		for (final byte[] payload : payloads) {
+			operations.add(StateOperation.decode(payload));
+		}
+		return operations;
+	}
+
+	File getFile() {
+		return file;
+	}
+
+	/**
+	 * Queues an operation to be written, and returns the sequence number to
+	 * sync to make it durable.
+	 */
+	long enqueue(final StateOperation operation) throws IOException {
+		final byte[] payload = operation.encode();
+		lock.lock();
+		try {
+			if (failure != null) {
+				throw new IOException("Failed to write " + file, failure);
+			}
+			Frames.write(pendingOut, payload);
+			return ++enqueuedSequence;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Waits until the operations up to the given sequence number are forced
+	 * to disk.
+	 */
+	void sync(final long sequence) throws IOException {
+		lock.lock();
+		try {
+			while (syncedSequence < sequence) {
+				if (failure != null) {
+					throw new IOException("Failed to write " + file, failure);
+				}
+				if (syncing) {
+					synced.awaitUninterruptibly();
+					continue;
+				}
+				syncing = true;
+				final long batchSequence = enqueuedSequence;
+				final byte[] batch = pending.toByteArray();
+				pending.reset();
+				IOException error = null;
+				lock.unlock();
+				try {
+					raf.write(batch);
+					raf.getFD().sync();
+				} catch (final IOException e) {
+					error = e;
+				} finally {
+					lock.lock();
+				}
+				syncing = false;
+				if (error != null) {
+					// What was written of the batch is cut off when the
+					// segment is read
+					failure = error;
+				} else {
+					syncedSequence = batchSequence;
+				}
+				synced.signalAll();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Syncs all queued operations and closes the segment.
+	 */
+	void close() throws IOException {
+		try {
+			lock.lock();
+			final long sequence;
+			try {
+				sequence = enqueuedSequence;
+			} finally {
+				lock.unlock();
+			}
+			sync(sequence);
+		} finally {
+			raf.close();
+		}
+	}
+}
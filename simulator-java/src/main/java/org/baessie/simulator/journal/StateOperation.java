@@ -0,0 +1,66 @@
+package org.baessie.simulator.journal;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A change of the simulator state, as written to a {@link StateLog}.
+ */
+final class StateOperation {
+
+	/**
+	 * A test set up at its setup endpoint, which replaces the tests of all
+	 * types with the same test id.
+	 */
+	static final byte SETUP = 1;
+	/**
+	 * A test set up in bulk, which replaces the test of its own type with the
+	 * same test id.
+	 */
+	static final byte IMPORT = 2;
+	/**
+	 * Removal of all WS and REST tests.
+	 */
+	static final byte CLEAR = 3;
+
+	private final byte kind;
+	private final JournalEntry entry;
+
+	StateOperation(final byte kind, final JournalEntry entry) {
+		this.kind = kind;
+		this.entry = entry;
+	}
+
+	byte getKind() {
+		return kind;
+	}
+
+	/**
+	 * Returns the test of the operation, or null if it is {@link #CLEAR}.
+	 */
+	JournalEntry getEntry() {
+		return entry;
+	}
+
+	byte[] encode() throws IOException {
+		final byte[] encodedEntry = entry != null ? StubJournal.encode(entry) : new byte[0];
+		final byte[] payload = new byte[1 + encodedEntry.length];
+		payload[0] = kind;
+		System.arraycopy(encodedEntry, 0, payload, 1, encodedEntry.length);
+		return payload;
+	}
+
+	static StateOperation decode(final byte[] payload) throws IOException {
+		if (payload.length == 0) {
+			throw new IOException("Empty operation");
+		}
+		final byte kind = payload[0];
+		if (kind == CLEAR) {
+			return new StateOperation(kind, null);
+		} else if (kind == SETUP || kind == IMPORT) {
+			final byte[] encodedEntry = Arrays.copyOfRange(payload, 1, payload.length);
+			return new StateOperation(kind, StubJournal.decode(encodedEntry, encodedEntry.length));
+		}
+		throw new IOException("Unknown operation: " + kind);
+	}
+}
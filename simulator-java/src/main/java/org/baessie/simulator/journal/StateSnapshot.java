@@ -0,0 +1,127 @@
+package org.baessie.simulator.journal;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The tests of a {@link StateStore} and their call counts at one point in
+ * time, together with the first log segment written after it. A snapshot is
+ * written to a temporary file which replaces the previous snapshot once it is
+ * forced to disk, so a crash leaves either snapshot complete.
+ */
+class StateSnapshot {
+
+	private static final byte[] MAGIC = { 'B', 'S', 'S', 1 };
+
+	private final long nextSegment;
+	private final List<JournalEntry> tests;
+	private final List<Integer> callCounts;
+
+	StateSnapshot(final long nextSegment, final List<JournalEntry> tests, final List<Integer> callCounts) {
+		this.nextSegment = nextSegment;
+		this.tests = tests;
+		this.callCounts = callCounts;
+	}
+
+	/**
+	 * Returns the number of the first log segment with operations that are
+	 * not in the snapshot.
+	 */
+	long getNextSegment() {
+		return nextSegment;
+	}
+
+	List<JournalEntry> getTests() {
+		return Collections.unmodifiableList(tests);
+	}
+
+	/**
+	 * Returns the call counts of the tests, in the same order as the tests.
+	 */
+	List<Integer> getCallCounts() {
+		return Collections.unmodifiableList(callCounts);
+	}
+
+	void write(final File file) throws IOException {
+		final File tempFile = new File(file.getPath() + ".tmp");
+		final FileOutputStream stream = new FileOutputStream(tempFile);
+		try {
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 65536));
+			out.write(MAGIC);
+			out.writeLong(nextSegment);
+			out.writeInt(tests.size());
+			for (int i = 0; i < tests.size(); i++) {
+				final byte[] entry = StubJournal.encode(tests.get(i));
+				final byte[] payload = new byte[4 + entry.length];
+				final int callCount = callCounts.get(i);
+				payload[0] = (byte) (callCount >>> 24);
+				payload[1] = (byte) (callCount >>> 16);
+				payload[2] = (byte) (callCount >>> 8);
+				payload[3] = (byte) callCount;
+				System.arraycopy(entry, 0, payload, 4, entry.length);
+				Frames.write(out, payload);
+			}
+			out.flush();
+			stream.getFD().sync();
+		} finally {
+			stream.close();
+		}
+		// Renaming over an existing file fails on some platforms
+		if (!tempFile.renameTo(file) && !(file.delete() && tempFile.renameTo(file))) {
+			throw new IOException("Failed to replace " + file + " with " + tempFile);
+		}
+	}
+
+	/**
+	 * Reads a snapshot by mapping its file into memory.
+	 */
+	static StateSnapshot read(final File file) throws IOException {
+		final MappedByteBuffer buffer;
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			final FileChannel channel = raf.getChannel();
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			raf.close();
+		}
+		try {
+			final byte[] magic = new byte[MAGIC.length];
+			buffer.get(magic);
+			if (!Arrays.equals(magic, MAGIC)) {
+				throw new IOException("Unknown file format: " + file);
+			}
+			final long nextSegment = buffer.getLong();
+			final int count = buffer.getInt();
+			final List<JournalEntry> tests = new ArrayList<JournalEntry>(count);
+			final List<Integer> callCounts = new ArrayList<Integer>(count);
+			for (int i = 0; i < count; i++) {
+				final int size = buffer.getInt();
+				if (size < 4 || size > buffer.remaining()) {
+					throw new IOException("Snapshot " + file + " has an entry of " + size + " bytes");
+				}
+				final byte[] payload = new byte[size];
+				buffer.get(payload);
+				if (buffer.getInt() != Frames.checksum(payload, size)) {
+					throw new IOException("Snapshot " + file + " has a corrupt entry at " + (buffer.position() - size - 8));
+				}
+				callCounts.add(((payload[0] & 0xff) << 24) | ((payload[1] & 0xff) << 16) | ((payload[2] & 0xff) << 8) | (payload[3] & 0xff));
+				final byte[] entry = Arrays.copyOfRange(payload, 4, size);
+				tests.add(StubJournal.decode(entry, entry.length));
+			}
+			return new StateSnapshot(nextSegment, tests, callCounts);
+		} catch (final BufferUnderflowException e) {
+			throw new IOException("Snapshot " + file + " is incomplete");
+		}
+	}
+}
@@ -0,0 +1,437 @@
+package org.baessie.simulator.journal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.baessie.simulator.util.SimulatorUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the tests of the simulators in a directory, so that they survive a
+ * restart. Every setup, bulk import and clear is appended to a write-ahead
+ * log before it is acknowledged, with concurrent operations sharing one
+ * force to disk. Periodically, and when the store is closed, the tests that
+ * are still set up are written to a snapshot together with their call counts,
+ * and the log written before it is deleted. The snapshot is read by mapping
+ * it into memory, and the log written after it is replayed on top of it.
+ *
+ * Tests are kept as the parameters of their setup requests, since the
+ * compiled tests hold DOM documents that cannot be written to a file. They
+ * are compiled again when they are restored, which is best done in bulk.
+ *
+ * The interval between snapshots, in seconds, is given by the system property
+ * {@value #SNAPSHOT_INTERVAL_PROPERTY}. A snapshot is only written if the
+ * tests have changed since the last one.
+ */
+public class StateStore {
+
+	public static final String DIRECTORY_PROPERTY = "baessie.state.dir";
+	public static final String SNAPSHOT_INTERVAL_PROPERTY = "baessie.state.snapshotInterval";
+
+	private static final long SNAPSHOT_INTERVAL = 300;
+	private static final String SNAPSHOT_FILE = "snapshot.bin";
+	private static final String SEGMENT_PREFIX = "log-";
+	private static final String SEGMENT_SUFFIX = ".bin";
+
+	private static final Logger LOG = LoggerFactory.getLogger(StateStore.class);
+
+	/**
+	 * Provides the current call counts of the tests for a snapshot.
+	 */
+	public interface CallCounter {
+		int getCallCount(String type, String testId);
+	}
+
+	private final File directory;
+	private final long snapshotInterval;
+	private final Object monitor = new Object();
+	private final Object snapshotMonitor = new Object();
+	// Tests by type and test id, in the order they were set up
+	private final Map<String, Map<String, JournalEntry>> tests = new LinkedHashMap<String, Map<String, JournalEntry>>();
+	private final Map<String, Map<String, Integer>> restoredCallCounts = new HashMap<String, Map<String, Integer>>();
+	private StateLog log;
+	private long segment;
+	private long changes;
+	private boolean restored;
+	private CallCounter callCounter;
+	private ScheduledExecutorService scheduler;
+
+	public StateStore(final File directory) {
+		this(directory, SNAPSHOT_INTERVAL);
+	}
+
+	/**
+	 * @param snapshotInterval
+	 *            seconds between snapshots, or 0 to write a snapshot only
+	 *            when the store is closed
+	 */
+	public StateStore(final File directory, final long snapshotInterval) {
+		this.directory = directory;
+		this.snapshotInterval = snapshotInterval;
+	}
+
+	/**
+	 * Returns the store in the directory given by the system property
+	 * {@value #DIRECTORY_PROPERTY}, or null if the property is not set.
+	 */
+	public static StateStore create() {
+		final String directoryName = System.getProperty(DIRECTORY_PROPERTY);
+		if (directoryName == null || directoryName.trim().length() == 0) {
+			return null;
+		}
+		return new StateStore(new File(directoryName.trim()), Long.getLong(SNAPSHOT_INTERVAL_PROPERTY, SNAPSHOT_INTERVAL));
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Reads the snapshot and the log of the directory, and opens a new log
+	 * segment. Must be called before any operation is recorded.
+	 */
+	public void recover() throws IOException {
+		synchronized (monitor) {
+			if (log != null) {
+				throw new IllegalStateException("State already recovered from " + directory);
+			}
+			if (!directory.isDirectory() && !directory.mkdirs()) {
+				throw new IOException("Failed to create state directory " + directory);
+			}
+			long nextSegment = 1;
+			final File snapshotFile = new File(directory, SNAPSHOT_FILE);
+			if (snapshotFile.exists()) {
+				final StateSnapshot snapshot = StateSnapshot.read(snapshotFile);
+				nextSegment = snapshot.getNextSegment();
+				final List<JournalEntry> snapshotTests = snapshot.getTests();
+				final List<Integer> callCounts = snapshot.getCallCounts();
+				for (int i = 0; i < snapshotTests.size(); i++) {
+					final JournalEntry entry = snapshotTests.get(i);
+					final String testId = entry.getParameter(SimulatorUtils.TEST_ID);
+					getTests(entry.getType()).put(testId, entry);
+					getRestoredCallCounts(entry.getType()).put(testId, callCounts.get(i));
+				}
+				restored = true;
+				LOG.info("Read {} tests from snapshot {}", snapshotTests.size(), snapshotFile);
+			}
+			long lastSegment = nextSegment - 1;
+			for (final Map.Entry<Long, File> segmentFile : listSegments().entrySet()) {
+				if (segmentFile.getKey() < nextSegment) {
+					// Left behind by a snapshot interrupted before cleaning up
+					deleteSegment(segmentFile.getValue());
+					continue;
+				}
+				final List<StateOperation> operations = StateLog.read(segmentFile.getValue());
+				lastSegment = segmentFile.getKey();
+				if (operations.isEmpty()) {
+					deleteSegment(segmentFile.getValue());
+					continue;
+				}
+				for (final StateOperation operation : operations) {
+					apply(operation);
+				}
+				changes += operations.size();
+				restored = true;
+				LOG.info("Replayed {} operations from {}", operations.size(), segmentFile.getValue());
+			}
+			segment = lastSegment + 1;
+			log = StateLog.open(segmentFile(segment));
+		}
+	}
+
+	/**
+	 * Returns true if the recovered directory held any tests or operations,
+	 * even if no tests are left.
+	 */
+	public boolean hasState() {
+		synchronized (monitor) {
+			return restored;
+		}
+	}
+
+	/**
+	 * Returns the tests that are set up, grouped by type in the order they
+	 * were set up.
+	 */
+	public List<JournalEntry> getTests() {
+		synchronized (monitor) {
+			final List<JournalEntry> entries = new ArrayList<JournalEntry>();
+			for (final Map<String, JournalEntry> typeTests : tests.values()) {
+				entries.addAll(typeTests.values());
+			}
+			return entries;
+		}
+	}
+
+	/**
+	 * Returns the call count of a recovered test as of the last snapshot, or
+	 * 0 if it was set up after it.
+	 */
+	public int getRestoredCallCount(final String type, final String testId) {
+		synchronized (monitor) {
+			final Map<String, Integer> callCounts = restoredCallCounts.get(type);
+			final Integer callCount = callCounts != null ? callCounts.get(testId) : null;
+			return callCount != null ? callCount : 0;
+		}
+	}
+
+	/**
+	 * Records a test set up at its setup endpoint, which replaced the tests of
+	 * all types with the same test id.
+	 */
+	public void setup(final JournalEntry entry) throws IOException {
+		append(new StateOperation[] { new StateOperation(StateOperation.SETUP, entry) });
+	}
+
+	/**
+	 * Records tests set up in bulk, each of which replaced the test of its
+	 * own type with the same test id.
+	 */
+	public void imported(final List<JournalEntry> entries) throws IOException {
+		final StateOperation[] operations = new StateOperation[entries.size()];
+		for (int i = 0; i < operations.length; i++) {
+			operations[i] = new StateOperation(StateOperation.IMPORT, entries.get(i));
+		}
+		append(operations);
+	}
+
+	/**
+	 * Records that all WS and REST tests were removed.
+	 */
+	public void clear() throws IOException {
+		append(new StateOperation[] { new StateOperation(StateOperation.CLEAR, null) });
+	}
+
+	/**
+	 * Applies the operations and returns once they are on disk.
+	 */
+	private void append(final StateOperation[] operations) throws IOException {
+		if (operations.length == 0) {
+			return;
+		}
+		final StateLog current;
+		long sequence = 0;
+		synchronized (monitor) {
+			if (log == null) {
+				throw new IllegalStateException("State not recovered from " + directory);
+			}
+			current = log;
+			for (final StateOperation operation : operations) {
+				apply(operation);
+				sequence = current.enqueue(operation);
+				changes++;
+			}
+		}
+		current.sync(sequence);
+	}
+
+	private void apply(final StateOperation operation) {
+		final JournalEntry entry = operation.getEntry();
+		if (operation.getKind() == StateOperation.CLEAR) {
+			tests.remove(JournalEntry.WS);
+			tests.remove(JournalEntry.REST);
+			restoredCallCounts.remove(JournalEntry.WS);
+			restoredCallCounts.remove(JournalEntry.REST);
+			return;
+		}
+		final String testId = entry.getParameter(SimulatorUtils.TEST_ID);
+		if (testId == null) {
+			LOG.warn("Skipping {} test without {}", entry.getType(), SimulatorUtils.TEST_ID);
+			return;
+		}
+		if (operation.getKind() == StateOperation.SETUP) {
+			for (final Map<String, JournalEntry> typeTests : tests.values()) {
+				typeTests.remove(testId);
+			}
+			for (final Map<String, Integer> callCounts : restoredCallCounts.values()) {
+				callCounts.remove(testId);
+			}
+		}
+		// Removed first so that a replaced test moves to the end, as it does
+		// in the simulators
+		final Map<String, JournalEntry> typeTests = getTests(entry.getType());
+		typeTests.remove(testId);
+		typeTests.put(testId, entry);
+		getRestoredCallCounts(entry.getType()).remove(testId);
+	}
+
+	private Map<String, JournalEntry> getTests(final String type) {
+		Map<String, JournalEntry> typeTests = tests.get(type);
+		if (typeTests == null) {
+			typeTests = new LinkedHashMap<String, JournalEntry>();
+			tests.put(type, typeTests);
+		}
+		return typeTests;
+	}
+
+	private Map<String, Integer> getRestoredCallCounts(final String type) {
+		Map<String, Integer> callCounts = restoredCallCounts.get(type);
+		if (callCounts == null) {
+			callCounts = new HashMap<String, Integer>();
+			restoredCallCounts.put(type, callCounts);
+		}
+		return callCounts;
+	}
+
+	/**
+	 * Starts writing snapshots periodically, with the call counts given by
+	 * the counter.
+	 */
+	public void start(final CallCounter counter) {
+		synchronized (monitor) {
+			callCounter = counter;
+			if (snapshotInterval <= 0 || scheduler != null) {
+				return;
+			}
+			scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(final Runnable runnable) {
+					final Thread thread = new Thread(runnable, "StateStore");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			scheduler.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						if (hasChanges()) {
+							snapshot();
+						}
+					} catch (final Exception e) {
+						LOG.warn("Failed to write snapshot to " + directory, e);
+					}
+				}
+			}, snapshotInterval, snapshotInterval, TimeUnit.SECONDS);
+		}
+	}
+
+	private boolean hasChanges() {
+		synchronized (monitor) {
+			return changes > 0;
+		}
+	}
+
+	/**
+	 * Writes the tests to a new snapshot, and deletes the log segments it
+	 * replaces. Operations recorded meanwhile go to a new segment.
+	 */
+	public void snapshot() throws IOException {
+		synchronized (snapshotMonitor) {
+			final StateLog previous;
+			final List<JournalEntry> entries;
+			final long nextSegment;
+			final CallCounter counter;
+			synchronized (monitor) {
+				if (log == null) {
+					throw new IllegalStateException("State not recovered from " + directory);
+				}
+				previous = log;
+				log = StateLog.open(segmentFile(segment + 1));
+				segment++;
+				nextSegment = segment;
+				entries = getTests();
+				changes = 0;
+				counter = callCounter;
+			}
+			previous.close();
+
+			final List<Integer> callCounts = new ArrayList<Integer>(entries.size());
+			for (final JournalEntry entry : entries) {
+				final String testId = entry.getParameter(SimulatorUtils.TEST_ID);
+				callCounts.add(counter != null ? counter.getCallCount(entry.getType(), testId) : getRestoredCallCount(entry.getType(), testId));
+			}
+			final File snapshotFile = new File(directory, SNAPSHOT_FILE);
+			try {
+				new StateSnapshot(nextSegment, entries, callCounts).write(snapshotFile);
+			} catch (final IOException e) {
+				// The log segments are kept, and the snapshot is tried again
+				synchronized (monitor) {
+					changes++;
+				}
+				throw e;
+			}
+			for (final Map.Entry<Long, File> segmentFile : listSegments().entrySet()) {
+				if (segmentFile.getKey() < nextSegment) {
+					deleteSegment(segmentFile.getValue());
+				}
+			}
+			LOG.info("Wrote snapshot of {} tests to {}", entries.size(), snapshotFile);
+		}
+	}
+
+	/**
+	 * Stops the periodic snapshots, writes a last snapshot if the tests have
+	 * changed, and closes the log.
+	 */
+	public void close() {
+		final ScheduledExecutorService stopped;
+		synchronized (monitor) {
+			stopped = scheduler;
+			scheduler = null;
+		}
+		if (stopped != null) {
+			stopped.shutdown();
+		}
+		try {
+			if (hasChanges()) {
+				snapshot();
+			}
+		} catch (final Exception e) {
+			LOG.warn("Failed to write snapshot to " + directory, e);
+		}
+		synchronized (monitor) {
+			if (log != null) {
+				try {
+					log.close();
+				} catch (final IOException e) {
+					LOG.warn("Failed to close " + log.getFile(), e);
+				}
+				log = null;
+			}
+		}
+	}
+
+	private File segmentFile(final long number) {
+		return new File(directory, SEGMENT_PREFIX + String.format("%08d", number) + SEGMENT_SUFFIX);
+	}
+
+	/**
+	 * Returns the log segments of the directory by their numbers.
+	 */
+	private SortedMap<Long, File> listSegments() {
+		final SortedMap<Long, File> segments = new TreeMap<Long, File>();
+		final File[] files = directory.listFiles();
+		if (files != null) {
+			for (final File file : files) {
+				final String name = file.getName();
+				if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+					try {
+						segments.put(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())), file);
+					} catch (final NumberFormatException e) {
+						LOG.debug("Skipping {} in state directory", file);
+					}
+				}
+			}
+		}
+		return segments;
+	}
+
+	private static void deleteSegment(final File file) {
+		if (!file.delete()) {
+			LOG.warn("Failed to delete log segment {}", file);
+		}
+	}
+}
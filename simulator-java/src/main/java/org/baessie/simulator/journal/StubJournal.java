@@ -0,0 +1,141 @@
+package org.baessie.simulator.journal;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only file of tests. Every entry is written as its length, its
+ * parameters and a checksum, so that an entry left incomplete by a crash is
+ * detected when the journal is read. Such an entry, and anything after it, is
+ * cut off the file before new entries are appended.
+ */
+public class StubJournal {
+
+	public static final String FILE_PROPERTY = "baessie.journal.file";
+
+	private static final byte[] MAGIC = { 'B', 'S', 'J', 1 };
+	private static final String CHARSET = "UTF-8";
+
+	private static final Logger LOG = LoggerFactory.getLogger(StubJournal.class);
+
+	private final File file;
+	private DataOutputStream out;
+
+	public StubJournal(final File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Returns the journal in the file given by the system property
+	 * {@value #FILE_PROPERTY}, or null if the property is not set.
+	 */
+	public static StubJournal create() {
+		final String fileName = System.getProperty(FILE_PROPERTY);
+		return fileName != null && fileName.trim().length() > 0 ? new StubJournal(new File(fileName.trim())) : null;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Returns all complete entries of the journal, in the order they were
+	 * appended.
+	 */
+	public synchronized List<JournalEntry> read() throws IOException {
+		final List<byte[]> payloads = new ArrayList<byte[]>();
+		Frames.read(file, MAGIC, payloads);
+		final List<JournalEntry> entries = new ArrayList<JournalEntry>(payloads.size());
+		for (final byte[] payload : payloads) {
+			entries.add(decode(payload, payload.length));
+		}
+		return entries;
+	}
+
+	public synchronized void append(final JournalEntry entry) throws IOException {
+		if (out == null) {
+			out = open();
+		}
+		Frames.write(out, encode(entry));
+		out.flush();
+	}
+
+	public synchronized void close() {
+		if (out != null) {
+			try {
+				out.close();
+			} catch (final IOException e) {
+				LOG.warn("Failed to close journal " + file, e);
+			}
+			out = null;
+		}
+	}
+
+	private DataOutputStream open() throws IOException {
+		final long length = Frames.read(file, MAGIC, null);
+		Frames.truncate(file, length);
+		final DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+		if (length == 0) {
+			stream.write(MAGIC);
+		}
+		return stream;
+	}
+
+	static byte[] encode(final JournalEntry entry) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(bytes);
+		writeString(out, entry.getType());
+		out.writeInt(entry.getParameters().size());
+		for (final Map.Entry<String, String[]> parameter : entry.getParameters().entrySet()) {
+			writeString(out, parameter.getKey());
+			final String[] values = parameter.getValue();
+			out.writeInt(values.length);
+			for (final String value : values) {
+				writeString(out, value);
+			}
+		}
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	static JournalEntry decode(final byte[] payload, final int size) throws IOException {
+		final DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload, 0, size));
+		final String type = readString(in);
+		final int count = in.readInt();
+		final Map<String, String[]> parameters = new LinkedHashMap<String, String[]>();
+		for (int i = 0; i < count; i++) {
+			final String name = readString(in);
+			final String[] values = new String[in.readInt()];
+			for (int j = 0; j < values.length; j++) {
+				values[j] = readString(in);
+			}
+			parameters.put(name, values);
+		}
+		return new JournalEntry(type, parameters);
+	}
+
+	private static void writeString(final DataOutputStream out, final String value) throws IOException {
+		final byte[] bytes = value.getBytes(CHARSET);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(final DataInputStream in) throws IOException {
+		final byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, CHARSET);
+	}
+}
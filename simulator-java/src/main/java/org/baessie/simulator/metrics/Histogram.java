@@ -0,0 +1,70 @@
+package org.baessie.simulator.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram with fixed bucket bounds. Recording a value updates one bucket
+ * and the sum with atomic increments and never takes a lock.
+ */
+public class Histogram {
+
+	private final long[] bounds;
+	private final AtomicLongArray counts;
+	private final AtomicLong sum = new AtomicLong();
+
+	/**
+	 * @param bounds
+	 *            the inclusive upper bounds of the buckets, in increasing
+	 *            order. Larger values are counted in a last, unbounded bucket.
+	 */
+	public Histogram(final long... bounds) {
+		this.bounds = bounds.clone();
+		counts = new AtomicLongArray(bounds.length + 1);
+	}
+
+	public void record(final long value) {
+		int bucket = 0;
+		while (bucket < bounds.length && value > bounds[bucket]) {
+			bucket++;
+		}
+		counts.incrementAndGet(bucket);
+		sum.addAndGet(value);
+	}
+
+	/**
+	 * Returns the upper bounds of the buckets, without the last, unbounded
+	 * bucket.
+	 */
+	public long[] getBounds() {
+		return bounds.clone();
+	}
+
+	/**
+	 * Returns the number of values recorded in the given bucket, where the
+	 * bucket after the last bound is the unbounded bucket.
+	 */
+	public long getCount(final int bucket) {
+		return counts.get(bucket);
+	}
+
+	public long getCount() {
+		long count = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			count += counts.get(i);
+		}
+		return count;
+	}
+
+	public long getSum() {
+		return sum.get();
+	}
+
+	/**
+	 * Returns the mean of the recorded values, or 0 if none has been recorded.
+	 */
+	public double getMean() {
+		final long count = getCount();
+		return count == 0 ? 0 : (double) getSum() / count;
+	}
+}
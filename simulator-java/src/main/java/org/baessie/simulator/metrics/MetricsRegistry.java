@@ -0,0 +1,178 @@
+package org.baessie.simulator.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects the metrics of the simulated protocols, and exposes them in the
+ * Prometheus text format and as MBeans named
+ * <code>org.baessie.simulator:type=Metrics,protocol=&lt;protocol&gt;</code>.
+ * The MBeans are not registered if the system property
+ * {@value #JMX_PROPERTY} is false.
+ */
+public class MetricsRegistry {
+
+	public static final String JMX_PROPERTY = "baessie.metrics.jmx";
+	public static final String CONTENT_TYPE = "text/plain; version=0.0.4";
+	private static final String DOMAIN = "org.baessie.simulator";
+	private static final double NANOS_PER_SECOND = 1e9;
+	private static final double MILLIS_PER_SECOND = 1e3;
+
+	private static final Logger LOG = LoggerFactory.getLogger(MetricsRegistry.class);
+
+	private final List<ProtocolMetrics> protocols = new CopyOnWriteArrayList<ProtocolMetrics>();
+	private final List<ObjectName> mbeans = new ArrayList<ObjectName>();
+
+	public void add(final ProtocolMetrics metrics) {
+		protocols.add(metrics);
+	}
+
+	public List<ProtocolMetrics> getProtocols() {
+		return protocols;
+	}
+
+	/**
+	 * Registers the metrics of every protocol with the platform MBean server.
+	 * Metrics whose name is already registered, for example by another
+	 * simulator in the same JVM, are skipped.
+	 */
+	public synchronized void registerMBeans() {
+		if (!Boolean.parseBoolean(System.getProperty(JMX_PROPERTY, "true"))) {
+			return;
+		}
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for (final ProtocolMetrics metrics : protocols) {
+			try {
+				final ObjectName name = new ObjectName(DOMAIN + ":type=Metrics,protocol=" + ObjectName.quote(metrics.getProtocol()));
+				server.registerMBean(metrics, name);
+				mbeans.add(name);
+			} catch (final InstanceAlreadyExistsException e) {
+				LOG.warn("Metrics MBean already registered: {}", e.getMessage());
+			} catch (final Exception e) {
+				LOG.warn("Failed to register metrics MBean", e);
+			}
+		}
+	}
+
+	public synchronized void unregisterMBeans() {
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for (final ObjectName name : mbeans) {
+			try {
+				server.unregisterMBean(name);
+			} catch (final Exception e) {
+				LOG.warn("Failed to unregister metrics MBean", e);
+			}
+		}
+		mbeans.clear();
+	}
+
+	/**
+	 * Writes the metrics in the Prometheus text exposition format.
+	 */
+	public void write(final Writer out) throws IOException {
+		writeHeader(out, "baessie_requests_total", "counter", "Requests received.");
+		for (final ProtocolMetrics metrics : protocols) {
+			writeSample(out, "baessie_requests_total", metrics, null, metrics.getRequests());
+		}
+		writeHeader(out, "baessie_misses_total", "counter", "Requests no test could answer.");
+		for (final ProtocolMetrics metrics : protocols) {
+			writeSample(out, "baessie_misses_total", metrics, null, metrics.getMisses());
+		}
+		writeHeader(out, "baessie_response_bytes_total", "counter", "Bytes of the responses written.");
+		for (final ProtocolMetrics metrics : protocols) {
+			writeSample(out, "baessie_response_bytes_total", metrics, null, metrics.getResponseBytes());
+		}
+		writeHeader(out, "baessie_active_connections", "gauge", "Open socket connections.");
+		for (final ProtocolMetrics metrics : protocols) {
+			if (metrics.getTransport() == Transport.SOCKET) {
+				writeSample(out, "baessie_active_connections", metrics, null, metrics.getActiveConnections());
+			}
+		}
+		writeHeader(out, "baessie_http_inflight_requests", "gauge", "Http requests being served.");
+		for (final ProtocolMetrics metrics : protocols) {
+			if (metrics.getTransport() == Transport.HTTP) {
+				writeSample(out, "baessie_http_inflight_requests", metrics, null, metrics.getInflightRequests());
+			}
+		}
+		writeHeader(out, "baessie_match_seconds", "histogram", "Time spent finding the test answering a request.");
+		for (final ProtocolMetrics metrics : protocols) {
+			writeHistogram(out, "baessie_match_seconds", metrics, metrics.getMatchTime(), NANOS_PER_SECOND);
+		}
+		writeHeader(out, "baessie_delay_seconds", "histogram", "Delay applied to the responses.");
+		for (final ProtocolMetrics metrics : protocols) {
+			writeHistogram(out, "baessie_delay_seconds", metrics, metrics.getDelay(), MILLIS_PER_SECOND);
+		}
+		writeHeader(out, "baessie_stub_requests_total", "counter", "Requests answered by a test.");
+		for (final ProtocolMetrics metrics : protocols) {
+			for (final Map.Entry<String, StubMetrics> stub : metrics.getStubs().entrySet()) {
+				writeSample(out, "baessie_stub_requests_total", metrics, stub.getKey(), stub.getValue().getRequests());
+			}
+		}
+		writeHeader(out, "baessie_stub_response_bytes_total", "counter", "Bytes of the responses written by a test.");
+		for (final ProtocolMetrics metrics : protocols) {
+			for (final Map.Entry<String, StubMetrics> stub : metrics.getStubs().entrySet()) {
+				writeSample(out, "baessie_stub_response_bytes_total", metrics, stub.getKey(), stub.getValue().getResponseBytes());
+			}
+		}
+		writeHeader(out, "baessie_stub_delay_seconds_total", "counter", "Delay applied to the responses of a test.");
+		for (final ProtocolMetrics metrics : protocols) {
+			for (final Map.Entry<String, StubMetrics> stub : metrics.getStubs().entrySet()) {
+				writeSample(out, "baessie_stub_delay_seconds_total", metrics, stub.getKey(), stub.getValue().getDelayMillis() / MILLIS_PER_SECOND);
+			}
+		}
+		out.flush();
+	}
+
+	private static void writeHeader(final Writer out, final String name, final String type, final String help) throws IOException {
+		out.write("# HELP " + name + " " + help + "\n");
+		out.write("# TYPE " + name + " " + type + "\n");
+	}
+
+	private static void writeHistogram(final Writer out, final String name, final ProtocolMetrics metrics, final Histogram histogram, final double unitsPerSecond)
+			throws IOException {
+		final long[] bounds = histogram.getBounds();
+		long count = 0;
+		for (int i = 0; i <= bounds.length; i++) {
+			count += histogram.getCount(i);
+			final String le = i < bounds.length ? String.valueOf(bounds[i] / unitsPerSecond) : "+Inf";
+			out.write(name + "_bucket{protocol=\"" + escape(metrics.getProtocol()) + "\",le=\"" + le + "\"} " + count + "\n");
+		}
+		writeSample(out, name + "_sum", metrics, null, histogram.getSum() / unitsPerSecond);
+		writeSample(out, name + "_count", metrics, null, count);
+	}
+
+	private static void writeSample(final Writer out, final String name, final ProtocolMetrics metrics, final String testId, final Object value) throws IOException {
+		out.write(name);
+		out.write("{protocol=\"");
+		out.write(escape(metrics.getProtocol()));
+		if (testId != null) {
+			out.write("\",testId=\"");
+			out.write(escape(testId));
+		}
+		out.write("\"} ");
+		out.write(String.valueOf(value));
+		out.write('\n');
+	}
+
+	/**
+	 * Escapes a label value as the exposition format requires.
+	 */
+	private static String escape(final String value) {
+		if (value.indexOf('\\') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+			return value;
+		}
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+}
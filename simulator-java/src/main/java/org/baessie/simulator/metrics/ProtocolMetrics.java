@@ -0,0 +1,236 @@
+package org.baessie.simulator.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Metrics of the requests simulated for one protocol, in total and for each
+ * test. Depending on the {@link Transport} of the protocol the open socket
+ * connections or the http requests being served are counted.
+ */
+public class ProtocolMetrics implements ProtocolMetricsMBean {
+
+	// Upper bounds of the match time buckets, in nanoseconds
+	static final long[] MATCH_TIME_BOUNDS = toNanos(10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000, 100000, 250000, 500000, 1000000);
+	// Upper bounds of the delay buckets, in milliseconds
+	static final long[] DELAY_BOUNDS = { 0, 1, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000 };
+
+	private static final StubRegistry ALL_STUBS = new StubRegistry() {
+		@Override
+		public boolean contains(final String testId) {
+			return true;
+		}
+	};
+
+	private final String protocol;
+	private final Transport transport;
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong responseBytes = new AtomicLong();
+	private final AtomicLong activeConnections = new AtomicLong();
+	private final AtomicLong inflightRequests = new AtomicLong();
+	private final Histogram matchTime = new Histogram(MATCH_TIME_BOUNDS);
+	private final Histogram delay = new Histogram(DELAY_BOUNDS);
+	private final ConcurrentMap<String, StubMetrics> stubs = new ConcurrentHashMap<String, StubMetrics>();
+	private final StubRegistry registry;
+
+	/**
+	 * Creates metrics which are kept for every test a request is recorded
+	 * for.
+	 */
+	public ProtocolMetrics(final String protocol, final Transport transport) {
+		this(protocol, transport, ALL_STUBS);
+	}
+
+	/**
+	 * Creates metrics which are only kept for the tests in the registry.
+	 */
+	public ProtocolMetrics(final String protocol, final Transport transport, final StubRegistry registry) {
+		this.protocol = protocol;
+		this.transport = transport;
+		this.registry = registry;
+	}
+
+	private static long[] toNanos(final long... micros) {
+		final long[] nanos = new long[micros.length];
+		for (int i = 0; i < micros.length; i++) {
+			nanos[i] = TimeUnit.MICROSECONDS.toNanos(micros[i]);
+		}
+		return nanos;
+	}
+
+	/**
+	 * Records a request answered by the given test.
+	 */
+	public void recordMatch(final String testId, final long matchNanos) {
+		requests.incrementAndGet();
+		matchTime.record(matchNanos);
+		final StubMetrics stub = getStub(testId);
+		if (stub != null) {
+			stub.recordRequest();
+		}
+	}
+
+	/**
+	 * Records a request no test could answer.
+	 */
+	public void recordMiss(final long matchNanos) {
+		requests.incrementAndGet();
+		misses.incrementAndGet();
+		matchTime.record(matchNanos);
+	}
+
+	public void recordDelay(final String testId, final long millis) {
+		delay.record(millis);
+		final StubMetrics stub = getStub(testId);
+		if (stub != null) {
+			stub.recordDelay(millis);
+		}
+	}
+
+	public void recordResponseBytes(final String testId, final long bytes) {
+		responseBytes.addAndGet(bytes);
+		final StubMetrics stub = getStub(testId);
+		if (stub != null) {
+			stub.recordResponseBytes(bytes);
+		}
+	}
+
+	public void connectionOpened() {
+		activeConnections.incrementAndGet();
+	}
+
+	public void connectionClosed() {
+		activeConnections.decrementAndGet();
+	}
+
+	public void requestStarted() {
+		inflightRequests.incrementAndGet();
+	}
+
+	public void requestFinished() {
+		inflightRequests.decrementAndGet();
+	}
+
+	/**
+	 * Returns the metrics of a test, or null if the test is not set up. The
+	 * registry is checked again after new metrics are added, since the test
+	 * may be removed meanwhile and then removeStub may already have run.
+	 */
+	private StubMetrics getStub(final String testId) {
+		if (testId == null) {
+			return null;
+		}
+		StubMetrics stub = stubs.get(testId);
+		if (stub == null) {
+			if (!registry.contains(testId)) {
+				return null;
+			}
+			final StubMetrics created = new StubMetrics();
+			stub = stubs.putIfAbsent(testId, created);
+			if (stub == null) {
+				stub = created;
+				if (!registry.contains(testId)) {
+					stubs.remove(testId, created);
+					return null;
+				}
+			}
+		}
+		return stub;
+	}
+
+	/**
+	 * Forgets the metrics of a test, which is done after the test is removed
+	 * from the registry.
+	 */
+	public void removeStub(final String testId) {
+		if (testId != null) {
+			stubs.remove(testId);
+		}
+	}
+
+	public void clearStubs() {
+		stubs.clear();
+	}
+
+	/**
+	 * Returns the metrics of the tests, by test id.
+	 */
+	public Map<String, StubMetrics> getStubs() {
+		return Collections.unmodifiableMap(stubs);
+	}
+
+	/**
+	 * Returns the time spent finding the test answering a request, in
+	 * nanoseconds.
+	 */
+	public Histogram getMatchTime() {
+		return matchTime;
+	}
+
+	/**
+	 * Returns the delays applied to the responses, in milliseconds.
+	 */
+	public Histogram getDelay() {
+		return delay;
+	}
+
+	@Override
+	public String getProtocol() {
+		return protocol;
+	}
+
+	public Transport getTransport() {
+		return transport;
+	}
+
+	@Override
+	public long getRequests() {
+		return requests.get();
+	}
+
+	@Override
+	public long getMisses() {
+		return misses.get();
+	}
+
+	@Override
+	public double getMissRate() {
+		final long total = getRequests();
+		return total == 0 ? 0 : (double) getMisses() / total;
+	}
+
+	@Override
+	public long getResponseBytes() {
+		return responseBytes.get();
+	}
+
+	@Override
+	public long getActiveConnections() {
+		return activeConnections.get();
+	}
+
+	@Override
+	public long getInflightRequests() {
+		return inflightRequests.get();
+	}
+
+	@Override
+	public double getMeanMatchTimeMicros() {
+		return matchTime.getMean() / 1000;
+	}
+
+	@Override
+	public double getMeanDelayMillis() {
+		return delay.getMean();
+	}
+
+	@Override
+	public int getStubCount() {
+		return stubs.size();
+	}
+}
@@ -0,0 +1,28 @@
+package org.baessie.simulator.metrics;
+
+/**
+ * Management interface of {@link ProtocolMetrics}.
+ */
+public interface ProtocolMetricsMBean {
+
+	String getProtocol();
+
+	long getRequests();
+
+	long getMisses();
+
+	double getMissRate();
+
+	long getResponseBytes();
+
+	long getActiveConnections();
+
+	long getInflightRequests();
+
+	double getMeanMatchTimeMicros();
+
+	double getMeanDelayMillis();
+
+	int getStubCount();
+
+}
@@ -0,0 +1,40 @@
+package org.baessie.simulator.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the requests answered by one test.
+ */
+public class StubMetrics {
+
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong responseBytes = new AtomicLong();
+	private final AtomicLong delayMillis = new AtomicLong();
+
+	void recordRequest() {
+		requests.incrementAndGet();
+	}
+
+	void recordResponseBytes(final long bytes) {
+		responseBytes.addAndGet(bytes);
+	}
+
+	void recordDelay(final long millis) {
+		delayMillis.addAndGet(millis);
+	}
+
+	public long getRequests() {
+		return requests.get();
+	}
+
+	public long getResponseBytes() {
+		return responseBytes.get();
+	}
+
+	/**
+	 * Returns the sum of the delays applied to the responses.
+	 */
+	public long getDelayMillis() {
+		return delayMillis.get();
+	}
+}
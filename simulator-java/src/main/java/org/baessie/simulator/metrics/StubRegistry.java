@@ -0,0 +1,15 @@
+package org.baessie.simulator.metrics;
+
+/**
+ * The tests that are set up for a protocol. Metrics are only kept for these
+ * tests, so a request finishing after its test was removed does not bring
+ * the metrics of the test back.
+ */
+public interface StubRegistry {
+
+	/**
+	 * Returns true if a test with the given id is set up.
+	 */
+	boolean contains(String testId);
+
+}
@@ -0,0 +1,19 @@
+package org.baessie.simulator.metrics;
+
+/**
+ * How the requests of a protocol arrive, which decides what its gauge of
+ * ongoing work counts.
+ */
+public enum Transport {
+
+	/**
+	 * Requests served by the servlet. Requests being served are counted.
+	 */
+	HTTP,
+
+	/**
+	 * Requests read from socket connections. Open connections are counted.
+	 */
+	SOCKET
+
+}
@@ -0,0 +1,201 @@
+package org.baessie.simulator.proxy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.baessie.simulator.journal.JournalEntry;
+import org.baessie.simulator.rest.RestSimulator;
+import org.baessie.simulator.util.SimulatorUtils;
+import org.baessie.simulator.ws.WSSimulator;
+
+/**
+ * Forwards requests that no test matches to the upstream server given by the
+ * system property {@value #UPSTREAM_PROPERTY}, and turns each successful
+ * exchange into a test that answers the same request the same way.
+ */
+public class ProxyRecorder {
+
+	public static final String UPSTREAM_PROPERTY = "baessie.proxy.upstream";
+
+	private static final int CONNECT_TIMEOUT = 10000;
+	private static final int READ_TIMEOUT = 60000;
+	// Headers that concern a single connection, which are neither forwarded
+	// nor recorded. Accept-Encoding is left out so that the upstream server
+	// answers with a body that can be recorded as text.
+	private static final Set<String> HOP_BY_HOP_HEADERS = new HashSet<String>(Arrays.asList("connection", "keep-alive", "proxy-authenticate",
+			"proxy-authorization", "te", "trailer", "transfer-encoding", "upgrade", "host", "content-length", "accept-encoding"));
+	// Response headers that are forwarded but not recorded
+	private static final Set<String> UNRECORDED_HEADERS = new HashSet<String>(Arrays.asList("date", "server", "content-encoding"));
+
+	/**
+	 * Recorder that forwards nothing.
+	 */
+	public static final ProxyRecorder DISABLED = new ProxyRecorder(null);
+
+	private final String upstream;
+	private final String testIdPrefix = "recorded-" + Long.toString(System.currentTimeMillis(), 36) + "-";
+	private final AtomicLong sequence = new AtomicLong();
+
+	/**
+	 * @param upstream
+	 *            the url that the path of a forwarded request is appended to
+	 */
+	public ProxyRecorder(final String upstream) {
+		this.upstream = upstream != null && upstream.endsWith("/") ? upstream.substring(0, upstream.length() - 1) : upstream;
+	}
+
+	/**
+	 * Returns a recorder forwarding to the server given by the system property
+	 * {@value #UPSTREAM_PROPERTY}, or {@link #DISABLED} if it is not set.
+	 */
+	public static ProxyRecorder create() {
+		final String upstream = System.getProperty(UPSTREAM_PROPERTY);
+		return upstream != null && upstream.trim().length() > 0 ? new ProxyRecorder(upstream.trim()) : DISABLED;
+	}
+
+	public boolean isEnabled() {
+		return upstream != null;
+	}
+
+	public String getUpstream() {
+		return upstream;
+	}
+
+	/**
+	 * Returns true if the header concerns the connection it was sent on, and
+	 * should not be passed on.
+	 */
+	public static boolean isHopByHop(final String header) {
+		return HOP_BY_HOP_HEADERS.contains(header.toLowerCase());
+	}
+
+	/**
+	 * Sends a request to the upstream server and reads its response.
+	 *
+	 * @param path
+	 *            the path of the request within the simulator
+	 * @param queryString
+	 *            the query string of the request, or null
+	 */
+	public UpstreamResponse forward(final String method, final String path, final String queryString, final Map<String, List<String>> headers, final byte[] body)
+			throws IOException {
+		final URL url = new URL(upstream + path + (queryString != null ? "?" + queryString : ""));
+		final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		try {
+			connection.setConnectTimeout(CONNECT_TIMEOUT);
+			connection.setReadTimeout(READ_TIMEOUT);
+			connection.setInstanceFollowRedirects(false);
+			connection.setRequestMethod(method);
+			for (final Map.Entry<String, List<String>> header : headers.entrySet()) {
+				if (!isHopByHop(header.getKey())) {
+					for (final String value : header.getValue()) {
+						connection.addRequestProperty(header.getKey(), value);
+					}
+				}
+			}
+			if (body != null && body.length > 0) {
+				connection.setDoOutput(true);
+				connection.setFixedLengthStreamingMode(body.length);
+				final OutputStream out = connection.getOutputStream();
+				try {
+					out.write(body);
+				} finally {
+					out.close();
+				}
+			}
+			final int status = connection.getResponseCode();
+			final Map<String, List<String>> responseHeaders = new LinkedHashMap<String, List<String>>();
+			for (final Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
+				// The status line is kept under the null key
+				if (header.getKey() != null && !isHopByHop(header.getKey())) {
+					responseHeaders.put(header.getKey(), new ArrayList<String>(header.getValue()));
+				}
+			}
+			final InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+			return new UpstreamResponse(status, responseHeaders, readFully(in));
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	/**
+	 * Returns a WS test answering the request with the recorded response, or
+	 * null if the response was not successful.
+	 */
+	public JournalEntry recordWS(final String request, final UpstreamResponse response) throws IOException {
+		if (!response.isSuccessful()) {
+			return null;
+		}
+		final JournalEntry entry = new JournalEntry(JournalEntry.WS);
+		entry.addParameter(SimulatorUtils.TEST_ID, nextTestId());
+		entry.addParameter(WSSimulator.IN_DATA, request);
+		entry.addParameter(WSSimulator.OUT_DATA, response.getBodyText());
+		addResponseHeaders(entry, WSSimulator.RESPONSE_HEADERS, response);
+		return entry;
+	}
+
+	/**
+	 * Returns a REST test answering requests for the path with the query
+	 * string with the recorded response, or null if the response was not
+	 * successful.
+	 */
+	public JournalEntry recordRest(final String path, final String queryString, final UpstreamResponse response) throws IOException {
+		if (!response.isSuccessful()) {
+			return null;
+		}
+		final JournalEntry entry = new JournalEntry(JournalEntry.REST);
+		entry.addParameter(SimulatorUtils.TEST_ID, nextTestId());
+		entry.addParameter(RestSimulator.PATH, path);
+		if (queryString != null && queryString.length() > 0) {
+			entry.addParameter(RestSimulator.QUERYSTRING, queryString);
+		}
+		entry.addParameter(RestSimulator.OUT_DATA, response.getBodyText());
+		addResponseHeaders(entry, RestSimulator.RESPONSE_HEADERS, response);
+		return entry;
+	}
+
+	private String nextTestId() {
+		return testIdPrefix + sequence.incrementAndGet();
+	}
+
+	private static void addResponseHeaders(final JournalEntry entry, final String parameter, final UpstreamResponse response) {
+		final List<String> headers = new ArrayList<String>();
+		for (final Map.Entry<String, List<String>> header : response.getHeaders().entrySet()) {
+			if (!UNRECORDED_HEADERS.contains(header.getKey().toLowerCase()) && !header.getValue().isEmpty()) {
+				headers.add(header.getKey() + "=" + header.getValue().get(0));
+			}
+		}
+		if (!headers.isEmpty()) {
+			entry.addParameter(parameter, headers.toArray(new String[headers.size()]));
+		}
+	}
+
+	private static byte[] readFully(final InputStream in) throws IOException {
+		if (in == null) {
+			return new byte[0];
+		}
+		try {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) >= 0) {
+				out.write(buffer, 0, read);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+}
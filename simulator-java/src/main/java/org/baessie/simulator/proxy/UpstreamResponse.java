@@ -0,0 +1,72 @@
+package org.baessie.simulator.proxy;
+
+import java.io.UnsupportedEncodingException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Response read from the upstream server of a {@link ProxyRecorder}.
+ */
+public class UpstreamResponse {
+
+	private static final String DEFAULT_CHARSET = "UTF-8";
+
+	private final int status;
+	private final Map<String, List<String>> headers;
+	private final byte[] body;
+
+	public UpstreamResponse(final int status, final Map<String, List<String>> headers, final byte[] body) {
+		this.status = status;
+		this.headers = headers;
+		this.body = body;
+	}
+
+	public int getStatus() {
+		return status;
+	}
+
+	public boolean isSuccessful() {
+		return status >= 200 && status < 300;
+	}
+
+	/**
+	 * Returns the headers of the response that concern the client, by name.
+	 */
+	public Map<String, List<String>> getHeaders() {
+		return headers;
+	}
+
+	public String getHeader(final String name) {
+		for (final Map.Entry<String, List<String>> header : headers.entrySet()) {
+			if (header.getKey().equalsIgnoreCase(name) && !header.getValue().isEmpty()) {
+				return header.getValue().get(0);
+			}
+		}
+		return null;
+	}
+
+	public byte[] getBody() {
+		return body;
+	}
+
+	/**
+	 * Returns the body decoded with the charset of its content type, or UTF-8
+	 * if it has none.
+	 */
+	public String getBodyText() throws UnsupportedEncodingException {
+		return new String(body, getCharset());
+	}
+
+	private String getCharset() {
+		final String contentType = getHeader("Content-Type");
+		if (contentType != null) {
+			for (final String part : contentType.split(";")) {
+				final String trimmed = part.trim();
+				if (trimmed.regionMatches(true, 0, "charset=", 0, 8)) {
+					return trimmed.substring(8).replace("\"", "").trim();
+				}
+			}
+		}
+		return DEFAULT_CHARSET;
+	}
+}
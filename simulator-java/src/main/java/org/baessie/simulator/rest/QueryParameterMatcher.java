@@ -0,0 +1,153 @@
+package org.baessie.simulator.rest;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.baessie.simulator.util.DocumentPool;
+import org.baessie.simulator.util.SimulatorUtils;
+import org.baessie.simulator.util.XmlToolkit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+
+/**
+ * Matcher for the value of a query string parameter of a REST test, compiled
+ * once when the test is set up.
+ */
+public abstract class QueryParameterMatcher {
+
+	private static final Logger LOG = LoggerFactory.getLogger(QueryParameterMatcher.class);
+
+	protected final String key;
+	protected final String testValue;
+
+	protected QueryParameterMatcher(final String key, final String testValue) {
+		this.key = key;
+		this.testValue = testValue;
+	}
+
+	public abstract boolean matches(QueryParameterValue requestValue);
+
+	public static Map<String, QueryParameterMatcher> compile(final Map<String, String> queryStringParameters) {
+		final Map<String, QueryParameterMatcher> matchers = new HashMap<String, QueryParameterMatcher>();
+		for (final Map.Entry<String, String> entry : queryStringParameters.entrySet()) {
+			matchers.put(entry.getKey(), compile(entry.getKey(), entry.getValue()));
+		}
+		return matchers;
+	}
+
+	public static QueryParameterMatcher compile(final String key, final String testValue) {
+		final QueryParameterMatcher textMatcher;
+		if (SimulatorUtils.isBackReference(testValue)) {
+			textMatcher = new BackReferenceMatcher(key, testValue);
+		} else if (testValue.contains(SimulatorUtils.WILDCARD)) {
+			textMatcher = new WildcardMatcher(key, testValue);
+		} else {
+			textMatcher = new LiteralMatcher(key, testValue);
+		}
+
+		if (SimulatorUtils.looksLikeXml(testValue)) {
+			try {
+				return new XmlMatcher(key, testValue, XmlToolkit.parse(testValue), textMatcher);
+			} catch (final Exception e) {
+				LOG.debug("Querystring key {} value is not xml. Document: {} Exception: {}.", new Object[] { key, testValue, e.getMessage() });
+			}
+		}
+		return textMatcher;
+	}
+
+	/**
+	 * Matches values that are equal to the test value.
+	 */
+	static class LiteralMatcher extends QueryParameterMatcher {
+
+		LiteralMatcher(final String key, final String testValue) {
+			super(key, testValue);
+		}
+
+		@Override
+		public boolean matches(final QueryParameterValue requestValue) {
+			if (testValue.equals(requestValue.getValue())) {
+				return true;
+			}
+			LOG.warn("Found unacceptable diff: Querystring key {} does not have matching values {} != {}", new String[] { key, requestValue.getValue(), testValue });
+			return false;
+		}
+	}
+
+	/**
+	 * Matches values where every wildcard of the test value may be replaced by
+	 * any sequence of characters.
+	 */
+	static class WildcardMatcher extends QueryParameterMatcher {
+
+		private final Pattern pattern;
+
+		WildcardMatcher(final String key, final String testValue) {
+			super(key, testValue);
+			pattern = SimulatorUtils.createWildcardPattern(testValue);
+		}
+
+		@Override
+		public boolean matches(final QueryParameterValue requestValue) {
+			if (pattern.matcher(requestValue.getValue()).matches()) {
+				LOG.debug("Found wildcard diff: {}", key);
+				return true;
+			}
+			LOG.warn("Found unacceptable diff: Querystring key {} does not have matching values {} != {}", new String[] { key, requestValue.getValue(), testValue });
+			return false;
+		}
+	}
+
+	/**
+	 * Matches any value, which is captured as a back reference.
+	 */
+	static class BackReferenceMatcher extends QueryParameterMatcher {
+
+		BackReferenceMatcher(final String key, final String testValue) {
+			super(key, testValue);
+		}
+
+		@Override
+		public boolean matches(final QueryParameterValue requestValue) {
+			LOG.debug("Found back reference diff: {}", key);
+			return true;
+		}
+	}
+
+	/**
+	 * Matches xml values against the pre-parsed test document, and values that
+	 * are not xml with the given text matcher.
+	 */
+	static class XmlMatcher extends QueryParameterMatcher {
+
+		private final DocumentPool testDocuments;
+		private final QueryParameterMatcher textMatcher;
+
+		XmlMatcher(final String key, final String testValue, final Document testDocument, final QueryParameterMatcher textMatcher) {
+			super(key, testValue);
+			testDocuments = new DocumentPool(testDocument);
+			this.textMatcher = textMatcher;
+		}
+
+		@Override
+		public boolean matches(final QueryParameterValue requestValue) {
+			final Document requestDocument = requestValue.getDocument();
+			if (requestDocument == null) {
+				return textMatcher.matches(requestValue);
+			}
+			final Document testDocument = testDocuments.borrow();
+			try {
+				if (SimulatorUtils.doesXMLDocumentsMatch(testDocument, requestDocument) != null) {
+					return true;
+				}
+			} finally {
+				testDocuments.release(testDocument);
+			}
+			LOG.warn("Found unacceptable diff: Querystring key {} contained xml: {} which did not match the setup data: {}", new Object[] { key, requestValue.getValue(), testValue });
+			return false;
+		}
+	}
+
+}
@@ -0,0 +1,60 @@
+package org.baessie.simulator.rest;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.baessie.simulator.util.SimulatorUtils;
+import org.baessie.simulator.util.XmlToolkit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+
+/**
+ * A query string parameter value of a request. The value is parsed as xml at
+ * most once per request, and only if it looks like xml, no matter how many
+ * tests it is compared with.
+ */
+public class QueryParameterValue {
+
+	private static final Logger LOG = LoggerFactory.getLogger(QueryParameterValue.class);
+
+	private final String key;
+	private final String value;
+	private Document document;
+	private boolean parsed;
+
+	public QueryParameterValue(final String key, final String value) {
+		this.key = key;
+		this.value = value;
+	}
+
+	public String getValue() {
+		return value;
+	}
+
+	/**
+	 * Returns the value parsed as xml, or null if it is not xml.
+	 */
+	public Document getDocument() {
+		if (!parsed) {
+			parsed = true;
+			if (value != null && SimulatorUtils.looksLikeXml(value)) {
+				try {
+					document = XmlToolkit.parse(value);
+				} catch (final Exception e) {
+					LOG.debug("Querystring key {} value is not xml. Document: {} Exception: {}.", new Object[] { key, value, e.getMessage() });
+				}
+			}
+		}
+		return document;
+	}
+
+	public static Map<String, QueryParameterValue> createValues(final Map<String, String> queryStringParameters) {
+		final Map<String, QueryParameterValue> values = new HashMap<String, QueryParameterValue>();
+		for (final Map.Entry<String, String> entry : queryStringParameters.entrySet()) {
+			values.put(entry.getKey(), new QueryParameterValue(entry.getKey(), entry.getValue()));
+		}
+		return values;
+	}
+
+}
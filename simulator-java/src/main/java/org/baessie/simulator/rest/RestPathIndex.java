@@ -0,0 +1,201 @@
+package org.baessie.simulator.rest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.baessie.simulator.util.CandidateList;
+import org.baessie.simulator.util.TestIndex;
+
+/**
+ * Index of REST tests stored in a trie on their reversed paths. Since a test
+ * path matches every request path that ends with it, all tests that can match
+ * a request are found by walking the request path backwards from the root of
+ * the trie. Within a node the tests are bucketed on the key set of their query
+ * string parameters, which must be equal to the key set of the request.
+ *
+ * The index is immutable. Adding or removing tests copies only the nodes on the
+ * path of the test, which makes it possible to publish it to concurrent readers
+ * without any locking.
+ */
+public final class RestPathIndex implements TestIndex<RestTestData, RestPathIndex> {
+
+	public static final RestPathIndex EMPTY = new RestPathIndex(Node.EMPTY);
+
+	private static final RestTestData[] NO_TESTS = new RestTestData[0];
+
+	private final Node root;
+
+	private RestPathIndex(final Node root) {
+		this.root = root;
+	}
+
+	@Override
+	public RestPathIndex plus(final RestTestData testData) {
+		final String path = pathOf(testData);
+		return new RestPathIndex(root.plus(path, path.length(), testData));
+	}
+
+	/**
+	 * Returns an index with all the given tests added, copying the nodes of
+	 * each path and query string keys they are added to only once.
+	 */
+	@Override
+	public RestPathIndex plus(final List<RestTestData> testDatas) {
+		final Map<String, Map<Set<String>, List<RestTestData>>> byPath = new HashMap<String, Map<Set<String>, List<RestTestData>>>();
+		for (final RestTestData testData : testDatas) {
+			final String path = pathOf(testData);
+			Map<Set<String>, List<RestTestData>> byKeys = byPath.get(path);
+			if (byKeys == null) {
+				byKeys = new HashMap<Set<String>, List<RestTestData>>();
+				byPath.put(path, byKeys);
+			}
+			final Set<String> keys = Node.keysOf(testData);
+			List<RestTestData> added = byKeys.get(keys);
+			if (added == null) {
+				added = new ArrayList<RestTestData>();
+				byKeys.put(keys, added);
+			}
+			added.add(testData);
+		}
+		Node newRoot = root;
+		for (final Map.Entry<String, Map<Set<String>, List<RestTestData>>> path : byPath.entrySet()) {
+			for (final Map.Entry<Set<String>, List<RestTestData>> keys : path.getValue().entrySet()) {
+				newRoot = newRoot.plus(path.getKey(), path.getKey().length(), keys.getKey(), keys.getValue().toArray(NO_TESTS));
+			}
+		}
+		return new RestPathIndex(newRoot);
+	}
+
+	@Override
+	public RestPathIndex minus(final List<RestTestData> testDatas) {
+		Node newRoot = root;
+		for (final RestTestData testData : testDatas) {
+			final String path = pathOf(testData);
+			newRoot = newRoot.minus(path, path.length(), testData);
+		}
+		return new RestPathIndex(newRoot);
+	}
+
+	/**
+	 * Returns the tests with a path that is a suffix of the request path and
+	 * the same query string parameter keys as the request, in the order they
+	 * should be tried.
+	 */
+	public List<RestTestData> findCandidates(final String requestPath, final Set<String> requestKeys) {
+		final CandidateList<RestTestData> candidates = new CandidateList<RestTestData>();
+		Node node = root;
+		int pos = requestPath.length();
+		while (node != null) {
+			final RestTestData[] testDatas = node.testDatas.get(requestKeys);
+			if (testDatas != null) {
+				for (final RestTestData testData : testDatas) {
+					candidates.add(testData);
+				}
+			}
+			node = pos > 0 ? node.children.get(requestPath.charAt(--pos)) : null;
+		}
+		return candidates.sorted();
+	}
+
+	private static String pathOf(final RestTestData testData) {
+		return testData.getPath() != null ? testData.getPath() : "";
+	}
+
+	private static final class Node {
+		static final Node EMPTY = new Node(new HashMap<Character, Node>(), new HashMap<Set<String>, RestTestData[]>());
+
+		private final Map<Character, Node> children;
+		private final Map<Set<String>, RestTestData[]> testDatas;
+
+		private Node(final Map<Character, Node> children, final Map<Set<String>, RestTestData[]> testDatas) {
+			this.children = children;
+			this.testDatas = testDatas;
+		}
+
+		/**
+		 * Returns a copy of this node with the test added below it, at the
+		 * node for the part of the path before the given position.
+		 */
+		Node plus(final String path, final int pos, final RestTestData testData) {
+			return plus(path, pos, keysOf(testData), new RestTestData[] { testData });
+		}
+
+		/**
+		 * Returns a copy of this node with the tests, which all have the given
+		 * query string keys, added below it.
+		 */
+		Node plus(final String path, final int pos, final Set<String> keys, final RestTestData[] added) {
+			if (pos == 0) {
+				final Map<Set<String>, RestTestData[]> copy = new HashMap<Set<String>, RestTestData[]>(testDatas);
+				final RestTestData[] bucket = copy.get(keys);
+				copy.put(keys, append(bucket != null ? bucket : NO_TESTS, added));
+				return new Node(children, copy);
+			}
+			final Character c = Character.valueOf(path.charAt(pos - 1));
+			Node child = children.get(c);
+			if (child == null) {
+				child = EMPTY;
+			}
+			final Map<Character, Node> copy = new HashMap<Character, Node>(children);
+			copy.put(c, child.plus(path, pos - 1, keys, added));
+			return new Node(copy, testDatas);
+		}
+
+		Node minus(final String path, final int pos, final RestTestData testData) {
+			if (pos == 0) {
+				final Set<String> keys = keysOf(testData);
+				final RestTestData[] bucket = testDatas.get(keys);
+				if (bucket == null) {
+					return this;
+				}
+				final Map<Set<String>, RestTestData[]> copy = new HashMap<Set<String>, RestTestData[]>(testDatas);
+				final RestTestData[] remaining = remove(bucket, testData);
+				if (remaining.length == 0) {
+					copy.remove(keys);
+				} else {
+					copy.put(keys, remaining);
+				}
+				return new Node(children, copy);
+			}
+			final Character c = Character.valueOf(path.charAt(pos - 1));
+			final Node child = children.get(c);
+			if (child == null) {
+				return this;
+			}
+			final Node remainingChild = child.minus(path, pos - 1, testData);
+			final Map<Character, Node> copy = new HashMap<Character, Node>(children);
+			if (remainingChild.isEmpty()) {
+				copy.remove(c);
+			} else {
+				copy.put(c, remainingChild);
+			}
+			return new Node(copy, testDatas);
+		}
+
+		boolean isEmpty() {
+			return children.isEmpty() && testDatas.isEmpty();
+		}
+
+		private static Set<String> keysOf(final RestTestData testData) {
+			return new HashSet<String>(testData.getQueryStringParameters().keySet());
+		}
+
+		private static RestTestData[] append(final RestTestData[] testDatas, final RestTestData[] added) {
+			final RestTestData[] copy = Arrays.copyOf(testDatas, testDatas.length + added.length);
+			System.arraycopy(added, 0, copy, testDatas.length, added.length);
+			return copy;
+		}
+
+		private static RestTestData[] remove(final RestTestData[] testDatas, final RestTestData testData) {
+			final List<RestTestData> list = new ArrayList<RestTestData>(Arrays.asList(testDatas));
+			list.remove(testData);
+			return list.toArray(NO_TESTS);
+		}
+	}
+
+}
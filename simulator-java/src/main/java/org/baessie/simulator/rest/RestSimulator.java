@@ -3,17 +3,26 @@ package org.baessie.simulator.rest;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+
+import javax.xml.transform.TransformerException;
 
 import org.baessie.simulator.SimulatorException;
 import org.baessie.simulator.SimulatorRequest;
 import org.baessie.simulator.SimulatorResponse;
+import org.baessie.simulator.delay.DelayDistributions;
 import org.baessie.simulator.util.BackReferenceValue;
+import org.baessie.simulator.util.ResponseTemplate;
 import org.baessie.simulator.util.SimulatorUtils;
+import org.baessie.simulator.util.TestDataRegistry;
+import org.baessie.simulator.util.XmlToolkit;
 import org.baessie.simulator.ws.BackReferenceLocation;
-import org.custommonkey.xmlunit.XMLUnit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
@@ -32,15 +41,25 @@ public class RestSimulator {
 	public static final String OUT_BACK_REFERENCES = "responseBackReferences";
 	public static final String SCAN_FOR_BACK_REFERENCES = "scanBackReferences";
 
-	private final List<RestTestData> testDatas;
+	// Since the RestSimulator may be invoked concurrently the tests are kept in
+	// a registry that can be matched against without locking
+	private final TestDataRegistry<RestTestData, RestPathIndex> testDatas = new TestDataRegistry<RestTestData, RestPathIndex>(RestPathIndex.EMPTY);
+	private final Set<String> reservedPaths;
 
 	public RestSimulator() {
-		testDatas = new ArrayList<RestTestData>();
+		this(Collections.<String> emptySet());
+	}
+
+	/**
+	 * Creates a simulator that refuses tests with any of the given paths, such
+	 * as the paths of the admin endpoints that would be served instead.
+	 */
+	public RestSimulator(final Collection<String> reservedPaths) {
+		this.reservedPaths = new HashSet<String>(reservedPaths);
 	}
 
 	public int clearTests() {
-		final int numberOfRemovedTests = testDatas.size();
-		testDatas.clear();
+		final int numberOfRemovedTests = testDatas.clear();
 		LOG.info("Cleared all REST tests");
 		return numberOfRemovedTests;
 	}
@@ -56,11 +75,44 @@ public class RestSimulator {
 		} catch (final MissingParameterException e) {
 			LOG.warn("Failed to add REST test due to missing parameter", e);
 			return null;
+		} catch (final TransformerException e) {
+			LOG.warn("Failed to add REST test due to unusable response", e);
+			return null;
+		} catch (final IOException e) {
+			LOG.warn("Failed to add REST test due to unreadable delay distribution", e);
+			return null;
+		} catch (final RuntimeException e) {
+			LOG.warn("Failed to add REST test due to invalid parameter", e);
+			return null;
 		}
 	}
 
+	/**
+	 * Makes all the given tests available to matching at once, replacing the
+	 * tests with the same test ids.
+	 */
+	public void addTests(final List<RestTestData> tests) {
+		testDatas.addAll(tests);
+		LOG.info("Added {} REST tests", tests.size());
+	}
+
+	/**
+	 * Executes the test matching the request, and waits for the delay of the
+	 * test before the response is returned.
+	 */
 	public SimulatorResponse executeTest(final SimulatorRequest request) throws SimulatorException {
-		LOG.info("execute REST test");
+		final SimulatorResponse response = prepareResponse(request);
+		SimulatorUtils.delay(response.getDelay());
+		return response;
+	}
+
+	/**
+	 * Executes the test matching the request without waiting for the delay of
+	 * the test, which is left to the caller through
+	 * {@link SimulatorResponse#getDelay()}.
+	 */
+	public SimulatorResponse prepareResponse(final SimulatorRequest request) throws SimulatorException {
+		LOG.debug("execute REST test");
 		Map<String, String> queryStringParameters = SimulatorUtils.readQueryStringParameters(readQueryStringFromRequest(request));
 
 		if (isEmpty(queryStringParameters)) {
@@ -74,21 +126,20 @@ public class RestSimulator {
 			LOG.warn("Failed to find matching REST test");
 			throw new SimulatorException("Failed to find matching testdata for the request");
 		} else {
-			SimulatorUtils.delay(testdata.getDelay());
 			testdata.incCallCount();
 			final SimulatorResponse response = new SimulatorResponse();
+			response.setTestId(testdata.getTestId());
+			response.setDelay(testdata.getDelay().nextDelay());
 			if (testdata.getOutControlDocument() == null) {
 				final String outText = createResponseText(testdata, queryStringParameters, path);
 				response.setHeaders(testdata.getResponseHeaders());
 				response.setText(outText);
 			} else {
-				final Document outTestDocument = createResponseDocument(testdata, queryStringParameters, path);
-				LOG.info("executed REST test successfully");
-
-				// TODO: Add back reference processing here
+				final List<BackReferenceValue> backReferenceValues = getResponseBackReferenceValues(testdata, queryStringParameters);
+				LOG.debug("executed REST test successfully");
 
 				response.setHeaders(testdata.getResponseHeaders());
-				response.setDocument(outTestDocument);
+				response.setTemplate(testdata.getResponseTemplate(), backReferenceValues);
 			}
 			return response;
 		}
@@ -101,22 +152,26 @@ public class RestSimulator {
 	private RestTestData findMatchingTestData(final Map<String, String> queryStringParameters, final String path) {
 		RestTestData matchingTestData = null;
 
-		LOG.debug("Request query string: " + queryStringParameters);
+		LOG.debug("Request query string: {}", queryStringParameters);
+
+		// The request values are shared by all candidates, so that each value
+		// is parsed at most once
+		final Map<String, QueryParameterValue> requestValues = QueryParameterValue.createValues(queryStringParameters);
 
-		searchloop: for (final RestTestData testData : testDatas) {
-			LOG.debug("Test query string:    " + testData.getQueryStringParameters());
-			if (acceptableQueryString(queryStringParameters, testData.getQueryStringParameters()) && acceptablePath(path, testData.getPath())) {
+		// Only tests with a path that is a suffix of the request path and the
+		// same query string keys as the request are returned as candidates
+		searchloop: for (final RestTestData testData : testDatas.getIndex().findCandidates(path, queryStringParameters.keySet())) {
+			LOG.debug("Test query string:    {}", testData.getQueryStringParameters());
+			if (acceptableQueryString(requestValues, testData.getQueryStringMatchers()) && acceptablePath(path, testData.getPath())) {
 				matchingTestData = testData;
 				break searchloop;
-			} else {
-
 			}
 		}
 
 		if (matchingTestData != null) {
-			// Put last in list to possibly improve performance
-			testDatas.remove(matchingTestData);
-			testDatas.add(matchingTestData);
+			// Move last in matching order, so that tests matching the same
+			// request take turns
+			testDatas.matched(matchingTestData);
 		}
 
 		return matchingTestData;
@@ -130,48 +185,33 @@ public class RestSimulator {
 		}
 	}
 
-	private boolean acceptableQueryString(final Map<String, String> requestParameters, final Map<String, String> testParameters) {
-		boolean acceptable = true;
-		if (requestParameters.size() == testParameters.size()) {
-			for (final String key : requestParameters.keySet()) {
-				final String requestValue = requestParameters.get(key);
-				final String testValue = testParameters.get(key);
-				if (testValue == null) {
-					acceptable = false;
-					LOG.warn("Found unacceptable diff: Querystring key {} is missing in test", key);
-				} else if (requestValue == null) {
-					acceptable = false;
-					LOG.warn("Found unacceptable diff: Querystring key {} is missing in request", key);
-				} else {
-					final Document requestDocument = createXMLDocument(key, requestValue);
-					final Document testDocument = createXMLDocument(key, testValue);
-					if (requestDocument != null && testDocument != null) {
-						acceptable = acceptableQueryDocument(key, testDocument, requestDocument);
-					} else {
-						if (!requestValue.equals(testValue)) {
-							if (SimulatorUtils.isBackReference(testValue)) {
-								LOG.debug("Found back reference diff: ", key);
-							} else {
-								acceptable = false;
-								LOG.warn("Found unacceptable diff: Querystring key {} does not have matching values {} != {}", new String[] { key, requestValue, testValue });
-							}
-						}
-					}
-				}
+	private boolean acceptableQueryString(final Map<String, QueryParameterValue> requestValues, final Map<String, QueryParameterMatcher> testMatchers) {
+		if (requestValues.size() != testMatchers.size()) {
+			LOG.warn("Found unacceptable diff: Number of querystring parameters is not matching {} : {}", requestValues.size(), testMatchers.size());
+			return false;
+		}
+		for (final Map.Entry<String, QueryParameterValue> entry : requestValues.entrySet()) {
+			final String key = entry.getKey();
+			final QueryParameterValue requestValue = entry.getValue();
+			final QueryParameterMatcher testMatcher = testMatchers.get(key);
+			if (testMatcher == null) {
+				LOG.warn("Found unacceptable diff: Querystring key {} is missing in test", key);
+				return false;
+			} else if (requestValue.getValue() == null) {
+				LOG.warn("Found unacceptable diff: Querystring key {} is missing in request", key);
+				return false;
+			} else if (!testMatcher.matches(requestValue)) {
+				return false;
 			}
-		} else {
-			LOG.warn("Found unacceptable diff: Number of querystring parameters is not matching {} : {}", requestParameters.size(), testParameters.size());
-			acceptable = false;
 		}
-
-		return acceptable;
+		return true;
 	}
 
 	protected boolean canBeXMLCompared(final String key, final String requestValue, final String testValue) {
 		boolean bIsXml = false;
 		try {
-			XMLUnit.buildControlDocument(requestValue);
-			XMLUnit.buildControlDocument(testValue);
+			XmlToolkit.parse(requestValue);
+			XmlToolkit.parse(testValue);
 			bIsXml = true;
 		} catch (final SAXException e) {
 			LOG.debug("Querystring key {} values are not xml. Request: {} test: {}. SAXException: {}.", new String[] { key, requestValue, testValue, e.getMessage() });
@@ -184,7 +224,7 @@ public class RestSimulator {
 	protected Document createXMLDocument(final String key, final String possibleXML) {
 		Document document = null;
 		try {
-			document = XMLUnit.buildControlDocument(possibleXML);
+			document = XmlToolkit.parse(possibleXML);
 		} catch (final SAXException e) {
 			LOG.debug("Querystring key {} value is not xml. Document: {} SAXException: {}.", new Object[] { key, possibleXML, e.getMessage() });
 		} catch (final IOException e) {
@@ -196,7 +236,7 @@ public class RestSimulator {
 	protected Document createXMLDocument(final String possibleXML) {
 		Document document = null;
 		try {
-			document = XMLUnit.buildControlDocument(possibleXML);
+			document = XmlToolkit.parse(possibleXML);
 		} catch (final SAXException e) {
 			LOG.debug("Could not convert data to XML - data: {} SAXException: {}.", new Object[] { possibleXML, e.getMessage() });
 		} catch (final IOException e) {
@@ -208,8 +248,8 @@ public class RestSimulator {
 	protected boolean acceptableQueryXmlString(final String key, final String setupValue, final String testValue) {
 		boolean bAcceptable;
 		try {
-			final Document setupDocument = XMLUnit.buildControlDocument(setupValue);
-			final Document testDocument = XMLUnit.buildControlDocument(testValue);
+			final Document setupDocument = XmlToolkit.parse(setupValue);
+			final Document testDocument = XmlToolkit.parse(testValue);
 			bAcceptable = acceptableQueryDocument(key, setupDocument, testDocument);
 
 		} catch (final SAXException e) {
@@ -231,16 +271,15 @@ public class RestSimulator {
 		return bAcceptable;
 	}
 
-	private Document createResponseDocument(final RestTestData testdata, final Map<String, String> queryStringParameters, final String path) {
-		final Document outTestDocument = SimulatorUtils.copyDocument(testdata.getOutControlDocument());
-
-		if (outTestDocument != null && !testdata.getQueryStringBackReferences().isEmpty() && !testdata.getOutBackReferences().isEmpty()) {
-			final List<BackReferenceValue> backReferenceValues = getBackReferenceValues(queryStringParameters, testdata.getQueryStringBackReferences());
-
-			SimulatorUtils.replaceBackReferences(outTestDocument, testdata.getOutBackReferences(), backReferenceValues, testdata.getOutNameSpaces());
+	/**
+	 * Returns the values to fill the back references of the response template
+	 * with.
+	 */
+	private List<BackReferenceValue> getResponseBackReferenceValues(final RestTestData testdata, final Map<String, String> queryStringParameters) {
+		if (!testdata.getQueryStringBackReferences().isEmpty() && !testdata.getOutBackReferences().isEmpty()) {
+			return getBackReferenceValues(queryStringParameters, testdata.getQueryStringBackReferences());
 		}
-
-		return outTestDocument;
+		return Collections.emptyList();
 	}
 
 	private List<BackReferenceValue> getBackReferenceValues(final Map<String, String> queryStringParameters, final List<BackReferenceLocation> queryStringBackReferences) {
@@ -282,18 +321,45 @@ public class RestSimulator {
 
 	public Integer verifyTest(final String testId) {
 		if (testId != null) {
-			for (final RestTestData testData : testDatas) {
-				if (testId.equals(testData.getTestId())) {
-					LOG.info("Verified REST test with testId: " + testId);
-					return testData.getCallCount();
-				}
+			final RestTestData testData = testDatas.get(testId);
+			if (testData != null) {
+				LOG.info("Verified REST test with testId: " + testId);
+				return testData.getCallCount();
 			}
 		}
 		LOG.info("Failed to verify REST test with testId: " + testId);
 		return null;
 	}
 
-	private String createAndStoreTest(final SimulatorRequest request) throws MissingParameterException {
+	/**
+	 * Returns the call count of a test without logging it, or null if there
+	 * is no such test.
+	 */
+	public Integer getCallCount(final String testId) {
+		final RestTestData testData = testId != null ? testDatas.get(testId) : null;
+		return testData != null ? testData.getCallCount() : null;
+	}
+
+	/**
+	 * Sets the call count of a test, as when the test is restored.
+	 */
+	public void setCallCount(final String testId, final int count) {
+		final RestTestData testData = testId != null ? testDatas.get(testId) : null;
+		if (testData != null) {
+			testData.setCallCount(count);
+		}
+	}
+
+	private String createAndStoreTest(final SimulatorRequest request) throws MissingParameterException, TransformerException, IOException {
+		final RestTestData testData = createTest(request);
+		testDatas.add(testData);
+		return testData.getTestId();
+	}
+
+	/**
+	 * Creates the test described by a setup request without adding it.
+	 */
+	public RestTestData createTest(final SimulatorRequest request) throws MissingParameterException, TransformerException, IOException {
 		final String testId = request.getParameter(SimulatorUtils.TEST_ID);
 		if (testId != null) {
 			final RestTestData testData = new RestTestData();
@@ -307,7 +373,11 @@ public class RestSimulator {
 				queryStringParameters = SimulatorUtils.readQueryStringParameters(trimedQueryString);
 			}
 			testData.setQueryStringParameters(queryStringParameters);
+			testData.setQueryStringMatchers(QueryParameterMatcher.compile(queryStringParameters));
 			testData.setPath(trim(request.getParameter(PATH)));
+			if (isReserved(testData.getPath())) {
+				throw new IllegalArgumentException("Path is reserved for an admin endpoint: " + testData.getPath());
+			}
 			String outData = request.getParameter(OUT_DATA);
 			if (outData == null) {
 				outData = "";
@@ -315,7 +385,7 @@ public class RestSimulator {
 			boolean wasXML = true;
 			try {
 				if (outData.startsWith("<")) {
-					testData.setOutControlDocument(XMLUnit.buildControlDocument(outData));
+					testData.setOutControlDocument(XmlToolkit.parse(outData));
 
 				} else {
 					wasXML = false;
@@ -353,14 +423,23 @@ public class RestSimulator {
 				}
 			}
 
-			testData.setDelay(request.getIntegerParameter(DELAY));
-			testDatas.add(testData);
-			return testId;
+			if (testData.getOutControlDocument() != null) {
+				testData.setResponseTemplate(ResponseTemplate.compile(testData.getOutControlDocument(), testData.getOutBackReferences(), testData.getOutNameSpaces()));
+			}
+			testData.setDelay(DelayDistributions.fromRequest(request));
+			return testData;
 		} else {
 			throw new MissingParameterException("Missing parameter: " + SimulatorUtils.TEST_ID);
 		}
 	}
 
+	private boolean isReserved(final String path) {
+		if (path == null) {
+			return false;
+		}
+		return reservedPaths.contains(path.startsWith("/") ? path : "/" + path);
+	}
+
 	private String readQueryStringFromRequest(final SimulatorRequest request) throws SimulatorException {
 		String queryString = request.getQueryString();
 		if (queryString == null) {
@@ -381,13 +460,7 @@ public class RestSimulator {
 
 	public void removeTest(final String testId) {
 		if (testId != null) {
-			final List<RestTestData> toBeRemoved = new ArrayList<RestTestData>();
-			for (final RestTestData testData : testDatas) {
-				if (testId.equals(testData.getTestId())) {
-					toBeRemoved.add(testData);
-				}
-			}
-			testDatas.removeAll(toBeRemoved);
+			testDatas.remove(testId);
 		}
 	}
 }
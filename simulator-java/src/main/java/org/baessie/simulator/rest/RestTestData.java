@@ -2,25 +2,35 @@ package org.baessie.simulator.rest;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.baessie.simulator.delay.DelayDistribution;
+import org.baessie.simulator.delay.DelayDistributions;
+import org.baessie.simulator.util.ResponseTemplate;
+import org.baessie.simulator.util.SimulatorTestData;
 import org.baessie.simulator.ws.BackReferenceLocation;
 import org.w3c.dom.Document;
 
-public class RestTestData {
+public class RestTestData implements SimulatorTestData {
 
 	private String testId;
 	private Map<String, String> queryStringParameters;
+	private Map<String, QueryParameterMatcher> queryStringMatchers;
 	private String path;
 	private Document outControlDocument;
+	private ResponseTemplate responseTemplate;
 	List<BackReferenceLocation> queryStringBackReferences;
 	private List<BackReferenceLocation> outBackReferences;
-	private Integer delay;
-	private int callCount;
+	private DelayDistribution delay = DelayDistributions.NONE;
+	private final AtomicInteger callCount = new AtomicInteger();
 	private Map<String, String> responseHeaders;
 
 	private Map<String, String> outNameSpaces;
 	private String text;
 
+	private volatile long sequence;
+
+	@Override
 	public String getTestId() {
 		return testId;
 	}
@@ -37,6 +47,14 @@ public class RestTestData {
 		this.queryStringParameters = queryStringParameters;
 	}
 
+	public Map<String, QueryParameterMatcher> getQueryStringMatchers() {
+		return queryStringMatchers;
+	}
+
+	public void setQueryStringMatchers(final Map<String, QueryParameterMatcher> queryStringMatchers) {
+		this.queryStringMatchers = queryStringMatchers;
+	}
+
 	public String getPath() {
 		return path;
 	}
@@ -53,6 +71,14 @@ public class RestTestData {
 		this.outControlDocument = outControlDocument;
 	}
 
+	public ResponseTemplate getResponseTemplate() {
+		return responseTemplate;
+	}
+
+	public void setResponseTemplate(final ResponseTemplate responseTemplate) {
+		this.responseTemplate = responseTemplate;
+	}
+
 	public List<BackReferenceLocation> getOutBackReferences() {
 		return outBackReferences;
 	}
@@ -61,20 +87,24 @@ public class RestTestData {
 		this.outBackReferences = outBackReferences;
 	}
 
-	public Integer getDelay() {
+	public DelayDistribution getDelay() {
 		return delay;
 	}
 
-	public void setDelay(final Integer delay) {
+	public void setDelay(final DelayDistribution delay) {
 		this.delay = delay;
 	}
 
 	public void incCallCount() {
-		callCount++;
+		callCount.incrementAndGet();
 	}
 
 	public int getCallCount() {
-		return callCount;
+		return callCount.get();
+	}
+
+	public void setCallCount(final int count) {
+		callCount.set(count);
 	}
 
 	public Map<String, String> getResponseHeaders() {
@@ -109,4 +139,14 @@ public class RestTestData {
 		this.queryStringBackReferences = queryStringBackReferences;
 	}
 
+	@Override
+	public long getSequence() {
+		return sequence;
+	}
+
+	@Override
+	public void setSequence(final long sequence) {
+		this.sequence = sequence;
+	}
+
 }
@@ -0,0 +1,60 @@
+package org.baessie.simulator.socket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Frames prefixed with their length as a fixed number of ASCII decimal
+ * digits, as is common for ISO 8583 messages. The length does not include the
+ * prefix itself.
+ */
+public class AsciiLengthFrameCodec implements FrameCodec {
+
+	private final int digits;
+
+	public AsciiLengthFrameCodec(final int digits) {
+		if (digits < 1 || digits > 9) {
+			throw new IllegalArgumentException("Length header must have 1 to 9 digits: " + digits);
+		}
+		this.digits = digits;
+	}
+
+	@Override
+	public ByteBuffer decode(final ByteBuffer in) throws IOException {
+		if (in.remaining() < digits) {
+			return null;
+		}
+		final int start = in.position();
+		int length = 0;
+		for (int i = 0; i < digits; i++) {
+			final int digit = in.get(start + i) - '0';
+			if (digit < 0 || digit > 9) {
+				throw new IOException("Illegal length header in frame");
+			}
+			length = length * 10 + digit;
+		}
+		if (in.remaining() - digits < length) {
+			return null;
+		}
+		return FrameCodecs.slice(in, start + digits, length, start + digits + length);
+	}
+
+	@Override
+	public ByteBuffer encode(final byte[] payload) {
+		final String header = String.valueOf(payload.length);
+		if (header.length() > digits) {
+			throw new IllegalArgumentException("Response too long for a " + digits + " digit length header: " + payload.length);
+		}
+		final ByteBuffer buffer = ByteBuffer.allocate(digits + payload.length);
+		for (int i = header.length(); i < digits; i++) {
+			buffer.put((byte) '0');
+		}
+		for (int i = 0; i < header.length(); i++) {
+			buffer.put((byte) header.charAt(i));
+		}
+		buffer.put(payload);
+		buffer.flip();
+		return buffer;
+	}
+
+}
@@ -0,0 +1,82 @@
+package org.baessie.simulator.socket;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Blocking server that starts a new {@link SocketHandler} thread for every
+ * accepted connection.
+ */
+public class BlockingSocketServer implements SocketServer, Runnable {
+
+	private final SocketPort socketPort;
+	private final ServerSocket serverSocket;
+	private final Thread serverThread;
+	private boolean running = true;
+	private final Object monitor = new Object();
+
+	public BlockingSocketServer(final SocketPort socketPort, final int port) throws IOException {
+		this.socketPort = socketPort;
+		serverSocket = new ServerSocket(port);
+		serverThread = new Thread(this);
+	}
+
+	@Override
+	public void start() {
+		serverThread.start();
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (isRunning()) {
+				final Socket socket = serverSocket.accept();
+				if (isRunning()) {
+					new Thread(new SocketHandler(socket, socketPort)).start();
+				}
+			}
+		} catch (final IOException e) {
+			e.printStackTrace();
+		} finally {
+			try {
+				serverSocket.close();
+			} catch (final IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private boolean isRunning() {
+		synchronized (monitor) {
+			return running;
+		}
+	}
+
+	@Override
+	public void terminate() {
+		synchronized (monitor) {
+			running = false;
+		}
+		try {
+			final Socket socket = new Socket(serverSocket.getInetAddress(), serverSocket.getLocalPort());
+			socket.close();
+			serverThread.join();
+		} catch (final IOException e) {
+			e.printStackTrace();
+		} catch (final InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public ServerSocket getServerSocket() {
+		return serverSocket;
+	}
+
+	@Override
+	public Thread getServerThread() {
+		return serverThread;
+	}
+
+}
@@ -0,0 +1,36 @@
+package org.baessie.simulator.socket;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Pool of direct byte buffers of a fixed size. Direct buffers are expensive
+ * to allocate, so they are reused instead of being allocated per read.
+ */
+public class BufferPool {
+
+	private final int bufferSize;
+	private final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+
+	public BufferPool(final int bufferSize) {
+		this.bufferSize = bufferSize;
+	}
+
+	public ByteBuffer acquire() {
+		final ByteBuffer buffer = buffers.poll();
+		if (buffer == null) {
+			return ByteBuffer.allocateDirect(bufferSize);
+		}
+		buffer.clear();
+		return buffer;
+	}
+
+	public void release(final ByteBuffer buffer) {
+		buffers.offer(buffer);
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+}
@@ -0,0 +1,50 @@
+package org.baessie.simulator.socket;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Frames terminated by a delimiter. The delimiter is not part of the decoded
+ * frame, and is appended to every response.
+ */
+public class DelimiterFrameCodec implements FrameCodec {
+
+	private final byte[] delimiter;
+
+	public DelimiterFrameCodec(final byte[] delimiter) {
+		if (delimiter.length == 0) {
+			throw new IllegalArgumentException("Delimiter must not be empty");
+		}
+		this.delimiter = delimiter.clone();
+	}
+
+	@Override
+	public ByteBuffer decode(final ByteBuffer in) {
+		final int start = in.position();
+		final int last = in.limit() - delimiter.length;
+		for (int i = start; i <= last; i++) {
+			if (isDelimiterAt(in, i)) {
+				return FrameCodecs.slice(in, start, i - start, i + delimiter.length);
+			}
+		}
+		return null;
+	}
+
+	private boolean isDelimiterAt(final ByteBuffer in, final int index) {
+		for (int i = 0; i < delimiter.length; i++) {
+			if (in.get(index + i) != delimiter[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public ByteBuffer encode(final byte[] payload) {
+		final ByteBuffer buffer = ByteBuffer.allocate(payload.length + delimiter.length);
+		buffer.put(payload);
+		buffer.put(delimiter);
+		buffer.flip();
+		return buffer;
+	}
+
+}
@@ -0,0 +1,33 @@
+package org.baessie.simulator.socket;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Frames of a fixed length. Responses are written as they are.
+ */
+public class FixedLengthFrameCodec implements FrameCodec {
+
+	private final int length;
+
+	public FixedLengthFrameCodec(final int length) {
+		if (length < 1) {
+			throw new IllegalArgumentException("Frame length must be positive: " + length);
+		}
+		this.length = length;
+	}
+
+	@Override
+	public ByteBuffer decode(final ByteBuffer in) {
+		if (in.remaining() < length) {
+			return null;
+		}
+		final int start = in.position();
+		return FrameCodecs.slice(in, start, length, start + length);
+	}
+
+	@Override
+	public ByteBuffer encode(final byte[] payload) {
+		return ByteBuffer.wrap(payload);
+	}
+
+}
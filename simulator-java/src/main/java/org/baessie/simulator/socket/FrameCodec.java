@@ -0,0 +1,28 @@
+package org.baessie.simulator.socket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Strategy for splitting the byte stream of a socket connection into request
+ * frames, and for framing the responses written back.
+ */
+public interface FrameCodec {
+
+	/**
+	 * Decodes the next frame from the given buffer. If a complete frame is
+	 * available at the position of the buffer, the payload of the frame is
+	 * returned as a slice of the buffer and the position is moved past the
+	 * frame. Otherwise null is returned and the buffer is left untouched.
+	 *
+	 * @throws IOException
+	 *             if the buffer does not contain a valid frame
+	 */
+	ByteBuffer decode(ByteBuffer in) throws IOException;
+
+	/**
+	 * Frames a response payload.
+	 */
+	ByteBuffer encode(byte[] payload);
+
+}
@@ -0,0 +1,95 @@
+package org.baessie.simulator.socket;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Creates frame codecs from their textual configuration:
+ * <ul>
+ * <li><code>raw</code> - every read is a frame (default)</li>
+ * <li><code>length:2</code>, <code>length:4</code> - big-endian binary length
+ * prefix</li>
+ * <li><code>ascii:4</code>, <code>iso8583</code> - ASCII decimal length
+ * header</li>
+ * <li><code>delimiter:\n</code> - delimiter terminated frames, with the escapes
+ * <code>\n \r \t \0 \\</code> and <code>\xHH</code></li>
+ * <li><code>fixed:128</code> - fixed length frames</li>
+ * </ul>
+ */
+public final class FrameCodecs {
+
+	private static final int ISO_8583_HEADER_DIGITS = 4;
+
+	private FrameCodecs() {
+
+	}
+
+	public static FrameCodec fromString(final String str) {
+		if (str == null || str.trim().length() == 0 || "raw".equals(str.trim())) {
+			return new RawFrameCodec();
+		}
+		final String spec = str.trim();
+		final int colon = spec.indexOf(':');
+		final String type = colon < 0 ? spec : spec.substring(0, colon);
+		final String argument = colon < 0 ? null : spec.substring(colon + 1);
+		if ("iso8583".equals(type) && argument == null) {
+			return new AsciiLengthFrameCodec(ISO_8583_HEADER_DIGITS);
+		} else if ("length".equals(type) && argument != null) {
+			return new LengthPrefixedFrameCodec(Integer.parseInt(argument));
+		} else if ("ascii".equals(type) && argument != null) {
+			return new AsciiLengthFrameCodec(Integer.parseInt(argument));
+		} else if ("fixed".equals(type) && argument != null) {
+			return new FixedLengthFrameCodec(Integer.parseInt(argument));
+		} else if ("delimiter".equals(type) && argument != null) {
+			return new DelimiterFrameCodec(unescape(argument));
+		}
+		throw new IllegalArgumentException("Unknown framing: " + str);
+	}
+
+	/**
+	 * Returns a slice of the given length starting at the given index, and
+	 * moves the position of the buffer to the end of the frame.
+	 */
+	static ByteBuffer slice(final ByteBuffer in, final int start, final int length, final int end) {
+		final ByteBuffer frame = in.duplicate();
+		frame.limit(start + length);
+		frame.position(start);
+		in.position(end);
+		return frame.slice();
+	}
+
+	static byte[] unescape(final String str) {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (int i = 0; i < str.length(); i++) {
+			final char c = str.charAt(i);
+			if (c == '\\' && i + 1 < str.length()) {
+				final char escaped = str.charAt(++i);
+				switch (escaped) {
+				case 'n':
+					out.write('\n');
+					break;
+				case 'r':
+					out.write('\r');
+					break;
+				case 't':
+					out.write('\t');
+					break;
+				case '0':
+					out.write(0);
+					break;
+				case 'x':
+					out.write(Integer.parseInt(str.substring(i + 1, i + 3), 16));
+					i += 2;
+					break;
+				default:
+					out.write(escaped);
+					break;
+				}
+			} else {
+				out.write(c);
+			}
+		}
+		return out.toByteArray();
+	}
+
+}
@@ -0,0 +1,95 @@
+package org.baessie.simulator.socket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Accumulates the bytes read from a connection and decodes complete frames
+ * from them with a {@link FrameCodec}. Frames are returned as slices of the
+ * accumulated bytes, so they are only valid until the next call that returns
+ * null.
+ *
+ * A buffer is borrowed from the pool when bytes are read and handed back as
+ * soon as all of them have been decoded. Frames larger than the pooled
+ * buffers are accumulated in a growing buffer of their own.
+ */
+public class FrameDecoder {
+
+	private final FrameCodec frameCodec;
+	private final BufferPool bufferPool;
+	private final int maxFrameSize;
+	private ByteBuffer buffer;
+	private boolean pooled;
+	private boolean filling;
+
+	public FrameDecoder(final FrameCodec frameCodec, final BufferPool bufferPool, final int maxFrameSize) {
+		this.frameCodec = frameCodec;
+		this.bufferPool = bufferPool;
+		this.maxFrameSize = maxFrameSize;
+	}
+
+	/**
+	 * Reads from the channel into the accumulated bytes.
+	 *
+	 * @return the number of bytes read, or -1 at end of stream
+	 */
+	public int readFrom(final ReadableByteChannel channel) throws IOException {
+		if (buffer == null) {
+			buffer = bufferPool.acquire();
+			pooled = true;
+			filling = true;
+		} else if (!buffer.hasRemaining()) {
+			grow();
+		}
+		return channel.read(buffer);
+	}
+
+	/**
+	 * Returns the next complete frame, or null if more bytes must be read.
+	 */
+	public ByteBuffer nextFrame() throws IOException {
+		if (buffer == null) {
+			return null;
+		}
+		if (filling) {
+			buffer.flip();
+			filling = false;
+		}
+		final ByteBuffer frame = frameCodec.decode(buffer);
+		if (frame == null) {
+			if (buffer.hasRemaining()) {
+				buffer.compact();
+				filling = true;
+			} else {
+				release();
+			}
+		}
+		return frame;
+	}
+
+	/**
+	 * Hands back the buffer of the decoder to the pool, discarding any bytes
+	 * that have not been decoded.
+	 */
+	public void release() {
+		if (buffer != null && pooled) {
+			bufferPool.release(buffer);
+		}
+		buffer = null;
+	}
+
+	private void grow() throws IOException {
+		if (buffer.capacity() >= maxFrameSize) {
+			throw new IOException("Frame is larger than the maximum frame size " + maxFrameSize);
+		}
+		final ByteBuffer grown = ByteBuffer.allocate((int) Math.min(2L * buffer.capacity(), maxFrameSize));
+		buffer.flip();
+		grown.put(buffer);
+		release();
+		buffer = grown;
+		pooled = false;
+		filling = true;
+	}
+
+}
@@ -0,0 +1,56 @@
+package org.baessie.simulator.socket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Frames prefixed with a big-endian binary length of 2 or 4 bytes. The length
+ * does not include the prefix itself.
+ */
+public class LengthPrefixedFrameCodec implements FrameCodec {
+
+	private final int headerLength;
+
+	public LengthPrefixedFrameCodec(final int headerLength) {
+		if (headerLength != 2 && headerLength != 4) {
+			throw new IllegalArgumentException("Length prefix must be 2 or 4 bytes: " + headerLength);
+		}
+		this.headerLength = headerLength;
+	}
+
+	@Override
+	public ByteBuffer decode(final ByteBuffer in) throws IOException {
+		if (in.remaining() < headerLength) {
+			return null;
+		}
+		final int start = in.position();
+		long length = 0;
+		for (int i = 0; i < headerLength; i++) {
+			length = length << 8 | in.get(start + i) & 0xff;
+		}
+		if (length > Integer.MAX_VALUE) {
+			throw new IOException("Illegal length prefix in frame: " + length);
+		}
+		if (in.remaining() - headerLength < length) {
+			return null;
+		}
+		return FrameCodecs.slice(in, start + headerLength, (int) length, start + headerLength + (int) length);
+	}
+
+	@Override
+	public ByteBuffer encode(final byte[] payload) {
+		if (headerLength == 2 && payload.length > 0xFFFF) {
+			throw new IllegalArgumentException("Response too long for a 2 byte length prefix: " + payload.length);
+		}
+		final ByteBuffer buffer = ByteBuffer.allocate(headerLength + payload.length);
+		if (headerLength == 2) {
+			buffer.putShort((short) payload.length);
+		} else {
+			buffer.putInt(payload.length);
+		}
+		buffer.put(payload);
+		buffer.flip();
+		return buffer;
+	}
+
+}
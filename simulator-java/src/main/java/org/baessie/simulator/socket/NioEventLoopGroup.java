@@ -0,0 +1,360 @@
+package org.baessie.simulator.socket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Threads serving the ports of a {@link SocketSimulator} without blocking.
+ * One acceptor thread accepts the connections of all ports and hands them
+ * round robin to a small number of selector based event loops, so the number
+ * of threads does not grow with the number of ports. Requests are read into
+ * pooled direct buffers, so idle connections hold no buffers.
+ *
+ * All complete frames of a read are answered in order with a single gathering
+ * write, and reading from a connection is suspended while its responses are
+ * being written. Delayed responses are held by their event loop, which
+ * writes them when they are due without blocking its other connections.
+ */
+public class NioEventLoopGroup implements Runnable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(NioEventLoopGroup.class);
+
+	private final Selector acceptSelector;
+	// Ports waiting to be registered by the acceptor thread
+	private final Map<ServerSocketChannel, SocketPort> bindings = new ConcurrentHashMap<ServerSocketChannel, SocketPort>();
+	private final EventLoop[] eventLoops;
+	private final Thread acceptorThread;
+	private volatile boolean running = true;
+	private int nextEventLoop;
+
+	public NioEventLoopGroup(final int eventLoopCount) throws IOException {
+		acceptSelector = Selector.open();
+		eventLoops = new EventLoop[eventLoopCount];
+		for (int i = 0; i < eventLoopCount; i++) {
+			eventLoops[i] = new EventLoop("SocketSimulator-eventloop-" + i);
+		}
+		acceptorThread = new Thread(this, "SocketSimulator-acceptor");
+		for (final EventLoop eventLoop : eventLoops) {
+			eventLoop.thread.start();
+		}
+		acceptorThread.start();
+	}
+
+	/**
+	 * Starts accepting the connections of a port.
+	 */
+	void bind(final ServerSocketChannel serverChannel, final SocketPort port) {
+		bindings.put(serverChannel, port);
+		acceptSelector.wakeup();
+	}
+
+	/**
+	 * Stops accepting the connections of a port and closes it. Connections
+	 * already accepted are kept open.
+	 */
+	void unbind(final ServerSocketChannel serverChannel) {
+		closeQuietly(serverChannel);
+		// The port is released once the selector has dropped its key
+		acceptSelector.wakeup();
+	}
+
+	Thread getAcceptorThread() {
+		return acceptorThread;
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (running) {
+				acceptSelector.select();
+				registerServerChannels();
+				final Iterator<SelectionKey> keys = acceptSelector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					final SelectionKey key = keys.next();
+					keys.remove();
+					if (key.isValid() && key.isAcceptable()) {
+						accept(key);
+					}
+				}
+			}
+		} catch (final IOException e) {
+			LOG.warn(e.getMessage(), e);
+		} finally {
+			for (final SelectionKey key : acceptSelector.keys()) {
+				closeQuietly(key.channel());
+			}
+			for (final ServerSocketChannel serverChannel : bindings.keySet()) {
+				closeQuietly(serverChannel);
+			}
+			closeQuietly(acceptSelector);
+		}
+	}
+
+	private void registerServerChannels() {
+		final Iterator<Map.Entry<ServerSocketChannel, SocketPort>> pending = bindings.entrySet().iterator();
+		while (pending.hasNext()) {
+			final Map.Entry<ServerSocketChannel, SocketPort> binding = pending.next();
+			pending.remove();
+			try {
+				binding.getKey().register(acceptSelector, SelectionKey.OP_ACCEPT, binding.getValue());
+			} catch (final IOException e) {
+				LOG.warn("Failed to accept connections on port " + binding.getValue().getPort(), e);
+			}
+		}
+	}
+
+	private void accept(final SelectionKey key) {
+		final SocketPort port = (SocketPort) key.attachment();
+		try {
+			SocketChannel channel;
+			while (running && (channel = ((ServerSocketChannel) key.channel()).accept()) != null) {
+				channel.configureBlocking(false);
+				channel.socket().setTcpNoDelay(true);
+				eventLoops[nextEventLoop].register(new Connection(channel, port));
+				nextEventLoop = (nextEventLoop + 1) % eventLoops.length;
+			}
+		} catch (final IOException e) {
+			LOG.warn("Failed to accept connection on port " + port.getPort(), e);
+		}
+	}
+
+	public void terminate() {
+		running = false;
+		acceptSelector.wakeup();
+		try {
+			acceptorThread.join();
+			for (final EventLoop eventLoop : eventLoops) {
+				eventLoop.selector.wakeup();
+				eventLoop.thread.join();
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void closeQuietly(final Channel channel) {
+		try {
+			channel.close();
+		} catch (final IOException e) {
+			LOG.warn(e.getMessage(), e);
+		}
+	}
+
+	private static void closeQuietly(final Selector selector) {
+		try {
+			selector.close();
+		} catch (final IOException e) {
+			LOG.warn(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * State of a connection, kept as the attachment of its selection key.
+	 */
+	private static class Connection {
+		private final SocketChannel channel;
+		private final SocketPort port;
+		private final FrameDecoder frameDecoder;
+		private final List<ByteBuffer> output = new ArrayList<ByteBuffer>();
+		private boolean closeAfterOutput;
+		// Time at which the output may be written
+		private long writeAt;
+
+		Connection(final SocketChannel channel, final SocketPort port) {
+			this.channel = channel;
+			this.port = port;
+			frameDecoder = port.createFrameDecoder();
+		}
+	}
+
+	private class EventLoop implements Runnable {
+
+		private final Selector selector;
+		private final Queue<Connection> registrations = new ConcurrentLinkedQueue<Connection>();
+		private final Queue<SelectionKey> delayed = new PriorityQueue<SelectionKey>(16, new Comparator<SelectionKey>() {
+			@Override
+			public int compare(final SelectionKey key1, final SelectionKey key2) {
+				final long writeAt1 = ((Connection) key1.attachment()).writeAt;
+				final long writeAt2 = ((Connection) key2.attachment()).writeAt;
+				return writeAt1 < writeAt2 ? -1 : writeAt1 == writeAt2 ? 0 : 1;
+			}
+		});
+		private final Thread thread;
+
+		EventLoop(final String name) throws IOException {
+			selector = Selector.open();
+			thread = new Thread(this, name);
+		}
+
+		void register(final Connection connection) {
+			registrations.add(connection);
+			selector.wakeup();
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (running) {
+					select();
+					registerChannels();
+					final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+					while (keys.hasNext()) {
+						final SelectionKey key = keys.next();
+						keys.remove();
+						try {
+							if (key.isValid() && key.isReadable()) {
+								read(key);
+							}
+							if (key.isValid() && key.isWritable()) {
+								write(key);
+							}
+						} catch (final IOException e) {
+							LOG.warn(e.getMessage(), e);
+							close(key);
+						}
+					}
+					writeDelayed();
+				}
+			} catch (final IOException e) {
+				LOG.warn(e.getMessage(), e);
+			} finally {
+				for (final SelectionKey key : selector.keys()) {
+					close(key);
+				}
+				Connection connection;
+				while ((connection = registrations.poll()) != null) {
+					connection.frameDecoder.release();
+					closeQuietly(connection.channel);
+				}
+				closeQuietly(selector);
+			}
+		}
+
+		/**
+		 * Waits for ready channels, but no longer than until the next delayed
+		 * response is due.
+		 */
+		private void select() throws IOException {
+			final SelectionKey next = delayed.peek();
+			if (next == null) {
+				selector.select();
+			} else {
+				final long wait = ((Connection) next.attachment()).writeAt - System.currentTimeMillis();
+				if (wait > 0) {
+					selector.select(wait);
+				} else {
+					selector.selectNow();
+				}
+			}
+		}
+
+		private void writeDelayed() {
+			final long now = System.currentTimeMillis();
+			SelectionKey key;
+			while ((key = delayed.peek()) != null && ((Connection) key.attachment()).writeAt <= now) {
+				delayed.poll();
+				if (key.isValid()) {
+					try {
+						write(key);
+					} catch (final IOException e) {
+						LOG.warn(e.getMessage(), e);
+						close(key);
+					}
+				}
+			}
+		}
+
+		private void registerChannels() throws IOException {
+			Connection connection;
+			while ((connection = registrations.poll()) != null) {
+				connection.channel.register(selector, SelectionKey.OP_READ, connection);
+				connection.port.getMetrics().connectionOpened();
+			}
+		}
+
+		private void read(final SelectionKey key) throws IOException {
+			final SocketChannel channel = (SocketChannel) key.channel();
+			final Connection connection = (Connection) key.attachment();
+			if (connection.frameDecoder.readFrom(channel) < 0) {
+				LOG.info("SocketHandler got EOF. Closing down.");
+				close(key);
+				return;
+			}
+
+			final SocketPort port = connection.port;
+			final long now = System.currentTimeMillis();
+			ByteBuffer frame;
+			while ((frame = connection.frameDecoder.nextFrame()) != null) {
+				final SocketTestData response = port.findResponseToSendBack(frame);
+				if (response == null) {
+					// Like SocketHandler, the responses to the earlier frames
+					// are written before the connection is closed
+					LOG.warn("Failed to find matching socket test. Closing down.");
+					connection.closeAfterOutput = true;
+					break;
+				}
+				connection.output.add(port.encodeResponse(response));
+				// Responses are written in order, so a delayed response also
+				// holds back the responses after it
+				connection.writeAt = Math.max(connection.writeAt, now + port.nextDelay(response));
+				if (response.isCloseAfterResponse()) {
+					connection.closeAfterOutput = true;
+					break;
+				}
+			}
+			if (!connection.output.isEmpty() && connection.writeAt > now) {
+				// Stop reading until the delayed responses have been written
+				key.interestOps(0);
+				delayed.add(key);
+			} else if (!connection.output.isEmpty()) {
+				write(key);
+			} else if (connection.closeAfterOutput) {
+				close(key);
+			}
+		}
+
+		private void write(final SelectionKey key) throws IOException {
+			final Connection connection = (Connection) key.attachment();
+			final List<ByteBuffer> output = connection.output;
+			((SocketChannel) key.channel()).write(output.toArray(new ByteBuffer[output.size()]));
+			while (!output.isEmpty() && !output.get(0).hasRemaining()) {
+				output.remove(0);
+			}
+			if (!output.isEmpty()) {
+				// Stop reading until all responses have been written
+				key.interestOps(SelectionKey.OP_WRITE);
+			} else if (connection.closeAfterOutput) {
+				close(key);
+			} else {
+				key.interestOps(SelectionKey.OP_READ);
+			}
+		}
+
+		private void close(final SelectionKey key) {
+			final Connection connection = (Connection) key.attachment();
+			if (key.isValid()) {
+				connection.port.getMetrics().connectionClosed();
+			}
+			connection.frameDecoder.release();
+			key.cancel();
+			closeQuietly(key.channel());
+		}
+	}
+}
@@ -0,0 +1,52 @@
+package org.baessie.simulator.socket;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.channels.ServerSocketChannel;
+
+/**
+ * Non-blocking server of one port, whose connections are accepted and served
+ * by a {@link NioEventLoopGroup} shared with the other ports.
+ */
+public class NioSocketServer implements SocketServer {
+
+	private final SocketPort socketPort;
+	private final NioEventLoopGroup eventLoopGroup;
+	private final ServerSocketChannel serverChannel;
+
+	public NioSocketServer(final SocketPort socketPort, final int port, final NioEventLoopGroup eventLoopGroup) throws IOException {
+		this.socketPort = socketPort;
+		this.eventLoopGroup = eventLoopGroup;
+		serverChannel = ServerSocketChannel.open();
+		try {
+			serverChannel.socket().setReuseAddress(true);
+			serverChannel.socket().bind(new InetSocketAddress(port));
+			serverChannel.configureBlocking(false);
+		} catch (final IOException e) {
+			serverChannel.close();
+			throw e;
+		}
+	}
+
+	@Override
+	public void start() {
+		eventLoopGroup.bind(serverChannel, socketPort);
+	}
+
+	@Override
+	public void terminate() {
+		eventLoopGroup.unbind(serverChannel);
+	}
+
+	@Override
+	public ServerSocket getServerSocket() {
+		return serverChannel.socket();
+	}
+
+	@Override
+	public Thread getServerThread() {
+		return eventLoopGroup.getAcceptorThread();
+	}
+
+}
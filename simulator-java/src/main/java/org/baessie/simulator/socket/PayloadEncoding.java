@@ -0,0 +1,113 @@
+package org.baessie.simulator.socket;
+
+import java.nio.ByteBuffer;
+
+/**
+ * How the request or response of a socket test is given in its setup.
+ */
+public enum PayloadEncoding {
+
+	/**
+	 * Text, which is encoded with the charset of the port (default).
+	 */
+	TEXT,
+
+	/**
+	 * Bytes as hexadecimal digits, which may be separated by whitespace.
+	 */
+	HEX,
+
+	/**
+	 * Bytes in Base64.
+	 */
+	BASE64;
+
+	private static final String HEX_DIGITS = "0123456789ABCDEF";
+	private static final String BASE64_ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+
+	public static PayloadEncoding fromString(final String str) {
+		if (str == null || str.trim().length() == 0) {
+			return TEXT;
+		}
+		return valueOf(str.trim().toUpperCase());
+	}
+
+	/**
+	 * Returns the bytes of a payload, or null if the payload is text.
+	 * Whitespace between the digits of a binary payload is ignored.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the payload is not valid in this encoding
+	 */
+	public byte[] decode(final String payload) {
+		switch (this) {
+		case HEX:
+			return parseHex(payload.replaceAll("\\s", ""));
+		case BASE64:
+			return parseBase64(payload.replaceAll("\\s", ""));
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the remaining bytes of a buffer as hexadecimal digits, without
+	 * moving its position.
+	 */
+	public static String toHex(final ByteBuffer buffer) {
+		final StringBuilder sb = new StringBuilder(buffer.remaining() * 2);
+		for (int i = buffer.position(); i < buffer.limit(); i++) {
+			final int b = buffer.get(i);
+			sb.append(HEX_DIGITS.charAt((b >> 4) & 0xF)).append(HEX_DIGITS.charAt(b & 0xF));
+		}
+		return sb.toString();
+	}
+
+	private static byte[] parseHex(final String hex) {
+		if (hex.length() % 2 != 0) {
+			throw new IllegalArgumentException("Odd number of hexadecimal digits: " + hex);
+		}
+		final byte[] bytes = new byte[hex.length() / 2];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) (hexDigit(hex, 2 * i) << 4 | hexDigit(hex, 2 * i + 1));
+		}
+		return bytes;
+	}
+
+	private static int hexDigit(final String hex, final int index) {
+		final int digit = HEX_DIGITS.indexOf(Character.toUpperCase(hex.charAt(index)));
+		if (digit < 0) {
+			throw new IllegalArgumentException("Invalid hexadecimal digit '" + hex.charAt(index) + "' in " + hex);
+		}
+		return digit;
+	}
+
+	private static byte[] parseBase64(final String base64) {
+		if (base64.length() % 4 != 0) {
+			throw new IllegalArgumentException("Base64 length is not a multiple of 4: " + base64);
+		}
+		int padding = 0;
+		while (padding < 2 && padding < base64.length() && base64.charAt(base64.length() - 1 - padding) == '=') {
+			padding++;
+		}
+		final int digits = base64.length() - padding;
+		final byte[] bytes = new byte[base64.length() / 4 * 3 - padding];
+		int bits = 0;
+		int bitCount = 0;
+		int index = 0;
+		for (int i = 0; i < digits; i++) {
+			final int value = BASE64_ALPHABET.indexOf(base64.charAt(i));
+			if (value < 0) {
+				throw new IllegalArgumentException("Invalid base64 character '" + base64.charAt(i) + "' in " + base64);
+			}
+			bits = (bits << 6 | value) & 0xFFFF;
+			bitCount += 6;
+			if (bitCount >= 8) {
+				bitCount -= 8;
+				bytes[index++] = (byte) (bits >> bitCount);
+			}
+		}
+		return bytes;
+	}
+
+}
@@ -0,0 +1,26 @@
+package org.baessie.simulator.socket;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Treats all bytes received by a read as one frame, and writes responses as
+ * they are.
+ */
+public class RawFrameCodec implements FrameCodec {
+
+	@Override
+	public ByteBuffer decode(final ByteBuffer in) {
+		if (!in.hasRemaining()) {
+			return null;
+		}
+		final ByteBuffer frame = in.slice();
+		in.position(in.limit());
+		return frame;
+	}
+
+	@Override
+	public ByteBuffer encode(final byte[] payload) {
+		return ByteBuffer.wrap(payload);
+	}
+
+}
@@ -1,10 +1,15 @@
 package org.baessie.simulator.socket;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 
+import org.baessie.simulator.util.SimulatorUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -12,39 +17,57 @@ public class SocketHandler implements Runnable {
 
 	private static final Logger LOG = LoggerFactory.getLogger(SocketHandler.class);
 	private final Socket socket;
-	private final SocketSimulator socketSimulator;
+	private final SocketPort socketPort;
 
-	public SocketHandler(final Socket socket, final SocketSimulator socketSimulator) {
+	public SocketHandler(final Socket socket, final SocketPort socketPort) {
 		this.socket = socket;
-		this.socketSimulator = socketSimulator;
+		this.socketPort = socketPort;
 	}
 
 	@Override
 	public void run() {
+		final FrameDecoder frameDecoder = socketPort.createFrameDecoder();
+		socketPort.getMetrics().connectionOpened();
 		try {
-			final DataInputStream dataInputStream = new DataInputStream(socket.getInputStream());
-			final DataOutputStream dataOutputStream = new DataOutputStream(socket.getOutputStream());
+			final ReadableByteChannel in = Channels.newChannel(socket.getInputStream());
+			final OutputStream outputStream = new BufferedOutputStream(socket.getOutputStream());
+			final WritableByteChannel out = Channels.newChannel(outputStream);
 
-			final byte[] buff = new byte[1024];
-			while (!socket.isInputShutdown()) {
-				final int readBytes = dataInputStream.read(buff);
-				if (readBytes > 0) {
-					final String request = new String(buff, 0, readBytes);
-					LOG.info("Got request: " + request);
-					final SocketTestData response = socketSimulator.findResponseToSendBack(request);
-					dataOutputStream.write(response.getResponse().getBytes());
-					dataOutputStream.flush();
-					if (response.isCloseAfterResponse()) {
-						socket.shutdownInput();
-					}
-				} else {
+			boolean open = true;
+			while (open) {
+				if (frameDecoder.readFrom(in) < 0) {
 					LOG.info("SocketHandler got EOF. Closing down.");
-					socket.shutdownInput();
+					break;
+				}
+				// All complete frames are answered in order before the
+				// responses are flushed, so pipelined requests need no extra
+				// round trips
+				ByteBuffer frame;
+				while (open && (frame = frameDecoder.nextFrame()) != null) {
+					final SocketTestData response = socketPort.findResponseToSendBack(frame);
+					if (response == null) {
+						LOG.warn("Failed to find matching socket test. Closing down.");
+						open = false;
+					} else {
+						final int delay = socketPort.nextDelay(response);
+						if (delay > 0) {
+							outputStream.flush();
+							SimulatorUtils.delay(delay);
+						}
+						final ByteBuffer encoded = socketPort.encodeResponse(response);
+						while (encoded.hasRemaining()) {
+							out.write(encoded);
+						}
+						open = !response.isCloseAfterResponse();
+					}
 				}
+				outputStream.flush();
 			}
 		} catch (final IOException e) {
 			LOG.warn(e.getMessage(), e);
 		} finally {
+			socketPort.getMetrics().connectionClosed();
+			frameDecoder.release();
 			try {
 				socket.close();
 			} catch (final IOException e) {
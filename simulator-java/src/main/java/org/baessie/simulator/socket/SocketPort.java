@@ -0,0 +1,160 @@
+package org.baessie.simulator.socket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import org.baessie.simulator.metrics.ProtocolMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One port of a {@link SocketSimulator}, with its own tests, framing and
+ * charset. A request read from the port is only matched against the tests set
+ * up for it.
+ */
+public class SocketPort {
+
+	private static final Logger LOG = LoggerFactory.getLogger(SocketPort.class);
+	private static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+	private final String framing;
+	private final FrameCodec frameCodec;
+	private final Charset charset;
+	private final BufferPool bufferPool;
+	private final ProtocolMetrics metrics;
+	private final SocketTestIndex index = new SocketTestIndex();
+	private final SocketServer server;
+
+	/**
+	 * Opens the port and starts accepting connections.
+	 *
+	 * @param port
+	 *            the port to listen on, or 0 for one chosen by the system
+	 * @param framing
+	 *            the configuration of the frame codec, or null if it is the
+	 *            default
+	 * @param eventLoopGroup
+	 *            the event loops serving the connections, or null if every
+	 *            connection should be served by a thread of its own
+	 */
+	SocketPort(final int port, final String framing, final FrameCodec frameCodec, final Charset charset, final BufferPool bufferPool, final ProtocolMetrics metrics,
+			final NioEventLoopGroup eventLoopGroup) throws IOException {
+		this.framing = framing;
+		this.frameCodec = frameCodec;
+		this.charset = charset;
+		this.bufferPool = bufferPool;
+		this.metrics = metrics;
+		if (eventLoopGroup != null) {
+			server = new NioSocketServer(this, port, eventLoopGroup);
+		} else {
+			server = new BlockingSocketServer(this, port);
+		}
+		server.start();
+	}
+
+	/**
+	 * Returns the port listened on.
+	 */
+	public int getPort() {
+		return server.getServerSocket().getLocalPort();
+	}
+
+	/**
+	 * Returns the configuration of the frame codec, or null if it is the
+	 * default.
+	 */
+	public String getFraming() {
+		return framing;
+	}
+
+	public Charset getCharset() {
+		return charset;
+	}
+
+	public ProtocolMetrics getMetrics() {
+		return metrics;
+	}
+
+	SocketServer getServer() {
+		return server;
+	}
+
+	/**
+	 * Creates a decoder for the frames read from one connection.
+	 */
+	public FrameDecoder createFrameDecoder() {
+		return new FrameDecoder(frameCodec, bufferPool, MAX_FRAME_SIZE);
+	}
+
+	/**
+	 * Returns the test matching a request frame. Binary tests are matched on
+	 * the bytes of the frame, and the frame is only decoded with the charset
+	 * of the port if no binary test matches and there are text tests.
+	 */
+	public SocketTestData findResponseToSendBack(final ByteBuffer frame) {
+		final long start = System.nanoTime();
+		final SocketTestData response = index.reserve(frame);
+		if (response != null || !index.hasTextTests()) {
+			if (response == null && LOG.isDebugEnabled()) {
+				LOG.debug("Got request: {}", PayloadEncoding.toHex(frame));
+			}
+			return recordMatch(response, start);
+		}
+		final String request = charset.decode(frame).toString();
+		LOG.debug("Got request: {}", request);
+		return findResponseToSendBack(request);
+	}
+
+	public SocketTestData findResponseToSendBack(final String request) {
+		return recordMatch(index.reserve(request), System.nanoTime());
+	}
+
+	private SocketTestData recordMatch(final SocketTestData response, final long start) {
+		if (response != null) {
+			LOG.debug("Matched incoming request with testdata id: {}", response.getId());
+			metrics.recordMatch(response.getId(), System.nanoTime() - start);
+		} else {
+			metrics.recordMiss(System.nanoTime() - start);
+		}
+		return response;
+	}
+
+	/**
+	 * Returns the framed response of a test, ready to be written.
+	 */
+	public ByteBuffer encodeResponse(final SocketTestData response) {
+		final ByteBuffer framed = response.getFramedResponse();
+		final ByteBuffer encoded = framed != null ? framed.duplicate() : frameCodec.encode(response.getResponseBytes(charset));
+		metrics.recordResponseBytes(response.getId(), encoded.remaining());
+		return encoded;
+	}
+
+	/**
+	 * Returns the number of milliseconds to wait before the response is
+	 * written.
+	 */
+	public int nextDelay(final SocketTestData response) {
+		final int delay = response.getDelay().nextDelay();
+		metrics.recordDelay(response.getId(), delay);
+		return delay;
+	}
+
+	/**
+	 * Adds a test to the port, with its response framed once so it can be
+	 * written without being encoded again. Changes must be serialized by the
+	 * caller.
+	 */
+	void add(final SocketTestData testData) {
+		testData.setFramedResponse(frameCodec.encode(testData.getResponseBytes(charset)).asReadOnlyBuffer());
+		index.add(testData);
+	}
+
+	void remove(final SocketTestData testData) {
+		index.remove(testData);
+	}
+
+	void terminate() {
+		server.terminate();
+	}
+}
@@ -0,0 +1,19 @@
+package org.baessie.simulator.socket;
+
+import java.net.ServerSocket;
+
+/**
+ * Server accepting the connections of a {@link SocketSimulator} and answering
+ * the requests read from them.
+ */
+public interface SocketServer {
+
+	void start();
+
+	void terminate();
+
+	ServerSocket getServerSocket();
+
+	Thread getServerThread();
+
+}
@@ -0,0 +1,26 @@
+package org.baessie.simulator.socket;
+
+/**
+ * The kind of server used by a {@link SocketSimulator}.
+ */
+public enum SocketServerMode {
+
+	/**
+	 * Blocking server with one thread per connection.
+	 */
+	BLOCKING,
+
+	/**
+	 * Non-blocking server with a small number of selector threads shared by
+	 * all connections.
+	 */
+	NIO;
+
+	public static SocketServerMode fromString(final String str) {
+		if (str == null || str.trim().length() == 0) {
+			return BLOCKING;
+		}
+		return valueOf(str.trim().toUpperCase());
+	}
+
+}
@@ -2,82 +2,138 @@ package org.baessie.simulator.socket;
 
 import java.io.IOException;
 import java.net.ServerSocket;
-import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.http.HttpServletResponse;
 
 import org.baessie.simulator.SimulatorRequest;
+import org.baessie.simulator.delay.DelayDistribution;
+import org.baessie.simulator.delay.DelayDistributions;
+import org.baessie.simulator.metrics.ProtocolMetrics;
+import org.baessie.simulator.metrics.StubRegistry;
+import org.baessie.simulator.metrics.Transport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class SocketSimulator implements Runnable {
+/**
+ * Simulates TCP backends. Every port is a namespace of its own: a request is
+ * only matched against the tests set up for the port it was read from, and is
+ * framed and decoded as configured for that port.
+ *
+ * The port the simulator is created with is opened at once. Any other port is
+ * opened when the first test is set up for it with the parameter
+ * {@value #PORT_PARAMETER}, with the framing and charset given by the
+ * parameters {@value #FRAMING_PARAMETER} and {@value #CHARSET_PARAMETER} of
+ * that test, or the defaults of the simulator. In NIO mode, the connections
+ * of all ports are served by one shared group of event loops.
+ *
+ * The request and response of a test are text by default. With the
+ * parameters {@value #REQUEST_ENCODING_PARAMETER} and
+ * {@value #RESPONSE_ENCODING_PARAMETER} set to <code>hex</code> or
+ * <code>base64</code> they are given as bytes instead, so binary protocols are
+ * matched and answered byte by byte. Volatile fields of a binary request, such
+ * as trace numbers and timestamps, are ignored where the hexadecimal
+ * {@value #REQUEST_MASK_PARAMETER} has zero bits.
+ *
+ * Test ids are unique across ports, so setting up a test replaces the test
+ * with the same id on any port.
+ */
+public class SocketSimulator {
 	private static final Logger LOG = LoggerFactory.getLogger(SocketSimulator.class);
 	private static final int PORT = 12345;
-	private final ServerSocket serverSocket;
-	private boolean running = true;
+	private static final int BUFFER_SIZE = 8192;
+
+	public static final String PORT_PROPERTY = "baessie.socket.port";
+	public static final String SERVER_MODE_PROPERTY = "baessie.socket.server";
+	public static final String EVENT_LOOPS_PROPERTY = "baessie.socket.eventLoops";
+	public static final String FRAMING_PROPERTY = "baessie.socket.framing";
+	public static final String CHARSET_PROPERTY = "baessie.socket.charset";
+
+	public static final String PORT_PARAMETER = "port";
+	public static final String FRAMING_PARAMETER = "framing";
+	public static final String CHARSET_PARAMETER = "charset";
+	public static final String REQUEST_ENCODING_PARAMETER = "requestEncoding";
+	public static final String RESPONSE_ENCODING_PARAMETER = "responseEncoding";
+	public static final String REQUEST_MASK_PARAMETER = "requestMask";
+
+	private final FrameCodec frameCodec;
+	private final Charset charset;
+	private final NioEventLoopGroup eventLoopGroup;
+	private final BufferPool bufferPool = new BufferPool(BUFFER_SIZE);
 	private final Object monitor = new Object();
+	private final Map<Integer, SocketPort> ports = new ConcurrentHashMap<Integer, SocketPort>();
+	private final SocketPort defaultPort;
 	private final Map<String, SocketTestData> data = new ConcurrentHashMap<String, SocketTestData>();
+	private final Map<String, SocketPort> testPorts = new HashMap<String, SocketPort>();
 	private final Map<String, AtomicInteger> calledTests = new ConcurrentHashMap<String, AtomicInteger>();
-	private Thread serverThread;
-
-	private int port = -1;
+	private final ProtocolMetrics metrics = new ProtocolMetrics("socket", Transport.SOCKET, new StubRegistry() {
+		@Override
+		public boolean contains(final String testId) {
+			return data.containsKey(testId);
+		}
+	});
 
-	public SocketSimulator(final int port) {
+	/**
+	 * @param port
+	 *            the default port, or 0 for one chosen by the system
+	 * @param frameCodec
+	 *            the default framing
+	 * @param charset
+	 *            the default charset
+	 */
+	public SocketSimulator(final int port, final SocketServerMode mode, final FrameCodec frameCodec, final Charset charset) {
+		this.frameCodec = frameCodec;
+		this.charset = charset;
 		try {
-			this.port = port;
-			serverSocket = new ServerSocket(port);
-			serverThread = new Thread(this);
-			serverThread.start();
+			if (mode == SocketServerMode.NIO) {
+				eventLoopGroup = new NioEventLoopGroup(Integer.getInteger(EVENT_LOOPS_PROPERTY, Runtime.getRuntime().availableProcessors()));
+			} else {
+				eventLoopGroup = null;
+			}
+			defaultPort = new SocketPort(port, null, frameCodec, charset, bufferPool, metrics, eventLoopGroup);
 		} catch (final IOException e) {
 			throw new IllegalStateException(e);
 		}
+		ports.put(defaultPort.getPort(), defaultPort);
 	}
 
-	public SocketSimulator() {
-		this(PORT);
+	/**
+	 * Creates a simulator using the framing and charset given by the system
+	 * properties {@value #FRAMING_PROPERTY} and {@value #CHARSET_PROPERTY}.
+	 */
+	public SocketSimulator(final int port, final SocketServerMode mode) {
+		this(port, mode, FrameCodecs.fromString(System.getProperty(FRAMING_PROPERTY)), readCharset());
 	}
 
-	@Override
-	public void run() {
-		try {
-			while (isRunning()) {
-				final Socket socket = serverSocket.accept();
-				if (isRunning()) {
-					new Thread(new SocketHandler(socket, this)).start();
-				}
-			}
-		} catch (final IOException e) {
-			e.printStackTrace();
-		} finally {
-			try {
-				serverSocket.close();
-			} catch (final IOException e) {
-				e.printStackTrace();
-			}
-		}
+	/**
+	 * Creates a simulator listening on the given port, using the server mode
+	 * given by the system property {@value #SERVER_MODE_PROPERTY}.
+	 */
+	public SocketSimulator(final int port) {
+		this(port, SocketServerMode.fromString(System.getProperty(SERVER_MODE_PROPERTY)));
 	}
 
-	private boolean isRunning() {
-		synchronized (monitor) {
-			return running;
-		}
+	/**
+	 * Creates a simulator listening on the port given by the system property
+	 * {@value #PORT_PROPERTY}.
+	 */
+	public SocketSimulator() {
+		this(Integer.getInteger(PORT_PROPERTY, PORT));
 	}
 
 	public void terminate() {
-		synchronized (monitor) {
-			running = false;
+		for (final SocketPort port : ports.values()) {
+			port.terminate();
 		}
-		try {
-			final Socket socket = new Socket(serverSocket.getInetAddress(), serverSocket.getLocalPort());
-			socket.close();
-			serverThread.join();
-		} catch (final IOException e) {
-			e.printStackTrace();
-		} catch (final InterruptedException e) {
-			e.printStackTrace();
+		if (eventLoopGroup != null) {
+			eventLoopGroup.terminate();
 		}
 	}
 
@@ -94,20 +150,112 @@ public class SocketSimulator implements Runnable {
 			reportNullParam("request", request, "response", response, "testId", testId);
 		}
 		final boolean closeAfterResponse = Boolean.parseBoolean(simulatorRequest.getParameter("closeAfterResponse"));
+		final boolean wildcards = Boolean.parseBoolean(simulatorRequest.getParameter("wildcards"));
+
+		final DelayDistribution delay;
+		try {
+			delay = DelayDistributions.fromRequest(simulatorRequest);
+		} catch (final IOException e) {
+			throw new IllegalArgumentException("Failed to read delay distribution: " + e.getMessage(), e);
+		}
+
+		final byte[] requestBytes;
+		final byte[] requestMask;
+		final byte[] responseBytes;
+		try {
+			requestBytes = PayloadEncoding.fromString(simulatorRequest.getParameter(REQUEST_ENCODING_PARAMETER)).decode(request);
+			responseBytes = PayloadEncoding.fromString(simulatorRequest.getParameter(RESPONSE_ENCODING_PARAMETER)).decode(response);
+			final String mask = simulatorRequest.getParameter(REQUEST_MASK_PARAMETER);
+			requestMask = mask != null ? PayloadEncoding.HEX.decode(mask) : null;
+		} catch (final IllegalArgumentException e) {
+			throw new IllegalArgumentException("Invalid binary payload: " + e.getMessage(), e);
+		}
 
-		response = response.replaceAll("\\n", "\n");
+		if (responseBytes == null) {
+			response = response.replaceAll("\\n", "\n");
+		}
 
-		final SocketTestData testData = new SocketTestData(testId, request, response, maxCallcount, closeAfterResponse);
-		data.put(testId, testData);
+		final SocketTestData testData = new SocketTestData(testId, request, response, requestBytes, requestMask, responseBytes, maxCallcount, closeAfterResponse, wildcards,
+				delay);
+		synchronized (monitor) {
+			final SocketPort port = openPort(simulatorRequest);
+			// The response is framed when the test is added, which fails
+			// before anything has changed if it cannot be framed
+			port.add(testData);
+			final SocketTestData replaced = data.put(testId, testData);
+			if (replaced != null) {
+				testPorts.get(testId).remove(replaced);
+			}
+			testPorts.put(testId, port);
+			calledTests.put(testId, testData.getCallCount());
+		}
 		printSetupTestData(testId, request, response);
-		calledTests.put(testId, new AtomicInteger(0));
 		return testId;
 	}
 
+	/**
+	 * Returns the port a test is set up for, which is opened if it is not
+	 * open yet.
+	 */
+	private SocketPort openPort(final SimulatorRequest simulatorRequest) {
+		final String portNumber = simulatorRequest.getParameter(PORT_PARAMETER);
+		final String framing = simulatorRequest.getParameter(FRAMING_PARAMETER);
+		final String charsetName = simulatorRequest.getParameter(CHARSET_PARAMETER);
+		final int number = portNumber != null ? Integer.parseInt(portNumber.trim()) : defaultPort.getPort();
+		if (number <= 0 || number > 65535) {
+			throw new IllegalArgumentException("Invalid port: " + portNumber);
+		}
+		SocketPort port = ports.get(number);
+		if (port != null) {
+			if (framing != null && !framing.trim().equals(port.getFraming())) {
+				throw new IllegalArgumentException("Port " + number + " is already open with other framing than " + framing);
+			}
+			if (charsetName != null && !Charset.forName(charsetName.trim()).equals(port.getCharset())) {
+				throw new IllegalArgumentException("Port " + number + " is already open with another charset than " + charsetName);
+			}
+			return port;
+		}
+		try {
+			port = new SocketPort(number, framing != null ? framing.trim() : null, framing != null ? FrameCodecs.fromString(framing) : frameCodec,
+					charsetName != null ? Charset.forName(charsetName.trim()) : charset, bufferPool, metrics, eventLoopGroup);
+		} catch (final IOException e) {
+			throw new IllegalStateException("Failed to open port " + number, e);
+		}
+		ports.put(number, port);
+		LOG.info("Opened socket port {}", number);
+		return port;
+	}
+
+	private static Charset readCharset() {
+		final String charset = System.getProperty(CHARSET_PROPERTY);
+		return charset != null ? Charset.forName(charset) : Charset.defaultCharset();
+	}
+
+	/**
+	 * Creates a decoder for the frames read from one connection to the
+	 * default port.
+	 */
+	public FrameDecoder createFrameDecoder() {
+		return defaultPort.createFrameDecoder();
+	}
+
+	/**
+	 * Returns the test of the default port matching a request.
+	 */
+	public SocketTestData findResponseToSendBack(final ByteBuffer frame) {
+		return defaultPort.findResponseToSendBack(frame);
+	}
+
 	public SocketTestData findResponseToSendBack(final String request) {
-		final SocketTestData sought = new SocketTestData(null, request, null, 0, false);
-		final SocketTestData response = matchRequest(sought);
-		return response;
+		return defaultPort.findResponseToSendBack(request);
+	}
+
+	public ByteBuffer encodeResponse(final SocketTestData response) {
+		return defaultPort.encodeResponse(response);
+	}
+
+	public int nextDelay(final SocketTestData response) {
+		return defaultPort.nextDelay(response);
 	}
 
 	public void verify(final SimulatorRequest simulatorRequest, final HttpServletResponse response) throws IOException {
@@ -143,22 +291,15 @@ public class SocketSimulator implements Runnable {
 		LOG.debug(sb.toString());
 	}
 
-	private SocketTestData matchRequest(final SocketTestData sought) {
-		for (final SocketTestData testData : data.values()) {
-			final AtomicInteger atomicInteger = calledTests.get(testData.getId());
-			if (!testData.hasReachedMaximumCallCount(atomicInteger.get()) && testData.matches(sought)) {
-				LOG.info("Matched incoming request with testdata id: {}", testData.getId());
-				calledTests.get(testData.getId()).incrementAndGet();
-
-				return testData;
-			}
-		}
-		return null;
-	}
-
 	public void removeTest(final String testId) {
 		if (testId != null) {
-			data.remove(testId);
+			synchronized (monitor) {
+				final SocketTestData removed = data.remove(testId);
+				if (removed != null) {
+					testPorts.remove(testId).remove(removed);
+				}
+			}
+			metrics.removeStub(testId);
 		}
 	}
 
@@ -166,8 +307,11 @@ public class SocketSimulator implements Runnable {
 		return LOG;
 	}
 
+	/**
+	 * Returns the server socket of the default port.
+	 */
 	public ServerSocket getServerSocket() {
-		return serverSocket;
+		return defaultPort.getServer().getServerSocket();
 	}
 
 	public Object getMonitor() {
@@ -183,10 +327,25 @@ public class SocketSimulator implements Runnable {
 	}
 
 	public Thread getServerThread() {
-		return serverThread;
+		return defaultPort.getServer().getServerThread();
+	}
+
+	public ProtocolMetrics getMetrics() {
+		return metrics;
 	}
 
+	/**
+	 * Returns the default port, which is chosen by the system if the
+	 * simulator was created with port 0.
+	 */
 	public int getPort() {
-		return port;
+		return defaultPort.getPort();
+	}
+
+	/**
+	 * Returns the ports that are open.
+	 */
+	public Set<Integer> getPorts() {
+		return Collections.unmodifiableSet(ports.keySet());
 	}
 }
@@ -1,45 +1,230 @@
 package org.baessie.simulator.socket;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import org.baessie.simulator.delay.DelayDistribution;
+import org.baessie.simulator.delay.DelayDistributions;
+import org.baessie.simulator.util.SimulatorUtils;
+
 public class SocketTestData {
 	private final String id;
 	private final String request;
 	private final String response;
+	private final byte[] requestBytes;
+	private final byte[] requestMask;
+	private final byte[] responseBytes;
 	private final Integer maxCallCount;
 	private final boolean closeAfterResponse;
+	private final Pattern pattern;
+	private final DelayDistribution delay;
+	private final AtomicInteger callCount = new AtomicInteger();
+	// Set by the port before the test is published in its index
+	private ByteBuffer framedResponse;
 
 	public SocketTestData(final String id, final String request, final String response, final Integer maxCallCount, final boolean closeAfterResponse) {
+		this(id, request, response, maxCallCount, closeAfterResponse, false);
+	}
+
+	/**
+	 * @param wildcards
+	 *            true if every wildcard in the request may match any sequence
+	 *            of characters
+	 */
+	public SocketTestData(final String id, final String request, final String response, final Integer maxCallCount, final boolean closeAfterResponse, final boolean wildcards) {
+		this(id, request, response, maxCallCount, closeAfterResponse, wildcards, DelayDistributions.NONE);
+	}
+
+	/**
+	 * @param wildcards
+	 *            true if every wildcard in the request may match any sequence
+	 *            of characters
+	 * @param delay
+	 *            the delays of the responses
+	 */
+	public SocketTestData(final String id, final String request, final String response, final Integer maxCallCount, final boolean closeAfterResponse, final boolean wildcards,
+			final DelayDistribution delay) {
+		this(id, request, response, null, null, null, maxCallCount, closeAfterResponse, wildcards, delay);
+	}
+
+	/**
+	 * @param request
+	 *            the request as given in the setup
+	 * @param response
+	 *            the response as given in the setup
+	 * @param requestBytes
+	 *            the request to match byte by byte, or null if the request is
+	 *            text
+	 * @param requestMask
+	 *            the bits of every request byte that must match, or null if
+	 *            all bits must match
+	 * @param responseBytes
+	 *            the response to write as it is, or null if the response is
+	 *            text
+	 * @param wildcards
+	 *            true if every wildcard in a text request may match any
+	 *            sequence of characters
+	 * @param delay
+	 *            the delays of the responses
+	 */
+	public SocketTestData(final String id, final String request, final String response, final byte[] requestBytes, final byte[] requestMask, final byte[] responseBytes,
+			final Integer maxCallCount, final boolean closeAfterResponse, final boolean wildcards, final DelayDistribution delay) {
+		if (requestMask != null && (requestBytes == null || requestMask.length != requestBytes.length)) {
+			throw new IllegalArgumentException("The request mask must be as long as a binary request");
+		}
 		this.id = id;
 		this.request = request;
 		this.response = response;
+		this.requestBytes = requestMask != null ? mask(requestBytes, requestMask) : requestBytes;
+		this.requestMask = requestMask;
+		this.responseBytes = responseBytes;
 		this.maxCallCount = maxCallCount;
 		this.closeAfterResponse = closeAfterResponse;
+		pattern = requestBytes == null && wildcards && request.contains(SimulatorUtils.WILDCARD) ? SimulatorUtils.createWildcardPattern(request) : null;
+		this.delay = delay;
+	}
+
+	private static byte[] mask(final byte[] bytes, final byte[] mask) {
+		final byte[] masked = new byte[bytes.length];
+		for (int i = 0; i < bytes.length; i++) {
+			masked[i] = (byte) (bytes[i] & mask[i]);
+		}
+		return masked;
 	}
 
 	protected boolean matches(final SocketTestData sought) {
 		boolean matches = false;
 		if (sought != null) {
-			matches = sought.request.equals(request);
+			matches = matches(sought.request);
 		}
 
 		return matches;
 	}
 
+	protected boolean matches(final String soughtRequest) {
+		if (pattern != null) {
+			return pattern.matcher(soughtRequest).matches();
+		}
+		return soughtRequest.equals(request);
+	}
+
+	/**
+	 * Returns true if the remaining bytes of a frame match the binary request
+	 * of the test. The position of the frame is not moved.
+	 */
+	protected boolean matches(final ByteBuffer frame) {
+		if (requestBytes == null || frame.remaining() != requestBytes.length) {
+			return false;
+		}
+		final int position = frame.position();
+		for (int i = 0; i < requestBytes.length; i++) {
+			final byte b = frame.get(position + i);
+			if ((requestMask != null ? (byte) (b & requestMask[i]) : b) != requestBytes[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public String getRequest() {
+		return request;
+	}
+
 	public String getResponse() {
 		return response;
 	}
 
+	/**
+	 * Returns the binary request, with the bits outside the mask cleared, or
+	 * null if the request is text.
+	 */
+	byte[] getRequestBytes() {
+		return requestBytes;
+	}
+
+	/**
+	 * Returns the bytes of the response, using the given charset if the
+	 * response is text.
+	 */
+	public byte[] getResponseBytes(final Charset charset) {
+		return responseBytes != null ? responseBytes : response.getBytes(charset);
+	}
+
+	/**
+	 * Returns true if the request is matched byte by byte instead of as text.
+	 */
+	public boolean isBinary() {
+		return requestBytes != null;
+	}
+
+	/**
+	 * Returns true if the request is binary and only some of its bits must
+	 * match.
+	 */
+	public boolean isMasked() {
+		return requestMask != null;
+	}
+
+	/**
+	 * Returns the framed response, which must be duplicated before it is
+	 * written, or null if it has not been framed yet.
+	 */
+	ByteBuffer getFramedResponse() {
+		return framedResponse;
+	}
+
+	void setFramedResponse(final ByteBuffer framedResponse) {
+		this.framedResponse = framedResponse;
+	}
+
 	public boolean isCloseAfterResponse() {
 		return closeAfterResponse;
 	}
 
+	public DelayDistribution getDelay() {
+		return delay;
+	}
+
 	public String getId() {
 		return id;
 	}
 
+	/**
+	 * Returns true if the request is a pattern that can only be matched by
+	 * trying it.
+	 */
+	public boolean isPattern() {
+		return pattern != null;
+	}
+
 	public boolean hasReachedMaximumCallCount(final int currentCallCount) {
 		if (maxCallCount == null) {
 			return false;
 		}
 		return maxCallCount <= currentCallCount;
 	}
+
+	/**
+	 * Counts a call to the test, unless that would exceed its maximum call
+	 * count.
+	 *
+	 * @return true if the call was counted
+	 */
+	public boolean tryReserveCall() {
+		while (true) {
+			final int current = callCount.get();
+			if (hasReachedMaximumCallCount(current)) {
+				return false;
+			}
+			if (callCount.compareAndSet(current, current + 1)) {
+				return true;
+			}
+		}
+	}
+
+	public AtomicInteger getCallCount() {
+		return callCount;
+	}
 }
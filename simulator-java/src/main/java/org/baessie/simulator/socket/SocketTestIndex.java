@@ -0,0 +1,137 @@
+package org.baessie.simulator.socket;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index of socket tests that can be read concurrently without locking. Tests
+ * with an exact request are found with a single hash lookup on the request,
+ * and only tests with a wildcard pattern or a request mask are tried one by
+ * one. Binary tests are looked up on the bytes of a request, so it only has to
+ * be decoded if there are text tests.
+ *
+ * Tests of each kind are kept in the order they were set up. Changes must be
+ * serialized by the caller.
+ */
+public class SocketTestIndex {
+
+	private static final SocketTestData[] NO_TESTS = new SocketTestData[0];
+
+	private final Map<String, SocketTestData[]> exactTests = new ConcurrentHashMap<String, SocketTestData[]>();
+	private volatile SocketTestData[] patternTests = NO_TESTS;
+	private final Map<ByteBuffer, SocketTestData[]> binaryTests = new ConcurrentHashMap<ByteBuffer, SocketTestData[]>();
+	private volatile SocketTestData[] maskedTests = NO_TESTS;
+
+	public void add(final SocketTestData testData) {
+		if (testData.isMasked()) {
+			maskedTests = append(maskedTests, testData);
+		} else if (testData.isBinary()) {
+			add(binaryTests, ByteBuffer.wrap(testData.getRequestBytes()), testData);
+		} else if (testData.isPattern()) {
+			patternTests = append(patternTests, testData);
+		} else {
+			add(exactTests, testData.getRequest(), testData);
+		}
+	}
+
+	public void remove(final SocketTestData testData) {
+		if (testData.isMasked()) {
+			maskedTests = remove(maskedTests, testData);
+		} else if (testData.isBinary()) {
+			remove(binaryTests, ByteBuffer.wrap(testData.getRequestBytes()), testData);
+		} else if (testData.isPattern()) {
+			patternTests = remove(patternTests, testData);
+		} else {
+			remove(exactTests, testData.getRequest(), testData);
+		}
+	}
+
+	/**
+	 * Returns true if there are tests with a text request.
+	 */
+	public boolean hasTextTests() {
+		return !exactTests.isEmpty() || patternTests.length > 0;
+	}
+
+	/**
+	 * Returns the first binary test matching the remaining bytes of a frame
+	 * for which a call could be reserved without exceeding its maximum call
+	 * count, or null if there is no such test. The position of the frame is
+	 * not moved.
+	 */
+	public SocketTestData reserve(final ByteBuffer frame) {
+		final SocketTestData reserved = reserve(binaryTests.get(frame));
+		if (reserved != null) {
+			return reserved;
+		}
+		for (final SocketTestData testData : maskedTests) {
+			if (testData.matches(frame) && testData.tryReserveCall()) {
+				return testData;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the first test matching the request for which a call could be
+	 * reserved without exceeding its maximum call count, or null if there is
+	 * no such test.
+	 */
+	public SocketTestData reserve(final String request) {
+		final SocketTestData reserved = reserve(exactTests.get(request));
+		if (reserved != null) {
+			return reserved;
+		}
+		for (final SocketTestData testData : patternTests) {
+			if (testData.matches(request) && testData.tryReserveCall()) {
+				return testData;
+			}
+		}
+		return null;
+	}
+
+	private static SocketTestData reserve(final SocketTestData[] testDatas) {
+		if (testDatas != null) {
+			for (final SocketTestData testData : testDatas) {
+				if (testData.tryReserveCall()) {
+					return testData;
+				}
+			}
+		}
+		return null;
+	}
+
+	private static <K> void add(final Map<K, SocketTestData[]> tests, final K request, final SocketTestData testData) {
+		final SocketTestData[] testDatas = tests.get(request);
+		tests.put(request, append(testDatas != null ? testDatas : NO_TESTS, testData));
+	}
+
+	private static <K> void remove(final Map<K, SocketTestData[]> tests, final K request, final SocketTestData testData) {
+		final SocketTestData[] testDatas = tests.get(request);
+		if (testDatas != null) {
+			final SocketTestData[] remaining = remove(testDatas, testData);
+			if (remaining.length == 0) {
+				tests.remove(request);
+			} else {
+				tests.put(request, remaining);
+			}
+		}
+	}
+
+	private static SocketTestData[] append(final SocketTestData[] testDatas, final SocketTestData testData) {
+		final SocketTestData[] copy = Arrays.copyOf(testDatas, testDatas.length + 1);
+		copy[testDatas.length] = testData;
+		return copy;
+	}
+
+	private static SocketTestData[] remove(final SocketTestData[] testDatas, final SocketTestData testData) {
+		final List<SocketTestData> list = new ArrayList<SocketTestData>(Arrays.asList(testDatas));
+		list.remove(testData);
+		return list.toArray(NO_TESTS);
+	}
+
+}
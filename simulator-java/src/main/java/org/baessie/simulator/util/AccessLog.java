@@ -0,0 +1,252 @@
+package org.baessie.simulator.util;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Access log with one JSON object per line, written to the file in the system
+ * property {@value #FILE_PROPERTY}. Requests are recorded into a preallocated
+ * ring buffer, and a background thread formats them and writes them to the
+ * file in batches, so recording a request builds no strings and never waits
+ * for the file. Requests recorded while the buffer is full are dropped and
+ * counted. The size of the buffer can be set with the system property
+ * {@value #BUFFER_SIZE_PROPERTY}.
+ */
+public class AccessLog {
+
+	public static final String FILE_PROPERTY = "baessie.accesslog.file";
+	public static final String BUFFER_SIZE_PROPERTY = "baessie.accesslog.bufferSize";
+	private static final int BUFFER_SIZE = 8192;
+	private static final long IDLE_WAIT = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private static final Logger LOG = LoggerFactory.getLogger(AccessLog.class);
+
+	/**
+	 * Access log that records nothing.
+	 */
+	public static final AccessLog DISABLED = new AccessLog();
+
+	private final Entry[] entries;
+	private final int mask;
+	private final AtomicLong claimed = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final Writer writer;
+	private final Thread thread;
+	private volatile long consumed;
+	private volatile boolean running;
+
+	private AccessLog() {
+		entries = null;
+		mask = 0;
+		writer = null;
+		thread = null;
+	}
+
+	/**
+	 * @param bufferSize
+	 *            the number of requests that can wait to be written, rounded
+	 *            up to a power of two
+	 */
+	public AccessLog(final Writer writer, final int bufferSize) {
+		int size = 1;
+		while (size < bufferSize) {
+			size <<= 1;
+		}
+		entries = new Entry[size];
+		for (int i = 0; i < size; i++) {
+			entries[i] = new Entry();
+		}
+		mask = size - 1;
+		this.writer = writer;
+		running = true;
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				drain();
+			}
+		}, "AccessLog");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Creates the access log configured by the system properties, or returns
+	 * {@link #DISABLED} if no file is configured.
+	 */
+	public static AccessLog create() {
+		final String fileName = System.getProperty(FILE_PROPERTY);
+		if (fileName == null || fileName.trim().length() == 0) {
+			return DISABLED;
+		}
+		try {
+			final Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(fileName.trim(), true), SimulatorUtils.CHARSET));
+			LOG.info("Writing access log to {}", fileName.trim());
+			return new AccessLog(writer, Integer.getInteger(BUFFER_SIZE_PROPERTY, BUFFER_SIZE));
+		} catch (final IOException e) {
+			LOG.warn("Failed to open access log " + fileName, e);
+			return DISABLED;
+		}
+	}
+
+	public boolean isEnabled() {
+		return entries != null;
+	}
+
+	/**
+	 * Records a request.
+	 *
+	 * @param route
+	 *            what handled the request
+	 * @param testId
+	 *            the matching test, or null
+	 * @param matchTime
+	 *            nanoseconds taken to find the response, or a negative value
+	 *            if no test was matched
+	 * @param responseSize
+	 *            bytes written in the response, or a negative value if not
+	 *            known
+	 * @param latency
+	 *            nanoseconds from the start of the request until the response
+	 *            was written
+	 */
+	public void record(final String route, final String testId, final long matchTime, final long responseSize, final long latency) {
+		if (entries == null) {
+			return;
+		}
+		long sequence;
+		do {
+			sequence = claimed.get();
+			if (sequence - consumed >= entries.length) {
+				dropped.incrementAndGet();
+				return;
+			}
+		} while (!claimed.compareAndSet(sequence, sequence + 1));
+
+		final Entry entry = entries[(int) sequence & mask];
+		entry.time = System.currentTimeMillis();
+		entry.route = route;
+		entry.testId = testId;
+		entry.matchTime = matchTime;
+		entry.responseSize = responseSize;
+		entry.latency = latency;
+		entry.published = sequence;
+	}
+
+	/**
+	 * Returns the number of requests dropped because the buffer was full.
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * Writes the requests recorded so far and closes the file.
+	 */
+	public void close() {
+		if (thread == null) {
+			return;
+		}
+		running = false;
+		LockSupport.unpark(thread);
+		try {
+			thread.join();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void drain() {
+		final StringBuilder line = new StringBuilder(256);
+		long next = consumed;
+		try {
+			while (running || next < claimed.get()) {
+				final long end = claimed.get();
+				int written = 0;
+				while (next < end) {
+					final Entry entry = entries[(int) next & mask];
+					if (entry.published != next) {
+						// Claimed but not yet recorded
+						break;
+					}
+					line.setLength(0);
+					format(entry, line);
+					next++;
+					consumed = next;
+					writer.write(line.toString());
+					written++;
+				}
+				if (written > 0) {
+					writer.flush();
+				} else if (running) {
+					LockSupport.parkNanos(IDLE_WAIT);
+				} else {
+					Thread.yield();
+				}
+			}
+		} catch (final IOException e) {
+			LOG.warn("Failed to write access log", e);
+		} finally {
+			try {
+				writer.close();
+			} catch (final IOException e) {
+				LOG.warn("Failed to close access log", e);
+			}
+		}
+	}
+
+	private static void format(final Entry entry, final StringBuilder line) {
+		line.append("{\"time\":").append(entry.time);
+		line.append(",\"route\":");
+		appendString(line, entry.route);
+		if (entry.testId != null) {
+			line.append(",\"testId\":");
+			appendString(line, entry.testId);
+		}
+		if (entry.matchTime >= 0) {
+			line.append(",\"matchNanos\":").append(entry.matchTime);
+		}
+		if (entry.responseSize >= 0) {
+			line.append(",\"responseBytes\":").append(entry.responseSize);
+		}
+		line.append(",\"latencyNanos\":").append(entry.latency).append("}\n");
+	}
+
+	static void appendString(final StringBuilder line, final String str) {
+		if (str == null) {
+			line.append("null");
+			return;
+		}
+		line.append('"');
+		for (int i = 0; i < str.length(); i++) {
+			final char c = str.charAt(i);
+			if (c == '"' || c == '\\') {
+				line.append('\\').append(c);
+			} else if (c < 0x20) {
+				line.append(String.format("\\u%04x", Integer.valueOf(c)));
+			} else {
+				line.append(c);
+			}
+		}
+		line.append('"');
+	}
+
+	private static class Entry {
+		private volatile long published = -1;
+		private long time;
+		private String route;
+		private String testId;
+		private long matchTime;
+		private long responseSize;
+		private long latency;
+	}
+
+}
@@ -0,0 +1,51 @@
+package org.baessie.simulator.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Collects the tests that may match a request and returns them in the order
+ * they should be tried.
+ */
+public class CandidateList<T extends SimulatorTestData> {
+
+	private final List<Candidate<T>> candidates = new ArrayList<Candidate<T>>();
+
+	public void add(final T testData) {
+		candidates.add(new Candidate<T>(testData));
+	}
+
+	/**
+	 * Returns the tests, lowest sequence number first.
+	 */
+	public List<T> sorted() {
+		Collections.sort(candidates);
+		final List<T> result = new ArrayList<T>(candidates.size());
+		for (final Candidate<T> candidate : candidates) {
+			result.add(candidate.testData);
+		}
+		return result;
+	}
+
+	/**
+	 * A candidate with the sequence number it had when the lookup was made.
+	 * The sequence of a test changes when other requests match it, so it must
+	 * only be read once while sorting.
+	 */
+	private static class Candidate<T extends SimulatorTestData> implements Comparable<Candidate<T>> {
+		private final T testData;
+		private final long sequence;
+
+		Candidate(final T testData) {
+			this.testData = testData;
+			sequence = testData.getSequence();
+		}
+
+		@Override
+		public int compareTo(final Candidate<T> other) {
+			return sequence < other.sequence ? -1 : sequence == other.sequence ? 0 : 1;
+		}
+	}
+
+}
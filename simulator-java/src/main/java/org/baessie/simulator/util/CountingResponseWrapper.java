@@ -0,0 +1,56 @@
+package org.baessie.simulator.util;
+
+import java.io.IOException;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Counts the bytes written to the output stream of a response.
+ */
+public class CountingResponseWrapper extends HttpServletResponseWrapper {
+
+	private long count;
+	private ServletOutputStream outputStream;
+
+	public CountingResponseWrapper(final HttpServletResponse response) {
+		super(response);
+	}
+
+	@Override
+	public ServletOutputStream getOutputStream() throws IOException {
+		if (outputStream == null) {
+			final ServletOutputStream out = super.getOutputStream();
+			outputStream = new ServletOutputStream() {
+				@Override
+				public void write(final int b) throws IOException {
+					out.write(b);
+					count++;
+				}
+
+				@Override
+				public void write(final byte[] b, final int off, final int len) throws IOException {
+					out.write(b, off, len);
+					count += len;
+				}
+
+				@Override
+				public void flush() throws IOException {
+					out.flush();
+				}
+
+				@Override
+				public void close() throws IOException {
+					out.close();
+				}
+			};
+		}
+		return outputStream;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+}
@@ -0,0 +1,49 @@
+package org.baessie.simulator.util;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs tasks after a delay on a small number of shared threads, so that
+ * delayed responses do not hold a request thread while they wait. The number
+ * of threads can be set with the system property {@value #THREADS_PROPERTY}.
+ */
+public class DelayScheduler {
+
+	public static final String THREADS_PROPERTY = "baessie.delay.threads";
+	private static final int THREADS = 2;
+
+	private final ScheduledExecutorService executor;
+
+	public DelayScheduler(final int threads) {
+		executor = Executors.newScheduledThreadPool(Math.max(1, threads), new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(final Runnable runnable) {
+				final Thread thread = new Thread(runnable, "DelayScheduler-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	public DelayScheduler() {
+		this(Integer.getInteger(THREADS_PROPERTY, THREADS));
+	}
+
+	/**
+	 * Runs the task after the given number of milliseconds.
+	 */
+	public void schedule(final Runnable task, final long delay) {
+		executor.schedule(task, delay, TimeUnit.MILLISECONDS);
+	}
+
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+}
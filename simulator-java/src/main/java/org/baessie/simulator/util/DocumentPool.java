@@ -0,0 +1,44 @@
+package org.baessie.simulator.util;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.w3c.dom.Document;
+
+/**
+ * Pool of private copies of a shared document. DOM implementations are not
+ * safe for concurrent reads, so every concurrent user of a control document
+ * borrows its own copy. The pool grows to the highest number of concurrent
+ * users of the document.
+ */
+public class DocumentPool {
+
+	private final Document document;
+	private final ConcurrentLinkedQueue<Document> copies = new ConcurrentLinkedQueue<Document>();
+
+	public DocumentPool(final Document document) {
+		this.document = document;
+		// Copying touches every node, which also makes sure that the original
+		// document is fully expanded before it is shared between threads
+		release(copy());
+	}
+
+	/**
+	 * Borrows a copy of the document. The copy must be handed back with
+	 * {@link #release(Document)}.
+	 */
+	public Document borrow() {
+		final Document copy = copies.poll();
+		return copy != null ? copy : copy();
+	}
+
+	public void release(final Document copy) {
+		copies.offer(copy);
+	}
+
+	private Document copy() {
+		synchronized (document) {
+			return (Document) document.cloneNode(true);
+		}
+	}
+
+}
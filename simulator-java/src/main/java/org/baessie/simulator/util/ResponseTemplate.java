@@ -0,0 +1,249 @@
+package org.baessie.simulator.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+
+import org.baessie.simulator.ws.BackReferenceLocation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * An xml response serialized once, when the test is set up, into byte
+ * segments in the charset of the response. The back references of the
+ * response are holes between the segments, so a response is written by
+ * writing the segments with the escaped back reference values in between,
+ * without copying or serializing any document.
+ */
+public class ResponseTemplate {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ResponseTemplate.class);
+	private static final Random RANDOM = new Random();
+
+	private enum Escaping {
+		TEXT, ATTRIBUTE, NONE
+	}
+
+	private final Charset charset;
+	private final byte[][] segments;
+	private final String[] holeIds;
+	private final Escaping[] holeEscapings;
+
+	private ResponseTemplate(final Charset charset, final byte[][] segments, final String[] holeIds, final Escaping[] holeEscapings) {
+		this.charset = charset;
+		this.segments = segments;
+		this.holeIds = holeIds;
+		this.holeEscapings = holeEscapings;
+	}
+
+	/**
+	 * Compiles a template of the given document, with holes at the given back
+	 * references.
+	 */
+	public static ResponseTemplate compile(final Document document, final List<BackReferenceLocation> backReferences, final Map<String, String> nameSpaces)
+			throws TransformerException {
+		final Charset charset = getCharset(document);
+		final Document copy = SimulatorUtils.copyDocument(document);
+
+		// Every back reference is replaced by a marker that can not be part of
+		// the document, which is then found in the serialized document
+		final String nonce = "baessie" + Long.toHexString(RANDOM.nextLong());
+		final Map<String, Integer> markers = new LinkedHashMap<String, Integer>();
+		final List<String> holeIds = new ArrayList<String>();
+		final List<Escaping> holeEscapings = new ArrayList<Escaping>();
+		if (backReferences != null && !backReferences.isEmpty()) {
+			final XPath xPath = XmlToolkit.borrowXPath();
+			try {
+				if (nameSpaces != null) {
+					xPath.setNamespaceContext(new MapNamspaceContext(nameSpaces));
+				} else {
+					xPath.setNamespaceContext(new DocumentNamspaceContext(copy));
+				}
+				for (final BackReferenceLocation backReference : backReferences) {
+					final String id = backReference.getId();
+					try {
+						final NodeList nodeList = (NodeList) xPath.evaluate(backReference.getLocation(), copy, XPathConstants.NODESET);
+						for (int i = 0; i < nodeList.getLength(); i++) {
+							final Node node = nodeList.item(i);
+							final Escaping escaping = escapingOf(node);
+							final String key = id + '\u0000' + escaping;
+							Integer hole = markers.get(key);
+							if (hole == null) {
+								hole = holeIds.size();
+								markers.put(key, hole);
+								holeIds.add(id);
+								holeEscapings.add(escaping);
+							}
+							node.setNodeValue(node.getNodeValue().replace(id, nonce + hole + nonce));
+						}
+					} catch (final Exception e) {
+						LOG.warn("Failed to find nodes in response: " + backReference.getLocation(), e);
+					}
+				}
+			} finally {
+				XmlToolkit.releaseXPath(xPath);
+			}
+		}
+
+		final StringWriter writer = new StringWriter();
+		final Transformer transformer = XmlToolkit.newTransformer();
+		transformer.setOutputProperty(OutputKeys.ENCODING, charset.name());
+		transformer.transform(new DOMSource(copy), new StreamResult(writer));
+
+		final List<byte[]> segments = new ArrayList<byte[]>();
+		final List<String> holes = new ArrayList<String>();
+		final List<Escaping> escapings = new ArrayList<Escaping>();
+		final String serialized = writer.toString();
+		final Matcher matcher = Pattern.compile(Pattern.quote(nonce) + "(\\d+)" + Pattern.quote(nonce)).matcher(serialized);
+		int start = 0;
+		while (matcher.find()) {
+			final int hole = Integer.parseInt(matcher.group(1));
+			segments.add(serialized.substring(start, matcher.start()).getBytes(charset));
+			holes.add(holeIds.get(hole));
+			escapings.add(holeEscapings.get(hole));
+			start = matcher.end();
+		}
+		segments.add(serialized.substring(start).getBytes(charset));
+		return new ResponseTemplate(charset, segments.toArray(new byte[segments.size()][]), holes.toArray(new String[holes.size()]), escapings
+				.toArray(new Escaping[escapings.size()]));
+	}
+
+	/**
+	 * Returns the charset of the document, or UTF-8 if the document has no
+	 * usable charset.
+	 */
+	private static Charset getCharset(final Document document) {
+		final String xmlEncoding = document.getXmlEncoding();
+		if (xmlEncoding != null) {
+			try {
+				return Charset.forName(xmlEncoding);
+			} catch (final Exception e) {
+				LOG.debug("Unusable charset in response: {}", xmlEncoding);
+			}
+		}
+		return Charset.forName(SimulatorUtils.CHARSET);
+	}
+
+	private static Escaping escapingOf(final Node node) {
+		switch (node.getNodeType()) {
+		case Node.ATTRIBUTE_NODE:
+			return Escaping.ATTRIBUTE;
+		case Node.TEXT_NODE:
+			return Escaping.TEXT;
+		default:
+			return Escaping.NONE;
+		}
+	}
+
+	public Charset getCharset() {
+		return charset;
+	}
+
+	/**
+	 * Writes the response with the holes filled with the values of the given
+	 * back references. Holes without a value keep their back reference.
+	 */
+	public void write(final OutputStream out, final List<BackReferenceValue> backReferenceValues) throws IOException {
+		CharsetEncoder encoder = null;
+		for (int i = 0; i < holeIds.length; i++) {
+			out.write(segments[i]);
+			final String value = findValue(holeIds[i], backReferenceValues);
+			if (holeEscapings[i] == Escaping.NONE) {
+				out.write(value.getBytes(charset));
+			} else {
+				if (encoder == null) {
+					encoder = charset.newEncoder();
+				}
+				out.write(escape(value, holeEscapings[i], encoder).getBytes(charset));
+			}
+		}
+		out.write(segments[segments.length - 1]);
+	}
+
+	/**
+	 * Returns the response with the holes filled with the values of the given
+	 * back references.
+	 */
+	public byte[] render(final List<BackReferenceValue> backReferenceValues) {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			write(out, backReferenceValues);
+		} catch (final IOException e) {
+			// Not thrown by ByteArrayOutputStream
+			throw new IllegalStateException(e);
+		}
+		return out.toByteArray();
+	}
+
+	private static String findValue(final String id, final List<BackReferenceValue> backReferenceValues) {
+		if (backReferenceValues != null) {
+			for (final BackReferenceValue backReferenceValue : backReferenceValues) {
+				if (id.equals(backReferenceValue.getId())) {
+					return backReferenceValue.getValue();
+				}
+			}
+		}
+		return id;
+	}
+
+	private static String escape(final String value, final Escaping escaping, final CharsetEncoder encoder) {
+		final StringBuilder sb = new StringBuilder(value.length() + 16);
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			switch (c) {
+			case '&':
+				sb.append("&amp;");
+				break;
+			case '<':
+				sb.append("&lt;");
+				break;
+			case '>':
+				sb.append("&gt;");
+				break;
+			case '"':
+				sb.append(escaping == Escaping.ATTRIBUTE ? "&quot;" : "\"");
+				break;
+			case '\n':
+			case '\r':
+			case '\t':
+				if (escaping == Escaping.ATTRIBUTE) {
+					sb.append("&#").append((int) c).append(';');
+				} else {
+					sb.append(c);
+				}
+				break;
+			default:
+				if (c < 0x80 || encoder.canEncode(c)) {
+					sb.append(c);
+				} else {
+					final int codePoint = value.codePointAt(i);
+					sb.append("&#").append(codePoint).append(';');
+					i += Character.charCount(codePoint) - 1;
+				}
+			}
+		}
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,15 @@
+package org.baessie.simulator.util;
+
+/**
+ * A test kept in a {@link TestDataRegistry}. The sequence number orders the
+ * tests that match the same request, the lowest is tried first.
+ */
+public interface SimulatorTestData {
+
+	String getTestId();
+
+	long getSequence();
+
+	void setSequence(long sequence);
+
+}
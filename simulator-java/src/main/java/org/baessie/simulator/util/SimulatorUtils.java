@@ -17,13 +17,11 @@ import javax.servlet.http.HttpServletResponse;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMResult;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathFactory;
 
 import org.baessie.simulator.ws.BackReferenceLocation;
 import org.custommonkey.xmlunit.DetailedDiff;
@@ -51,9 +49,7 @@ public class SimulatorUtils {
 	private static final String REGEX_WILDCARD = "\\\\E.*?\\\\Q";
 	private static final String ESCAPED_WILDCARD = "\\*";
 
-	private static TransformerFactory transformerFactory;
 	static {
-		transformerFactory = TransformerFactory.newInstance();
 		XMLUnit.setIgnoreWhitespace(true);
 		XMLUnit.setNormalizeWhitespace(true);
 		XMLUnit.setIgnoreDiffBetweenTextAndCDATA(true);
@@ -68,7 +64,7 @@ public class SimulatorUtils {
 			out = response.getOutputStream();
 			out.write(msg.getBytes(CHARSET));
 			out.flush();
-			LOG.info("Wrote text response: " + msg);
+			LOG.debug("Wrote text response: {}", msg);
 		} catch (final Exception e) {
 			LOG.error("Failed to write text response: " + msg, e);
 		} finally {
@@ -99,9 +95,32 @@ public class SimulatorUtils {
 			out = response.getOutputStream();
 			final DOMSource source = new DOMSource(outTestDocument);
 			final StreamResult result = new StreamResult(out);
-			newTransformer().transform(source, result);
+			XmlToolkit.transform(source, result);
 			out.flush();
-			LOG.info("Wrote xml response");
+			LOG.debug("Wrote xml response");
+		} catch (final Exception e) {
+			LOG.error("Failed to write xml response", e);
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (final IOException e) {
+					LOG.warn("Failed to close output stream", e);
+				}
+			}
+		}
+	}
+
+	public static void writeXmlResponse(final HttpServletResponse response, final ResponseTemplate template, final List<BackReferenceValue> backReferenceValues) {
+		response.setContentType(SimulatorUtils.CONTENT_TYPE_XML);
+		response.setCharacterEncoding(template.getCharset().name());
+
+		OutputStream out = null;
+		try {
+			out = response.getOutputStream();
+			template.write(out, backReferenceValues);
+			out.flush();
+			LOG.debug("Wrote xml response");
 		} catch (final Exception e) {
 			LOG.error("Failed to write xml response", e);
 		} finally {
@@ -117,7 +136,16 @@ public class SimulatorUtils {
 
 	public static void replaceBackReferences(final Document document, final List<BackReferenceLocation> outBackReferences, final List<BackReferenceValue> backReferenceValues,
 			final Map<String, String> nameSpaces) {
-		final XPath xPath = XPathFactory.newInstance().newXPath();
+		final XPath xPath = XmlToolkit.borrowXPath();
+		try {
+			replaceBackReferences(document, outBackReferences, backReferenceValues, nameSpaces, xPath);
+		} finally {
+			XmlToolkit.releaseXPath(xPath);
+		}
+	}
+
+	private static void replaceBackReferences(final Document document, final List<BackReferenceLocation> outBackReferences, final List<BackReferenceValue> backReferenceValues,
+			final Map<String, String> nameSpaces, final XPath xPath) {
 		if (nameSpaces != null) {
 			xPath.setNamespaceContext(new MapNamspaceContext(nameSpaces));
 		} else {
@@ -158,23 +186,38 @@ public class SimulatorUtils {
 		Document copy = null;
 		final DOMSource source = new DOMSource(document);
 		final DOMResult result = new DOMResult();
-		try {
-			SimulatorUtils.newTransformer().transform(source, result);
-			copy = (Document) result.getNode();
-		} catch (final TransformerException e) {
+		// DOM implementations are not safe for concurrent reads and the control
+		// documents are shared between all requests
+		synchronized (document != null ? document : source) {
+			try {
+				XmlToolkit.transform(source, result);
+				copy = (Document) result.getNode();
+			} catch (final TransformerException e) {
+			}
 		}
 		return copy;
 	}
 
 	public static Transformer newTransformer() throws TransformerConfigurationException {
-		return transformerFactory.newTransformer();
+		return XmlToolkit.newTransformer();
 	}
 
+	/**
+	 * Blocks until more than the given number of milliseconds have passed on
+	 * the wall clock. A single sleep may end when exactly the delay has
+	 * passed, which a client measuring with the wall clock can see as no delay
+	 * at all once matching takes less than a millisecond.
+	 */
 	public static void delay(final Integer delay) {
 		if (delay != null && delay > 0) {
+			final long end = System.currentTimeMillis() + delay;
 			try {
-				Thread.sleep(delay.longValue());
+				long now;
+				while ((now = System.currentTimeMillis()) <= end) {
+					Thread.sleep(end - now + 1);
+				}
 			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
 			}
 		}
 	}
@@ -183,20 +226,24 @@ public class SimulatorUtils {
 		final List<BackReferenceLocation> list = new ArrayList<BackReferenceLocation>();
 		if (strs != null) {
 
-			final XPath xPath = XPathFactory.newInstance().newXPath();
-			xPath.setNamespaceContext(new DocumentNamspaceContext(document));
+			final XPath xPath = XmlToolkit.borrowXPath();
+			try {
+				xPath.setNamespaceContext(new DocumentNamspaceContext(document));
 
-			for (final String xpath : strs) {
-				try {
-					final String value = xPath.evaluate(xpath, document);
-					final Matcher matcher = SimulatorUtils.BACK_REFERENCE_PATTERN.matcher(value);
-					while (matcher.find()) {
-						final String id = matcher.group();
-						list.add(new BackReferenceLocation(id, xpath));
+				for (final String xpath : strs) {
+					try {
+						final String value = xPath.evaluate(xpath, document);
+						final Matcher matcher = SimulatorUtils.BACK_REFERENCE_PATTERN.matcher(value);
+						while (matcher.find()) {
+							final String id = matcher.group();
+							list.add(new BackReferenceLocation(id, xpath));
+						}
+					} catch (final Exception e) {
+						LOG.warn("Failed to resolve xpath expression: " + xpath + ", " + e.getMessage());
 					}
-				} catch (final Exception e) {
-					LOG.warn("Failed to resolve xpath expression: " + xpath + ", " + e.getMessage());
 				}
+			} finally {
+				XmlToolkit.releaseXPath(xPath);
 			}
 		}
 		return list;
@@ -400,6 +447,28 @@ public class SimulatorUtils {
 		return wildcard;
 	}
 
+	/**
+	 * Creates a pattern matching strings where every wildcard in the given
+	 * string may be replaced by any sequence of characters.
+	 */
+	public static Pattern createWildcardPattern(final String str) {
+		return Pattern.compile(createRegexp(str), Pattern.DOTALL);
+	}
+
+	/**
+	 * Returns true if the first non whitespace character of the string starts
+	 * an element or prolog, which all strings that can be parsed as xml do.
+	 */
+	public static boolean looksLikeXml(final String str) {
+		for (int i = 0; i < str.length(); i++) {
+			final char c = str.charAt(i);
+			if (!Character.isWhitespace(c)) {
+				return c == '<';
+			}
+		}
+		return false;
+	}
+
 	private static String createRegexp(final String str) {
 		return Pattern.quote(str).replaceAll(ESCAPED_WILDCARD, REGEX_WILDCARD);
 	}
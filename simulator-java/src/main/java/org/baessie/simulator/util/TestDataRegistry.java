@@ -0,0 +1,123 @@
+package org.baessie.simulator.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Registry of tests that can be read concurrently without locking.
+ *
+ * Matching reads a published, immutable {@link TestIndex} snapshot, which
+ * finds the candidates for a request in its own way. All administrative
+ * operations (setup, verify, remove and clear) are serialized on a lock and
+ * publish a new snapshot before the lock is released, which makes them
+ * linearizable with respect to each other.
+ */
+public class TestDataRegistry<T extends SimulatorTestData, I extends TestIndex<T, I>> {
+
+	private final Object lock = new Object();
+	private final Map<String, List<T>> testDatasByTestId = new HashMap<String, List<T>>();
+	private final AtomicLong sequence = new AtomicLong();
+	private final I emptyIndex;
+	private volatile I index;
+	private int size;
+
+	public TestDataRegistry(final I emptyIndex) {
+		this.emptyIndex = emptyIndex;
+		index = emptyIndex;
+	}
+
+	public void add(final T testData) {
+		synchronized (lock) {
+			register(testData);
+			index = index.plus(testData);
+		}
+	}
+
+	/**
+	 * Adds all the given tests, replacing the registered tests with the same
+	 * test ids, and publishes them in a single snapshot.
+	 */
+	public void addAll(final List<T> testDatas) {
+		synchronized (lock) {
+			final List<T> replaced = new ArrayList<T>();
+			for (final T testData : testDatas) {
+				replaced.addAll(unregister(testData.getTestId()));
+			}
+			for (final T testData : testDatas) {
+				register(testData);
+			}
+			index = (replaced.isEmpty() ? index : index.minus(replaced)).plus(testDatas);
+		}
+	}
+
+	private void register(final T testData) {
+		testData.setSequence(sequence.incrementAndGet());
+		List<T> testDatas = testDatasByTestId.get(testData.getTestId());
+		if (testDatas == null) {
+			testDatas = new ArrayList<T>(1);
+			testDatasByTestId.put(testData.getTestId(), testDatas);
+		}
+		testDatas.add(testData);
+		size++;
+	}
+
+	/**
+	 * Returns the first registered test with the given test id, or null if
+	 * there is no such test.
+	 */
+	public T get(final String testId) {
+		synchronized (lock) {
+			final List<T> testDatas = testDatasByTestId.get(testId);
+			return testDatas != null ? testDatas.get(0) : null;
+		}
+	}
+
+	public List<T> remove(final String testId) {
+		synchronized (lock) {
+			final List<T> removed = unregister(testId);
+			if (!removed.isEmpty()) {
+				index = index.minus(removed);
+			}
+			return removed;
+		}
+	}
+
+	private List<T> unregister(final String testId) {
+		final List<T> removed = testDatasByTestId.remove(testId);
+		if (removed == null) {
+			return Collections.emptyList();
+		}
+		size -= removed.size();
+		return removed;
+	}
+
+	public int clear() {
+		synchronized (lock) {
+			final int removed = size;
+			testDatasByTestId.clear();
+			size = 0;
+			index = emptyIndex;
+			return removed;
+		}
+	}
+
+	/**
+	 * Returns the published index, to find the candidates for a request in.
+	 */
+	public I getIndex() {
+		return index;
+	}
+
+	/**
+	 * Moves the given test last in matching order, so that tests matching the
+	 * same request take turns.
+	 */
+	public void matched(final T testData) {
+		testData.setSequence(sequence.incrementAndGet());
+	}
+
+}
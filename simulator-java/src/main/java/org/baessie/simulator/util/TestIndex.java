@@ -0,0 +1,21 @@
+package org.baessie.simulator.util;
+
+import java.util.List;
+
+/**
+ * Immutable index of the tests of a {@link TestDataRegistry}, which finds the
+ * tests that may match a request. Adding or removing tests returns a new
+ * index, so that it can be published to concurrent readers without locking.
+ */
+public interface TestIndex<T extends SimulatorTestData, I extends TestIndex<T, I>> {
+
+	I plus(T testData);
+
+	/**
+	 * Returns an index with all the given tests added.
+	 */
+	I plus(List<T> testDatas);
+
+	I minus(List<T> testDatas);
+
+}
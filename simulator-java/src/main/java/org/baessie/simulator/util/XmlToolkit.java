@@ -0,0 +1,184 @@
+package org.baessie.simulator.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.Result;
+import javax.xml.transform.Source;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathFactory;
+
+import org.custommonkey.xmlunit.XMLUnit;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * Parsing, stream reading, serialization and XPath evaluation without looking
+ * up factories or creating parsers and transformers for every request.
+ *
+ * Document builders, transformers and XPath objects are not thread safe, so
+ * they are kept in bounded pools. An object is reset before it is returned to
+ * its pool, and objects released to a full pool are left to the garbage
+ * collector. The pool size can be set with the system property
+ * <code>baessie.xml.poolSize</code> and defaults to twice the number of
+ * processors.
+ */
+public final class XmlToolkit {
+
+	private static final int POOL_SIZE = Integer.getInteger("baessie.xml.poolSize", 2 * Runtime.getRuntime().availableProcessors());
+
+	private static final TransformerFactory TRANSFORMER_FACTORY = TransformerFactory.newInstance();
+	private static final XPathFactory XPATH_FACTORY = XPathFactory.newInstance();
+	private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newInstance();
+
+	static {
+		INPUT_FACTORY.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+		INPUT_FACTORY.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+	}
+
+	private static final Pool<DocumentBuilder> DOCUMENT_BUILDERS = new Pool<DocumentBuilder>(POOL_SIZE) {
+		@Override
+		protected DocumentBuilder create() {
+			try {
+				// Configured the same way as the parsers of XMLUnit
+				final DocumentBuilderFactory factory = XMLUnit.getTestDocumentBuilderFactory();
+				synchronized (factory) {
+					return factory.newDocumentBuilder();
+				}
+			} catch (final ParserConfigurationException e) {
+				throw new IllegalStateException("Failed to create document builder", e);
+			}
+		}
+
+		@Override
+		protected void reset(final DocumentBuilder documentBuilder) {
+			documentBuilder.reset();
+		}
+	};
+
+	private static final Pool<Transformer> TRANSFORMERS = new Pool<Transformer>(POOL_SIZE) {
+		@Override
+		protected Transformer create() {
+			try {
+				return newTransformer();
+			} catch (final TransformerConfigurationException e) {
+				throw new IllegalStateException("Failed to create transformer", e);
+			}
+		}
+
+		@Override
+		protected void reset(final Transformer transformer) {
+			transformer.reset();
+		}
+	};
+
+	private static final Pool<XPath> XPATHS = new Pool<XPath>(POOL_SIZE) {
+		@Override
+		protected XPath create() {
+			synchronized (XPATH_FACTORY) {
+				return XPATH_FACTORY.newXPath();
+			}
+		}
+
+		@Override
+		protected void reset(final XPath xPath) {
+			xPath.reset();
+		}
+	};
+
+	private XmlToolkit() {
+	}
+
+	public static Document parse(final String xml) throws SAXException, IOException {
+		return parse(new InputSource(new StringReader(xml)));
+	}
+
+	public static Document parse(final InputSource inputSource) throws SAXException, IOException {
+		final DocumentBuilder documentBuilder = DOCUMENT_BUILDERS.borrow();
+		try {
+			return documentBuilder.parse(inputSource);
+		} finally {
+			DOCUMENT_BUILDERS.release(documentBuilder);
+		}
+	}
+
+	/**
+	 * Returns a namespace aware stream reader that coalesces adjacent text. The
+	 * encoding of the stream is detected if the given charset is null.
+	 */
+	public static XMLStreamReader createStreamReader(final InputStream in, final String charset) throws XMLStreamException {
+		synchronized (INPUT_FACTORY) {
+			return charset != null ? INPUT_FACTORY.createXMLStreamReader(in, charset) : INPUT_FACTORY.createXMLStreamReader(in);
+		}
+	}
+
+	/**
+	 * Copies the source to the result with an identity transformer.
+	 */
+	public static void transform(final Source source, final Result result) throws TransformerException {
+		final Transformer transformer = TRANSFORMERS.borrow();
+		try {
+			transformer.transform(source, result);
+		} finally {
+			TRANSFORMERS.release(transformer);
+		}
+	}
+
+	/**
+	 * Returns a new identity transformer that is not part of any pool.
+	 */
+	public static Transformer newTransformer() throws TransformerConfigurationException {
+		synchronized (TRANSFORMER_FACTORY) {
+			return TRANSFORMER_FACTORY.newTransformer();
+		}
+	}
+
+	/**
+	 * Borrows an XPath object. It must be handed back with
+	 * {@link #releaseXPath(XPath)}.
+	 */
+	public static XPath borrowXPath() {
+		return XPATHS.borrow();
+	}
+
+	public static void releaseXPath(final XPath xPath) {
+		XPATHS.release(xPath);
+	}
+
+	private abstract static class Pool<T> {
+		private final BlockingQueue<T> idle;
+
+		Pool(final int size) {
+			idle = new ArrayBlockingQueue<T>(Math.max(1, size));
+		}
+
+		T borrow() {
+			final T t = idle.poll();
+			return t != null ? t : create();
+		}
+
+		void release(final T t) {
+			reset(t);
+			idle.offer(t);
+		}
+
+		protected abstract T create();
+
+		protected abstract void reset(T t);
+	}
+
+}
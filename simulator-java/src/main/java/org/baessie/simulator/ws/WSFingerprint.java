@@ -0,0 +1,224 @@
+package org.baessie.simulator.ws;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.baessie.simulator.util.SimulatorUtils;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Structural fingerprint of an XML document used to pre-select which WS tests
+ * can possibly match a request before the full XMLUnit comparison is made.
+ *
+ * The fingerprint consists of a structure key (root element and, for SOAP
+ * envelopes, the operation elements of the body) and a set of whitespace
+ * normalized text values. For a control document the values are the literal
+ * leaf values (wildcards and back references excluded), all of which must be
+ * present in a request for the documents to match.
+ */
+public class WSFingerprint {
+
+	private static final String SOAP_11_NS = "http://schemas.xmlsoap.org/soap/envelope/";
+	private static final String SOAP_12_NS = "http://www.w3.org/2003/05/soap-envelope";
+	private static final String ENVELOPE = "Envelope";
+	private static final String BODY = "Body";
+
+	private final String structureKey;
+	private final Set<String> values;
+	private final String anchor;
+
+	private WSFingerprint(final String structureKey, final Set<String> values) {
+		this.structureKey = structureKey;
+		this.values = values;
+		anchor = selectAnchor(values);
+	}
+
+	public String getStructureKey() {
+		return structureKey;
+	}
+
+	public Set<String> getValues() {
+		return values;
+	}
+
+	/**
+	 * Returns the most selective value of the fingerprint, used as the hash key
+	 * within a structure bucket, or null if the fingerprint has no values.
+	 */
+	public String getAnchor() {
+		return anchor;
+	}
+
+	/**
+	 * Returns true if all values of the given control fingerprint are present
+	 * in this (request) fingerprint.
+	 */
+	public boolean containsAllValuesOf(final WSFingerprint control) {
+		return values.containsAll(control.values);
+	}
+
+	public static WSFingerprint forControl(final Document document) {
+		final Element root = document.getDocumentElement();
+		final Set<String> literals = new HashSet<String>();
+		collectLiterals(root, literals);
+		return new WSFingerprint(createStructureKey(root), Collections.unmodifiableSet(literals));
+	}
+
+	public static WSFingerprint forRequest(final Document document) {
+		final Element root = document.getDocumentElement();
+		final Set<String> values = new HashSet<String>();
+		collectValues(root, values);
+		return new WSFingerprint(createStructureKey(root), values);
+	}
+
+	private static String selectAnchor(final Set<String> values) {
+		String anchor = null;
+		for (final String value : values) {
+			if (anchor == null || value.length() > anchor.length() || value.length() == anchor.length() && value.compareTo(anchor) < 0) {
+				anchor = value;
+			}
+		}
+		return anchor;
+	}
+
+	static String createStructureKey(final Element root) {
+		final StringBuilder sb = new StringBuilder();
+		appendName(sb, root);
+		if (isEnvelope(root)) {
+			final Element body = findChild(root, root.getNamespaceURI(), BODY);
+			if (body != null) {
+				final List<String> operations = new ArrayList<String>();
+				final NodeList childNodes = body.getChildNodes();
+				for (int i = 0; i < childNodes.getLength(); i++) {
+					final Node child = childNodes.item(i);
+					if (child.getNodeType() == Node.ELEMENT_NODE) {
+						final StringBuilder name = new StringBuilder();
+						appendName(name, child);
+						operations.add(name.toString());
+					}
+				}
+				// Child order is not significant when documents are compared
+				Collections.sort(operations);
+				sb.append('/');
+				for (final String operation : operations) {
+					sb.append(operation).append(',');
+				}
+			}
+		}
+		return sb.toString();
+	}
+
+	private static boolean isEnvelope(final Element element) {
+		final String namespaceURI = element.getNamespaceURI();
+		return ENVELOPE.equals(localName(element)) && (SOAP_11_NS.equals(namespaceURI) || SOAP_12_NS.equals(namespaceURI));
+	}
+
+	private static Element findChild(final Element parent, final String namespaceURI, final String name) {
+		final NodeList childNodes = parent.getChildNodes();
+		for (int i = 0; i < childNodes.getLength(); i++) {
+			final Node child = childNodes.item(i);
+			if (child.getNodeType() == Node.ELEMENT_NODE && name.equals(localName(child)) && namespaceURI.equals(child.getNamespaceURI())) {
+				return (Element) child;
+			}
+		}
+		return null;
+	}
+
+	private static void appendName(final StringBuilder sb, final Node node) {
+		final String namespaceURI = node.getNamespaceURI();
+		if (namespaceURI != null) {
+			sb.append('{').append(namespaceURI).append('}');
+		}
+		sb.append(localName(node));
+	}
+
+	private static String localName(final Node node) {
+		final String localName = node.getLocalName();
+		return localName != null ? localName : node.getNodeName();
+	}
+
+	private static void collectLiterals(final Element element, final Set<String> literals) {
+		final NodeList childNodes = element.getChildNodes();
+		Node textNode = null;
+		int textNodes = 0;
+		boolean leaf = true;
+		for (int i = 0; i < childNodes.getLength(); i++) {
+			final Node child = childNodes.item(i);
+			switch (child.getNodeType()) {
+			case Node.ELEMENT_NODE:
+				leaf = false;
+				collectLiterals((Element) child, literals);
+				break;
+			case Node.TEXT_NODE:
+			case Node.CDATA_SECTION_NODE:
+				if (normalize(child.getNodeValue()).length() > 0) {
+					textNode = child;
+					textNodes++;
+				}
+				break;
+			default:
+				leaf = false;
+				break;
+			}
+		}
+		if (leaf && textNodes == 1) {
+			final String value = normalize(textNode.getNodeValue());
+			if (!value.contains(SimulatorUtils.WILDCARD)) {
+				literals.add(value);
+			}
+		}
+	}
+
+	private static void collectValues(final Element element, final Set<String> values) {
+		final NodeList childNodes = element.getChildNodes();
+		StringBuilder text = null;
+		int textNodes = 0;
+		for (int i = 0; i < childNodes.getLength(); i++) {
+			final Node child = childNodes.item(i);
+			final short nodeType = child.getNodeType();
+			if (nodeType == Node.ELEMENT_NODE) {
+				collectValues((Element) child, values);
+			} else if (nodeType == Node.TEXT_NODE || nodeType == Node.CDATA_SECTION_NODE) {
+				final String value = child.getNodeValue();
+				values.add(normalize(value));
+				if (text == null) {
+					text = new StringBuilder();
+				}
+				text.append(value);
+				textNodes++;
+			}
+		}
+		if (textNodes > 1) {
+			values.add(normalize(text.toString()));
+		}
+	}
+
+	/**
+	 * Trims the string and collapses all whitespace sequences into a single
+	 * space, in the same way as the XMLUnit comparison is configured to do.
+	 */
+	static String normalize(final String str) {
+		final StringBuilder sb = new StringBuilder(str.length());
+		boolean whitespace = false;
+		for (int i = 0; i < str.length(); i++) {
+			final char c = str.charAt(i);
+			if (Character.isWhitespace(c)) {
+				whitespace = sb.length() > 0;
+			} else {
+				if (whitespace) {
+					sb.append(' ');
+					whitespace = false;
+				}
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+
+}
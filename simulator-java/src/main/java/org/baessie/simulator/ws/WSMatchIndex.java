@@ -0,0 +1,242 @@
+package org.baessie.simulator.ws;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.baessie.simulator.util.CandidateList;
+import org.baessie.simulator.util.TestIndex;
+
+/**
+ * Index of WS tests keyed on the {@link WSFingerprint} of their control
+ * documents. Tests are first grouped by structure key and then hashed on their
+ * most selective literal value, so that only tests that can possibly match a
+ * request are handed to the full XML comparison.
+ *
+ * The index is immutable. Adding or removing tests returns a new index that
+ * shares all untouched buckets with the old one, which makes it possible to
+ * publish it to concurrent readers without any locking.
+ */
+public final class WSMatchIndex implements TestIndex<WSTestData, WSMatchIndex> {
+
+	public static final WSMatchIndex EMPTY = new WSMatchIndex(new HashMap<String, Bucket>(), 0);
+
+	private static final WSTestData[] NO_TESTS = new WSTestData[0];
+
+	private final Map<String, Bucket> buckets;
+	private final int requestDocumentsRequired;
+	// All tests of the index, listed on first use
+	private volatile List<WSTestData> all;
+
+	private WSMatchIndex(final Map<String, Bucket> buckets, final int requestDocumentsRequired) {
+		this.buckets = buckets;
+		this.requestDocumentsRequired = requestDocumentsRequired;
+	}
+
+	@Override
+	public WSMatchIndex plus(final WSTestData testData) {
+		return plus(Collections.singletonList(testData));
+	}
+
+	/**
+	 * Returns an index with all the given tests added, copying each bucket
+	 * they are added to only once.
+	 */
+	@Override
+	public WSMatchIndex plus(final List<WSTestData> testDatas) {
+		final Map<String, List<WSTestData>> byStructureKey = new HashMap<String, List<WSTestData>>();
+		int required = requestDocumentsRequired;
+		for (final WSTestData testData : testDatas) {
+			if (testData.isRequestDocumentRequired()) {
+				required++;
+			}
+			final String structureKey = testData.getFingerprint().getStructureKey();
+			List<WSTestData> added = byStructureKey.get(structureKey);
+			if (added == null) {
+				added = new ArrayList<WSTestData>();
+				byStructureKey.put(structureKey, added);
+			}
+			added.add(testData);
+		}
+		final Map<String, Bucket> copy = new HashMap<String, Bucket>(buckets);
+		for (final Map.Entry<String, List<WSTestData>> entry : byStructureKey.entrySet()) {
+			Bucket bucket = copy.get(entry.getKey());
+			if (bucket == null) {
+				bucket = Bucket.EMPTY;
+			}
+			copy.put(entry.getKey(), entry.getValue().size() == 1 ? bucket.plus(entry.getValue().get(0)) : bucket.plus(entry.getValue()));
+		}
+		return new WSMatchIndex(copy, required);
+	}
+
+	@Override
+	public WSMatchIndex minus(final List<WSTestData> testDatas) {
+		final Map<String, Bucket> copy = new HashMap<String, Bucket>(buckets);
+		int required = requestDocumentsRequired;
+		for (final WSTestData testData : testDatas) {
+			if (testData.isRequestDocumentRequired()) {
+				required--;
+			}
+			final String structureKey = testData.getFingerprint().getStructureKey();
+			final Bucket bucket = copy.get(structureKey);
+			if (bucket != null) {
+				final Bucket remaining = bucket.minus(testData);
+				if (remaining.isEmpty()) {
+					copy.remove(structureKey);
+				} else {
+					copy.put(structureKey, remaining);
+				}
+			}
+		}
+		return new WSMatchIndex(copy, required);
+	}
+
+	/**
+	 * Returns true if any test needs a document of the request to find the
+	 * values of its back references.
+	 */
+	public boolean isRequestDocumentRequired() {
+		return requestDocumentsRequired > 0;
+	}
+
+	/**
+	 * Returns the tests that may match a request with the given fingerprint,
+	 * in the order they should be tried.
+	 */
+	public List<WSTestData> findCandidates(final WSFingerprint requestFingerprint) {
+		final Bucket bucket = buckets.get(requestFingerprint.getStructureKey());
+		if (bucket == null) {
+			return Collections.emptyList();
+		}
+		final CandidateList<WSTestData> candidates = new CandidateList<WSTestData>();
+		addCandidates(candidates, bucket.unanchored, requestFingerprint);
+		for (final String value : requestFingerprint.getValues()) {
+			final WSTestData[] anchored = bucket.anchored.get(value);
+			if (anchored != null) {
+				addCandidates(candidates, anchored, requestFingerprint);
+			}
+		}
+		return candidates.sorted();
+	}
+
+	/**
+	 * Returns all tests of the index, in no particular order. The list is
+	 * made once per index, so the order in which the tests should be tried
+	 * is left to the caller, which can compare their sequence numbers.
+	 */
+	public List<WSTestData> getAll() {
+		List<WSTestData> result = all;
+		if (result == null) {
+			result = new ArrayList<WSTestData>();
+			for (final Bucket bucket : buckets.values()) {
+				result.addAll(Arrays.asList(bucket.unanchored));
+				for (final WSTestData[] anchored : bucket.anchored.values()) {
+					result.addAll(Arrays.asList(anchored));
+				}
+			}
+			result = Collections.unmodifiableList(result);
+			// Racing readers list the same tests, so either list may be kept
+			all = result;
+		}
+		return result;
+	}
+
+	private void addCandidates(final CandidateList<WSTestData> candidates, final WSTestData[] testDatas, final WSFingerprint requestFingerprint) {
+		for (final WSTestData testData : testDatas) {
+			if (requestFingerprint.containsAllValuesOf(testData.getFingerprint())) {
+				candidates.add(testData);
+			}
+		}
+	}
+
+	private static final class Bucket {
+		static final Bucket EMPTY = new Bucket(new HashMap<String, WSTestData[]>(), NO_TESTS);
+
+		private final Map<String, WSTestData[]> anchored;
+		private final WSTestData[] unanchored;
+
+		private Bucket(final Map<String, WSTestData[]> anchored, final WSTestData[] unanchored) {
+			this.anchored = anchored;
+			this.unanchored = unanchored;
+		}
+
+		Bucket plus(final WSTestData testData) {
+			final String anchor = testData.getFingerprint().getAnchor();
+			if (anchor == null) {
+				return new Bucket(anchored, append(unanchored, testData));
+			}
+			final Map<String, WSTestData[]> copy = new HashMap<String, WSTestData[]>(anchored);
+			final WSTestData[] testDatas = copy.get(anchor);
+			copy.put(anchor, append(testDatas != null ? testDatas : NO_TESTS, testData));
+			return new Bucket(copy, unanchored);
+		}
+
+		Bucket plus(final List<WSTestData> testDatas) {
+			final List<WSTestData> newUnanchored = new ArrayList<WSTestData>(Arrays.asList(unanchored));
+			final Map<String, List<WSTestData>> newAnchored = new HashMap<String, List<WSTestData>>();
+			for (final WSTestData testData : testDatas) {
+				final String anchor = testData.getFingerprint().getAnchor();
+				if (anchor == null) {
+					newUnanchored.add(testData);
+				} else {
+					List<WSTestData> added = newAnchored.get(anchor);
+					if (added == null) {
+						added = new ArrayList<WSTestData>();
+						newAnchored.put(anchor, added);
+					}
+					added.add(testData);
+				}
+			}
+			final Map<String, WSTestData[]> copy = new HashMap<String, WSTestData[]>(anchored);
+			for (final Map.Entry<String, List<WSTestData>> entry : newAnchored.entrySet()) {
+				final List<WSTestData> all = new ArrayList<WSTestData>();
+				final WSTestData[] existing = copy.get(entry.getKey());
+				if (existing != null) {
+					all.addAll(Arrays.asList(existing));
+				}
+				all.addAll(entry.getValue());
+				copy.put(entry.getKey(), all.toArray(NO_TESTS));
+			}
+			return new Bucket(copy, newUnanchored.toArray(NO_TESTS));
+		}
+
+		Bucket minus(final WSTestData testData) {
+			final String anchor = testData.getFingerprint().getAnchor();
+			if (anchor == null) {
+				return new Bucket(anchored, remove(unanchored, testData));
+			}
+			final WSTestData[] testDatas = anchored.get(anchor);
+			if (testDatas == null) {
+				return this;
+			}
+			final Map<String, WSTestData[]> copy = new HashMap<String, WSTestData[]>(anchored);
+			final WSTestData[] remaining = remove(testDatas, testData);
+			if (remaining.length == 0) {
+				copy.remove(anchor);
+			} else {
+				copy.put(anchor, remaining);
+			}
+			return new Bucket(copy, unanchored);
+		}
+
+		boolean isEmpty() {
+			return anchored.isEmpty() && unanchored.length == 0;
+		}
+
+		private static WSTestData[] append(final WSTestData[] testDatas, final WSTestData testData) {
+			final WSTestData[] copy = Arrays.copyOf(testDatas, testDatas.length + 1);
+			copy[testDatas.length] = testData;
+			return copy;
+		}
+
+		private static WSTestData[] remove(final WSTestData[] testDatas, final WSTestData testData) {
+			final List<WSTestData> list = new ArrayList<WSTestData>(Arrays.asList(testDatas));
+			list.remove(testData);
+			return list.toArray(NO_TESTS);
+		}
+	}
+
+}
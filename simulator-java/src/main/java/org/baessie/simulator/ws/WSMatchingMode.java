@@ -0,0 +1,28 @@
+package org.baessie.simulator.ws;
+
+/**
+ * How a {@link WSSimulator} matches requests against its tests.
+ */
+public enum WSMatchingMode {
+
+	/**
+	 * Every request is parsed into a document, which is compared with the in
+	 * control documents of the tests with XMLUnit.
+	 */
+	DOM,
+
+	/**
+	 * Requests are read as a stream of events and compared with compiled in
+	 * control documents while they are read. A document of the request is only
+	 * built for tests with back references given as XPath expressions.
+	 */
+	STREAMING;
+
+	public static WSMatchingMode fromString(final String str) {
+		if (str == null || str.trim().length() == 0) {
+			return DOM;
+		}
+		return valueOf(str.trim().toUpperCase());
+	}
+
+}
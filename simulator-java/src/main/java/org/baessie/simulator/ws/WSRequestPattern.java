@@ -0,0 +1,460 @@
+package org.baessie.simulator.ws;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.XMLConstants;
+
+import org.baessie.simulator.util.BackReferenceValue;
+import org.baessie.simulator.util.SimulatorUtils;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * An in control document compiled for comparison with requests that are read
+ * as a stream of events, without building a document of the request.
+ *
+ * The comparison follows the one made with XMLUnit: namespace prefixes, the
+ * order of attributes and whitespace are not significant, values containing
+ * wildcards are matched as patterns and values containing back references
+ * match any value, which is captured. Sibling elements may come in any order,
+ * but an element is first compared with the first unused sibling of the same
+ * name, so requests in the same order as the control document are compared
+ * without backtracking. Comments and processing instructions are ignored.
+ */
+public final class WSRequestPattern {
+
+	private final ElementPattern root;
+
+	private WSRequestPattern(final ElementPattern root) {
+		this.root = root;
+	}
+
+	public static WSRequestPattern compile(final Document document) {
+		return new WSRequestPattern(compileElement(document.getDocumentElement()));
+	}
+
+	/**
+	 * Starts a comparison of a request with this pattern.
+	 */
+	Match newMatch(final WSTestData testData) {
+		return new Match(root, testData);
+	}
+
+	private static ElementPattern compileElement(final Element element) {
+		final List<String> attributeNames = new ArrayList<String>();
+		final List<ValuePattern> attributeValues = new ArrayList<ValuePattern>();
+		final NamedNodeMap attributes = element.getAttributes();
+		for (int i = 0; i < attributes.getLength(); i++) {
+			final Attr attribute = (Attr) attributes.item(i);
+			if (!XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attribute.getNamespaceURI())) {
+				attributeNames.add(name(attribute.getNamespaceURI(), localName(attribute)));
+				attributeValues.add(new ValuePattern(attribute.getValue()));
+			}
+		}
+
+		final List<ElementPattern> children = new ArrayList<ElementPattern>();
+		final StringBuilder text = new StringBuilder();
+		final NodeList childNodes = element.getChildNodes();
+		for (int i = 0; i < childNodes.getLength(); i++) {
+			final Node child = childNodes.item(i);
+			switch (child.getNodeType()) {
+			case Node.ELEMENT_NODE:
+				children.add(compileElement((Element) child));
+				break;
+			case Node.TEXT_NODE:
+			case Node.CDATA_SECTION_NODE:
+				text.append(child.getNodeValue());
+				break;
+			default:
+				break;
+			}
+		}
+		final String normalizedText = WSFingerprint.normalize(text.toString());
+
+		return new ElementPattern(name(element.getNamespaceURI(), localName(element)), attributeNames.toArray(new String[attributeNames.size()]), attributeValues
+				.toArray(new ValuePattern[attributeValues.size()]), children.toArray(new ElementPattern[children.size()]), normalizedText.length() > 0 ? new ValuePattern(
+				normalizedText) : null);
+	}
+
+	private static String localName(final Node node) {
+		final String localName = node.getLocalName();
+		return localName != null ? localName : node.getNodeName();
+	}
+
+	/**
+	 * Returns the name of an element or attribute, qualified by its namespace
+	 * but not by its prefix.
+	 */
+	static String name(final String namespaceURI, final String localName) {
+		if (namespaceURI == null || namespaceURI.length() == 0) {
+			return localName;
+		}
+		return '{' + namespaceURI + '}' + localName;
+	}
+
+	/**
+	 * The start of an element in a request.
+	 */
+	static final class ElementStart {
+		private final String name;
+		private final String[] attributeNames;
+		private final String[] attributeValues;
+
+		ElementStart(final String name, final String[] attributeNames, final String[] attributeValues) {
+			this.name = name;
+			this.attributeNames = attributeNames;
+			this.attributeValues = attributeValues;
+		}
+	}
+
+	private static final class ElementPattern {
+		private final String name;
+		private final String[] attributeNames;
+		private final ValuePattern[] attributeValues;
+		private final ElementPattern[] children;
+		private final ValuePattern text;
+		// Whether another child has the same name as the child at the index
+		private final boolean[] repeated;
+
+		ElementPattern(final String name, final String[] attributeNames, final ValuePattern[] attributeValues, final ElementPattern[] children, final ValuePattern text) {
+			this.name = name;
+			this.attributeNames = attributeNames;
+			this.attributeValues = attributeValues;
+			this.children = children;
+			this.text = text;
+			repeated = new boolean[children.length];
+			for (int i = 0; i < children.length; i++) {
+				for (int j = i + 1; j < children.length; j++) {
+					if (children[i].name.equals(children[j].name)) {
+						repeated[i] = true;
+						repeated[j] = true;
+					}
+				}
+			}
+		}
+	}
+
+	private static final class ValuePattern {
+		private final String value;
+		private final Pattern wildcard;
+		private final List<String> backReferenceIds;
+
+		ValuePattern(final String value) {
+			this.value = value;
+			wildcard = value.contains(SimulatorUtils.WILDCARD) ? SimulatorUtils.createWildcardPattern(value) : null;
+			final List<String> ids = new ArrayList<String>();
+			final Matcher matcher = SimulatorUtils.BACK_REFERENCE_PATTERN.matcher(value);
+			while (matcher.find()) {
+				ids.add(matcher.group());
+			}
+			backReferenceIds = ids.isEmpty() ? Collections.<String> emptyList() : ids;
+		}
+
+		boolean matches(final String str) {
+			if (!backReferenceIds.isEmpty() || value.equals(str)) {
+				return true;
+			}
+			return wildcard != null && (SimulatorUtils.isBackReference(str) || wildcard.matcher(str).matches());
+		}
+
+		/**
+		 * Returns true if any value matches, so that the value does not need to
+		 * be kept.
+		 */
+		boolean matchesAnything() {
+			return backReferenceIds.isEmpty() && SimulatorUtils.WILDCARD.equals(value);
+		}
+
+		void capture(final String str, final List<BackReferenceValue> backReferenceValues) {
+			for (final String id : backReferenceIds) {
+				backReferenceValues.add(new BackReferenceValue(id, str));
+			}
+		}
+	}
+
+	/**
+	 * The comparison of a request with the pattern of one test.
+	 */
+	static final class Match {
+		private final ElementPattern pattern;
+		private final WSTestData testData;
+		private ElementMatch root;
+		private boolean failed;
+
+		Match(final ElementPattern pattern, final WSTestData testData) {
+			this.pattern = pattern;
+			this.testData = testData;
+		}
+
+		WSTestData getTestData() {
+			return testData;
+		}
+
+		boolean isFailed() {
+			return failed;
+		}
+
+		/**
+		 * Returns true if the whole request has been read and matched.
+		 */
+		boolean isMatched() {
+			return root != null && root.closed && !root.failed;
+		}
+
+		List<BackReferenceValue> getBackReferenceValues() {
+			return root.backReferenceValues;
+		}
+
+		void start(final ElementStart start) {
+			if (failed) {
+				return;
+			}
+			if (root == null) {
+				root = ElementMatch.open(pattern, start);
+				failed = root == null;
+			} else {
+				root.start(start);
+				failed = root.failed;
+			}
+		}
+
+		void text(final String text) {
+			if (!failed && root != null) {
+				root.text(text);
+				failed = root.failed;
+			}
+		}
+
+		void end() {
+			if (!failed) {
+				root.end();
+				failed = root.failed;
+			}
+		}
+	}
+
+	/**
+	 * The comparison of one element of a request with one element of the
+	 * pattern. Every event within the element is handed to the match of the
+	 * currently open child. When the child has siblings of the same name, its
+	 * events are also recorded, so that they can be replayed to another
+	 * sibling if the child does not match.
+	 */
+	private static final class ElementMatch {
+		private final ElementPattern pattern;
+		private final boolean[] used;
+		private final List<BackReferenceValue> backReferenceValues = new ArrayList<BackReferenceValue>(0);
+		private StringBuilder text;
+		private boolean hasText;
+		private boolean failed;
+		private boolean closed;
+
+		private ElementMatch child;
+		private int childIndex;
+		private List<Object> childEvents;
+
+		private static final Object END = new Object();
+
+		private ElementMatch(final ElementPattern pattern) {
+			this.pattern = pattern;
+			used = new boolean[pattern.children.length];
+		}
+
+		/**
+		 * Returns a match of the given element of the pattern with the element
+		 * just started, or null if their names or attributes differ.
+		 */
+		static ElementMatch open(final ElementPattern pattern, final ElementStart start) {
+			if (!pattern.name.equals(start.name) || pattern.attributeNames.length != start.attributeNames.length) {
+				return null;
+			}
+			final ElementMatch match = new ElementMatch(pattern);
+			for (int i = 0; i < pattern.attributeNames.length; i++) {
+				final String value = findAttribute(start, pattern.attributeNames[i]);
+				if (value == null || !pattern.attributeValues[i].matches(value)) {
+					return null;
+				}
+				pattern.attributeValues[i].capture(value, match.backReferenceValues);
+			}
+			return match;
+		}
+
+		private static String findAttribute(final ElementStart start, final String name) {
+			for (int i = 0; i < start.attributeNames.length; i++) {
+				if (name.equals(start.attributeNames[i])) {
+					return start.attributeValues[i];
+				}
+			}
+			return null;
+		}
+
+		void start(final ElementStart start) {
+			if (failed) {
+				return;
+			}
+			if (child != null) {
+				forward(start);
+				return;
+			}
+			childIndex = -1;
+			childEvents = null;
+			final int index = nextChild(start.name);
+			if (index < 0) {
+				failed = true;
+				return;
+			}
+			if (pattern.repeated[index]) {
+				childEvents = new ArrayList<Object>();
+				childEvents.add(start);
+			}
+			childIndex = index;
+			child = open(pattern.children[index], start);
+			if (child == null) {
+				retry();
+			}
+		}
+
+		void text(final String str) {
+			if (failed) {
+				return;
+			}
+			if (child != null) {
+				forward(str);
+				return;
+			}
+			if (isBlank(str)) {
+				return;
+			}
+			if (pattern.text == null) {
+				failed = true;
+				return;
+			}
+			hasText = true;
+			if (!pattern.text.matchesAnything()) {
+				if (text == null) {
+					text = new StringBuilder(str.length());
+				}
+				text.append(str);
+			}
+		}
+
+		void end() {
+			if (failed) {
+				return;
+			}
+			if (child != null) {
+				forward(END);
+				return;
+			}
+			closed = true;
+			for (final boolean childUsed : used) {
+				if (!childUsed) {
+					failed = true;
+					return;
+				}
+			}
+			if (pattern.text != null) {
+				if (!hasText) {
+					failed = true;
+				} else if (!pattern.text.matchesAnything()) {
+					final String str = text.toString();
+					if (pattern.text.matches(WSFingerprint.normalize(str))) {
+						pattern.text.capture(str, backReferenceValues);
+					} else {
+						failed = true;
+					}
+				}
+			}
+		}
+
+		private void forward(final Object event) {
+			if (childEvents != null) {
+				childEvents.add(event);
+			}
+			deliver(child, event);
+			if (child.failed) {
+				retry();
+			} else if (child.closed) {
+				childMatched();
+			}
+		}
+
+		private static void deliver(final ElementMatch match, final Object event) {
+			if (event == END) {
+				match.end();
+			} else if (event instanceof ElementStart) {
+				match.start((ElementStart) event);
+			} else {
+				match.text((String) event);
+			}
+		}
+
+		/**
+		 * Replays the events of the open child to the next unused sibling of
+		 * the same name, until one of them does not fail.
+		 */
+		private void retry() {
+			while (true) {
+				child = null;
+				if (childEvents == null) {
+					failed = true;
+					return;
+				}
+				final ElementStart start = (ElementStart) childEvents.get(0);
+				childIndex = nextChild(start.name, childIndex + 1);
+				if (childIndex < 0) {
+					failed = true;
+					return;
+				}
+				child = open(pattern.children[childIndex], start);
+				for (int i = 1; child != null && !child.failed && i < childEvents.size(); i++) {
+					deliver(child, childEvents.get(i));
+				}
+				if (child != null && !child.failed) {
+					if (child.closed) {
+						childMatched();
+					}
+					return;
+				}
+			}
+		}
+
+		private void childMatched() {
+			used[childIndex] = true;
+			backReferenceValues.addAll(child.backReferenceValues);
+			child = null;
+			childEvents = null;
+		}
+
+		private static boolean isBlank(final String str) {
+			for (int i = 0; i < str.length(); i++) {
+				if (!Character.isWhitespace(str.charAt(i))) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private int nextChild(final String name) {
+			return nextChild(name, 0);
+		}
+
+		private int nextChild(final String name, final int from) {
+			for (int i = from; i < pattern.children.length; i++) {
+				if (!used[i] && pattern.children[i].name.equals(name)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+	}
+
+}
@@ -1,5 +1,7 @@
 package org.baessie.simulator.ws;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
@@ -8,18 +10,22 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import javax.xml.stream.XMLStreamException;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathFactory;
 
 import org.baessie.simulator.SimulatorException;
 import org.baessie.simulator.SimulatorRequest;
 import org.baessie.simulator.SimulatorResponse;
+import org.baessie.simulator.delay.DelayDistributions;
 import org.baessie.simulator.util.BackReferenceValue;
 import org.baessie.simulator.util.DocumentNamspaceContext;
 import org.baessie.simulator.util.MapNamspaceContext;
+import org.baessie.simulator.util.ResponseTemplate;
 import org.baessie.simulator.util.SimulatorUtils;
-import org.custommonkey.xmlunit.XMLUnit;
+import org.baessie.simulator.util.TestDataRegistry;
+import org.baessie.simulator.util.XmlToolkit;
+import org.baessie.simulator.ws.WSRequestPattern.Match;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
@@ -39,23 +45,33 @@ public class WSSimulator {
 
 	public static final String RESPONSE_HEADERS = "responseHeaders";
 
+	public static final String MATCHING_PROPERTY = "baessie.ws.matching";
+
 	public static final String WILDCARD = "*";
 	private static final String REGEX_WILDCARD = "\\\\E.*?\\\\Q";
 	private static final String ESCAPED_WILDCARD = "\\*";
 
 	private static final Logger LOG = LoggerFactory.getLogger(WSSimulator.class);
 
-	private List<WSTestData> testDatas;
+	// Since the WSSimulator may be invoked concurrently the tests are kept in a
+	// registry that can be matched against without locking
+	private final TestDataRegistry<WSTestData, WSMatchIndex> testDatas = new TestDataRegistry<WSTestData, WSMatchIndex>(WSMatchIndex.EMPTY);
+	private final WSMatchingMode matchingMode;
 
+	/**
+	 * Creates a simulator using the matching mode given by the system property
+	 * {@value #MATCHING_PROPERTY}.
+	 */
 	public WSSimulator() {
-		// Since the WSSimulator may be invoked concurrently we must protect the
-		// testDatas list, which is modified during test execution.
-		testDatas = Collections.synchronizedList(new ArrayList<WSTestData>());
+		this(WSMatchingMode.fromString(System.getProperty(MATCHING_PROPERTY)));
+	}
+
+	public WSSimulator(final WSMatchingMode matchingMode) {
+		this.matchingMode = matchingMode;
 	}
 
 	public int clearTests() {
-		int numberOfRemovedTests = testDatas.size();
-		testDatas.clear();
+		final int numberOfRemovedTests = testDatas.clear();
 		LOG.info("Cleared all WS tests");
 		return numberOfRemovedTests;
 	}
@@ -75,23 +91,67 @@ public class WSSimulator {
 
 	}
 
+	/**
+	 * Makes all the given tests available to matching at once, replacing the
+	 * tests with the same test ids.
+	 */
+	public void addTests(final List<WSTestData> tests) {
+		testDatas.addAll(tests);
+		LOG.info("Added {} WS tests", tests.size());
+	}
+
 	public Integer verifyTest(final String testId) {
 		if (testId != null) {
-			synchronized (testDatas) {
-				for (final WSTestData testData : testDatas) {
-					if (testId.equals(testData.getTestId())) {
-						LOG.info("Verified WS test with testId: {}", testId);
-						return testData.getCallCount();
-					}
-				}
+			final WSTestData testData = testDatas.get(testId);
+			if (testData != null) {
+				LOG.info("Verified WS test with testId: {}", testId);
+				return testData.getCallCount();
 			}
 		}
 		LOG.info("Failed to verify WS test with testId: " + testId);
 		return null;
 	}
 
+	/**
+	 * Returns the call count of a test without logging it, or null if there
+	 * is no such test.
+	 */
+	public Integer getCallCount(final String testId) {
+		final WSTestData testData = testId != null ? testDatas.get(testId) : null;
+		return testData != null ? testData.getCallCount() : null;
+	}
+
+	/**
+	 * Sets the call count of a test, as when the test is restored.
+	 */
+	public void setCallCount(final String testId, final int count) {
+		final WSTestData testData = testId != null ? testDatas.get(testId) : null;
+		if (testData != null) {
+			testData.setCallCount(count);
+		}
+	}
+
+	/**
+	 * Executes the test matching the request, and waits for the delay of the
+	 * test before the response is returned.
+	 */
 	public SimulatorResponse executeTest(final SimulatorRequest request) throws SimulatorException {
-		LOG.info("execute WS test");
+		final SimulatorResponse response = prepareResponse(request);
+		SimulatorUtils.delay(response.getDelay());
+		return response;
+	}
+
+	/**
+	 * Executes the test matching the request without waiting for the delay of
+	 * the test, which is left to the caller through
+	 * {@link SimulatorResponse#getDelay()}.
+	 */
+	public SimulatorResponse prepareResponse(final SimulatorRequest request) throws SimulatorException {
+		LOG.debug("execute WS test");
+		if (matchingMode == WSMatchingMode.STREAMING) {
+			return executeStreamingTest(request);
+		}
+
 		Document inTestDocument = null;
 		try {
 			inTestDocument = readDocumentFromRequest(request);
@@ -106,15 +166,7 @@ public class WSSimulator {
 		final List<BackReferenceValue> backReferenceValues = new ArrayList<BackReferenceValue>();
 		final WSTestData testdata = findMatchingTestData(inTestDocument, backReferenceValues);
 		if (testdata != null) {
-			SimulatorUtils.delay(testdata.getDelay());
-			testdata.incCallCount();
-			final Document outTestDocument = createResponseDocument(testdata, inTestDocument);
-			LOG.info("executed WS test successfully");
-
-			final SimulatorResponse response = new SimulatorResponse();
-			response.setHeaders(testdata.getResponseHeaders());
-			response.setDocument(outTestDocument);
-			return response;
+			return createResponse(testdata, getResponseBackReferenceValues(testdata, inTestDocument));
 		} else {
 			LOG.warn("Failed to find matching WS test");
 			throw new SimulatorException("Failed to find matching testdata for the request");
@@ -122,18 +174,80 @@ public class WSSimulator {
 
 	}
 
-	private Document createResponseDocument(final WSTestData testdata, final Document inTestDocument) {
+	private SimulatorResponse executeStreamingTest(final SimulatorRequest request) throws SimulatorException {
+		final String charset = request.getCharset();
+		byte[] body = null;
+		Match match = null;
+		InputStream in = null;
+		try {
+			in = request.getInputStream();
+			final WSMatchIndex index = testDatas.getIndex();
+			if (index.isRequestDocumentRequired()) {
+				// Kept in case the matching test needs a document of the request
+				body = readBody(in);
+				match = WSStreamingMatcher.match(new ByteArrayInputStream(body), charset, index.getAll());
+			} else {
+				match = WSStreamingMatcher.match(in, charset, index.getAll());
+			}
+		} catch (final IOException e) {
+			LOG.warn("Failed to read body from request for WS test");
+			throw new SimulatorException("Failed to read body from request", e);
+		} catch (final XMLStreamException e) {
+			LOG.warn("Failed to parse xml from request for WS test");
+			throw new SimulatorException("Failed to parse xml from request", e);
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (final IOException e) {
+				}
+			}
+		}
 
-		final Document outTestDocument = SimulatorUtils.copyDocument(testdata.getOutControlDocument());
+		if (match == null) {
+			LOG.warn("Failed to find matching WS test");
+			throw new SimulatorException("Failed to find matching testdata for the request");
+		}
+		final WSTestData testdata = match.getTestData();
+		testDatas.matched(testdata);
 
-		if (outTestDocument != null && !testdata.getInBackReferences().isEmpty() && !testdata.getOutBackReferences().isEmpty()) {
+		List<BackReferenceValue> responseBackReferenceValues = match.getBackReferenceValues();
+		if (testdata.isRequestDocumentRequired()) {
+			try {
+				final InputSource is = new InputSource(new ByteArrayInputStream(body));
+				is.setEncoding(charset);
+				responseBackReferenceValues = getResponseBackReferenceValues(testdata, XmlToolkit.parse(is));
+			} catch (final IOException e) {
+				throw new SimulatorException("Failed to read body from request", e);
+			} catch (final SAXException e) {
+				LOG.warn("Failed to parse xml from request for WS test");
+				throw new SimulatorException("Failed to parse xml from request", e);
+			}
+		}
+		return createResponse(testdata, responseBackReferenceValues);
+	}
 
-			final List<BackReferenceValue> backReferenceValues = getBackReferenceValues(inTestDocument, testdata);
+	private SimulatorResponse createResponse(final WSTestData testdata, final List<BackReferenceValue> responseBackReferenceValues) {
+		testdata.incCallCount();
+		LOG.debug("executed WS test successfully");
 
-			SimulatorUtils.replaceBackReferences(outTestDocument, testdata.getOutBackReferences(), backReferenceValues, testdata.getOutNameSpaces());
-		}
+		final SimulatorResponse response = new SimulatorResponse();
+		response.setTestId(testdata.getTestId());
+		response.setDelay(testdata.getDelay().nextDelay());
+		response.setHeaders(testdata.getResponseHeaders());
+		response.setTemplate(testdata.getResponseTemplate(), responseBackReferenceValues);
+		return response;
+	}
 
-		return outTestDocument;
+	/**
+	 * Returns the values to fill the back references of the response template
+	 * with.
+	 */
+	private List<BackReferenceValue> getResponseBackReferenceValues(final WSTestData testdata, final Document inTestDocument) {
+		if (!testdata.getInBackReferences().isEmpty() && !testdata.getOutBackReferences().isEmpty()) {
+			return getBackReferenceValues(inTestDocument, testdata);
+		}
+		return Collections.emptyList();
 	}
 
 	private List<BackReferenceValue> getBackReferenceValues(final Document inTestDocument, final WSTestData testdata) {
@@ -142,25 +256,28 @@ public class WSSimulator {
 		final List<BackReferenceLocation> inBackReferences = testdata.getInBackReferences();
 
 		final List<BackReferenceValue> list = new ArrayList<BackReferenceValue>();
-		final XPath xPath = XPathFactory.newInstance().newXPath();
-
-		if (nameSpaces != null) {
-			xPath.setNamespaceContext(new MapNamspaceContext(nameSpaces));
-		} else {
-			xPath.setNamespaceContext(new DocumentNamspaceContext(testdata.getInControlDocument()));
-		}
+		final XPath xPath = XmlToolkit.borrowXPath();
+		try {
+			if (nameSpaces != null) {
+				xPath.setNamespaceContext(new MapNamspaceContext(nameSpaces));
+			} else {
+				xPath.setNamespaceContext(new DocumentNamspaceContext(testdata.getInControlDocument()));
+			}
 
-		for (final BackReferenceLocation wsBackReference : inBackReferences) {
-			try {
-				final NodeList matchingNodes = (NodeList) xPath.evaluate(wsBackReference.getLocation(), inTestDocument, XPathConstants.NODESET);
+			for (final BackReferenceLocation wsBackReference : inBackReferences) {
+				try {
+					final NodeList matchingNodes = (NodeList) xPath.evaluate(wsBackReference.getLocation(), inTestDocument, XPathConstants.NODESET);
 
-				if (matchingNodes != null && matchingNodes.getLength() > 0) {
-					final String value = matchingNodes.item(0).getNodeValue();
-					list.add(new BackReferenceValue(wsBackReference.getId(), value));
+					if (matchingNodes != null && matchingNodes.getLength() > 0) {
+						final String value = matchingNodes.item(0).getNodeValue();
+						list.add(new BackReferenceValue(wsBackReference.getId(), value));
+					}
+				} catch (final Exception e) {
+					LOG.warn("Failed to find nodes in request: " + wsBackReference.getLocation(), e);
 				}
-			} catch (final Exception e) {
-				LOG.warn("Failed to find nodes in request: " + wsBackReference.getLocation(), e);
 			}
+		} finally {
+			XmlToolkit.releaseXPath(xPath);
 		}
 		return list;
 	}
@@ -168,35 +285,46 @@ public class WSSimulator {
 	private WSTestData findMatchingTestData(final Document inTestDocument, final List<BackReferenceValue> backReferenceValues) {
 		WSTestData matchingTestData = null;
 		List<BackReferenceValue> localBackReferenceValues = null;
-		synchronized (testDatas) {
-			for (final WSTestData testData : testDatas) {
-				final Document inControlDocument = testData.getInControlDocument();
+		final WSFingerprint requestFingerprint = WSFingerprint.forRequest(inTestDocument);
+		for (final WSTestData testData : testDatas.getIndex().findCandidates(requestFingerprint)) {
+			final Document inControlDocument = testData.borrowInControlDocument();
+			try {
 				localBackReferenceValues = SimulatorUtils.doesXMLDocumentsMatch(inControlDocument, inTestDocument);
-				if (localBackReferenceValues != null) {
-					matchingTestData = testData;
-					break;
-				}
+			} finally {
+				testData.releaseInControlDocument(inControlDocument);
 			}
+			if (localBackReferenceValues != null) {
+				matchingTestData = testData;
+				break;
+			}
+		}
 
-			if (matchingTestData != null) {
-				// Put last in list to possibly improve performance
-				testDatas.remove(matchingTestData);
-				testDatas.add(matchingTestData);
+		if (matchingTestData != null) {
+			// Move last in matching order, the same way as a list would be
+			// rotated, so that tests matching the same request take turns
+			testDatas.matched(matchingTestData);
 
-				backReferenceValues.addAll(localBackReferenceValues);
-			}
+			backReferenceValues.addAll(localBackReferenceValues);
 		}
 		return matchingTestData;
 	}
 
 	private String createAndStoreTest(final SimulatorRequest request) throws Exception {
+		final WSTestData testData = createTest(request);
+		testDatas.add(testData);
+		return testData.getTestId();
+	}
 
+	/**
+	 * Creates the test described by a setup request without adding it.
+	 */
+	public WSTestData createTest(final SimulatorRequest request) throws Exception {
 		final String testId = request.getParameter(SimulatorUtils.TEST_ID);
 		if (testId != null) {
 			final WSTestData testData = new WSTestData();
 			testData.setTestId(testId);
-			testData.setInControlDocument(XMLUnit.buildControlDocument(request.getParameter(IN_DATA)));
-			testData.setOutControlDocument(XMLUnit.buildControlDocument(request.getParameter(OUT_DATA)));
+			testData.setInControlDocument(XmlToolkit.parse(request.getParameter(IN_DATA)));
+			testData.setOutControlDocument(XmlToolkit.parse(request.getParameter(OUT_DATA)));
 
 			final String[] responseHeaders = request.getParameterValues(RESPONSE_HEADERS);
 			testData.setResponseHeaders(SimulatorUtils.readHeaders(responseHeaders));
@@ -205,7 +333,8 @@ public class WSSimulator {
 			final String[] outBR = request.getParameterValues(OUT_BACK_REFERENCES);
 			final boolean scanBR = request.getBooleanParameter(SCAN_FOR_BACK_REFERENCES);
 
-			if (!scanBR && inBR != null && outBR != null) {
+			final boolean xpathBR = !scanBR && inBR != null && outBR != null;
+			if (xpathBR) {
 				testData.setInBackReferences(SimulatorUtils.createBackReferences(inBR, testData.getInControlDocument()));
 				testData.setOutBackReferences(SimulatorUtils.createBackReferences(outBR, testData.getOutControlDocument()));
 			} else {
@@ -222,14 +351,29 @@ public class WSSimulator {
 				testData.setOutNameSpaces(outNameSpaces);
 			}
 
-			testData.setDelay(request.getIntegerParameter(DELAY));
-			testDatas.add(testData);
-			return testId;
+			if (matchingMode == WSMatchingMode.STREAMING) {
+				testData.setRequestPattern(WSRequestPattern.compile(testData.getInControlDocument()));
+				testData.setRequestDocumentRequired(xpathBR && !testData.getInBackReferences().isEmpty() && !testData.getOutBackReferences().isEmpty());
+			}
+			testData.setResponseTemplate(ResponseTemplate.compile(testData.getOutControlDocument(), testData.getOutBackReferences(), testData.getOutNameSpaces()));
+			testData.setDelay(DelayDistributions.fromRequest(request));
+			testData.setFingerprint(WSFingerprint.forControl(testData.getInControlDocument()));
+			return testData;
 		} else {
 			throw new Exception("Missing parameter: " + SimulatorUtils.TEST_ID);
 		}
 	}
 
+	private byte[] readBody(final InputStream in) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[8192];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+		}
+		return out.toByteArray();
+	}
+
 	private Document readDocumentFromRequest(final SimulatorRequest request) throws IOException, SAXException {
 		final String charset = request.getCharset();
 
@@ -239,7 +383,7 @@ public class WSSimulator {
 			in = request.getInputStream();
 			final InputSource is = new InputSource(in);
 			is.setEncoding(charset);
-			inTestDocument = XMLUnit.buildTestDocument(is);
+			inTestDocument = XmlToolkit.parse(is);
 		} finally {
 			if (in != null) {
 				try {
@@ -253,15 +397,7 @@ public class WSSimulator {
 
 	public void removeTest(final String testId) {
 		if (testId != null) {
-			final List<WSTestData> toBeRemoved = new ArrayList<WSTestData>();
-			synchronized (testDatas) {
-				for (final WSTestData testData : testDatas) {
-					if (testId.equals(testData.getTestId())) {
-						toBeRemoved.add(testData);
-					}
-				}
-				testDatas.removeAll(toBeRemoved);
-			}
+			testDatas.remove(testId);
 		}
 	}
 }
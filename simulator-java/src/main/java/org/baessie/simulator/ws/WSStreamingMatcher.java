@@ -0,0 +1,131 @@
+package org.baessie.simulator.ws;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.baessie.simulator.util.XmlToolkit;
+import org.baessie.simulator.ws.WSRequestPattern.ElementStart;
+import org.baessie.simulator.ws.WSRequestPattern.Match;
+
+/**
+ * Matches a request read as a stream of events against the compiled
+ * {@link WSRequestPattern} of every candidate test at once. Reading stops as
+ * soon as all candidates have failed, so a request that matches no test is
+ * usually not read to its end.
+ */
+final class WSStreamingMatcher {
+
+	private WSStreamingMatcher() {
+	}
+
+	/**
+	 * Returns the match of the test with the lowest sequence number among the
+	 * given tests that match the request, or null if none of them matches.
+	 * The candidates may be given in any order.
+	 */
+	static Match match(final InputStream in, final String charset, final List<WSTestData> candidates) throws XMLStreamException {
+		final List<Match> matches = new ArrayList<Match>(candidates.size());
+		for (final WSTestData candidate : candidates) {
+			matches.add(candidate.getRequestPattern().newMatch(candidate));
+		}
+		if (matches.isEmpty()) {
+			return null;
+		}
+
+		final XMLStreamReader reader = XmlToolkit.createStreamReader(in, charset);
+		try {
+			int depth = 0;
+			while (reader.hasNext()) {
+				switch (reader.next()) {
+				case XMLStreamConstants.START_ELEMENT:
+					depth++;
+					final ElementStart start = readElementStart(reader);
+					for (final Match match : matches) {
+						match.start(start);
+					}
+					break;
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.CDATA:
+				case XMLStreamConstants.SPACE:
+					if (depth > 0) {
+						final String text = reader.getText();
+						for (final Match match : matches) {
+							match.text(text);
+						}
+					}
+					break;
+				case XMLStreamConstants.END_ELEMENT:
+					depth--;
+					for (final Match match : matches) {
+						match.end();
+					}
+					break;
+				default:
+					break;
+				}
+				removeFailed(matches);
+				if (matches.isEmpty()) {
+					return null;
+				}
+				if (depth == 0) {
+					// The root element has ended, so the remaining candidates
+					// have matched the whole request
+					final Match first = first(matches);
+					if (first != null) {
+						return first;
+					}
+				}
+			}
+			return null;
+		} finally {
+			reader.close();
+		}
+	}
+
+	private static ElementStart readElementStart(final XMLStreamReader reader) {
+		final int attributeCount = reader.getAttributeCount();
+		final String[] attributeNames = new String[attributeCount];
+		final String[] attributeValues = new String[attributeCount];
+		for (int i = 0; i < attributeCount; i++) {
+			attributeNames[i] = WSRequestPattern.name(reader.getAttributeNamespace(i), reader.getAttributeLocalName(i));
+			attributeValues[i] = reader.getAttributeValue(i);
+		}
+		return new ElementStart(WSRequestPattern.name(reader.getNamespaceURI(), reader.getLocalName()), attributeNames, attributeValues);
+	}
+
+	/**
+	 * Returns the completed match of the test that is first in matching
+	 * order, or null if no match is completed.
+	 */
+	private static Match first(final List<Match> matches) {
+		Match first = null;
+		long firstSequence = Long.MAX_VALUE;
+		for (final Match match : matches) {
+			if (match.isMatched()) {
+				// The sequence changes when other requests match the test, so
+				// it is only read once
+				final long sequence = match.getTestData().getSequence();
+				if (first == null || sequence < firstSequence) {
+					first = match;
+					firstSequence = sequence;
+				}
+			}
+		}
+		return first;
+	}
+
+	private static void removeFailed(final List<Match> matches) {
+		for (final Iterator<Match> iterator = matches.iterator(); iterator.hasNext();) {
+			if (iterator.next().isFailed()) {
+				iterator.remove();
+			}
+		}
+	}
+
+}
@@ -2,23 +2,40 @@ package org.baessie.simulator.ws;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.baessie.simulator.delay.DelayDistribution;
+import org.baessie.simulator.delay.DelayDistributions;
+import org.baessie.simulator.util.DocumentPool;
+import org.baessie.simulator.util.ResponseTemplate;
+import org.baessie.simulator.util.SimulatorTestData;
 import org.w3c.dom.Document;
 
-public class WSTestData {
+public class WSTestData implements SimulatorTestData {
 
 	private String testId;
 	private Document inControlDocument;
 	private Document outControlDocument;
+	private ResponseTemplate responseTemplate;
 	private List<BackReferenceLocation> inBackReferences;
 	private List<BackReferenceLocation> outBackReferences;
-	private Integer delay;
-	private int callCount;
+	private DelayDistribution delay = DelayDistributions.NONE;
+	private final AtomicInteger callCount = new AtomicInteger();
 	private Map<String, String> responseHeaders;
 
 	private Map<String, String> inNameSpaces;
 	private Map<String, String> outNameSpaces;
 
+	private WSFingerprint fingerprint;
+	private WSRequestPattern requestPattern;
+	private boolean requestDocumentRequired;
+	private volatile long sequence;
+
+	// DOM implementations are not safe for concurrent reads, so every
+	// concurrent comparison gets its own copy of the control document
+	private DocumentPool inControlDocumentPool;
+
+	@Override
 	public String getTestId() {
 		return testId;
 	}
@@ -33,6 +50,19 @@ public class WSTestData {
 
 	public void setInControlDocument(final Document inControlDocument) {
 		this.inControlDocument = inControlDocument;
+		inControlDocumentPool = new DocumentPool(inControlDocument);
+	}
+
+	/**
+	 * Borrows a private copy of the in control document for comparison. The
+	 * copy must be handed back with {@link #releaseInControlDocument(Document)}.
+	 */
+	public Document borrowInControlDocument() {
+		return inControlDocumentPool.borrow();
+	}
+
+	public void releaseInControlDocument(final Document copy) {
+		inControlDocumentPool.release(copy);
 	}
 
 	public Document getOutControlDocument() {
@@ -43,6 +73,14 @@ public class WSTestData {
 		this.outControlDocument = outControlDocument;
 	}
 
+	public ResponseTemplate getResponseTemplate() {
+		return responseTemplate;
+	}
+
+	public void setResponseTemplate(final ResponseTemplate responseTemplate) {
+		this.responseTemplate = responseTemplate;
+	}
+
 	public List<BackReferenceLocation> getInBackReferences() {
 		return inBackReferences;
 	}
@@ -59,20 +97,24 @@ public class WSTestData {
 		this.outBackReferences = outBackReferences;
 	}
 
-	public Integer getDelay() {
+	public DelayDistribution getDelay() {
 		return delay;
 	}
 
-	public void setDelay(final Integer delay) {
+	public void setDelay(final DelayDistribution delay) {
 		this.delay = delay;
 	}
 
 	public void incCallCount() {
-		callCount++;
+		callCount.incrementAndGet();
 	}
 
 	public int getCallCount() {
-		return callCount;
+		return callCount.get();
+	}
+
+	public void setCallCount(final int count) {
+		callCount.set(count);
 	}
 
 	public Map<String, String> getResponseHeaders() {
@@ -99,4 +141,46 @@ public class WSTestData {
 		this.outNameSpaces = outNameSpaces;
 	}
 
+	public WSFingerprint getFingerprint() {
+		return fingerprint;
+	}
+
+	public void setFingerprint(final WSFingerprint fingerprint) {
+		this.fingerprint = fingerprint;
+	}
+
+	/**
+	 * Returns the in control document compiled for streaming comparison, or
+	 * null if requests are matched against the document.
+	 */
+	public WSRequestPattern getRequestPattern() {
+		return requestPattern;
+	}
+
+	public void setRequestPattern(final WSRequestPattern requestPattern) {
+		this.requestPattern = requestPattern;
+	}
+
+	/**
+	 * Returns true if the back references of the request are located with
+	 * XPath expressions, which need a document of the request.
+	 */
+	public boolean isRequestDocumentRequired() {
+		return requestDocumentRequired;
+	}
+
+	public void setRequestDocumentRequired(final boolean requestDocumentRequired) {
+		this.requestDocumentRequired = requestDocumentRequired;
+	}
+
+	@Override
+	public long getSequence() {
+		return sequence;
+	}
+
+	@Override
+	public void setSequence(final long sequence) {
+		this.sequence = sequence;
+	}
+
 }
@@ -0,0 +1,295 @@
+package org.baessie.simulator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.baessie.simulator.metrics.MetricsRegistry;
+import org.baessie.simulator.mock.HttpServletRequestMock;
+import org.baessie.simulator.mock.HttpServletResponseMock;
+import org.baessie.simulator.proxy.ProxyRecorder;
+import org.baessie.simulator.rest.RestSimulator;
+import org.baessie.simulator.socket.SocketSimulator;
+import org.baessie.simulator.util.SimulatorUtils;
+import org.baessie.simulator.ws.WSSimulator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class SimulatorServletTest {
+
+	private static final String FORM = "application/x-www-form-urlencoded; charset=UTF-8";
+
+	private SimulatorServlet servlet;
+	private HttpServer upstream;
+
+	@Before
+	public void setUp() {
+		// Port 0 lets the system pick a free port for the unused socket server
+		System.setProperty(SocketSimulator.PORT_PROPERTY, "0");
+		System.setProperty(MetricsRegistry.JMX_PROPERTY, "false");
+		servlet = new SimulatorServlet();
+	}
+
+	@After
+	public void tearDown() {
+		destroy();
+		if (upstream != null) {
+			upstream.stop(0);
+		}
+		System.clearProperty(SocketSimulator.PORT_PROPERTY);
+		System.clearProperty(MetricsRegistry.JMX_PROPERTY);
+		System.clearProperty(SimulatorServlet.ADMIN_PREFIX_PROPERTY);
+		System.clearProperty(ProxyRecorder.UPSTREAM_PROPERTY);
+	}
+
+	private void createServlet(final String adminPrefix) {
+		destroy();
+		System.setProperty(SimulatorServlet.ADMIN_PREFIX_PROPERTY, adminPrefix);
+		servlet = new SimulatorServlet();
+	}
+
+	private void destroy() {
+		if (servlet != null) {
+			servlet.destroy();
+			servlet = null;
+		}
+	}
+
+	@Test
+	public void delayedResponseIsWrittenAsynchronously() throws Exception {
+		setupRestTest("DELAYED", "/orders", "id=1", "orders", 500);
+
+		final HttpServletRequestMock request = createRequest("/orders", null, null);
+		request.setQueryString("id=1");
+		request.setAsyncSupported(true);
+		final HttpServletResponseMock response = new HttpServletResponseMock();
+		servlet.doGet(request, response);
+
+		assertTrue("Asynchronous processing started", request.isAsyncStarted());
+		assertFalse("Not written before the delay", request.getAsyncContext().isCompleted());
+		assertTrue("Completed after the delay", request.getAsyncContext().awaitComplete(10000));
+		assertEquals("Response", "orders", response.getOutputStream().getString());
+	}
+
+	@Test
+	public void delayedResponseIsCompletedWhenItCannotBeScheduled() throws Exception {
+		setupRestTest("DELAYED", "/orders", "id=1", "orders", 60000);
+		final SimulatorServlet destroyed = servlet;
+		destroy();
+
+		final HttpServletRequestMock request = createRequest("/orders", null, null);
+		request.setQueryString("id=1");
+		request.setAsyncSupported(true);
+		final HttpServletResponseMock response = new HttpServletResponseMock();
+		destroyed.doGet(request, response);
+
+		assertTrue("Completed at once", request.getAsyncContext().isCompleted());
+		assertEquals("Status", HttpServletResponse.SC_SERVICE_UNAVAILABLE, response.getStatus());
+	}
+
+	@Test
+	public void adminRoutesAreServedOnTheirPaths() throws Exception {
+		assertEquals("WS setup", "Testdata added: testId=WS", post("/ws/setup", createWSSetupParameters("WS")).getOutputStream().getString());
+		assertEquals("Legacy setup", "Testdata added: testId=LEGACY", post("/setupTest", createWSSetupParameters("LEGACY")).getOutputStream().getString());
+		setupRestTest("REST", "/orders", "id=1", "orders", 0);
+		assertEquals("Clear", "Testdata cleared: number of entries removed=3", post("/clearData", null).getOutputStream().getString());
+	}
+
+	@Test
+	public void adminRoutesAreServedUnderTheConfiguredPrefix() throws Exception {
+		createServlet("admin/");
+		assertEquals("Prefix without leading slash", "Testdata added: testId=WS", post("/admin/ws/setup", createWSSetupParameters("WS")).getOutputStream()
+				.getString());
+		assertEquals("Not an admin route", "Failed to find matching testdata for the request", post("/ws/setup", createWSSetupParameters("OTHER"))
+				.getOutputStream().getString());
+
+		createServlet("/_baessie/");
+		assertEquals("Prefix with slashes", "Testdata added: testId=WS", post("/_baessie/ws/setup", createWSSetupParameters("WS")).getOutputStream()
+				.getString());
+	}
+
+	@Test
+	public void restTestAtThePathOfAnAdminRouteIsRefused() throws Exception {
+		final Map<String, String> parameters = new HashMap<String, String>();
+		parameters.put(SimulatorUtils.TEST_ID, "SHADOWED");
+		parameters.put(RestSimulator.PATH, "/verifyTest");
+		parameters.put(RestSimulator.OUT_DATA, "shadowed");
+		assertEquals("Admin route", "Failed to add test", post("/servlet/setup", parameters).getOutputStream().getString());
+
+		createServlet("admin");
+		parameters.put(RestSimulator.PATH, "/admin/verifyTest");
+		assertEquals("Below the prefix", "Failed to add test", post("/admin/servlet/setup", parameters).getOutputStream().getString());
+		parameters.put(RestSimulator.PATH, "admin/metrics");
+		assertEquals("Without leading slash", "Failed to add test", post("/admin/servlet/setup", parameters).getOutputStream().getString());
+		parameters.put(RestSimulator.PATH, "/verifyTest");
+		assertEquals("Outside the prefix", "Testdata added: testId=SHADOWED", post("/admin/servlet/setup", parameters).getOutputStream().getString());
+	}
+
+	@Test
+	public void contextPathIsStrippedFromAdminRoutes() throws Exception {
+		final HttpServletRequestMock request = createRequest("/simulator/ws/setup", createWSSetupParameters("WS"), null);
+		request.setContextPath("/simulator");
+		final HttpServletResponseMock response = new HttpServletResponseMock();
+		servlet.doPost(request, response);
+
+		assertEquals("WS setup", "Testdata added: testId=WS", response.getOutputStream().getString());
+	}
+
+	@Test
+	public void pathContainingAnAdminRouteIsSimulated() throws Exception {
+		setupRestTest("STATUS", "/api/ws/setup/status", "id=1", "status", 0);
+
+		final HttpServletRequestMock request = createRequest("/api/ws/setup/status", null, null);
+		request.setQueryString("id=1");
+		final HttpServletResponseMock response = new HttpServletResponseMock();
+		servlet.doGet(request, response);
+
+		assertEquals("Simulated response", "status", response.getOutputStream().getString());
+	}
+
+	@Test
+	public void unmatchedRestRequestIsForwardedAndRecorded() throws Exception {
+		startUpstream();
+
+		assertEquals("Forwarded", "GET /backend/customers/1 view=full ", get("/customers/1", "view=full").getOutputStream().getString());
+		upstream.stop(0);
+		assertEquals("Replayed", "GET /backend/customers/1 view=full ", get("/customers/1", "view=full").getOutputStream().getString());
+	}
+
+	@Test
+	public void postedFormIsEncodedAgainWhenForwarded() throws Exception {
+		startUpstream();
+		final Map<String, String> parameters = new HashMap<String, String>();
+		parameters.put("name", "Ada Lovelace");
+
+		assertEquals("Forwarded", "POST /backend/customers null name=Ada+Lovelace", post("/customers", parameters).getOutputStream().getString());
+		upstream.stop(0);
+		final HttpServletRequestMock request = createRequest("/customers", null, null);
+		request.setQueryString("name=Ada+Lovelace");
+		final HttpServletResponseMock response = new HttpServletResponseMock();
+		servlet.doGet(request, response);
+		assertEquals("Replayed", "POST /backend/customers null name=Ada+Lovelace", response.getOutputStream().getString());
+	}
+
+	@Test
+	public void unmatchedWSRequestBodyIsForwardedAndRecorded() throws Exception {
+		startUpstream();
+		final String xml = "<question>life</question>";
+
+		assertEquals("Forwarded", "<answer>" + xml + "</answer>", postXml("/ws", xml).getOutputStream().getString());
+		upstream.stop(0);
+		assertTrue("Replayed", postXml("/ws", xml).getOutputStream().getString().endsWith("<answer><question>life</question></answer>"));
+	}
+
+	@Test
+	public void failingUpstreamGivesBadGateway() throws Exception {
+		startUpstream();
+		upstream.stop(0);
+
+		final HttpServletResponseMock response = get("/customers/1", "view=full");
+		assertEquals("Status", HttpServletResponse.SC_BAD_GATEWAY, response.getStatus());
+		assertTrue("Message", response.getOutputStream().getString().startsWith("Failed to forward request"));
+	}
+
+	/**
+	 * Starts an upstream server that answers with the method, path, query
+	 * string and body of the request, and recreates the servlet to forward
+	 * unmatched requests to it.
+	 */
+	private void startUpstream() throws IOException {
+		upstream = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		upstream.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(final HttpExchange exchange) throws IOException {
+				final String body = readBody(exchange.getRequestBody());
+				final byte[] response;
+				if (exchange.getRequestURI().getPath().endsWith("/ws")) {
+					response = ("<answer>" + body + "</answer>").getBytes("UTF-8");
+					exchange.getResponseHeaders().add("Content-Type", "text/xml; charset=UTF-8");
+				} else {
+					response = (exchange.getRequestMethod() + " " + exchange.getRequestURI().getPath() + " " + exchange.getRequestURI().getRawQuery() + " " + body)
+							.getBytes("UTF-8");
+				}
+				exchange.sendResponseHeaders(200, response.length);
+				final OutputStream out = exchange.getResponseBody();
+				out.write(response);
+				out.close();
+			}
+		});
+		upstream.start();
+		destroy();
+		System.setProperty(ProxyRecorder.UPSTREAM_PROPERTY, "http://localhost:" + upstream.getAddress().getPort() + "/backend/");
+		servlet = new SimulatorServlet();
+	}
+
+	private static String readBody(final InputStream in) throws IOException {
+		final ByteArrayOutputStream body = new ByteArrayOutputStream();
+		int b;
+		while ((b = in.read()) >= 0) {
+			body.write(b);
+		}
+		return body.toString("UTF-8");
+	}
+
+	private HttpServletResponseMock get(final String uri, final String queryString) throws Exception {
+		final HttpServletRequestMock request = createRequest(uri, null, null);
+		request.setQueryString(queryString);
+		final HttpServletResponseMock response = new HttpServletResponseMock();
+		servlet.doGet(request, response);
+		return response;
+	}
+
+	private HttpServletResponseMock postXml(final String uri, final String xml) throws Exception {
+		final HttpServletRequestMock request = new HttpServletRequestMock(uri, null, xml, "UTF-8", "text/xml; charset=UTF-8");
+		request.setMethod("POST");
+		final HttpServletResponseMock response = new HttpServletResponseMock();
+		servlet.doPost(request, response);
+		return response;
+	}
+
+	private static Map<String, String> createWSSetupParameters(final String testId) {
+		final Map<String, String> parameters = new HashMap<String, String>();
+		parameters.put(SimulatorUtils.TEST_ID, testId);
+		parameters.put(WSSimulator.IN_DATA, "<request><id>" + testId + "</id></request>");
+		parameters.put(WSSimulator.OUT_DATA, "<response/>");
+		return parameters;
+	}
+
+	private void setupRestTest(final String testId, final String path, final String queryString, final String responseText, final int delay) throws Exception {
+		final Map<String, String> parameters = new HashMap<String, String>();
+		parameters.put(SimulatorUtils.TEST_ID, testId);
+		parameters.put(RestSimulator.PATH, path);
+		parameters.put(RestSimulator.QUERYSTRING, queryString);
+		parameters.put(RestSimulator.OUT_DATA, responseText);
+		parameters.put(RestSimulator.DELAY, String.valueOf(delay));
+		assertEquals("Setup", "Testdata added: testId=" + testId, post("/servlet/setup", parameters).getOutputStream().getString());
+	}
+
+	private HttpServletResponseMock post(final String uri, final Map<String, String> parameters) throws Exception {
+		final HttpServletRequestMock request = createRequest(uri, parameters, null);
+		request.setMethod("POST");
+		final HttpServletResponseMock response = new HttpServletResponseMock();
+		servlet.doPost(request, response);
+		return response;
+	}
+
+	private static HttpServletRequestMock createRequest(final String uri, final Map<String, String> parameters, final String content) {
+		return new HttpServletRequestMock(uri, parameters, content, "UTF-8", FORM);
+	}
+
+}
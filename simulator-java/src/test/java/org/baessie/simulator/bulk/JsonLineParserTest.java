@@ -0,0 +1,39 @@
+package org.baessie.simulator.bulk;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+public class JsonLineParserTest {
+
+	@Test
+	public void membersAreReadAsStrings() {
+		final Map<String, String[]> members = JsonLineParser.parse("{\"type\":\"ws\", \"delay\": 15, \"wildcards\": true, \"request\": \"<a x=\\\"1\\\">\\u00e5\\n</a>\", \"skipped\": null}");
+		assertArrayEquals("type", new String[] { "ws" }, members.get("type"));
+		assertArrayEquals("delay", new String[] { "15" }, members.get("delay"));
+		assertArrayEquals("wildcards", new String[] { "true" }, members.get("wildcards"));
+		assertArrayEquals("request", new String[] { "<a x=\"1\">å\n</a>" }, members.get("request"));
+		assertFalse("null is left out", members.containsKey("skipped"));
+	}
+
+	@Test
+	public void arraysAreReadAsValues() {
+		final Map<String, String[]> members = JsonLineParser.parse("{\"responseHeaders\":[\"A=1\",\"B=2\"],\"empty\":[]}");
+		assertArrayEquals("responseHeaders", new String[] { "A=1", "B=2" }, members.get("responseHeaders"));
+		assertEquals("empty", 0, members.get("empty").length);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void nestedObjectsAreRejected() {
+		JsonLineParser.parse("{\"a\":{\"b\":1}}");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void truncatedObjectIsRejected() {
+		JsonLineParser.parse("{\"a\":\"b\"");
+	}
+}
@@ -0,0 +1,106 @@
+package org.baessie.simulator.bulk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.baessie.simulator.SimulatorRequest;
+import org.baessie.simulator.SimulatorResponse;
+import org.baessie.simulator.rest.RestSimulator;
+import org.baessie.simulator.ws.WSSimulator;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StubImporterTest {
+
+	private WSSimulator wsSimulator;
+	private RestSimulator restSimulator;
+	private StubImporter importer;
+
+	@Before
+	public void setUp() {
+		wsSimulator = new WSSimulator();
+		restSimulator = new RestSimulator();
+		importer = new StubImporter(wsSimulator, restSimulator, null, 2);
+	}
+
+	private static ByteArrayInputStream lines(final String... lines) throws Exception {
+		final StringBuilder sb = new StringBuilder();
+		for (final String line : lines) {
+			sb.append(line).append('\n');
+		}
+		return new ByteArrayInputStream(sb.toString().getBytes("UTF-8"));
+	}
+
+	private SimulatorResponse callWS(final String xml) throws Exception {
+		final SimulatorRequest request = new SimulatorRequest();
+		request.setInputStream(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+		return wsSimulator.executeTest(request);
+	}
+
+	@Test
+	public void jsonLinesAreImportedAndFailuresReported() throws Exception {
+		final ImportResult result = importer.importStream(lines(
+				"{\"type\":\"ws\",\"testId\":\"WS\",\"request\":\"<order><id>1</id></order>\",\"response\":\"<ok/>\"}",
+				"",
+				"{\"type\":\"rest\",\"testId\":\"REST\",\"path\":\"/customers/1\",\"queryString\":\"view=full\",\"response\":\"customer\"}",
+				"{\"type\":\"ws\",\"request\":\"<order/>\",\"response\":\"<ok/>\"}",
+				"{\"type\":\"smtp\",\"testId\":\"MAIL\"}",
+				"not json"));
+
+		assertEquals("Imported", 2, result.getImported());
+		assertEquals("Errors " + result.getErrors(), 3, result.getErrors().size());
+		assertTrue(result.getErrors().get(0), result.getErrors().get(0).startsWith("line 6: "));
+		assertEquals("line 4: Missing parameter: testId", result.getErrors().get(1));
+		assertEquals("line 5: Unknown test type: smtp", result.getErrors().get(2));
+
+		assertEquals("WS answer", "ok", callWS("<order><id>1</id></order>").getDocument().getDocumentElement().getNodeName());
+		final SimulatorRequest request = new SimulatorRequest();
+		request.setPath("/customers/1");
+		request.setQueryString("view=full");
+		assertEquals("REST answer", "customer", restSimulator.executeTest(request).getText());
+	}
+
+	@Test
+	public void zipBundleIsImported() throws Exception {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final ZipOutputStream zip = new ZipOutputStream(bytes);
+		zip.putNextEntry(new ZipEntry("orders/ORDER-1.request.xml"));
+		zip.write("<order><id>1</id></order>".getBytes("UTF-8"));
+		zip.putNextEntry(new ZipEntry("tests.ndjson"));
+		zip.write("{\"type\":\"rest\",\"testId\":\"REST\",\"path\":\"/a\",\"response\":\"a\"}\n".getBytes("UTF-8"));
+		zip.putNextEntry(new ZipEntry("orders/ORDER-1.response.xml"));
+		zip.write("<ok/>".getBytes("UTF-8"));
+		zip.putNextEntry(new ZipEntry("orders/ORDER-2.request.xml"));
+		zip.write("<order><id>2</id></order>".getBytes("UTF-8"));
+		zip.close();
+
+		final ImportResult result = importer.importStream(new ByteArrayInputStream(bytes.toByteArray()));
+
+		assertEquals("Imported", 2, result.getImported());
+		assertEquals("Errors", 1, result.getErrors().size());
+		assertEquals("orders/ORDER-2: Missing orders/ORDER-2.response.xml", result.getErrors().get(0));
+		assertEquals("Call count", Integer.valueOf(0), wsSimulator.verifyTest("orders/ORDER-1"));
+		callWS("<order><id>1</id></order>");
+		assertEquals("Call count", Integer.valueOf(1), wsSimulator.verifyTest("orders/ORDER-1"));
+	}
+
+	@Test
+	public void importedTestsReplaceTestsWithTheSameId() throws Exception {
+		final StringBuilder first = new StringBuilder();
+		final StringBuilder second = new StringBuilder();
+		for (int i = 0; i < 500; i++) {
+			first.append("{\"type\":\"ws\",\"testId\":\"T").append(i).append("\",\"request\":\"<order><id>").append(i).append("</id></order>\",\"response\":\"<old/>\"}\n");
+			second.append("{\"type\":\"ws\",\"testId\":\"T").append(i).append("\",\"request\":\"<order><id>").append(i).append("</id></order>\",\"response\":\"<new/>\"}\n");
+		}
+		assertEquals("First", 500, importer.importStream(new ByteArrayInputStream(first.toString().getBytes("UTF-8"))).getImported());
+		assertEquals("Second", 500, importer.importStream(new ByteArrayInputStream(second.toString().getBytes("UTF-8"))).getImported());
+		assertEquals("Answer", "new", callWS("<order><id>250</id></order>").getDocument().getDocumentElement().getNodeName());
+
+		assertEquals("Tests", 500, wsSimulator.clearTests());
+	}
+}
@@ -0,0 +1,82 @@
+package org.baessie.simulator.delay;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+
+import org.baessie.simulator.SimulatorRequest;
+import org.junit.Test;
+
+public class DelayDistributionsTest {
+
+	private static final String HGRM = "       Value     Percentile TotalCount 1/(1-Percentile)\n\n"
+			+ "      10.000 0.000000000000          1           1.00\n"
+			+ "      20.000 0.500000000000         50           2.00\n"
+			+ "     100.000 1.000000000000        100\n"
+			+ "#[Mean    =       25.000, StdDeviation   =       15.000]\n"
+			+ "#[Max     =      100.000, Total count    =          100]\n";
+
+	@Test
+	public void sameSeedGivesSameDelays() throws Exception {
+		final String[] specs = { "uniform:0,1000", "normal:100,20", "lognormal:100,0.5", "pareto:50,1.5" };
+		for (final String spec : specs) {
+			final DelayDistribution first = DelayDistributions.fromString(spec, 7L);
+			final DelayDistribution second = DelayDistributions.fromString(spec, 7L);
+			for (int i = 0; i < 100; i++) {
+				assertEquals(spec, first.nextDelay(), second.nextDelay());
+			}
+		}
+	}
+
+	@Test
+	public void delaysAreWithinBounds() throws Exception {
+		final DelayDistribution uniform = DelayDistributions.fromString("uniform:50,150", 1L);
+		final DelayDistribution normal = DelayDistributions.fromString("normal:0,100", 1L);
+		final DelayDistribution pareto = DelayDistributions.fromString("pareto:50,1.5", 1L);
+		for (int i = 0; i < 10000; i++) {
+			final int delay = uniform.nextDelay();
+			assertTrue("Uniform delay " + delay, delay >= 50 && delay <= 150);
+			assertTrue("Normal delay is not negative", normal.nextDelay() >= 0);
+			assertTrue("Pareto delay is at least the scale", pareto.nextDelay() >= 50);
+		}
+	}
+
+	@Test
+	public void normalDelaysHaveTheirMean() throws Exception {
+		final DelayDistribution normal = DelayDistributions.fromString("normal:200,20", 3L);
+		long sum = 0;
+		for (int i = 0; i < 10000; i++) {
+			sum += normal.nextDelay();
+		}
+		assertEquals("Mean delay", 200, sum / 10000.0, 1);
+	}
+
+	@Test
+	public void empiricalDelaysFollowHistogram() throws Exception {
+		final DelayDistribution empirical = EmpiricalDelay.read(new StringReader(HGRM), new SplitMix64(5));
+		int belowMedian = 0;
+		for (int i = 0; i < 10000; i++) {
+			final int delay = empirical.nextDelay();
+			assertTrue("Empirical delay " + delay, delay >= 10 && delay <= 100);
+			if (delay <= 20) {
+				belowMedian++;
+			}
+		}
+		assertEquals("Delays at or below the median", 5000, belowMedian, 200);
+	}
+
+	@Test
+	public void fixedDelayIsReadFromDelayParameter() throws Exception {
+		final SimulatorRequest request = new SimulatorRequest();
+		request.addParameter(DelayDistributions.DELAY, "150");
+		assertEquals("Delay", 150, DelayDistributions.fromRequest(request).nextDelay());
+		assertEquals("No delay", 0, DelayDistributions.fromRequest(new SimulatorRequest()).nextDelay());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unknownDistributionIsRejected() throws Exception {
+		DelayDistributions.fromString("gamma:1,2", null);
+	}
+
+}
@@ -0,0 +1,150 @@
+package org.baessie.simulator.journal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StateStoreTest {
+
+	private File directory;
+
+	@Before
+	public void setUp() throws Exception {
+		directory = File.createTempFile("state", "");
+		directory.delete();
+	}
+
+	@After
+	public void tearDown() {
+		final File[] files = directory.listFiles();
+		if (files != null) {
+			for (final File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void testsAndCallCountsAreRecoveredFromSnapshotAndLog() throws Exception {
+		final StateStore store = recover();
+		assertFalse("Empty directory has state", store.hasState());
+		store.setup(test(JournalEntry.WS, "a"));
+		store.imported(Arrays.asList(test(JournalEntry.REST, "b"), test(JournalEntry.WS, "c")));
+		store.start(new StateStore.CallCounter() {
+			@Override
+			public int getCallCount(final String type, final String testId) {
+				return "a".equals(testId) ? 5 : 0;
+			}
+		});
+		store.snapshot();
+		// Replaces the WS test c, and is only in the log
+		store.setup(test(JournalEntry.SOCKET, "c"));
+
+		// Recovered without closing the first store, as after a crash
+		final StateStore recovered = recover();
+		assertTrue("State", recovered.hasState());
+		assertEquals("Tests", "ws:a rest:b socket:c", describe(recovered.getTests()));
+		assertEquals("Call count", 5, recovered.getRestoredCallCount(JournalEntry.WS, "a"));
+		assertEquals("Call count", 0, recovered.getRestoredCallCount(JournalEntry.REST, "b"));
+		recovered.close();
+
+		final StateStore reopened = recover();
+		assertEquals("Tests", "ws:a rest:b socket:c", describe(reopened.getTests()));
+		assertEquals("Call count", 5, reopened.getRestoredCallCount(JournalEntry.WS, "a"));
+		reopened.close();
+	}
+
+	@Test
+	public void clearRemovesWsAndRestTests() throws Exception {
+		final StateStore store = recover();
+		store.setup(test(JournalEntry.WS, "a"));
+		store.setup(test(JournalEntry.SOCKET, "b"));
+		store.imported(Arrays.asList(test(JournalEntry.REST, "c")));
+		store.clear();
+		store.setup(test(JournalEntry.REST, "d"));
+
+		assertEquals("Tests", "socket:b rest:d", describe(recover().getTests()));
+	}
+
+	@Test
+	public void incompleteOperationIsIgnored() throws Exception {
+		final StateStore store = recover();
+		store.setup(test(JournalEntry.WS, "a"));
+		store.setup(test(JournalEntry.WS, "b"));
+		final File[] segments = directory.listFiles();
+		assertEquals("Segments", 1, segments.length);
+		final FileOutputStream out = new FileOutputStream(segments[0], true);
+		out.write(new byte[] { 0, 0, 0, 42, 1, 2 });
+		out.close();
+
+		final StateStore recovered = recover();
+		assertEquals("Tests", "ws:a ws:b", describe(recovered.getTests()));
+		recovered.setup(test(JournalEntry.WS, "c"));
+		assertEquals("Tests", "ws:a ws:b ws:c", describe(recover().getTests()));
+	}
+
+	@Test
+	public void concurrentSetupsAreAllDurable() throws Exception {
+		final StateStore store = recover();
+		final List<Thread> threads = new ArrayList<Thread>();
+		final List<Exception> failures = new ArrayList<Exception>();
+		for (int i = 0; i < 8; i++) {
+			final int thread = i;
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int j = 0; j < 50; j++) {
+							store.setup(test(JournalEntry.REST, thread + "-" + j));
+						}
+					} catch (final Exception e) {
+						synchronized (failures) {
+							failures.add(e);
+						}
+					}
+				}
+			});
+		}
+		for (final Thread thread : threads) {
+			thread.start();
+		}
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals("Failures", 0, failures.size());
+		assertEquals("Tests", 400, recover().getTests().size());
+	}
+
+	private StateStore recover() throws Exception {
+		final StateStore store = new StateStore(directory, 0);
+		store.recover();
+		return store;
+	}
+
+	private static JournalEntry test(final String type, final String testId) {
+		return new JournalEntry(type).addParameter("testId", testId).addParameter("response", "<r>" + testId + "</r>");
+	}
+
+	private static String describe(final List<JournalEntry> entries) {
+		final StringBuilder sb = new StringBuilder();
+		for (final JournalEntry entry : entries) {
+			if (sb.length() > 0) {
+				sb.append(' ');
+			}
+			sb.append(entry.getType()).append(':').append(entry.getParameter("testId"));
+		}
+		return sb.toString();
+	}
+}
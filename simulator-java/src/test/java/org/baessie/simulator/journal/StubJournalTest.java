@@ -0,0 +1,64 @@
+package org.baessie.simulator.journal;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StubJournalTest {
+
+	private File file;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("journal", ".bsj");
+		file.delete();
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Test
+	public void appendedEntriesAreRead() throws Exception {
+		final StubJournal journal = new StubJournal(file);
+		journal.append(new JournalEntry(JournalEntry.WS).addParameter("testId", "1").addParameter("request", "<a>å</a>"));
+		journal.append(new JournalEntry(JournalEntry.REST).addParameter("testId", "2").addParameter("responseHeaders", "A=1", "B=2"));
+		journal.close();
+
+		final List<JournalEntry> entries = new StubJournal(file).read();
+		assertEquals("Entries", 2, entries.size());
+		assertEquals("Type", JournalEntry.WS, entries.get(0).getType());
+		assertEquals("Request", "<a>å</a>", entries.get(0).getParameter("request"));
+		assertEquals("Type", JournalEntry.REST, entries.get(1).getType());
+		assertArrayEquals("Headers", new String[] { "A=1", "B=2" }, entries.get(1).getParameters().get("responseHeaders"));
+	}
+
+	@Test
+	public void incompleteEntryIsCutOffBeforeAppending() throws Exception {
+		StubJournal journal = new StubJournal(file);
+		journal.append(new JournalEntry(JournalEntry.REST).addParameter("testId", "1"));
+		journal.append(new JournalEntry(JournalEntry.REST).addParameter("testId", "2"));
+		journal.close();
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(raf.length() - 3);
+		raf.close();
+
+		journal = new StubJournal(file);
+		assertEquals("Complete entries", 1, journal.read().size());
+		journal.append(new JournalEntry(JournalEntry.REST).addParameter("testId", "3"));
+		journal.close();
+
+		final List<JournalEntry> entries = new StubJournal(file).read();
+		assertEquals("Entries", 2, entries.size());
+		assertEquals("First", "1", entries.get(0).getParameter("testId"));
+		assertEquals("Appended", "3", entries.get(1).getParameter("testId"));
+	}
+}
@@ -0,0 +1,115 @@
+package org.baessie.simulator.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+public class MetricsRegistryTest {
+
+	@Test
+	public void metricsAreWrittenInPrometheusFormat() throws Exception {
+		final ProtocolMetrics metrics = new ProtocolMetrics("ws", Transport.HTTP);
+		metrics.recordMatch("TEST \"1\"", 20000);
+		metrics.recordDelay("TEST \"1\"", 250);
+		metrics.recordResponseBytes("TEST \"1\"", 42);
+		metrics.recordMiss(3000000);
+		metrics.requestStarted();
+		final ProtocolMetrics socketMetrics = new ProtocolMetrics("socket", Transport.SOCKET);
+		socketMetrics.connectionOpened();
+		socketMetrics.connectionOpened();
+		final MetricsRegistry registry = new MetricsRegistry();
+		registry.add(metrics);
+		registry.add(socketMetrics);
+
+		final StringWriter out = new StringWriter();
+		registry.write(out);
+		final String text = out.toString();
+
+		assertTrue(text, text.contains("# TYPE baessie_requests_total counter\nbaessie_requests_total{protocol=\"ws\"} 2\n"));
+		assertTrue(text, text.contains("baessie_misses_total{protocol=\"ws\"} 1\n"));
+		assertTrue(text, text.contains("baessie_response_bytes_total{protocol=\"ws\"} 42\n"));
+		assertTrue(text, text.contains("baessie_http_inflight_requests{protocol=\"ws\"} 1\n"));
+		assertTrue(text, text.contains("baessie_active_connections{protocol=\"socket\"} 2\n"));
+		assertFalse(text, text.contains("baessie_active_connections{protocol=\"ws\"}"));
+		assertTrue(text, text.contains("baessie_match_seconds_bucket{protocol=\"ws\",le=\"2.5E-5\"} 1\n"));
+		assertTrue(text, text.contains("baessie_match_seconds_bucket{protocol=\"ws\",le=\"+Inf\"} 2\n"));
+		assertTrue(text, text.contains("baessie_match_seconds_count{protocol=\"ws\"} 2\n"));
+		assertTrue(text, text.contains("baessie_delay_seconds_sum{protocol=\"ws\"} 0.25\n"));
+		assertTrue(text, text.contains("baessie_stub_requests_total{protocol=\"ws\",testId=\"TEST \\\"1\\\"\"} 1\n"));
+		assertTrue(text, text.contains("baessie_stub_response_bytes_total{protocol=\"ws\",testId=\"TEST \\\"1\\\"\"} 42\n"));
+	}
+
+	@Test
+	public void histogramCountsValuesInTheirBuckets() {
+		final Histogram histogram = new Histogram(10, 100);
+		histogram.record(5);
+		histogram.record(10);
+		histogram.record(11);
+		histogram.record(1000);
+
+		assertEquals("First bucket", 2, histogram.getCount(0));
+		assertEquals("Second bucket", 1, histogram.getCount(1));
+		assertEquals("Unbounded bucket", 1, histogram.getCount(2));
+		assertEquals("Count", 4, histogram.getCount());
+		assertEquals("Sum", 1026, histogram.getSum());
+	}
+
+	@Test
+	public void removedStubsAreForgotten() {
+		final ProtocolMetrics metrics = new ProtocolMetrics("rest", Transport.HTTP);
+		metrics.recordMatch("1", 1000);
+		metrics.recordMatch("2", 1000);
+		metrics.removeStub("1");
+
+		assertEquals("Stubs", 1, metrics.getStubCount());
+		assertEquals("Requests", 2, metrics.getRequests());
+	}
+
+	@Test
+	public void removedStubsAreNotRecreatedByLateRequests() {
+		final Set<String> testIds = new HashSet<String>();
+		testIds.add("1");
+		final ProtocolMetrics metrics = new ProtocolMetrics("rest", Transport.HTTP, new StubRegistry() {
+			@Override
+			public boolean contains(final String testId) {
+				return testIds.contains(testId);
+			}
+		});
+		metrics.recordMatch("1", 1000);
+		testIds.remove("1");
+		metrics.removeStub("1");
+		metrics.recordDelay("1", 10);
+		metrics.recordResponseBytes("1", 42);
+
+		assertEquals("Stubs", 0, metrics.getStubCount());
+		assertEquals("Requests", 1, metrics.getRequests());
+		assertEquals("Response bytes", 42, metrics.getResponseBytes());
+	}
+
+	@Test
+	public void metricsAreRegisteredAsMBeans() throws Exception {
+		final MetricsRegistry registry = new MetricsRegistry();
+		final ProtocolMetrics metrics = new ProtocolMetrics("registryTest", Transport.HTTP);
+		metrics.recordMiss(1000);
+		registry.add(metrics);
+		registry.registerMBeans();
+		try {
+			final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			final ObjectName name = new ObjectName("org.baessie.simulator:type=Metrics,protocol=\"registryTest\"");
+			assertEquals("Misses", 1L, server.getAttribute(name, "Misses"));
+			assertEquals("Miss rate", 1.0, server.getAttribute(name, "MissRate"));
+		} finally {
+			registry.unregisterMBeans();
+		}
+	}
+}
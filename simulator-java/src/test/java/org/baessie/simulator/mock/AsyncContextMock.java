@@ -0,0 +1,100 @@
+package org.baessie.simulator.mock;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+public class AsyncContextMock implements AsyncContext {
+
+	private final ServletRequest request;
+	private final ServletResponse response;
+	private final CountDownLatch completed = new CountDownLatch(1);
+	private long timeout;
+
+	public AsyncContextMock(final ServletRequest request, final ServletResponse response) {
+		this.request = request;
+		this.response = response;
+	}
+
+	/**
+	 * Waits for the asynchronous processing to be completed.
+	 *
+	 * @return true if it was completed before the timeout
+	 */
+	public boolean awaitComplete(final long timeoutMillis) throws InterruptedException {
+		return completed.await(timeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	public boolean isCompleted() {
+		return completed.getCount() == 0;
+	}
+
+	@Override
+	public ServletRequest getRequest() {
+		return request;
+	}
+
+	@Override
+	public ServletResponse getResponse() {
+		return response;
+	}
+
+	@Override
+	public boolean hasOriginalRequestAndResponse() {
+		return true;
+	}
+
+	@Override
+	public void complete() {
+		completed.countDown();
+	}
+
+	@Override
+	public void setTimeout(final long timeout) {
+		this.timeout = timeout;
+	}
+
+	@Override
+	public long getTimeout() {
+		return timeout;
+	}
+
+	// OTHER
+
+	@Override
+	public void dispatch() {
+	}
+
+	@Override
+	public void dispatch(final String arg0) {
+	}
+
+	@Override
+	public void dispatch(final ServletContext arg0, final String arg1) {
+	}
+
+	@Override
+	public void start(final Runnable arg0) {
+		new Thread(arg0).start();
+	}
+
+	@Override
+	public void addListener(final AsyncListener arg0) {
+	}
+
+	@Override
+	public void addListener(final AsyncListener arg0, final ServletRequest arg1, final ServletResponse arg2) {
+	}
+
+	@Override
+	public <T extends AsyncListener> T createListener(final Class<T> arg0) throws ServletException {
+		return null;
+	}
+
+}
@@ -4,16 +4,27 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.security.Principal;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Locale;
 import java.util.Map;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.DispatcherType;
 import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
 import javax.servlet.ServletInputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
+import javax.servlet.http.Part;
 
 public class HttpServletRequestMock implements HttpServletRequest {
 
@@ -22,6 +33,12 @@ public class HttpServletRequestMock implements HttpServletRequest {
 	private final String contentType;
 	private final ServletInputStreamMock in;
 	private final Map<String, String> parameters;
+	private final Map<String, String> headers = new LinkedHashMap<String, String>();
+	private String contextPath;
+	private String queryString;
+	private String method = "GET";
+	private boolean asyncSupported;
+	private AsyncContextMock asyncContext;
 
 	public HttpServletRequestMock(final String requestURI, final Map<String, String> parameters, final String content, final String charset, final String contentType) {
 		this.requestURI = requestURI;
@@ -36,6 +53,30 @@ public class HttpServletRequestMock implements HttpServletRequest {
 
 	}
 
+	public void setContextPath(final String contextPath) {
+		this.contextPath = contextPath;
+	}
+
+	public void setQueryString(final String queryString) {
+		this.queryString = queryString;
+	}
+
+	public void setMethod(final String method) {
+		this.method = method;
+	}
+
+	public void setHeader(final String name, final String value) {
+		headers.put(name, value);
+	}
+
+	/**
+	 * Makes the request support asynchronous processing, which is started
+	 * with an {@link AsyncContextMock}.
+	 */
+	public void setAsyncSupported(final boolean asyncSupported) {
+		this.asyncSupported = asyncSupported;
+	}
+
 	@Override
 	public String getCharacterEncoding() {
 		return charset;
@@ -91,7 +132,7 @@ public class HttpServletRequestMock implements HttpServletRequest {
 
 	@Override
 	public String getQueryString() {
-		return null;
+		return queryString;
 	}
 
 	@Override
@@ -123,7 +164,11 @@ public class HttpServletRequestMock implements HttpServletRequest {
 	@Override
 	@SuppressWarnings("rawtypes")
 	public Map getParameterMap() {
-		return null;
+		final Map<String, String[]> parameterMap = new LinkedHashMap<String, String[]>();
+		for (final Map.Entry<String, String> parameter : parameters.entrySet()) {
+			parameterMap.put(parameter.getKey(), new String[] { parameter.getValue() });
+		}
+		return parameterMap;
 	}
 
 	@Override
@@ -206,7 +251,7 @@ public class HttpServletRequestMock implements HttpServletRequest {
 
 	@Override
 	public String getContextPath() {
-		return null;
+		return contextPath;
 	}
 
 	@Override
@@ -221,19 +266,20 @@ public class HttpServletRequestMock implements HttpServletRequest {
 
 	@Override
 	public String getHeader(final String arg0) {
-		return null;
+		return headers.get(arg0);
 	}
 
 	@Override
 	@SuppressWarnings("rawtypes")
 	public Enumeration getHeaderNames() {
-		return null;
+		return Collections.enumeration(headers.keySet());
 	}
 
 	@Override
 	@SuppressWarnings("rawtypes")
 	public Enumeration getHeaders(final String arg0) {
-		return null;
+		final String value = headers.get(arg0);
+		return Collections.enumeration(value != null ? Collections.singletonList(value) : Collections.<String> emptyList());
 	}
 
 	@Override
@@ -243,7 +289,7 @@ public class HttpServletRequestMock implements HttpServletRequest {
 
 	@Override
 	public String getMethod() {
-		return null;
+		return method;
 	}
 
 	@Override
@@ -315,4 +361,69 @@ public class HttpServletRequestMock implements HttpServletRequest {
 	public boolean isUserInRole(final String arg0) {
 		return false;
 	}
+
+	@Override
+	public ServletContext getServletContext() {
+		return null;
+	}
+
+	@Override
+	public AsyncContext startAsync() {
+		return startAsync(this, null);
+	}
+
+	@Override
+	public AsyncContext startAsync(final ServletRequest arg0, final ServletResponse arg1) {
+		if (!asyncSupported) {
+			throw new IllegalStateException("Asynchronous processing is not supported");
+		}
+		asyncContext = new AsyncContextMock(arg0, arg1);
+		return asyncContext;
+	}
+
+	@Override
+	public boolean isAsyncStarted() {
+		return asyncContext != null;
+	}
+
+	@Override
+	public boolean isAsyncSupported() {
+		return asyncSupported;
+	}
+
+	@Override
+	public AsyncContextMock getAsyncContext() {
+		if (asyncContext == null) {
+			throw new IllegalStateException("Asynchronous processing is not started");
+		}
+		return asyncContext;
+	}
+
+	@Override
+	public DispatcherType getDispatcherType() {
+		return DispatcherType.REQUEST;
+	}
+
+	@Override
+	public boolean authenticate(final HttpServletResponse arg0) throws IOException, ServletException {
+		return false;
+	}
+
+	@Override
+	public void login(final String arg0, final String arg1) throws ServletException {
+	}
+
+	@Override
+	public void logout() throws ServletException {
+	}
+
+	@Override
+	public Collection<Part> getParts() throws IOException, ServletException {
+		return null;
+	}
+
+	@Override
+	public Part getPart(final String arg0) throws IOException, ServletException {
+		return null;
+	}
 }
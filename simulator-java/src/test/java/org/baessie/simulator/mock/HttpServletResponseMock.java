@@ -2,6 +2,7 @@ package org.baessie.simulator.mock;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Locale;
@@ -19,6 +20,7 @@ public class HttpServletResponseMock implements HttpServletResponse {
 
 	private ServletOutputStreamMock out;
 	private Map<String, String> headers = new HashMap<String, String>();
+	private int status = SC_OK;
 
 	public HttpServletResponseMock() {
 		out = new ServletOutputStreamMock();
@@ -134,6 +136,7 @@ public class HttpServletResponseMock implements HttpServletResponse {
 	}
 
 	public void setStatus(int arg0) {
+		status = arg0;
 	}
 
 	public void setStatus(int arg0, String arg1) {
@@ -142,4 +145,21 @@ public class HttpServletResponseMock implements HttpServletResponse {
 	public Map<String, String> getHeaders() {
 		return Collections.unmodifiableMap(headers);
 	}
+
+	public int getStatus() {
+		return status;
+	}
+
+	public String getHeader(String arg0) {
+		return headers.get(arg0);
+	}
+
+	public Collection<String> getHeaders(String arg0) {
+		final String value = headers.get(arg0);
+		return value != null ? Collections.singletonList(value) : Collections.<String> emptyList();
+	}
+
+	public Collection<String> getHeaderNames() {
+		return headers.keySet();
+	}
 }
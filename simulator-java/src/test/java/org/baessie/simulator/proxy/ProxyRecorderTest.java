@@ -0,0 +1,120 @@
+package org.baessie.simulator.proxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.baessie.simulator.SimulatorRequest;
+import org.baessie.simulator.SimulatorResponse;
+import org.baessie.simulator.journal.JournalEntry;
+import org.baessie.simulator.rest.RestSimulator;
+import org.baessie.simulator.ws.WSSimulator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class ProxyRecorderTest {
+
+	private static final Map<String, List<String>> NO_HEADERS = Collections.emptyMap();
+
+	private HttpServer upstream;
+	private ProxyRecorder recorder;
+
+	@Before
+	public void setUp() throws Exception {
+		upstream = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		upstream.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(final HttpExchange exchange) throws IOException {
+				final String path = exchange.getRequestURI().getPath();
+				final byte[] body;
+				final int status;
+				if (path.endsWith("/missing")) {
+					status = 404;
+					body = "Not found".getBytes("UTF-8");
+				} else if (path.endsWith("/ws")) {
+					status = 200;
+					body = ("<answer>" + readBody(exchange.getRequestBody()).length() + "</answer>").getBytes("UTF-8");
+					exchange.getResponseHeaders().add("Content-Type", "text/xml; charset=UTF-8");
+				} else {
+					status = 200;
+					body = ("customer " + exchange.getRequestURI().getQuery()).getBytes("UTF-8");
+					exchange.getResponseHeaders().add("Etag", "v1");
+				}
+				exchange.sendResponseHeaders(status, body.length);
+				final OutputStream out = exchange.getResponseBody();
+				out.write(body);
+				out.close();
+			}
+		});
+		upstream.start();
+		recorder = new ProxyRecorder("http://localhost:" + upstream.getAddress().getPort() + "/backend/");
+	}
+
+	@After
+	public void tearDown() {
+		upstream.stop(0);
+	}
+
+	private static String readBody(final InputStream in) throws IOException {
+		final StringBuilder sb = new StringBuilder();
+		int c;
+		while ((c = in.read()) >= 0) {
+			sb.append((char) c);
+		}
+		return sb.toString();
+	}
+
+	@Test
+	public void recordedRestResponseIsReplayed() throws Exception {
+		final UpstreamResponse response = recorder.forward("GET", "/customers/1", "view=full", NO_HEADERS, null);
+		assertEquals("Status", 200, response.getStatus());
+		assertEquals("Forwarded body", "customer view=full", response.getBodyText());
+
+		final JournalEntry entry = recorder.recordRest("/customers/1", "view=full", response);
+		assertEquals("Recorded header", "Etag=v1", entry.getParameters().get(RestSimulator.RESPONSE_HEADERS)[0]);
+
+		final RestSimulator simulator = new RestSimulator();
+		simulator.addTests(Collections.singletonList(simulator.createTest(entry.toSimulatorRequest())));
+		final SimulatorRequest request = new SimulatorRequest();
+		request.setPath("/simulator/customers/1");
+		request.setQueryString("view=full");
+		final SimulatorResponse replayed = simulator.executeTest(request);
+		assertEquals("Replayed body", "customer view=full", replayed.getText());
+		assertEquals("Replayed header", "v1", replayed.getHeaders().get("Etag"));
+	}
+
+	@Test
+	public void recordedWSResponseIsReplayed() throws Exception {
+		final String xml = "<question>life</question>";
+		final UpstreamResponse response = recorder.forward("POST", "/ws", null, NO_HEADERS, xml.getBytes("UTF-8"));
+		final JournalEntry entry = recorder.recordWS(xml, response);
+
+		final WSSimulator simulator = new WSSimulator();
+		simulator.addTests(Collections.singletonList(simulator.createTest(entry.toSimulatorRequest())));
+		final SimulatorRequest request = new SimulatorRequest();
+		request.setInputStream(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+		final SimulatorResponse replayed = simulator.executeTest(request);
+		assertEquals("Replayed answer", "25", replayed.getDocument().getDocumentElement().getTextContent());
+	}
+
+	@Test
+	public void unsuccessfulResponseIsNotRecorded() throws Exception {
+		final UpstreamResponse response = recorder.forward("GET", "/missing", null, NO_HEADERS, null);
+		assertEquals("Status", 404, response.getStatus());
+		assertEquals("Body", "Not found", response.getBodyText());
+		assertNull("Recorded", recorder.recordRest("/missing", null, response));
+	}
+}
@@ -0,0 +1,50 @@
+package org.baessie.simulator.rest;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class QueryParameterMatcherTest {
+
+	@Test
+	public void literalMatchesEqualValueOnly() {
+		final QueryParameterMatcher matcher = QueryParameterMatcher.compile("key", "value");
+
+		assertTrue("Equal value", matcher.matches(new QueryParameterValue("key", "value")));
+		assertFalse("Other value", matcher.matches(new QueryParameterValue("key", "other")));
+	}
+
+	@Test
+	public void wildcardMatchesAnySequence() {
+		final QueryParameterMatcher matcher = QueryParameterMatcher.compile("key", "ab*ef");
+
+		assertTrue("Wildcard replaced", matcher.matches(new QueryParameterValue("key", "abcdef")));
+		assertTrue("Wildcard empty", matcher.matches(new QueryParameterValue("key", "abef")));
+		assertFalse("Different suffix", matcher.matches(new QueryParameterValue("key", "abcdeg")));
+	}
+
+	@Test
+	public void backReferenceMatchesAnyValue() {
+		final QueryParameterMatcher matcher = QueryParameterMatcher.compile("key", "*(ID)*");
+
+		assertTrue("Any value", matcher.matches(new QueryParameterValue("key", "1234")));
+	}
+
+	@Test
+	public void xmlMatchesSimilarDocument() {
+		final QueryParameterMatcher matcher = QueryParameterMatcher.compile("key", "<a><b>1</b><c>*</c></a>");
+
+		assertTrue("Similar document", matcher.matches(new QueryParameterValue("key", "<a><c>2</c><b>1</b></a>")));
+		assertFalse("Different document", matcher.matches(new QueryParameterValue("key", "<a><b>2</b><c>2</c></a>")));
+		assertFalse("Not xml", matcher.matches(new QueryParameterValue("key", "a")));
+	}
+
+	@Test
+	public void requestValueThatIsNotXmlIsNotParsed() {
+		assertNull("Not xml", new QueryParameterValue("key", "1234").getDocument());
+		assertNull("Illegal xml", new QueryParameterValue("key", "<a>").getDocument());
+	}
+
+}
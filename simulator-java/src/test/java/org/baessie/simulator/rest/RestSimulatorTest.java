@@ -11,6 +11,7 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collections;
 
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
@@ -18,6 +19,7 @@ import javax.xml.transform.stream.StreamResult;
 import org.baessie.simulator.SimulatorException;
 import org.baessie.simulator.SimulatorRequest;
 import org.baessie.simulator.SimulatorResponse;
+import org.baessie.simulator.delay.DelayDistributions;
 import org.baessie.simulator.util.SimulatorUtils;
 import org.junit.Before;
 import org.junit.Test;
@@ -55,6 +57,14 @@ public class RestSimulatorTest {
 		assertNull(simulator.setupTest(simulatorRequest));
 	}
 
+	@Test
+	public void setupTestWithReservedPath() throws Exception {
+		simulator = new RestSimulator(Collections.singleton("/verifyTest"));
+		final SimulatorRequest simulatorRequest = generateValidRequest();
+		simulatorRequest.addParameter(RestSimulator.PATH, "verifyTest");
+		assertNull(simulator.setupTest(simulatorRequest));
+	}
+
 	@Test
 	public void verifyTestWithNullNoPossibleMatch() throws Exception {
 		assertNull(simulator.verifyTest(null));
@@ -367,6 +377,57 @@ public class RestSimulatorTest {
 		assertNotNull(simulator.executeTest(createRequestWithParameterValue(parameterName, requestData)));
 	}
 
+	@Test
+	public void executeTestSelectsTestOnPathSuffixAndQueryStringKeys() throws Exception {
+		for (int i = 0; i < 100; i++) {
+			setupTest("CUSTOMER-" + i, "/customers/" + i, "id=" + i, "customer " + i);
+		}
+		setupTest("ORDERS", "/orders", "id=*(ID)*", "orders");
+		setupTest("ORDERS BY CUSTOMER", "/orders", "id=*(ID)*&customer=*(CUSTOMER)*", "orders by customer");
+		setupTest("ANY PATH", "", "other=1", "any path");
+
+		assertEquals("Exact path", "customer 42", createResponseString(simulator.executeTest(createExecuteRequest("/api/customers/42", "id=42"))));
+		assertEquals("Path suffix", "orders", createResponseString(simulator.executeTest(createExecuteRequest("/api/orders", "id=7"))));
+		assertEquals("Query string keys", "orders by customer", createResponseString(simulator.executeTest(createExecuteRequest("/api/orders", "customer=3&id=7"))));
+		assertEquals("Empty test path", "any path", createResponseString(simulator.executeTest(createExecuteRequest("/api/customers/42", "other=1"))));
+	}
+
+	@Test(expected = SimulatorException.class)
+	public void executeTestRemovedTestIsNotMatched() throws Exception {
+		setupTest("REMOVED", "/orders", "id=1", "orders");
+		simulator.removeTest("REMOVED");
+		simulator.executeTest(createExecuteRequest("/orders", "id=1"));
+	}
+
+	@Test
+	public void setupTestWithInvalidDelayDistribution() throws Exception {
+		setupTest("DELAYED", "/orders", "id=1", "orders");
+		final SimulatorRequest request = new SimulatorRequest();
+		request.addParameter(SimulatorUtils.TEST_ID, "DELAYED");
+		request.addParameter(RestSimulator.PATH, "/orders");
+		request.addParameter(RestSimulator.QUERYSTRING, "id=1");
+		request.addParameter(RestSimulator.OUT_DATA, "other orders");
+		request.addParameter(DelayDistributions.DELAY_DISTRIBUTION, "uniform:ten,20");
+		assertNull("Not added", simulator.setupTest(request));
+		assertEquals("Previous test kept", "orders", createResponseString(simulator.executeTest(createExecuteRequest("/orders", "id=1"))));
+	}
+
+	private void setupTest(final String testId, final String path, final String queryString, final String response) {
+		final SimulatorRequest request = new SimulatorRequest();
+		request.addParameter(SimulatorUtils.TEST_ID, testId);
+		request.addParameter(RestSimulator.PATH, path);
+		request.addParameter(RestSimulator.QUERYSTRING, queryString);
+		request.addParameter(RestSimulator.OUT_DATA, response);
+		assertEquals("Added test", testId, simulator.setupTest(request));
+	}
+
+	private SimulatorRequest createExecuteRequest(final String path, final String queryString) {
+		final SimulatorRequest request = new SimulatorRequest();
+		request.setPath(path);
+		request.setQueryString(queryString);
+		return request;
+	}
+
 	private SimulatorRequest createSetupRequestWithParameterValue(final String parameterName, final String setupData) {
 		final SimulatorRequest request = new SimulatorRequest();
 		request.addParameter("testId", "gurka");
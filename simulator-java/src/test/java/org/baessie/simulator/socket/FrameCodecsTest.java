@@ -0,0 +1,92 @@
+package org.baessie.simulator.socket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+public class FrameCodecsTest {
+
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+
+	@Test
+	public void lengthPrefixedDecodesCompleteFramesOnly() throws Exception {
+		final FrameCodec codec = FrameCodecs.fromString("length:4");
+		final ByteBuffer in = ByteBuffer.wrap(new byte[] { 0, 0, 0, 3, 'a', 'b', 'c', 0, 0, 0, 2, 'd' });
+
+		assertEquals("First frame", "abc", decodeString(codec, in));
+		assertNull("Incomplete frame", codec.decode(in));
+		assertEquals("Position kept", 7, in.position());
+	}
+
+	@Test
+	public void lengthPrefixedEncodesHeader() {
+		final ByteBuffer out = FrameCodecs.fromString("length:2").encode("abc".getBytes(CHARSET));
+
+		assertEquals("Length", 5, out.remaining());
+		assertEquals("Header", 3, out.getShort(0));
+	}
+
+	@Test
+	public void lengthPrefixedEncodesLongestPayloadForHeader() {
+		final ByteBuffer out = FrameCodecs.fromString("length:2").encode(new byte[65535]);
+
+		assertEquals("Header", 65535, out.getShort(0) & 0xFFFF);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void lengthPrefixedRejectsPayloadTooLongForHeader() {
+		FrameCodecs.fromString("length:2").encode(new byte[65536]);
+	}
+
+	@Test
+	public void iso8583DecodesAsciiLengthHeader() throws Exception {
+		final FrameCodec codec = FrameCodecs.fromString("iso8583");
+		final ByteBuffer in = ByteBuffer.wrap("00050800A0003".getBytes(CHARSET));
+
+		assertEquals("Frame", "0800A", decodeString(codec, in));
+		assertEquals("Encoded", "00040810", CHARSET.decode(codec.encode("0810".getBytes(CHARSET))).toString());
+	}
+
+	@Test
+	public void delimiterSplitsPipelinedFrames() throws Exception {
+		final FrameCodec codec = FrameCodecs.fromString("delimiter:\\r\\n");
+		final ByteBuffer in = ByteBuffer.wrap("one\r\ntwo\r\nthr".getBytes(CHARSET));
+
+		assertEquals("First frame", "one", decodeString(codec, in));
+		assertEquals("Second frame", "two", decodeString(codec, in));
+		assertNull("Incomplete frame", codec.decode(in));
+	}
+
+	@Test
+	public void fixedLengthDecodesFramesOfLength() throws Exception {
+		final FrameCodec codec = FrameCodecs.fromString("fixed:3");
+		final ByteBuffer in = ByteBuffer.wrap("abcdefg".getBytes(CHARSET));
+
+		assertEquals("First frame", "abc", decodeString(codec, in));
+		assertEquals("Second frame", "def", decodeString(codec, in));
+		assertNull("Incomplete frame", codec.decode(in));
+	}
+
+	@Test
+	public void rawDecodesEverything() throws Exception {
+		final FrameCodec codec = FrameCodecs.fromString(null);
+		final ByteBuffer in = ByteBuffer.wrap("abc".getBytes(CHARSET));
+
+		assertEquals("Frame", "abc", decodeString(codec, in));
+		assertNull("Nothing left", codec.decode(in));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unknownFramingIsRejected() {
+		FrameCodecs.fromString("unknown");
+	}
+
+	private String decodeString(final FrameCodec codec, final ByteBuffer in) throws Exception {
+		return CHARSET.decode(codec.decode(in)).toString();
+	}
+
+}
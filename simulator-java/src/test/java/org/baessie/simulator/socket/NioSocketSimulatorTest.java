@@ -0,0 +1,13 @@
+package org.baessie.simulator.socket;
+
+/**
+ * Runs all socket simulator tests against the non-blocking server.
+ */
+public class NioSocketSimulatorTest extends SocketSimulatorTest {
+
+	@Override
+	protected SocketServerMode getMode() {
+		return SocketServerMode.NIO;
+	}
+
+}
@@ -0,0 +1,60 @@
+package org.baessie.simulator.socket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class PayloadEncodingTest {
+
+	@Test
+	public void hexIsDecodedIgnoringWhitespaceAndCase() {
+		final byte[] bytes = PayloadEncoding.HEX.decode("6f 1A\n84 0e");
+
+		assertTrue("Bytes", Arrays.equals(new byte[] { 0x6F, 0x1A, (byte) 0x84, 0x0E }, bytes));
+		assertEquals("Hex", "6F1A840E", PayloadEncoding.toHex(ByteBuffer.wrap(bytes)));
+	}
+
+	@Test
+	public void base64IsDecodedWithAnyPadding() {
+		assertTrue("No padding", Arrays.equals(new byte[] { 'a', 'b', 'c' }, PayloadEncoding.BASE64.decode("YWJj")));
+		assertTrue("One pad", Arrays.equals(new byte[] { (byte) 0x80, 0x00, (byte) 0xFF, (byte) 0xC1 }, PayloadEncoding.BASE64.decode("gAD/wQ==")));
+		assertTrue("Two pads", Arrays.equals(new byte[] { 'a', 'b' }, PayloadEncoding.BASE64.decode("YWI=")));
+		assertEquals("Empty", 0, PayloadEncoding.BASE64.decode("").length);
+	}
+
+	@Test
+	public void textIsNotDecoded() {
+		assertNull("Text", PayloadEncoding.fromString(null).decode("PING"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void oddLengthHexIsRejected() {
+		PayloadEncoding.HEX.decode("0200 0");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void invalidHexDigitIsRejected() {
+		PayloadEncoding.HEX.decode("02G0");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void invalidBase64CharacterIsRejected() {
+		PayloadEncoding.BASE64.decode("YW!j");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void base64PaddingInTheMiddleIsRejected() {
+		PayloadEncoding.BASE64.decode("YW=jYWJj");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void truncatedBase64IsRejected() {
+		PayloadEncoding.BASE64.decode("YWJjY");
+	}
+
+}
@@ -7,13 +7,20 @@ import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.Arrays;
 
 import org.baessie.simulator.SimulatorRequest;
+import org.baessie.simulator.metrics.ProtocolMetrics;
 import org.junit.After;
 import org.junit.Test;
 
 public class SocketSimulatorTest {
-	private final SocketSimulator simulator = new SocketSimulator(65123);
+	private final SocketSimulator simulator = new SocketSimulator(65123, getMode());
+
+	protected SocketServerMode getMode() {
+		return SocketServerMode.BLOCKING;
+	}
 
 	@After
 	public void tearDown() {
@@ -141,6 +148,239 @@ public class SocketSimulatorTest {
 		assertEquals("response2", expectedResponse2, response2);
 	}
 
+	@Test
+	public void lengthPrefixedRequestSplitAcrossWritesIsMatched() throws Exception {
+		final SocketSimulator framedSimulator = new SocketSimulator(65124, getMode(), new LengthPrefixedFrameCodec(2), Charset.forName("UTF-8"));
+		try {
+			final StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < 300; i++) {
+				sb.append("LARGE ");
+			}
+			final String requestString = sb.toString();
+			setupTest(framedSimulator, "1", requestString, "OK");
+
+			final SocketClient socketClient = new SocketClient(framedSimulator.getPort());
+			final byte[] payload = requestString.getBytes("UTF-8");
+			socketClient.write(new byte[] { (byte) (payload.length >> 8), (byte) payload.length });
+			socketClient.write(Arrays.copyOfRange(payload, 0, 1000));
+			Thread.sleep(50);
+			socketClient.write(Arrays.copyOfRange(payload, 1000, payload.length));
+
+			assertEquals("response", "\u0000\u0002OK", socketClient.read());
+		} finally {
+			framedSimulator.terminate();
+		}
+	}
+
+	@Test
+	public void pipelinedRequestsAreAnsweredInOrder() throws Exception {
+		final SocketSimulator framedSimulator = new SocketSimulator(65124, getMode(), new DelimiterFrameCodec(new byte[] { '\n' }), Charset.forName("UTF-8"));
+		try {
+			setupTest(framedSimulator, "1", "LOGIN", "OPEN");
+			setupTest(framedSimulator, "2", "GET", "DATA");
+			setupTest(framedSimulator, "3", "LOGOUT", "CLOSED");
+
+			final SocketClient socketClient = new SocketClient(framedSimulator.getPort());
+			socketClient.write("LOGIN\nGET\nLOGOUT\n");
+
+			final StringBuilder responses = new StringBuilder();
+			while (responses.length() < "OPEN\nDATA\nCLOSED\n".length()) {
+				responses.append(socketClient.read());
+			}
+			assertEquals("responses", "OPEN\nDATA\nCLOSED\n", responses.toString());
+		} finally {
+			framedSimulator.terminate();
+		}
+	}
+
+	@Test
+	public void responsesBeforeUnmatchedPipelinedRequestAreWrittenBeforeClosing() throws Exception {
+		final SocketSimulator framedSimulator = new SocketSimulator(65124, getMode(), new DelimiterFrameCodec(new byte[] { '\n' }), Charset.forName("UTF-8"));
+		try {
+			setupTest(framedSimulator, "1", "LOGIN", "OPEN");
+
+			final SocketClient socketClient = new SocketClient(framedSimulator.getPort());
+			socketClient.write("LOGIN\nUNKNOWN\n");
+
+			final StringBuilder responses = new StringBuilder();
+			String read;
+			while ((read = socketClient.read()) != null) {
+				responses.append(read);
+			}
+			assertEquals("responses", "OPEN\n", responses.toString());
+		} finally {
+			framedSimulator.terminate();
+		}
+	}
+
+	@Test
+	public void responseIsDelayed() throws Exception {
+		final SimulatorRequest request = new SimulatorRequest();
+		request.addParameter("testId", "1");
+		request.addParameter("request", "PING");
+		request.addParameter("response", "PONG");
+		request.addParameter("delayDistribution", "uniform:150,200");
+		request.addParameter("delaySeed", "42");
+		simulator.setupTest(request);
+
+		final SocketClient socketClient = generateSocketClient();
+		final long start = System.currentTimeMillis();
+		socketClient.write("PING");
+		assertEquals("response", "PONG", socketClient.read());
+		final long time = System.currentTimeMillis() - start;
+		assertTrue("Response took " + time + " ms", time >= 150);
+	}
+
+	@Test
+	public void requestsAndConnectionsAreCountedInMetrics() throws Exception {
+		setupTest(simulator, "1", "PING", "PONG");
+
+		final SocketClient socketClient = generateSocketClient();
+		socketClient.write("PING");
+		assertEquals("response", "PONG", socketClient.read());
+
+		final ProtocolMetrics metrics = simulator.getMetrics();
+		assertEquals("Requests", 1, metrics.getRequests());
+		assertEquals("Misses", 0, metrics.getMisses());
+		assertEquals("Response bytes", 4, metrics.getResponseBytes());
+		assertEquals("Stub requests", 1, metrics.getStubs().get("1").getRequests());
+		assertEquals("Active connections", 1, metrics.getActiveConnections());
+
+		socketClient.shutdownOutput();
+		assertTrue("socket closed", socketClient.isSocketClosed());
+		assertEquals("Active connections after close", 0, metrics.getActiveConnections());
+	}
+
+	@Test
+	public void testsAreMatchedOnlyOnTheirOwnPort() throws Exception {
+		setupTest(simulator, "1", "PING", "DEFAULT");
+		final SimulatorRequest request = new SimulatorRequest();
+		request.addParameter("testId", "2");
+		request.addParameter("request", "PING");
+		request.addParameter("response", "OTHER");
+		request.addParameter("port", "65125");
+		request.addParameter("framing", "delimiter:\\n");
+		simulator.setupTest(request);
+		assertTrue("Port opened", simulator.getPorts().contains(65125));
+
+		final SocketClient otherClient = new SocketClient(65125);
+		otherClient.write("PING\n");
+		assertEquals("response", "OTHER\n", otherClient.read());
+
+		final SocketClient defaultClient = generateSocketClient();
+		defaultClient.write("PING");
+		assertEquals("response", "DEFAULT", defaultClient.read());
+	}
+
+	@Test
+	public void testIdIsMovedToAnotherPort() throws Exception {
+		setupTest(simulator, "1", "PING", "DEFAULT");
+		final SimulatorRequest request = new SimulatorRequest();
+		request.addParameter("testId", "1");
+		request.addParameter("request", "PING");
+		request.addParameter("response", "OTHER");
+		request.addParameter("port", "65125");
+		simulator.setupTest(request);
+
+		final SocketClient defaultClient = generateSocketClient();
+		defaultClient.write("PING");
+		assertTrue("No test left on default port", defaultClient.isSocketClosed());
+
+		final SocketClient otherClient = new SocketClient(65125);
+		otherClient.write("PING");
+		assertEquals("response", "OTHER", otherClient.read());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void otherFramingForOpenPortThrowsIllegalArgumentException() {
+		final SimulatorRequest request = new SimulatorRequest();
+		request.addParameter("testId", "1");
+		request.addParameter("request", "PING");
+		request.addParameter("response", "PONG");
+		request.addParameter("port", "65125");
+		request.addParameter("framing", "length:2");
+		simulator.setupTest(request);
+		request.addParameter("framing", "length:4");
+		simulator.setupTest(request);
+	}
+
+	@Test
+	public void binaryRequestIsMatchedAndAnsweredByteByByte() throws Exception {
+		final SimulatorRequest request = new SimulatorRequest();
+		request.addParameter("testId", "1");
+		request.addParameter("request", "6F 1A 84 0E FF");
+		request.addParameter("requestEncoding", "hex");
+		request.addParameter("response", "gAD/wQ==");
+		request.addParameter("responseEncoding", "base64");
+		simulator.setupTest(request);
+
+		final SocketClient socketClient = generateSocketClient();
+		socketClient.write(new byte[] { 0x6F, 0x1A, (byte) 0x84, 0x0E, (byte) 0xFF });
+		assertTrue("response", Arrays.equals(new byte[] { (byte) 0x80, 0x00, (byte) 0xFF, (byte) 0xC1 }, socketClient.readBytes()));
+	}
+
+	@Test
+	public void maskedFieldsOfBinaryRequestAreIgnored() throws Exception {
+		final SimulatorRequest request = new SimulatorRequest();
+		request.addParameter("testId", "1");
+		request.addParameter("request", "0200 000000");
+		request.addParameter("requestEncoding", "hex");
+		request.addParameter("requestMask", "FFFF 000000");
+		request.addParameter("response", "0210");
+		request.addParameter("responseEncoding", "hex");
+		simulator.setupTest(request);
+
+		final SocketClient socketClient = generateSocketClient();
+		socketClient.write(new byte[] { 0x02, 0x00, 0x12, 0x34, 0x56 });
+		assertTrue("response", Arrays.equals(new byte[] { 0x02, 0x10 }, socketClient.readBytes()));
+		socketClient.write(new byte[] { 0x02, 0x00, 0x65, 0x43, 0x21 });
+		assertTrue("response", Arrays.equals(new byte[] { 0x02, 0x10 }, socketClient.readBytes()));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void maskOfOtherLengthThanRequestThrowsIllegalArgumentException() {
+		final SimulatorRequest request = new SimulatorRequest();
+		request.addParameter("testId", "1");
+		request.addParameter("request", "0200");
+		request.addParameter("requestEncoding", "hex");
+		request.addParameter("requestMask", "FF");
+		request.addParameter("response", "0210");
+		simulator.setupTest(request);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void responseTooLongForLengthPrefixThrowsIllegalArgumentException() {
+		final StringBuilder response = new StringBuilder();
+		for (int i = 0; i < 65536; i++) {
+			response.append('x');
+		}
+		final SimulatorRequest request = new SimulatorRequest();
+		request.addParameter("testId", "1");
+		request.addParameter("request", "PING");
+		request.addParameter("response", response.toString());
+		request.addParameter("framing", "length:2");
+		request.addParameter("port", "65125");
+		simulator.setupTest(request);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void invalidBase64ResponseThrowsIllegalArgumentException() {
+		final SimulatorRequest request = new SimulatorRequest();
+		request.addParameter("testId", "1");
+		request.addParameter("request", "PING");
+		request.addParameter("response", "not base64!");
+		request.addParameter("responseEncoding", "base64");
+		simulator.setupTest(request);
+	}
+
+	private void setupTest(final SocketSimulator socketSimulator, final String testId, final String requestString, final String responseString) {
+		final SimulatorRequest request = new SimulatorRequest();
+		request.addParameter("testId", testId);
+		request.addParameter("request", requestString);
+		request.addParameter("response", responseString);
+		socketSimulator.setupTest(request);
+	}
+
 	@Test(expected = IllegalStateException.class)
 	public void setupWithoutTestidThrowsIllegalStateException() {
 		SimulatorRequest request = new SimulatorRequest();
@@ -194,8 +434,18 @@ public class SocketSimulatorTest {
 			return null;
 		}
 
+		public byte[] readBytes() throws IOException {
+			byte[] buff = new byte[1024];
+			int readBytes = dataInputStream.read(buff);
+			return readBytes >= 0 ? Arrays.copyOf(buff, readBytes) : null;
+		}
+
 		public void write(String requestString) throws IOException {
-			dataOutputStream.write(requestString.getBytes());
+			write(requestString.getBytes());
+		}
+
+		public void write(byte[] bytes) throws IOException {
+			dataOutputStream.write(bytes);
 			dataOutputStream.flush();
 		}
 	}
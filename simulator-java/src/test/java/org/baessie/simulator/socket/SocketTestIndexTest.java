@@ -0,0 +1,113 @@
+package org.baessie.simulator.socket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.baessie.simulator.delay.DelayDistributions;
+import org.junit.Test;
+
+public class SocketTestIndexTest {
+
+	private final SocketTestIndex index = new SocketTestIndex();
+
+	@Test
+	public void exactTestsAreUsedInSetupOrderUntilMaxCallCount() {
+		index.add(new SocketTestData("1", "LOGIN", "FIRST", 1, false));
+		index.add(new SocketTestData("2", "LOGIN", "SECOND", null, false));
+
+		assertEquals("First test", "1", index.reserve("LOGIN").getId());
+		assertEquals("First test used up", "2", index.reserve("LOGIN").getId());
+		assertEquals("Second test again", "2", index.reserve("LOGIN").getId());
+	}
+
+	@Test
+	public void patternTestsAreTriedWhenNoExactTestMatches() {
+		index.add(new SocketTestData("1", "GET *", "PATTERN", null, false, true));
+		index.add(new SocketTestData("2", "GET 1", "EXACT", null, false, true));
+
+		assertEquals("Exact test first", "2", index.reserve("GET 1").getId());
+		assertEquals("Pattern test", "1", index.reserve("GET 2").getId());
+		assertNull("No match", index.reserve("PUT 2"));
+	}
+
+	@Test
+	public void wildcardsAreLiteralUnlessEnabled() {
+		index.add(new SocketTestData("1", "GET *", "LITERAL", null, false));
+
+		assertNull("Not a pattern", index.reserve("GET 2"));
+		assertEquals("Literal match", "1", index.reserve("GET *").getId());
+	}
+
+	@Test
+	public void removedTestsAreNotMatched() {
+		final SocketTestData testData = new SocketTestData("1", "LOGIN", "OPEN", null, false);
+		index.add(testData);
+		index.remove(testData);
+
+		assertNull("Removed", index.reserve("LOGIN"));
+	}
+
+	@Test
+	public void binaryTestsAreMatchedOnTheBytesOfTheFrame() {
+		index.add(new SocketTestData("1", "C1FF", "OK", new byte[] { (byte) 0xC1, (byte) 0xFF }, null, null, null, false, false, DelayDistributions.NONE));
+
+		final ByteBuffer frame = ByteBuffer.wrap(new byte[] { 0, (byte) 0xC1, (byte) 0xFF }, 1, 2).slice();
+		assertEquals("Binary match", "1", index.reserve(frame).getId());
+		assertEquals("Position kept", 0, frame.position());
+		assertNull("Other bytes", index.reserve(ByteBuffer.wrap(new byte[] { (byte) 0xC1, (byte) 0xFE })));
+		assertNull("Not a text test", index.reserve("C1FF"));
+		assertFalse("No text tests", index.hasTextTests());
+	}
+
+	@Test
+	public void bitsOutsideTheMaskAreIgnored() {
+		final byte[] request = { 0x02, 0x00, 0x12, 0x34 };
+		final byte[] mask = { (byte) 0xFF, (byte) 0xFF, 0x00, 0x00 };
+		index.add(new SocketTestData("1", "02001234", "OK", request, mask, null, null, false, false, DelayDistributions.NONE));
+
+		assertEquals("Masked match", "1", index.reserve(ByteBuffer.wrap(new byte[] { 0x02, 0x00, 0x56, 0x78 })).getId());
+		assertNull("Unmasked byte differs", index.reserve(ByteBuffer.wrap(new byte[] { 0x02, 0x10, 0x12, 0x34 })));
+		assertNull("Other length", index.reserve(ByteBuffer.wrap(new byte[] { 0x02, 0x00, 0x12 })));
+	}
+
+	@Test
+	public void maxCallCountIsNotExceededByConcurrentCalls() throws Exception {
+		final SocketTestData testData = new SocketTestData("1", "LOGIN", "OPEN", 100, false);
+		index.add(testData);
+
+		final AtomicInteger reserved = new AtomicInteger();
+		final ExecutorService executor = Executors.newFixedThreadPool(8);
+		final List<Future<Object>> futures = new ArrayList<Future<Object>>();
+		for (int i = 0; i < 8; i++) {
+			futures.add(executor.submit(new Callable<Object>() {
+				@Override
+				public Object call() {
+					for (int j = 0; j < 50; j++) {
+						if (index.reserve("LOGIN") != null) {
+							reserved.incrementAndGet();
+						}
+					}
+					return null;
+				}
+			}));
+		}
+		for (final Future<Object> future : futures) {
+			future.get();
+		}
+		executor.shutdown();
+
+		assertEquals("Reserved calls", 100, reserved.get());
+		assertEquals("Call count", 100, testData.getCallCount().get());
+	}
+
+}
@@ -0,0 +1,62 @@
+package org.baessie.simulator.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+public class AccessLogTest {
+
+	@Test
+	public void recordedRequestsAreWrittenAsJsonLines() {
+		final StringWriter out = new StringWriter();
+		final AccessLog accessLog = new AccessLog(out, 4);
+		accessLog.record("ws", "TEST \"1\"", 1500, 42, 20000);
+		accessLog.record("/verifyTest", null, -1, -1, 3000);
+		accessLog.close();
+
+		final String[] lines = out.toString().split("\n");
+		assertEquals("Lines", 2, lines.length);
+		assertEquals("First line", ",\"route\":\"ws\",\"testId\":\"TEST \\\"1\\\"\",\"matchNanos\":1500,\"responseBytes\":42,\"latencyNanos\":20000}",
+				lines[0].substring(lines[0].indexOf(',')));
+		assertEquals("Second line", ",\"route\":\"/verifyTest\",\"latencyNanos\":3000}", lines[1].substring(lines[1].indexOf(',')));
+	}
+
+	@Test
+	public void manyRequestsAreWrittenOrDropped() throws Exception {
+		final StringWriter out = new StringWriter();
+		final AccessLog accessLog = new AccessLog(out, 16);
+		final int threads = 4;
+		final int requests = 10000;
+		final Thread[] recorders = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			recorders[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < requests; i++) {
+						accessLog.record("rest", "ID", i, i, i);
+					}
+				}
+			};
+			recorders[t].start();
+		}
+		for (final Thread recorder : recorders) {
+			recorder.join();
+		}
+		accessLog.close();
+
+		final String log = out.toString();
+		assertEquals("Written or dropped", threads * requests, log.split("\n").length + accessLog.getDropped());
+		assertFalse("No partial lines", log.contains("}{"));
+	}
+
+	@Test
+	public void disabledLogRecordsNothing() {
+		assertFalse("Disabled", AccessLog.DISABLED.isEnabled());
+		AccessLog.DISABLED.record("ws", "ID", 1, 1, 1);
+		AccessLog.DISABLED.close();
+	}
+
+}
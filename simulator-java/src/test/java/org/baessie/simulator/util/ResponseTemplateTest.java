@@ -0,0 +1,46 @@
+package org.baessie.simulator.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.baessie.simulator.ws.BackReferenceLocation;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ResponseTemplateTest {
+
+	private static final String RESPONSE = "<root><value attr=\"#{a}\">x #{a} y</value><other>#{b}</other></root>";
+
+	@Test
+	public void backReferencesAreEscapedWhereTheyAreWritten() throws Exception {
+		final ResponseTemplate template = compile();
+
+		final List<BackReferenceValue> values = new ArrayList<BackReferenceValue>();
+		values.add(new BackReferenceValue("#{a}", "<\"&\">"));
+		values.add(new BackReferenceValue("#{b}", "b"));
+		final String rendered = new String(template.render(values), template.getCharset());
+
+		Assert.assertTrue("rendered", rendered.endsWith("<root><value attr=\"&lt;&quot;&amp;&quot;&gt;\">x &lt;\"&amp;\"&gt; y</value><other>b</other></root>"));
+		Assert.assertEquals("parsed", "<\"&\">", XmlToolkit.parse(rendered).getDocumentElement().getFirstChild().getAttributes().item(0).getNodeValue());
+	}
+
+	@Test
+	public void backReferencesWithoutValueAreKept() throws Exception {
+		final ResponseTemplate template = compile();
+
+		final List<BackReferenceValue> values = Collections.emptyList();
+		final String rendered = new String(template.render(values), template.getCharset());
+
+		Assert.assertTrue("rendered", rendered.endsWith("<root><value attr=\"#{a}\">x #{a} y</value><other>#{b}</other></root>"));
+	}
+
+	private ResponseTemplate compile() throws Exception {
+		final List<BackReferenceLocation> backReferences = new ArrayList<BackReferenceLocation>();
+		backReferences.add(new BackReferenceLocation("#{a}", "/root/value/@attr"));
+		backReferences.add(new BackReferenceLocation("#{a}", "/root/value/text()"));
+		backReferences.add(new BackReferenceLocation("#{b}", "/root/other/text()"));
+		return ResponseTemplate.compile(XmlToolkit.parse(RESPONSE), backReferences, null);
+	}
+
+}
@@ -0,0 +1,38 @@
+package org.baessie.simulator.util;
+
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.xpath.XPath;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+public class XmlToolkitTest {
+
+	@Test
+	public void parsedDocumentIsTransformedBack() throws Exception {
+		final Document document = XmlToolkit.parse("<a:root xmlns:a=\"urn:a\"><a:child>text</a:child></a:root>");
+		Assert.assertEquals("namespace", "urn:a", document.getDocumentElement().getNamespaceURI());
+
+		final StringWriter writer = new StringWriter();
+		XmlToolkit.transform(new DOMSource(document), new StreamResult(writer));
+		Assert.assertTrue("serialized", writer.toString().endsWith("<a:root xmlns:a=\"urn:a\"><a:child>text</a:child></a:root>"));
+	}
+
+	@Test
+	public void releasedXPathIsReset() throws Exception {
+		final Map<String, String> nameSpaces = new HashMap<String, String>();
+		nameSpaces.put("a", "urn:a");
+		final XPath xPath = XmlToolkit.borrowXPath();
+		xPath.setNamespaceContext(new MapNamspaceContext(nameSpaces));
+		XmlToolkit.releaseXPath(xPath);
+
+		Assert.assertNull("namespace context", xPath.getNamespaceContext());
+	}
+
+}
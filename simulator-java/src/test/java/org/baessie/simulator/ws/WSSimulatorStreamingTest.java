@@ -0,0 +1,95 @@
+package org.baessie.simulator.ws;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.baessie.simulator.SimulatorException;
+import org.baessie.simulator.SimulatorRequest;
+import org.junit.Test;
+
+/**
+ * Runs all WS simulator tests with streaming matching.
+ */
+public class WSSimulatorStreamingTest extends WSSimulatorTest {
+
+	@Override
+	protected WSSimulator createSimulator() {
+		return new WSSimulator(WSMatchingMode.STREAMING);
+	}
+
+	@Test
+	public void executeTestStopsReadingWhenNoTestCanMatch() throws Exception {
+		setupTest("SMALL", "<request><in>1</in><in>*</in></request>", "<response/>");
+
+		final StringBuilder realRequest = new StringBuilder("<request><in>2</in>");
+		for (int i = 0; i < 100000; i++) {
+			realRequest.append("<in>").append(i).append("</in>");
+		}
+		realRequest.append("</request>");
+		final CountingInputStream in = new CountingInputStream(new ByteArrayInputStream(realRequest.toString().getBytes("UTF-8")));
+		final SimulatorRequest request = new SimulatorRequest();
+		request.setInputStream(in);
+		request.setCharset("UTF-8");
+
+		try {
+			simulator.executeTest(request);
+			fail("Request should not match");
+		} catch (final SimulatorException e) {
+			assertTrue("Stopped reading early", in.count < realRequest.length() / 10);
+		}
+	}
+
+	@Test
+	public void executeTestMatchesLongListInAnyOrder() throws Exception {
+		final StringBuilder testRequest = new StringBuilder("<request>");
+		final StringBuilder realRequest = new StringBuilder("<request>");
+		final int items = 1000;
+		for (int i = 0; i < items; i++) {
+			testRequest.append("<item><id>").append(i).append("</id><value>*</value></item>");
+		}
+		realRequest.append("<item><id>").append(items - 1).append("</id><value>last</value></item>");
+		for (int i = 0; i < items - 1; i++) {
+			realRequest.append("<item><id>").append(i).append("</id><value>").append(i).append("</value></item>");
+		}
+		testRequest.append("</request>");
+		realRequest.append("</request>");
+		setupTest("LIST", testRequest.toString(), "<response/>");
+
+		simulator.executeTest(createExecuteRequest(realRequest.toString()));
+
+		assertEquals("Test called once", Integer.valueOf(1), simulator.verifyTest("LIST"));
+	}
+
+	private static class CountingInputStream extends InputStream {
+		private final InputStream in;
+		private int count;
+
+		CountingInputStream(final InputStream in) {
+			this.in = in;
+		}
+
+		@Override
+		public int read() throws IOException {
+			final int b = in.read();
+			if (b >= 0) {
+				count++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+			final int read = in.read(b, off, len);
+			if (read > 0) {
+				count += read;
+			}
+			return read;
+		}
+	}
+
+}
@@ -8,6 +8,12 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
@@ -23,11 +29,15 @@ import org.w3c.dom.Document;
 
 public class WSSimulatorTest {
 
-	private WSSimulator simulator;
+	protected WSSimulator simulator;
 
 	@Before
 	public void setup() {
-		simulator = new WSSimulator();
+		simulator = createSimulator();
+	}
+
+	protected WSSimulator createSimulator() {
+		return new WSSimulator(WSMatchingMode.DOM);
 	}
 
 	@Test
@@ -184,6 +194,24 @@ public class WSSimulatorTest {
 
 	}
 
+	@Test
+	public void prepareResponseLeavesDelayToCaller() throws Exception {
+		final SimulatorRequest request = new SimulatorRequest();
+		request.addParameter(SimulatorUtils.TEST_ID, "DELAYED");
+		request.addParameter(WSSimulator.IN_DATA, "<request><in>1</in></request>");
+		request.addParameter(WSSimulator.OUT_DATA, "<response/>");
+		request.addParameter(WSSimulator.DELAY, "5000");
+		assertEquals("Test setup", "DELAYED", simulator.setupTest(request));
+
+		final long beforeCall = System.currentTimeMillis();
+		final SimulatorResponse response = simulator.prepareResponse(createExecuteRequest("<request><in>1</in></request>"));
+		final long afterCall = System.currentTimeMillis();
+
+		assertTrue("should not wait for the delay", afterCall - beforeCall < 5000);
+		assertEquals("Delay of the test", Integer.valueOf(5000), response.getDelay());
+		assertEquals("Test called once", Integer.valueOf(1), simulator.verifyTest("DELAYED"));
+	}
+
 	@Test(expected = SimulatorException.class)
 	public void executeTestFailToMatch() throws Exception {
 		final String testRequest = "<request><in>1</in><in>2</in><in>3</in><in>4</in></request>";
@@ -328,6 +356,84 @@ public class WSSimulatorTest {
 
 	}
 
+	@Test
+	public void executeTestSelectsMatchingOperationAmongManyTests() throws Exception {
+		final String envelope = "<soap:Envelope xmlns:soap=\"http://schemas.xmlsoap.org/soap/envelope/\"><soap:Body>%s</soap:Body></soap:Envelope>";
+		for (int i = 0; i < 50; i++) {
+			setupTest("GET " + i, String.format(envelope, "<get xmlns=\"http://x\"><id>" + i + "</id></get>"), "<response>get " + i + "</response>");
+			setupTest("PUT " + i, String.format(envelope, "<put xmlns=\"http://x\"><id>" + i + "</id></put>"), "<response>put " + i + "</response>");
+		}
+		setupTest("GET ANY", String.format(envelope, "<get xmlns=\"http://x\"><id>*</id></get>"), "<response>get any</response>");
+
+		final String realRequest = "<e:Envelope xmlns:e=\"http://schemas.xmlsoap.org/soap/envelope/\"><e:Body><x:put xmlns:x=\"http://x\"><x:id>42</x:id></x:put></e:Body></e:Envelope>";
+		String output = createResponseString(simulator.executeTest(createExecuteRequest(realRequest)));
+		assertEquals("Matching operation and value", "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?><response>put 42</response>", output);
+
+		final String wildcardRequest = String.format(envelope, "<get xmlns=\"http://x\"><id>4711</id></get>");
+		output = createResponseString(simulator.executeTest(createExecuteRequest(wildcardRequest)));
+		assertEquals("Wildcard test", "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?><response>get any</response>", output);
+
+		assertEquals("PUT called once", Integer.valueOf(1), simulator.verifyTest("PUT 42"));
+		assertEquals("GET not called", Integer.valueOf(0), simulator.verifyTest("GET 42"));
+		assertEquals("GET ANY called once", Integer.valueOf(1), simulator.verifyTest("GET ANY"));
+	}
+
+	@Test
+	public void executeTestTestsMatchingSameRequestTakeTurns() throws Exception {
+		setupTest("FIRST", "<request><in>1</in></request>", "<response>first</response>");
+		setupTest("SECOND", "<request><in>*</in></request>", "<response>second</response>");
+
+		final String realRequest = "<request><in>1</in></request>";
+		final String first = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?><response>first</response>";
+		final String second = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?><response>second</response>";
+		assertEquals("First registered wins", first, createResponseString(simulator.executeTest(createExecuteRequest(realRequest))));
+		assertEquals("Then the next one", second, createResponseString(simulator.executeTest(createExecuteRequest(realRequest))));
+		assertEquals("And back again", first, createResponseString(simulator.executeTest(createExecuteRequest(realRequest))));
+	}
+
+	@Test
+	public void executeTestConcurrentlyCountsAllCalls() throws Exception {
+		setupTest("CONCURRENT", "<request><in>1</in></request>", "<response>out</response>");
+
+		final int threads = 8;
+		final int callsPerThread = 50;
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		final List<Future<Object>> futures = new ArrayList<Future<Object>>();
+		for (int i = 0; i < threads; i++) {
+			futures.add(executor.submit(new Callable<Object>() {
+				@Override
+				public Object call() throws Exception {
+					for (int j = 0; j < callsPerThread; j++) {
+						simulator.executeTest(createExecuteRequest("<request><in>1</in></request>"));
+					}
+					return null;
+				}
+			}));
+		}
+		for (final Future<Object> future : futures) {
+			future.get();
+		}
+		executor.shutdown();
+
+		assertEquals("No calls lost", Integer.valueOf(threads * callsPerThread), simulator.verifyTest("CONCURRENT"));
+	}
+
+	protected void setupTest(final String testId, final String testRequest, final String testResponse) {
+		final SimulatorRequest request = new SimulatorRequest();
+		request.addParameter(SimulatorUtils.TEST_ID, testId);
+		request.addParameter(WSSimulator.IN_DATA, testRequest);
+		request.addParameter(WSSimulator.OUT_DATA, testResponse);
+		assertEquals("Added test", testId, simulator.setupTest(request));
+	}
+
+	protected SimulatorRequest createExecuteRequest(final String realRequest) {
+		final SimulatorRequest request = new SimulatorRequest();
+		final String charset = "UTF-8";
+		request.setInputStream(createInputStream(realRequest, charset));
+		request.setCharset(charset);
+		return request;
+	}
+
 	private InputStream createInputStream(final String str, final String charset) {
 		InputStream inputStream = null;
 		try {
@@ -338,7 +444,7 @@ public class WSSimulatorTest {
 		return inputStream;
 	}
 
-	private String createResponseString(final SimulatorResponse response) throws Exception {
+	protected String createResponseString(final SimulatorResponse response) throws Exception {
 		ByteArrayOutputStream out = null;
 		final Document document = response.getDocument();
 		try {
@@ -7,19 +7,32 @@ import java.sql.DriverPropertyInfo;
 import java.sql.SQLException;
 import java.util.Properties;
 
+import org.baessie.simulator.jdbc.expectation.ExpectationManager;
 import org.baessie.simulator.jdbc.expectation.Logger;
 
 public class SimulatorDriver implements Driver {
 
+	private static final SimulatorDriver INSTANCE = new SimulatorDriver();
+
 	static {
 		Logger.log("<Registering with DriverManager>");
 		try {
-			DriverManager.registerDriver(new SimulatorDriver());
+			DriverManager.registerDriver(INSTANCE);
 		} catch (final SQLException e) {
 			throw new CannotRegisterWithDriverManagerException(e);
 		}
 	}
 
+	/**
+	 * Deregisters the driver from the DriverManager and closes the
+	 * expectations, such as the expectation file.
+	 */
+	public static void shutdown() throws SQLException {
+		Logger.log("SimulatorDriver.shutdown()");
+		DriverManager.deregisterDriver(INSTANCE);
+		ExpectationManager.close();
+	}
+
 	@Override
 	public Connection connect(final String url, final Properties info) throws SQLException {
 		Logger.log("SimulatorDriver.connect(%s, %s)", url, info);
@@ -26,14 +26,18 @@ import java.util.Map;
 import org.apache.commons.lang.BooleanUtils;
 import org.baessie.simulator.jdbc.expectation.ExpectedResult;
 import org.baessie.simulator.jdbc.expectation.Logger;
+import org.baessie.simulator.jdbc.expectation.ResultColumns;
+import org.baessie.simulator.jdbc.expectation.ResultColumns.Kind;
 import org.baessie.simulator.jdbc.expectation.Row;
 
 public class SimulatorResultSet implements ResultSet {
 	private final ExpectedResult expectedResult;
+	private final ResultColumns columns;
 	private int currentRowIndex = -1;
 
 	public SimulatorResultSet(final ExpectedResult expectedResult) {
 		this.expectedResult = expectedResult;
+		this.columns = expectedResult.getColumns();
 	}
 
 	@Override
@@ -52,7 +56,7 @@ public class SimulatorResultSet implements ResultSet {
 	@Override
 	public int getFetchSize() throws SQLException {
 		Logger.log("SimulatorResultSet.getFetchSize()");
-		return expectedResult.getRows().size();
+		return columns.getRowCount();
 	}
 
 	@Override
@@ -65,6 +69,14 @@ public class SimulatorResultSet implements ResultSet {
 		return expectedResult.getRows().get(currentRowIndex);
 	}
 
+	private boolean isNull(final int columnIndex) {
+		return columns.isNull(currentRowIndex, columnIndex - 1);
+	}
+
+	private Kind kindOf(final int columnIndex) {
+		return columns.getKind(columnIndex - 1);
+	}
+
 	@Override
 	public String getString(final String columnLabel) throws SQLException {
 		final int columnIndex = expectedResult.getColumnIndexForColumnLabel(columnLabel);
@@ -91,66 +103,81 @@ public class SimulatorResultSet implements ResultSet {
 	@Override
 	public byte getByte(final int columnIndex) throws SQLException {
 		Logger.log("SimulatorResultSet.getByte()");
-		String value = getTypeStrippedValue(columnIndex);
-		if (isNull(value)) {
+		if (isNull(columnIndex)) {
 			return 0;
-		} else {
-			return Byte.parseByte(value);
+		} else if (kindOf(columnIndex) == Kind.INT) {
+			final int value = columns.getInt(currentRowIndex, columnIndex - 1);
+			if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+				return (byte) value;
+			}
 		}
+		return Byte.parseByte(getTypeStrippedValue(columnIndex));
 	}
 
 	@Override
 	public short getShort(final int columnIndex) throws SQLException {
 		Logger.log("SimulatorResultSet.getShort()");
-		String value = getTypeStrippedValue(columnIndex);
-		if (isNull(value)) {
+		if (isNull(columnIndex)) {
 			return 0;
-		} else {
-			return Short.parseShort(value);
+		} else if (kindOf(columnIndex) == Kind.INT) {
+			final int value = columns.getInt(currentRowIndex, columnIndex - 1);
+			if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+				return (short) value;
+			}
 		}
+		return Short.parseShort(getTypeStrippedValue(columnIndex));
 	}
 
 	@Override
 	public int getInt(final int columnIndex) throws SQLException {
 		Logger.log("SimulatorResultSet.getInt()");
-		String value = getTypeStrippedValue(columnIndex);
-		if (isNull(value)) {
+		if (isNull(columnIndex)) {
 			return 0;
-		} else {
-			return Integer.parseInt(value);
+		} else if (kindOf(columnIndex) == Kind.INT) {
+			return columns.getInt(currentRowIndex, columnIndex - 1);
 		}
+		return Integer.parseInt(getTypeStrippedValue(columnIndex));
 	}
 
 	@Override
 	public long getLong(final int columnIndex) throws SQLException {
 		Logger.log("SimulatorResultSet.getLong()");
-		String value = getTypeStrippedValue(columnIndex);
-		if (isNull(value)) {
-			return 0L;
-		} else {
-			return Long.parseLong(value);
-		}
+		return getLongValue(columnIndex);
 	}
 
 	@Override
 	public float getFloat(final int columnIndex) throws SQLException {
 		Logger.log("SimulatorResultSet.getFloat()");
-		String value = getTypeStrippedValue(columnIndex);
-		if (isNull(value)) {
+		if (isNull(columnIndex)) {
 			return 0F;
-		} else {
-			return Float.parseFloat(value);
+		}
+		switch (kindOf(columnIndex)) {
+		case INT:
+			return columns.getInt(currentRowIndex, columnIndex - 1);
+		case LONG:
+			return columns.getLong(currentRowIndex, columnIndex - 1);
+		case FLOAT:
+			return (float) columns.getDouble(currentRowIndex, columnIndex - 1);
+		default:
+			return Float.parseFloat(getTypeStrippedValue(columnIndex));
 		}
 	}
 
 	@Override
 	public double getDouble(final int columnIndex) throws SQLException {
 		Logger.log("SimulatorResultSet.getDouble()");
-		String value = getTypeStrippedValue(columnIndex);
-		if (isNull(value)) {
+		if (isNull(columnIndex)) {
 			return 0D;
-		} else {
-			return Double.parseDouble(value);
+		}
+		switch (kindOf(columnIndex)) {
+		case INT:
+			return columns.getInt(currentRowIndex, columnIndex - 1);
+		case LONG:
+			return columns.getLong(currentRowIndex, columnIndex - 1);
+		case DOUBLE:
+			return columns.getDouble(currentRowIndex, columnIndex - 1);
+		default:
+			return Double.parseDouble(getTypeStrippedValue(columnIndex));
 		}
 	}
 
@@ -172,14 +199,24 @@ public class SimulatorResultSet implements ResultSet {
 	}
 
 	private String getTypeStrippedValue(final int columnIndex) {
-		return stripType(currentRow().getStringAt(columnIndex));
+		return columns.getText(currentRowIndex, columnIndex - 1);
 	}
 
-	private String stripType(String currentColumnValue) {
-		if (isNull(currentColumnValue)) {
-			return null;
+	/**
+	 * Returns the value of the given column as a long, or 0 for null values.
+	 */
+	private long getLongValue(final int columnIndex) {
+		if (isNull(columnIndex)) {
+			return 0L;
+		}
+		switch (kindOf(columnIndex)) {
+		case INT:
+			return columns.getInt(currentRowIndex, columnIndex - 1);
+		case LONG:
+			return columns.getLong(currentRowIndex, columnIndex - 1);
+		default:
+			return Long.parseLong(getTypeStrippedValue(columnIndex));
 		}
-		return currentColumnValue.replaceFirst("^.*?:", "");
 	}
 
 	private void logFunc(final String funcName, final String value) {
@@ -190,10 +227,10 @@ public class SimulatorResultSet implements ResultSet {
 	public Date getDate(final int columnIndex) throws SQLException {
 		String columnValue = getTypeStrippedValue(columnIndex);
 		logFunc("getDate", columnValue);
-		if (isNull(columnValue)) {
+		if (isNull(columnIndex)) {
 			return null;
 		} else {
-			return new Date(Long.parseLong(columnValue));
+			return new Date(getLongValue(columnIndex));
 		}
 	}
 
@@ -201,10 +238,10 @@ public class SimulatorResultSet implements ResultSet {
 	public Time getTime(final int columnIndex) throws SQLException {
 		String columnValue = getTypeStrippedValue(columnIndex);
 		logFunc("getTime", columnValue);
-		if (isNull(columnValue)) {
+		if (isNull(columnIndex)) {
 			return null;
 		} else {
-			return new Time(Long.parseLong(columnValue));
+			return new Time(getLongValue(columnIndex));
 		}
 	}
 
@@ -212,10 +249,10 @@ public class SimulatorResultSet implements ResultSet {
 	public Timestamp getTimestamp(final int columnIndex) throws SQLException {
 		String columnValue = getTypeStrippedValue(columnIndex);
 		logFunc("getTimestamp", columnValue);
-		if (isNull(columnValue)) {
+		if (isNull(columnIndex)) {
 			return null;
 		} else {
-			return new Timestamp(Long.parseLong(columnValue));
+			return new Timestamp(getLongValue(columnIndex));
 		}
 	}
 
@@ -381,7 +418,7 @@ public class SimulatorResultSet implements ResultSet {
 	}
 
 	private boolean isNull(final String value) {
-		return (value == null || value.equals("null"));
+		return ResultColumns.isNull(value);
 	}
 
 	// --- Unimplemented methods below
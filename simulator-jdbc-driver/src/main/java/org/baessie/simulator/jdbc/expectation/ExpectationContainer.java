@@ -1,8 +1,6 @@
 package org.baessie.simulator.jdbc.expectation;
 
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.regex.Pattern;
 
 import org.apache.commons.lang.builder.EqualsBuilder;
@@ -10,10 +8,18 @@ import org.apache.commons.lang.builder.HashCodeBuilder;
 import org.apache.commons.lang.builder.ToStringBuilder;
 import org.apache.commons.lang.builder.ToStringStyle;
 
+/**
+ * Container of expectations that have not been called yet and expectations
+ * that have been called.
+ * 
+ * The expectations are kept in {@link TriggerIndex}es. They are numbered when
+ * added, and the oldest expectation matching a query is the next one.
+ */
 @SuppressWarnings("serial")
 public class ExpectationContainer implements Serializable {
-	private final List<Expectation> nextExpectations = new ArrayList<Expectation>();
-	private final List<Expectation> calledExpectations = new ArrayList<Expectation>();
+	private final TriggerIndex<Expectation> nextExpectations = new TriggerIndex<Expectation>();
+	private final TriggerIndex<Expectation> calledExpectations = new TriggerIndex<Expectation>();
+	private long sequence;
 
 	/**
 	 * Adds an expectation to the container.
@@ -22,7 +28,7 @@ public class ExpectationContainer implements Serializable {
 	 *            the expectation to add.
 	 */
 	public void addExpectation(final Expectation expectation) {
-		nextExpectations.add(expectation);
+		nextExpectations.add(++sequence, expectation.getTriggerQuery(), expectation);
 	}
 
 	/**
@@ -30,20 +36,17 @@ public class ExpectationContainer implements Serializable {
 	 * 
 	 * @param triggerQuery
 	 *            the query to get an expected result for.
-	 * @return the expected result for the given query, or null if no such
-	 *         expectation exists.
+	 * @return the expected result for the given query.
+	 * @throws IllegalStateException
+	 *             if no expectation matches the query.
 	 */
 	public ExpectedResult getNextExpectedResult(final String triggerQuery) {
-		ExpectedResult result = null;
-		for (Expectation nextExpectation : nextExpectations) {
-			if (doesStringMatch(nextExpectation.getTriggerQuery(), triggerQuery)) {
-				result = nextExpectation.getExpectedResult();
-				nextExpectations.remove(nextExpectation);
-				calledExpectations.add(nextExpectation);
-				return result;
-			}
+		final Expectation nextExpectation = nextExpectations.find(triggerQuery, true);
+		if (nextExpectation == null) {
+			throw new IllegalStateException("Next expected result does not match query");
 		}
-		throw new IllegalStateException("Next expected result does not match query");
+		calledExpectations.add(++sequence, nextExpectation.getTriggerQuery(), nextExpectation);
+		return nextExpectation.getExpectedResult();
 	}
 
 	/**
@@ -51,19 +54,16 @@ public class ExpectationContainer implements Serializable {
 	 * 
 	 * @param triggerQuery
 	 *            the query to get an expected result for.
-	 * @return the expected result for the given query, or null if no such
-	 *         expectation exists.
+	 * @return the expected result for the given query.
+	 * @throws IllegalStateException
+	 *             if no called expectation matches the query.
 	 */
 	public ExpectedResult getNextCalledExpectedResult(final String triggerQuery) {
-		ExpectedResult result = null;
-		for (Expectation calledExpectation : calledExpectations) {
-			if (doesStringMatch(calledExpectation.getTriggerQuery(), triggerQuery)) {
-				result = calledExpectation.getExpectedResult();
-				nextExpectations.remove(calledExpectation);
-				return result;
-			}
+		final Expectation calledExpectation = calledExpectations.find(triggerQuery, false);
+		if (calledExpectation == null) {
+			throw new IllegalStateException("Next called result does not match query");
 		}
-		throw new IllegalStateException("Next called result does not match query");
+		return calledExpectation.getExpectedResult();
 	}
 
 	/**
@@ -95,28 +95,47 @@ public class ExpectationContainer implements Serializable {
 
 	}
 
-	private boolean doesWildCardMatch(final String defined, final String actual) {
-		final String regExpString = Pattern.quote(defined).replaceAll("\\*", "\\\\E.*\\\\Q");
-		return Pattern.matches(regExpString, actual);
+	private static boolean doesWildCardMatch(final String defined, final String actual) {
+		return compileWildcard(defined).matcher(actual).matches();
 	}
 
-	private boolean containsWildcardDefinitions(final String defined) {
-		return defined.contains("*");
+	/**
+	 * Compiles the given defined string, where "*" matches anything, into a
+	 * pattern.
+	 * 
+	 * @param defined
+	 *            the defined string, may contain wildcards
+	 * @return a pattern matching the instances of the defined string.
+	 */
+	static Pattern compileWildcard(final String defined) {
+		return Pattern.compile(Pattern.quote(defined).replaceAll("\\*", "\\\\E.*\\\\Q"));
+	}
+
+	static boolean containsWildcardDefinitions(final String defined) {
+		return defined != null && defined.contains("*");
 	}
 
 	@Override
 	public boolean equals(final Object obj) {
-		return EqualsBuilder.reflectionEquals(this, obj);
+		if (this == obj) {
+			return true;
+		}
+		if (obj == null || obj.getClass() != getClass()) {
+			return false;
+		}
+		final ExpectationContainer other = (ExpectationContainer) obj;
+		return new EqualsBuilder().append(nextExpectations.getValues(), other.nextExpectations.getValues())
+				.append(calledExpectations.getValues(), other.calledExpectations.getValues()).isEquals();
 	}
 
 	@Override
 	public int hashCode() {
-		return HashCodeBuilder.reflectionHashCode(this);
+		return new HashCodeBuilder().append(nextExpectations.getValues()).append(calledExpectations.getValues()).toHashCode();
 	}
 
 	@Override
 	public String toString() {
-		return ToStringBuilder.reflectionToString(this, ToStringStyle.SIMPLE_STYLE);
+		return new ToStringBuilder(this, ToStringStyle.SIMPLE_STYLE).append(nextExpectations.getValues()).append(calledExpectations.getValues()).toString();
 	}
 
 }
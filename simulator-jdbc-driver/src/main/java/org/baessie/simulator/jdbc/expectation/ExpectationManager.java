@@ -1,44 +1,31 @@
 package org.baessie.simulator.jdbc.expectation;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 
+/**
+ * Entry point to the expectations shared by the test and the driver
+ * instances.
+ * 
+ * By default the expectations are kept in a memory-mapped file, set with the
+ * system property <code>baessie.jdbc.expectationFile</code>, which lets the
+ * test and the driver run in different JVMs. When they run in the same JVM
+ * the system property <code>baessie.jdbc.expectationStore=memory</code> keeps
+ * the expectations in memory instead.
+ */
 public class ExpectationManager {
-	private static final String FILENAME = "/tmp/expectations.serialized";
+	private static final String DEFAULT_FILENAME = System.getProperty("java.io.tmpdir") + File.separator + "baessie-expectations.dat";
 
-	private static ExpectationContainer loadExpectations() {
-		Logger.log("ExpectationManager.loadExpectations()");
-		try {
-			final ObjectInputStream in = new ObjectInputStream(new FileInputStream(FILENAME));
-			final ExpectationContainer expectations = (ExpectationContainer) in.readObject();
-			in.close();
-			Logger.log("<Expectations found: %s>", expectations);
-			return expectations;
-		} catch (final IOException e) {
-			Logger.log("<Exception: %s>", e);
-			Logger.log("<No expectations found, returning empty container>");
-			return new ExpectationContainer();
-		} catch (final ClassNotFoundException e) {
-			Logger.log("<Exception: %s>", e);
-			throw new ExpectationCommunicationException(e);
-		}
-	}
+	private static final ExpectationStore STORE = createStore();
 
-	private static void saveExpectations(final ExpectationContainer expectations) {
-		Logger.log("ExpectationManager.saveExpectations()");
-		Logger.log("<Exception to save: %s>", expectations);
-		try {
-			final ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(FILENAME));
-			out.writeObject(expectations);
-			out.close();
-		} catch (final IOException e) {
-			Logger.log("<Exception: %s>", e);
-			throw new ExpectationCommunicationException(e);
+	private static ExpectationStore createStore() {
+		final String store = System.getProperty("baessie.jdbc.expectationStore", "file");
+		if ("memory".equals(store)) {
+			Logger.log("<Using in-memory expectation store>");
+			return new InMemoryExpectationStore();
 		}
+		final String filename = System.getProperty("baessie.jdbc.expectationFile", DEFAULT_FILENAME);
+		Logger.log("<Using expectation file %s>", filename);
+		return new MappedFileExpectationStore(new File(filename));
 	}
 
 	/**
@@ -46,7 +33,7 @@ public class ExpectationManager {
 	 */
 	public static void resetExpectations() {
 		Logger.log("ExpectationManager.resetExpectations()");
-		new File(FILENAME).delete();
+		STORE.resetExpectations();
 	}
 
 	/**
@@ -58,9 +45,7 @@ public class ExpectationManager {
 	 */
 	public static void addExpectation(final Expectation expectation) {
 		Logger.log("ExpectationManager.addExpectation(%s)", expectation);
-		final ExpectationContainer expectations = loadExpectations();
-		expectations.addExpectation(expectation);
-		saveExpectations(expectations);
+		STORE.addExpectation(expectation);
 	}
 
 	/**
@@ -68,16 +53,13 @@ public class ExpectationManager {
 	 * 
 	 * @param query
 	 *            the query to find a result for.
-	 * @return the expected result for the given query, or null if no such
-	 *         expectation exists.
+	 * @return the expected result for the given query.
+	 * @throws IllegalStateException
+	 *             if no expectation matches the query.
 	 */
 	public static ExpectedResult getExpectedResultFor(final String query) {
 		Logger.log("ExpectationManager.getExpectedResultFor(%s)", query);
-		final ExpectationContainer expectations = loadExpectations();
-		Logger.log("<Expectations: %s>", expectations);
-		final ExpectedResult result = expectations.getNextExpectedResult(query);
-		result.increaseCallCount();
-		saveExpectations(expectations);
+		final ExpectedResult result = STORE.getExpectedResultFor(query);
 		Logger.log("<Expected result: %s>", result);
 		return result;
 	}
@@ -90,16 +72,22 @@ public class ExpectationManager {
 	 * @return the call count of the given query.
 	 */
 	public static int getCallCountFor(final String query) {
-		Logger.log("ExpectationManager.getExpectedResultFor(%s)", query);
+		Logger.log("ExpectationManager.getCallCountFor(%s)", query);
 		if (query == null) {
 			throw new IllegalArgumentException("query must not be null");
 		}
-		final ExpectationContainer expectations = loadExpectations();
-		Logger.log("<Expectations: %s>", expectations);
-		final ExpectedResult result = expectations.getNextCalledExpectedResult(query);
-		saveExpectations(expectations);
-		Logger.log("<Callcount: %s>", result.getCallCount());
-		return result.getCallCount();
+		final int callCount = STORE.getCallCountFor(query);
+		Logger.log("<Callcount: %s>", callCount);
+		return callCount;
+	}
+
+	/**
+	 * Releases the resources held by the expectations, such as the
+	 * expectation file.
+	 */
+	public static void close() {
+		Logger.log("ExpectationManager.close()");
+		STORE.close();
 	}
 
 }
@@ -0,0 +1,51 @@
+package org.baessie.simulator.jdbc.expectation;
+
+/**
+ * Storage of expectations shared between the test and the driver instances.
+ */
+public interface ExpectationStore {
+
+	/**
+	 * Clears all expectations.
+	 */
+	void resetExpectations();
+
+	/**
+	 * Adds the given expectation.
+	 * 
+	 * @param expectation
+	 *            the expectation to add.
+	 */
+	void addExpectation(Expectation expectation);
+
+	/**
+	 * Returns the expected result of the next expectation matching the given
+	 * query and marks the expectation as called.
+	 * 
+	 * @param query
+	 *            the query to find a result for.
+	 * @return the expected result for the given query.
+	 * @throws IllegalStateException
+	 *             if no expectation matches the query.
+	 */
+	ExpectedResult getExpectedResultFor(String query);
+
+	/**
+	 * Retrieves the call count of the first called expectation matching the
+	 * given query.
+	 * 
+	 * @param query
+	 *            the query to find the call count for.
+	 * @return the call count of the given query.
+	 * @throws IllegalStateException
+	 *             if no called expectation matches the query.
+	 */
+	int getCallCountFor(String query);
+
+	/**
+	 * Releases the resources held by the store. The store cannot be used
+	 * after it is closed.
+	 */
+	void close();
+
+}
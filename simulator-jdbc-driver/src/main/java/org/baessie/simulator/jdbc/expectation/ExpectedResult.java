@@ -1,5 +1,7 @@
 package org.baessie.simulator.jdbc.expectation;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.Collections;
 import java.util.List;
@@ -15,10 +17,17 @@ public class ExpectedResult implements Serializable {
 	private final Row header;
 	private final List<Row> rows;
 	private final AtomicInteger callCount = new AtomicInteger();
+	private transient ResultColumns columns;
 
 	public ExpectedResult(final Row header, final List<Row> rows) {
 		this.header = header;
 		this.rows = rows;
+		this.columns = new ResultColumns(rows);
+	}
+
+	public ExpectedResult(final Row header, final List<Row> rows, final int callCount) {
+		this(header, rows);
+		this.callCount.set(callCount);
 	}
 
 	public List<Row> getRows() {
@@ -29,6 +38,19 @@ public class ExpectedResult implements Serializable {
 		return rows;
 	}
 
+	public Row getHeaderRow() {
+		return header;
+	}
+
+	/**
+	 * Returns the rows parsed into typed columns.
+	 * 
+	 * @return the rows as columns.
+	 */
+	public ResultColumns getColumns() {
+		return columns;
+	}
+
 	/**
 	 * Returns the index (1-based) of the column with the given label.
 	 * 
@@ -66,6 +88,11 @@ public class ExpectedResult implements Serializable {
 		return this.callCount.get();
 	}
 
+	private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		columns = new ResultColumns(rows);
+	}
+
 	@Override
 	public boolean equals(final Object obj) {
 		return EqualsBuilder.reflectionEquals(this, obj);
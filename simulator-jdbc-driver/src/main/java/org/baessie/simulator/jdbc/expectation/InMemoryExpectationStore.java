@@ -0,0 +1,38 @@
+package org.baessie.simulator.jdbc.expectation;
+
+/**
+ * Expectation store for when the test and the driver run in the same JVM. The
+ * expectations are kept in memory and never touch the file system.
+ */
+public class InMemoryExpectationStore implements ExpectationStore {
+
+	private ExpectationContainer expectations = new ExpectationContainer();
+
+	@Override
+	public synchronized void resetExpectations() {
+		expectations = new ExpectationContainer();
+	}
+
+	@Override
+	public synchronized void addExpectation(final Expectation expectation) {
+		expectations.addExpectation(expectation);
+	}
+
+	@Override
+	public synchronized ExpectedResult getExpectedResultFor(final String query) {
+		final ExpectedResult result = expectations.getNextExpectedResult(query);
+		result.increaseCallCount();
+		return result;
+	}
+
+	@Override
+	public synchronized int getCallCountFor(final String query) {
+		return expectations.getNextCalledExpectedResult(query).getCallCount();
+	}
+
+	@Override
+	public void close() {
+		// Nothing to release
+	}
+
+}
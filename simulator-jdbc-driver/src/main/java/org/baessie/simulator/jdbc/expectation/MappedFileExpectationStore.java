@@ -0,0 +1,358 @@
+package org.baessie.simulator.jdbc.expectation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Expectation store backed by a memory-mapped file, shared by all JVMs using
+ * the same file. Every operation holds an exclusive lock on the file.
+ *
+ * The file starts with a header followed by the expectations as records in
+ * the order they were added:
+ *
+ * <pre>
+ * header: int magic, int generation, int record count, int end of records,
+ *         int calls
+ * record: int record length, byte state, int call count,
+ *         int trigger length, trigger (UTF-8), expected result
+ * </pre>
+ *
+ * The state and call count of a record are updated in place, and every call
+ * is counted in the header. The records are indexed in memory on their
+ * triggers, in the same way as by {@link ExpectationContainer}, and only
+ * records added by others since the last operation are read. When others
+ * have called expectations the cached records are indexed again. Resetting
+ * the store bumps the generation, which invalidates the cache of all users.
+ */
+public class MappedFileExpectationStore implements ExpectationStore {
+
+	private static final String CHARSET = "UTF-8";
+	private static final int MAGIC = 0xBAE55E02;
+	private static final int INITIAL_SIZE = 1024 * 1024;
+
+	private static final int MAGIC_OFFSET = 0;
+	private static final int GENERATION_OFFSET = 4;
+	private static final int COUNT_OFFSET = 8;
+	private static final int END_OFFSET = 12;
+	private static final int CALLS_OFFSET = 16;
+	private static final int HEADER_LENGTH = 20;
+
+	private static final int STATE_OFFSET = 4;
+	private static final int CALL_COUNT_OFFSET = 5;
+	private static final int TRIGGER_OFFSET = 9;
+
+	private static final byte PENDING = 0;
+	private static final byte CALLED = 1;
+
+	private final FileChannel channel;
+	private MappedByteBuffer buffer;
+
+	private final List<Record> records = new ArrayList<Record>();
+	private final TriggerIndex<Record> pending = new TriggerIndex<Record>();
+	private final TriggerIndex<Record> called = new TriggerIndex<Record>();
+	private int cachedGeneration = -1;
+	private int cachedCalls;
+
+	public MappedFileExpectationStore(final File file) {
+		try {
+			channel = new RandomAccessFile(file, "rw").getChannel();
+			final FileLock lock = channel.lock();
+			try {
+				if (channel.size() < HEADER_LENGTH) {
+					map(INITIAL_SIZE);
+					initialize(0);
+				} else {
+					map(channel.size());
+					if (buffer.getInt(MAGIC_OFFSET) != MAGIC) {
+						initialize(0);
+					}
+				}
+			} finally {
+				lock.release();
+			}
+		} catch (final IOException e) {
+			throw new ExpectationCommunicationException(e);
+		}
+	}
+
+	@Override
+	public synchronized void resetExpectations() {
+		final FileLock lock = lock();
+		try {
+			initialize(buffer.getInt(GENERATION_OFFSET) + 1);
+		} finally {
+			release(lock);
+		}
+	}
+
+	@Override
+	public synchronized void addExpectation(final Expectation expectation) {
+		final FileLock lock = lock();
+		try {
+			refresh();
+			final byte[] record = encode(expectation);
+			final int end = buffer.getInt(END_OFFSET);
+			if (end + record.length > buffer.capacity()) {
+				map(Math.max(2L * buffer.capacity(), (long) end + record.length));
+			}
+			buffer.position(end);
+			buffer.put(record);
+			buffer.putInt(END_OFFSET, end + record.length);
+			buffer.putInt(COUNT_OFFSET, buffer.getInt(COUNT_OFFSET) + 1);
+			final Record added = new Record(end, expectation.getTriggerQuery());
+			records.add(added);
+			pending.add(added.offset, added.trigger, added);
+		} catch (final IOException e) {
+			throw new ExpectationCommunicationException(e);
+		} finally {
+			release(lock);
+		}
+	}
+
+	@Override
+	public synchronized ExpectedResult getExpectedResultFor(final String query) {
+		final FileLock lock = lock();
+		try {
+			refresh();
+			final Record record = pending.find(query, true);
+			if (record == null) {
+				throw new IllegalStateException("Next expected result does not match query");
+			}
+			final int callCount = buffer.getInt(record.offset + CALL_COUNT_OFFSET) + 1;
+			buffer.put(record.offset + STATE_OFFSET, CALLED);
+			buffer.putInt(record.offset + CALL_COUNT_OFFSET, callCount);
+			buffer.putInt(CALLS_OFFSET, ++cachedCalls);
+			called.add(record.offset, record.trigger, record);
+			return decodeResult(record, callCount);
+		} finally {
+			release(lock);
+		}
+	}
+
+	@Override
+	public synchronized int getCallCountFor(final String query) {
+		final FileLock lock = lock();
+		try {
+			refresh();
+			final Record record = called.find(query, false);
+			if (record == null) {
+				throw new IllegalStateException("Next called result does not match query");
+			}
+			return buffer.getInt(record.offset + CALL_COUNT_OFFSET);
+		} finally {
+			release(lock);
+		}
+	}
+
+	/**
+	 * Closes the file. The mapping is released when it is garbage collected.
+	 */
+	@Override
+	public synchronized void close() {
+		try {
+			channel.close();
+		} catch (final IOException e) {
+			throw new ExpectationCommunicationException(e);
+		}
+	}
+
+	private FileLock lock() {
+		try {
+			return channel.lock();
+		} catch (final IOException e) {
+			throw new ExpectationCommunicationException(e);
+		}
+	}
+
+	private void release(final FileLock lock) {
+		try {
+			lock.release();
+		} catch (final IOException e) {
+			throw new ExpectationCommunicationException(e);
+		}
+	}
+
+	private void map(final long size) throws IOException {
+		buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+	}
+
+	private void initialize(final int generation) {
+		buffer.putInt(MAGIC_OFFSET, MAGIC);
+		buffer.putInt(GENERATION_OFFSET, generation);
+		buffer.putInt(COUNT_OFFSET, 0);
+		buffer.putInt(END_OFFSET, HEADER_LENGTH);
+		buffer.putInt(CALLS_OFFSET, 0);
+		clearRecords();
+		cachedGeneration = generation;
+		cachedCalls = 0;
+	}
+
+	private void clearRecords() {
+		records.clear();
+		pending.clear();
+		called.clear();
+	}
+
+	/**
+	 * Adds a record to the index of pending or called records, depending on
+	 * its state in the file.
+	 */
+	private void index(final Record record) {
+		final TriggerIndex<Record> index = buffer.get(record.offset + STATE_OFFSET) == CALLED ? called : pending;
+		index.add(record.offset, record.trigger, record);
+	}
+
+	/**
+	 * Brings the mapping and the cached records up to date with changes made
+	 * by other users of the file.
+	 */
+	private void refresh() {
+		try {
+			if (buffer.getInt(END_OFFSET) > buffer.capacity()) {
+				map(channel.size());
+			}
+		} catch (final IOException e) {
+			throw new ExpectationCommunicationException(e);
+		}
+		final int generation = buffer.getInt(GENERATION_OFFSET);
+		final int calls = buffer.getInt(CALLS_OFFSET);
+		if (generation != cachedGeneration) {
+			clearRecords();
+			cachedGeneration = generation;
+		} else if (calls != cachedCalls) {
+			// Others have called expectations since the last operation
+			pending.clear();
+			called.clear();
+			for (final Record record : records) {
+				index(record);
+			}
+		}
+		cachedCalls = calls;
+		final int count = buffer.getInt(COUNT_OFFSET);
+		int offset = records.isEmpty() ? HEADER_LENGTH : nextOffset(records.get(records.size() - 1).offset);
+		while (records.size() < count) {
+			final Record record = new Record(offset, readString(offset + TRIGGER_OFFSET));
+			records.add(record);
+			index(record);
+			offset = nextOffset(offset);
+		}
+	}
+
+	private int nextOffset(final int offset) {
+		return offset + buffer.getInt(offset);
+	}
+
+	private byte[] encode(final Expectation expectation) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(0);
+		out.writeByte(PENDING);
+		out.writeInt(0);
+		writeString(out, expectation.getTriggerQuery());
+		final ExpectedResult expectedResult = expectation.getExpectedResult();
+		writeRow(out, expectedResult.getHeaderRow());
+		out.writeInt(expectedResult.getRows().size());
+		for (final Row row : expectedResult.getRows()) {
+			writeRow(out, row);
+		}
+		out.close();
+		final byte[] record = bytes.toByteArray();
+		final int length = record.length;
+		record[0] = (byte) (length >>> 24);
+		record[1] = (byte) (length >>> 16);
+		record[2] = (byte) (length >>> 8);
+		record[3] = (byte) length;
+		return record;
+	}
+
+	private void writeRow(final DataOutputStream out, final Row row) throws IOException {
+		if (row == null) {
+			out.writeInt(-1);
+			return;
+		}
+		out.writeInt(row.size());
+		for (final String column : row) {
+			writeString(out, column);
+		}
+	}
+
+	private void writeString(final DataOutputStream out, final String str) throws IOException {
+		if (str == null) {
+			out.writeInt(-1);
+		} else {
+			final byte[] bytes = str.getBytes(CHARSET);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	private ExpectedResult decodeResult(final Record record, final int callCount) {
+		buffer.position(record.offset + TRIGGER_OFFSET);
+		skipString();
+		final Row header = readRow();
+		final int rowCount = buffer.getInt();
+		final List<Row> rows = new ArrayList<Row>(rowCount);
+		for (int i = 0; i < rowCount; i++) {
+			rows.add(readRow());
+		}
+		return new ExpectedResult(header, rows, callCount);
+	}
+
+	private Row readRow() {
+		final int columnCount = buffer.getInt();
+		if (columnCount < 0) {
+			return null;
+		}
+		final List<String> columns = new ArrayList<String>(columnCount);
+		for (int i = 0; i < columnCount; i++) {
+			columns.add(readString());
+		}
+		return new Row(columns);
+	}
+
+	private String readString(final int offset) {
+		buffer.position(offset);
+		return readString();
+	}
+
+	private String readString() {
+		final int length = buffer.getInt();
+		if (length < 0) {
+			return null;
+		}
+		final byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		try {
+			return new String(bytes, CHARSET);
+		} catch (final UnsupportedEncodingException e) {
+			throw new ExpectationCommunicationException(e);
+		}
+	}
+
+	private void skipString() {
+		final int length = buffer.getInt();
+		if (length > 0) {
+			buffer.position(buffer.position() + length);
+		}
+	}
+
+	private static class Record {
+		private final int offset;
+		private final String trigger;
+
+		Record(final int offset, final String trigger) {
+			this.offset = offset;
+			this.trigger = trigger;
+		}
+	}
+
+}
@@ -0,0 +1,191 @@
+package org.baessie.simulator.jdbc.expectation;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Columnar view of the rows of an expected result, parsed once.
+ *
+ * The cells of a row are strings on the form "type:value", for example
+ * "java.lang.Integer:3333". The values of a column are kept with the type
+ * stripped and, when all cells of the column have the same numeric type, also
+ * as primitives in an <code>int[]</code>, <code>long[]</code> or
+ * <code>double[]</code>. Indexes are 0-based.
+ */
+public class ResultColumns {
+
+	/**
+	 * The primitive representation of a column.
+	 */
+	public enum Kind {
+		TEXT, INT, LONG, FLOAT, DOUBLE
+	}
+
+	private final int rowCount;
+	private final int[] rowSizes;
+	private final String[][] texts;
+	private final BitSet[] nulls;
+	private final Kind[] kinds;
+	private final int[][] ints;
+	private final long[][] longs;
+	private final double[][] doubles;
+
+	public ResultColumns(final List<Row> rows) {
+		rowCount = rows.size();
+		rowSizes = new int[rowCount];
+		int columnCount = 0;
+		for (int row = 0; row < rowCount; row++) {
+			rowSizes[row] = rows.get(row).size();
+			columnCount = Math.max(columnCount, rowSizes[row]);
+		}
+		texts = new String[columnCount][rowCount];
+		nulls = new BitSet[columnCount];
+		kinds = new Kind[columnCount];
+		ints = new int[columnCount][];
+		longs = new long[columnCount][];
+		doubles = new double[columnCount][];
+		for (int column = 0; column < columnCount; column++) {
+			nulls[column] = new BitSet(rowCount);
+			String type = null;
+			boolean sameType = true;
+			for (int row = 0; row < rowCount; row++) {
+				if (column >= rowSizes[row]) {
+					continue;
+				}
+				final String cell = rows.get(row).get(column);
+				final String text = stripType(cell);
+				texts[column][row] = text;
+				if (isNull(text)) {
+					nulls[column].set(row);
+				} else if (sameType) {
+					final String cellType = typeOf(cell);
+					if (type == null) {
+						type = cellType;
+					}
+					sameType = cellType != null && cellType.equals(type);
+				}
+			}
+			kinds[column] = sameType ? kindOf(type) : Kind.TEXT;
+			parseColumn(column);
+		}
+	}
+
+	private void parseColumn(final int column) {
+		try {
+			switch (kinds[column]) {
+			case INT:
+				ints[column] = new int[rowCount];
+				for (int row = 0; row < rowCount; row++) {
+					if (!nulls[column].get(row) && texts[column][row] != null) {
+						ints[column][row] = Integer.parseInt(texts[column][row]);
+					}
+				}
+				break;
+			case LONG:
+				longs[column] = new long[rowCount];
+				for (int row = 0; row < rowCount; row++) {
+					if (!nulls[column].get(row) && texts[column][row] != null) {
+						longs[column][row] = Long.parseLong(texts[column][row]);
+					}
+				}
+				break;
+			case FLOAT:
+				doubles[column] = new double[rowCount];
+				for (int row = 0; row < rowCount; row++) {
+					if (!nulls[column].get(row) && texts[column][row] != null) {
+						doubles[column][row] = Float.parseFloat(texts[column][row]);
+					}
+				}
+				break;
+			case DOUBLE:
+				doubles[column] = new double[rowCount];
+				for (int row = 0; row < rowCount; row++) {
+					if (!nulls[column].get(row) && texts[column][row] != null) {
+						doubles[column][row] = Double.parseDouble(texts[column][row]);
+					}
+				}
+				break;
+			default:
+				break;
+			}
+		} catch (final NumberFormatException e) {
+			// Parsed, and failed, when the value is read instead
+			kinds[column] = Kind.TEXT;
+			ints[column] = null;
+			longs[column] = null;
+			doubles[column] = null;
+		}
+	}
+
+	private static String typeOf(final String cell) {
+		final int colon = cell.indexOf(':');
+		return colon >= 0 ? cell.substring(0, colon) : null;
+	}
+
+	private static Kind kindOf(final String type) {
+		if ("java.lang.Byte".equals(type) || "java.lang.Short".equals(type) || "java.lang.Integer".equals(type)) {
+			return Kind.INT;
+		} else if ("java.lang.Long".equals(type) || "java.sql.Date".equals(type) || "java.sql.Time".equals(type) || "java.sql.Timestamp".equals(type)) {
+			return Kind.LONG;
+		} else if ("java.lang.Float".equals(type)) {
+			return Kind.FLOAT;
+		} else if ("java.lang.Double".equals(type)) {
+			return Kind.DOUBLE;
+		}
+		return Kind.TEXT;
+	}
+
+	/**
+	 * Returns the given cell without its type.
+	 */
+	public static String stripType(final String cell) {
+		if (isNull(cell)) {
+			return null;
+		}
+		final int colon = cell.indexOf(':');
+		return colon >= 0 ? cell.substring(colon + 1) : cell;
+	}
+
+	/**
+	 * Returns whether the given value represents SQL NULL.
+	 */
+	public static boolean isNull(final String value) {
+		return value == null || value.equals("null");
+	}
+
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	public Kind getKind(final int column) {
+		return kinds[column];
+	}
+
+	/**
+	 * Returns the value of the given cell with the type stripped.
+	 */
+	public String getText(final int row, final int column) {
+		if (column >= rowSizes[row]) {
+			throw new IndexOutOfBoundsException("Index: " + column + ", Size: " + rowSizes[row]);
+		}
+		return texts[column][row];
+	}
+
+	public boolean isNull(final int row, final int column) {
+		getText(row, column);
+		return nulls[column].get(row);
+	}
+
+	public int getInt(final int row, final int column) {
+		return ints[column][row];
+	}
+
+	public long getLong(final int row, final int column) {
+		return longs[column][row];
+	}
+
+	public double getDouble(final int row, final int column) {
+		return doubles[column][row];
+	}
+
+}
@@ -0,0 +1,190 @@
+package org.baessie.simulator.jdbc.expectation;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Values indexed on the trigger query of their expectation, which finds the
+ * oldest value whose trigger query matches a query.
+ * 
+ * Exact trigger queries are kept in FIFO queues per query, and wildcard
+ * trigger queries are compiled when added and grouped by their literal prefix,
+ * so that a query only has to be matched against the wildcards whose prefix
+ * it starts with. Those groups are found by looking up the prefixes of the
+ * query, one for each distinct prefix length.
+ * 
+ * @param <V>
+ *            the type of the values, such as the expectations themselves
+ */
+@SuppressWarnings("serial")
+class TriggerIndex<V> implements Serializable {
+	private final Map<String, LinkedList<Entry<V>>> exact = new HashMap<String, LinkedList<Entry<V>>>();
+	private final Map<String, LinkedList<Entry<V>>> wildcardsByPrefix = new HashMap<String, LinkedList<Entry<V>>>();
+	// Number of wildcard prefixes of each length
+	private final TreeMap<Integer, Integer> prefixLengths = new TreeMap<Integer, Integer>();
+
+	/**
+	 * Adds a value. Values are usually added in the order of their sequence
+	 * numbers, otherwise they are inserted in that order.
+	 * 
+	 * @param sequence
+	 *            the number of the value, lower numbers are older
+	 * @param triggerQuery
+	 *            the trigger query of the value, may contain wildcards
+	 * @param value
+	 *            the value to add
+	 */
+	void add(final long sequence, final String triggerQuery, final V value) {
+		final Entry<V> entry = new Entry<V>(sequence, triggerQuery, value);
+		if (entry.pattern != null) {
+			final String prefix = triggerQuery.substring(0, triggerQuery.indexOf('*'));
+			if (!wildcardsByPrefix.containsKey(prefix)) {
+				final Integer count = prefixLengths.get(prefix.length());
+				prefixLengths.put(prefix.length(), count != null ? count + 1 : 1);
+			}
+			insert(queue(wildcardsByPrefix, prefix), entry);
+		} else {
+			insert(queue(exact, triggerQuery), entry);
+		}
+	}
+
+	private static <V> void insert(final LinkedList<Entry<V>> queue, final Entry<V> entry) {
+		final ListIterator<Entry<V>> it = queue.listIterator(queue.size());
+		while (it.hasPrevious()) {
+			if (it.previous().sequence < entry.sequence) {
+				it.next();
+				break;
+			}
+		}
+		it.add(entry);
+	}
+
+	/**
+	 * Returns the oldest value matching the given query, optionally removing
+	 * it, or null if no value matches.
+	 */
+	V find(final String query, final boolean remove) {
+		final LinkedList<Entry<V>> exactQueue = exact.get(query);
+		Entry<V> found = exactQueue != null ? exactQueue.getFirst() : null;
+		Iterator<Entry<V>> foundIterator = null;
+		String foundPrefix = null;
+		if (query != null) {
+			for (final Integer length : prefixLengths.headMap(query.length(), true).keySet()) {
+				final String prefix = query.substring(0, length);
+				final LinkedList<Entry<V>> wildcards = wildcardsByPrefix.get(prefix);
+				if (wildcards == null) {
+					continue;
+				}
+				final Iterator<Entry<V>> it = wildcards.iterator();
+				while (it.hasNext()) {
+					final Entry<V> candidate = it.next();
+					if (found != null && candidate.sequence > found.sequence) {
+						break;
+					}
+					if (query.equals(candidate.triggerQuery) || candidate.pattern.matcher(query).matches()) {
+						found = candidate;
+						foundIterator = it;
+						foundPrefix = prefix;
+						break;
+					}
+				}
+			}
+		}
+		if (found == null) {
+			return null;
+		}
+		if (remove) {
+			if (foundIterator != null) {
+				foundIterator.remove();
+				if (removeIfEmpty(wildcardsByPrefix, foundPrefix)) {
+					final int count = prefixLengths.get(foundPrefix.length());
+					if (count == 1) {
+						prefixLengths.remove(foundPrefix.length());
+					} else {
+						prefixLengths.put(foundPrefix.length(), count - 1);
+					}
+				}
+			} else {
+				exactQueue.removeFirst();
+				removeIfEmpty(exact, query);
+			}
+		}
+		return found.value;
+	}
+
+	void clear() {
+		exact.clear();
+		wildcardsByPrefix.clear();
+		prefixLengths.clear();
+	}
+
+	private static <V> LinkedList<Entry<V>> queue(final Map<String, LinkedList<Entry<V>>> queues, final String key) {
+		LinkedList<Entry<V>> queue = queues.get(key);
+		if (queue == null) {
+			queue = new LinkedList<Entry<V>>();
+			queues.put(key, queue);
+		}
+		return queue;
+	}
+
+	/**
+	 * Removes the queue of the given key if it is empty.
+	 * 
+	 * @return <code>true</code> if the queue was removed
+	 */
+	private static <V> boolean removeIfEmpty(final Map<String, LinkedList<Entry<V>>> queues, final String key) {
+		if (queues.get(key).isEmpty()) {
+			queues.remove(key);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the values in the order of their sequence numbers.
+	 */
+	List<V> getValues() {
+		final List<Entry<V>> all = new ArrayList<Entry<V>>();
+		for (final LinkedList<Entry<V>> queue : exact.values()) {
+			all.addAll(queue);
+		}
+		for (final LinkedList<Entry<V>> queue : wildcardsByPrefix.values()) {
+			all.addAll(queue);
+		}
+		Collections.sort(all, new Comparator<Entry<V>>() {
+			@Override
+			public int compare(final Entry<V> first, final Entry<V> second) {
+				return first.sequence < second.sequence ? -1 : first.sequence == second.sequence ? 0 : 1;
+			}
+		});
+		final List<V> values = new ArrayList<V>(all.size());
+		for (final Entry<V> entry : all) {
+			values.add(entry.value);
+		}
+		return values;
+	}
+
+	private static class Entry<V> implements Serializable {
+		private final long sequence;
+		private final String triggerQuery;
+		private final Pattern pattern;
+		private final V value;
+
+		Entry(final long sequence, final String triggerQuery, final V value) {
+			this.sequence = sequence;
+			this.triggerQuery = triggerQuery;
+			this.value = value;
+			pattern = ExpectationContainer.containsWildcardDefinitions(triggerQuery) ? ExpectationContainer.compileWildcard(triggerQuery) : null;
+		}
+	}
+}
@@ -94,6 +94,27 @@ public class SimulatorResultSetTest {
 		assertEquals(0, resultSet.getInt(3));
 	}
 
+	@Test(expected = NumberFormatException.class)
+	public void getByteByIndexFailsForValueOutOfRange() throws Exception {
+		resultSet.getByte(6);
+	}
+
+	@Test
+	public void getLongByIndexIsHandledForIntValues() throws Exception {
+		assertEquals(3333, resultSet.getLong(6));
+	}
+
+	@Test
+	public void getIntByIndexIsHandledForEachRow() throws Exception {
+		final SimulatorResultSet rows = new SimulatorResultSet(new ExpectedResult(new Row("int"), Row.list(new Row("java.lang.Integer:1"), new Row("null"), new Row(
+				"java.lang.Integer:3"))));
+		int sum = 0;
+		while (rows.next()) {
+			sum += rows.getInt(1);
+		}
+		assertEquals(4, sum);
+	}
+
 	@Test
 	public void getLongByIndexIsHandled() throws Exception {
 		assertEquals(1234567, resultSet.getLong(7));
@@ -67,6 +67,46 @@ public class ExpectationContainerTest {
 		assertEquals("matching input should give match", expectation.getExpectedResult(), filledContainer.getNextExpectedResult(expectation.getTriggerQuery()));
 	}
 
+	@Test
+	public void getExpectedResultReturnsOldestMatchingExpectationFirst() {
+		final ExpectedResult exactResult = new ExpectedResult(new Row("exact"), new ArrayList<Row>());
+		final ExpectedResult wildcardResult = new ExpectedResult(new Row("wildcard"), new ArrayList<Row>());
+		final ExpectedResult prefixResult = new ExpectedResult(new Row("prefix"), new ArrayList<Row>());
+		emptyContainer.addExpectation(new Expectation("SELECT * FROM anka", wildcardResult));
+		emptyContainer.addExpectation(new Expectation("SELECT name FROM anka", exactResult));
+		emptyContainer.addExpectation(new Expectation("SELECT name*", prefixResult));
+		assertEquals("first", wildcardResult, emptyContainer.getNextExpectedResult("SELECT name FROM anka"));
+		assertEquals("second", exactResult, emptyContainer.getNextExpectedResult("SELECT name FROM anka"));
+		assertEquals("third", prefixResult, emptyContainer.getNextExpectedResult("SELECT name FROM anka"));
+		assertEquals("first called", wildcardResult, emptyContainer.getNextCalledExpectedResult("SELECT name FROM anka"));
+	}
+
+	@Test
+	public void getExpectedResultFindsWildcardsWithPrefixesOfAnyLength() {
+		final ExpectedResult anyResult = new ExpectedResult(new Row("any"), new ArrayList<Row>());
+		final ExpectedResult longResult = new ExpectedResult(new Row("long"), new ArrayList<Row>());
+		emptyContainer.addExpectation(new Expectation("SELECT name FROM *", longResult));
+		emptyContainer.addExpectation(new Expectation("*", anyResult));
+		assertEquals("long prefix", longResult, emptyContainer.getNextExpectedResult("SELECT name FROM anka"));
+		assertEquals("empty prefix", anyResult, emptyContainer.getNextExpectedResult("SELECT name FROM anka"));
+		emptyContainer.addExpectation(new Expectation("SELECT name FROM *", longResult));
+		assertEquals("prefix added again", longResult, emptyContainer.getNextExpectedResult("SELECT name FROM anka"));
+	}
+
+	@Test
+	public void containersWithTheSameExpectationsAreEqual() {
+		final ExpectationContainer other = new ExpectationContainer();
+		other.addExpectation(expectation);
+		other.addExpectation(wildcardExpectation);
+		assertEquals("same expectations", filledContainer, other);
+		assertEquals("same hash code", filledContainer.hashCode(), other.hashCode());
+
+		filledContainer.getNextExpectedResult(TRIGGERQUERY);
+		assertFalse("one called", filledContainer.equals(other));
+		other.getNextExpectedResult(TRIGGERQUERY);
+		assertEquals("same called expectations", filledContainer, other);
+	}
+
 	@Test
 	public void doesStringMatchWithNullAndNull() {
 		assertTrue("null should equal null", filledContainer.doesStringMatch(null, null));
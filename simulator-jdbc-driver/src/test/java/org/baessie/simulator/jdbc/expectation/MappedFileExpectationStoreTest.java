@@ -0,0 +1,120 @@
+package org.baessie.simulator.jdbc.expectation;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MappedFileExpectationStoreTest {
+	private File file;
+	private MappedFileExpectationStore store;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("expectations", ".dat");
+		store = new MappedFileExpectationStore(file);
+	}
+
+	@After
+	public void tearDown() {
+		store.close();
+		file.delete();
+	}
+
+	private Expectation createExpectation(final String triggerQuery, final String value) {
+		final List<Row> rows = new ArrayList<Row>();
+		rows.add(new Row(value, null));
+		return new Expectation(triggerQuery, new ExpectedResult(new Row("name", "comment"), rows));
+	}
+
+	@Test
+	public void expectedResultIsReadBack() {
+		store.addExpectation(createExpectation("SELECT name FROM anka", "kalle"));
+		final ExpectedResult result = store.getExpectedResultFor("SELECT name FROM anka");
+		assertEquals("header", new Row("name", "comment"), result.getHeaderRow());
+		assertEquals("rows", 1, result.getRows().size());
+		assertEquals("value", "kalle", result.getRows().get(0).getStringAt(1));
+		assertEquals("null value", null, result.getRows().get(0).getStringAt(2));
+		assertEquals("call count", 1, result.getCallCount());
+		assertEquals("stored call count", 1, store.getCallCountFor("SELECT name FROM anka"));
+	}
+
+	@Test
+	public void expectationsMatchingSameQueryAreUsedInOrder() {
+		store.addExpectation(createExpectation("SELECT * FROM anka", "first"));
+		store.addExpectation(createExpectation("SELECT name FROM anka", "second"));
+		assertEquals("first", "first", store.getExpectedResultFor("SELECT name FROM anka").getRows().get(0).getStringAt(1));
+		assertEquals("second", "second", store.getExpectedResultFor("SELECT name FROM anka").getRows().get(0).getStringAt(1));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void calledExpectationIsNotUsedAgain() {
+		store.addExpectation(createExpectation("SELECT name FROM anka", "kalle"));
+		store.getExpectedResultFor("SELECT name FROM anka");
+		store.getExpectedResultFor("SELECT name FROM anka");
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void resetRemovesExpectations() {
+		store.addExpectation(createExpectation("SELECT name FROM anka", "kalle"));
+		store.resetExpectations();
+		store.getExpectedResultFor("SELECT name FROM anka");
+	}
+
+	@Test
+	public void storesOnSameFileShareExpectations() {
+		final MappedFileExpectationStore otherStore = new MappedFileExpectationStore(file);
+		store.addExpectation(createExpectation("SELECT name FROM anka", "first"));
+		store.addExpectation(createExpectation("SELECT name FROM anka", "second"));
+
+		assertEquals("first", "first", otherStore.getExpectedResultFor("SELECT name FROM anka").getRows().get(0).getStringAt(1));
+		assertEquals("call count", 1, store.getCallCountFor("SELECT name FROM anka"));
+		assertEquals("second", "second", store.getExpectedResultFor("SELECT name FROM anka").getRows().get(0).getStringAt(1));
+
+		otherStore.resetExpectations();
+		store.addExpectation(createExpectation("SELECT name FROM anka", "third"));
+		assertEquals("third", "third", otherStore.getExpectedResultFor("SELECT name FROM anka").getRows().get(0).getStringAt(1));
+		otherStore.close();
+	}
+
+	@Test
+	public void wildcardAndExactExpectationsAreCalledInTheOrderTheyWereAdded() {
+		final MappedFileExpectationStore otherStore = new MappedFileExpectationStore(file);
+		store.addExpectation(createExpectation("SELECT * FROM anka", "first"));
+		store.addExpectation(createExpectation("SELECT name FROM anka", "second"));
+		store.addExpectation(createExpectation("SELECT name FROM *", "third"));
+
+		assertEquals("first", "first", otherStore.getExpectedResultFor("SELECT name FROM anka").getRows().get(0).getStringAt(1));
+		assertEquals("third", "third", store.getExpectedResultFor("SELECT name FROM kalle").getRows().get(0).getStringAt(1));
+		assertEquals("second", "second", store.getExpectedResultFor("SELECT name FROM anka").getRows().get(0).getStringAt(1));
+		assertEquals("first called", 1, otherStore.getCallCountFor("SELECT name FROM anka"));
+		otherStore.close();
+	}
+
+	@Test
+	public void storeGrowsBeyondInitialSize() {
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			sb.append("kalle anka ");
+		}
+		final MappedFileExpectationStore otherStore = new MappedFileExpectationStore(file);
+		for (int i = 0; i < 200; i++) {
+			store.addExpectation(createExpectation("SELECT " + i, sb.toString()));
+		}
+		assertEquals("last", sb.toString(), otherStore.getExpectedResultFor("SELECT 199").getRows().get(0).getStringAt(1));
+		otherStore.close();
+	}
+
+	@Test(expected = ExpectationCommunicationException.class)
+	public void closedStoreCannotBeUsed() {
+		final MappedFileExpectationStore otherStore = new MappedFileExpectationStore(file);
+		otherStore.close();
+		otherStore.addExpectation(createExpectation("SELECT name FROM anka", "kalle"));
+	}
+
+}
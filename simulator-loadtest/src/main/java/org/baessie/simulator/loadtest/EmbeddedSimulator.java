@@ -0,0 +1,50 @@
+package org.baessie.simulator.loadtest;
+
+import org.baessie.simulator.SimulatorServlet;
+import org.baessie.simulator.socket.SocketSimulator;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+
+/**
+ * Runs {@link SimulatorServlet} in an embedded Jetty on a port chosen by the
+ * system, with the socket simulator on another such port unless the system
+ * property {@value SocketSimulator#PORT_PROPERTY} is set.
+ */
+public class EmbeddedSimulator {
+
+	private final Server server;
+	private final SimulatorServlet servlet;
+
+	public EmbeddedSimulator() {
+		if (System.getProperty(SocketSimulator.PORT_PROPERTY) == null) {
+			System.setProperty(SocketSimulator.PORT_PROPERTY, "0");
+		}
+		server = new Server(0);
+		servlet = new SimulatorServlet();
+		final ServletHolder holder = new ServletHolder(servlet);
+		holder.setAsyncSupported(true);
+		final ServletContextHandler context = new ServletContextHandler(ServletContextHandler.NO_SESSIONS);
+		context.setContextPath("/");
+		context.addServlet(holder, "/*");
+		server.setHandler(context);
+	}
+
+	public void start() throws Exception {
+		server.start();
+	}
+
+	public void stop() throws Exception {
+		server.stop();
+		server.join();
+	}
+
+	public String getBaseUrl() {
+		return "http://localhost:" + server.getConnectors()[0].getLocalPort();
+	}
+
+	public int getSocketPort() {
+		return servlet.getSocketPort();
+	}
+
+}
@@ -0,0 +1,81 @@
+package org.baessie.simulator.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.Map;
+
+/**
+ * Minimal HTTP client on {@link HttpURLConnection}, which keeps connections
+ * alive between requests of a thread.
+ */
+final class HttpClient {
+
+	static final String CHARSET = "UTF-8";
+
+	private HttpClient() {
+
+	}
+
+	/**
+	 * Posts the parameters as a form and returns the response.
+	 */
+	static String postForm(final String url, final Map<String, String> parameters) throws IOException {
+		final StringBuilder form = new StringBuilder();
+		for (final Map.Entry<String, String> parameter : parameters.entrySet()) {
+			if (form.length() > 0) {
+				form.append('&');
+			}
+			form.append(URLEncoder.encode(parameter.getKey(), CHARSET)).append('=').append(URLEncoder.encode(parameter.getValue(), CHARSET));
+		}
+		return post(url, "application/x-www-form-urlencoded; charset=" + CHARSET, form.toString().getBytes(CHARSET));
+	}
+
+	static String post(final String url, final String contentType, final byte[] body) throws IOException {
+		final HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		connection.setRequestProperty("Content-Type", contentType);
+		connection.setFixedLengthStreamingMode(body.length);
+		final OutputStream out = connection.getOutputStream();
+		try {
+			out.write(body);
+		} finally {
+			out.close();
+		}
+		return read(connection);
+	}
+
+	static String get(final String url) throws IOException {
+		return read((HttpURLConnection) new URL(url).openConnection());
+	}
+
+	/**
+	 * Reads the whole response, so that the connection can be reused.
+	 */
+	private static String read(final HttpURLConnection connection) throws IOException {
+		final int status = connection.getResponseCode();
+		final InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		if (in != null) {
+			try {
+				final byte[] buffer = new byte[4096];
+				int read;
+				while ((read = in.read(buffer)) >= 0) {
+					out.write(buffer, 0, read);
+				}
+			} finally {
+				in.close();
+			}
+		}
+		if (status != HttpURLConnection.HTTP_OK) {
+			throw new IOException("HTTP " + status + " from " + connection.getURL());
+		}
+		return out.toString(CHARSET);
+	}
+
+}
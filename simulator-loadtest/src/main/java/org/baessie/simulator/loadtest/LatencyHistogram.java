@@ -0,0 +1,93 @@
+package org.baessie.simulator.loadtest;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies in microseconds, with buckets that are at most 1/64
+ * of their value wide, so percentiles are within about 1.6%. Recording is
+ * lock-free and can be done by many threads.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 6;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	public void record(final long value) {
+		final long v = Math.max(0, value);
+		counts.incrementAndGet(index(v));
+		total.incrementAndGet();
+		long current;
+		while (v > (current = max.get()) && !max.compareAndSet(current, v)) {
+			// Retry until the maximum is at least the value
+		}
+	}
+
+	/**
+	 * Records a latency measured by a caller that waits for each response
+	 * before it sends the next request. Had the caller not waited, requests
+	 * would have been sent every expected interval and waited too, so those
+	 * requests are recorded as well, correcting for coordinated omission.
+	 */
+	public void record(final long value, final long expectedInterval) {
+		record(value);
+		if (expectedInterval > 0) {
+			for (long missed = value - expectedInterval; missed >= expectedInterval; missed -= expectedInterval) {
+				record(missed);
+			}
+		}
+	}
+
+	public long getTotalCount() {
+		return total.get();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Returns the value at or below which the given percentage of the recorded
+	 * values are.
+	 */
+	public long getValueAtPercentile(final double percentile) {
+		final long count = total.get();
+		if (count == 0) {
+			return 0;
+		}
+		final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank) {
+				return Math.min(highestValue(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	static int index(final long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		final int exponent = 63 - Long.numberOfLeadingZeros(value);
+		final int shift = exponent - SUB_BUCKET_BITS;
+		final int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+		return (shift + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	static long highestValue(final int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		final int shift = index / SUB_BUCKETS - 1;
+		final long lowest = (long) (index % SUB_BUCKETS + SUB_BUCKETS) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+
+}
@@ -0,0 +1,123 @@
+package org.baessie.simulator.loadtest;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends requests for the tests of a target from a number of threads, either
+ * in a closed loop, where every thread sends its next request when it has
+ * the response to the previous one, or in an open loop, where requests are
+ * scheduled at a constant rate whether earlier responses have come or not.
+ *
+ * Open loop latencies are measured from when the request was scheduled, so
+ * requests delayed by slow responses count the delay. Closed loop latencies
+ * are corrected for coordinated omission with an expected interval between
+ * requests.
+ */
+public class LoadGenerator {
+
+	private static final Logger LOG = LoggerFactory.getLogger(LoadGenerator.class);
+
+	private final Target target;
+	private final int threads;
+	private final int tests;
+
+	public LoadGenerator(final Target target, final int threads, final int tests) {
+		this.target = target;
+		this.threads = threads;
+		this.tests = tests;
+	}
+
+	/**
+	 * Sends requests back to back from every thread.
+	 *
+	 * @param expectedInterval
+	 *            microseconds expected between the requests of a thread, or 0
+	 *            to record the latencies as measured
+	 */
+	public LoadResult runClosedLoop(final long duration, final TimeUnit unit, final long expectedInterval) throws InterruptedException {
+		return run("closed", unit.toNanos(duration), 0, expectedInterval);
+	}
+
+	/**
+	 * Sends requests at a constant rate, shared by all threads.
+	 *
+	 * @param rate
+	 *            requests per second
+	 */
+	public LoadResult runOpenLoop(final long duration, final TimeUnit unit, final double rate) throws InterruptedException {
+		if (rate <= 0) {
+			throw new IllegalArgumentException("Rate must be positive: " + rate);
+		}
+		return run("open", unit.toNanos(duration), (long) (TimeUnit.SECONDS.toNanos(1) / rate), 0);
+	}
+
+	private LoadResult run(final String mode, final long duration, final long period, final long expectedInterval) throws InterruptedException {
+		final LatencyHistogram latencies = new LatencyHistogram();
+		final AtomicLong scheduled = new AtomicLong();
+		final AtomicLong requests = new AtomicLong();
+		final AtomicLong errors = new AtomicLong();
+		final long start = System.nanoTime();
+		final long end = start + duration;
+
+		final Thread[] workers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			workers[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						while (true) {
+							final long request = scheduled.getAndIncrement();
+							final long intendedStart;
+							if (period > 0) {
+								intendedStart = start + request * period;
+								if (intendedStart >= end) {
+									break;
+								}
+								waitUntil(intendedStart);
+							} else {
+								intendedStart = System.nanoTime();
+								if (intendedStart >= end) {
+									break;
+								}
+							}
+							if (!call((int) (request % tests))) {
+								errors.incrementAndGet();
+							}
+							requests.incrementAndGet();
+							latencies.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - intendedStart), expectedInterval);
+						}
+					} finally {
+						target.close();
+					}
+				}
+			}, "LoadGenerator-" + target.getName() + "-" + t);
+			workers[t].start();
+		}
+		for (final Thread worker : workers) {
+			worker.join();
+		}
+		return new LoadResult(target.getName(), mode, requests.get(), errors.get(), System.nanoTime() - start, latencies);
+	}
+
+	private boolean call(final int test) {
+		try {
+			return target.call(test);
+		} catch (final Exception e) {
+			LOG.debug("Request failed", e);
+			return false;
+		}
+	}
+
+	private static void waitUntil(final long time) {
+		long wait;
+		while ((wait = time - System.nanoTime()) > 0) {
+			LockSupport.parkNanos(wait);
+		}
+	}
+
+}
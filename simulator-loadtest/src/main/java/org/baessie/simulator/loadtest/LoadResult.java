@@ -0,0 +1,60 @@
+package org.baessie.simulator.loadtest;
+
+import java.util.Locale;
+
+/**
+ * Throughput, errors and latency percentiles of a load run.
+ */
+public class LoadResult {
+
+	private final String target;
+	private final String mode;
+	private final long requests;
+	private final long errors;
+	private final long elapsed;
+	private final LatencyHistogram latencies;
+
+	/**
+	 * @param elapsed
+	 *            nanoseconds the run took
+	 */
+	public LoadResult(final String target, final String mode, final long requests, final long errors, final long elapsed, final LatencyHistogram latencies) {
+		this.target = target;
+		this.mode = mode;
+		this.requests = requests;
+		this.errors = errors;
+		this.elapsed = elapsed;
+		this.latencies = latencies;
+	}
+
+	public long getRequests() {
+		return requests;
+	}
+
+	public long getErrors() {
+		return errors;
+	}
+
+	public double getThroughput() {
+		return elapsed > 0 ? requests * 1e9 / elapsed : 0;
+	}
+
+	public double getErrorRate() {
+		return requests > 0 ? (double) errors / requests : 0;
+	}
+
+	/**
+	 * Returns the latencies in microseconds.
+	 */
+	public LatencyHistogram getLatencies() {
+		return latencies;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(Locale.ROOT, "%-7s %-7s requests=%d throughput=%.1f/s errors=%d (%.2f%%) latency us p50=%d p90=%d p99=%d p99.9=%d max=%d", target, mode, requests,
+				getThroughput(), errors, getErrorRate() * 100, latencies.getValueAtPercentile(50), latencies.getValueAtPercentile(90), latencies.getValueAtPercentile(99),
+				latencies.getValueAtPercentile(99.9), latencies.getMax());
+	}
+
+}
@@ -0,0 +1,109 @@
+package org.baessie.simulator.loadtest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the capacity of the simulator running locally. Sets up tests
+ * through the setup endpoints of an {@link EmbeddedSimulator}, warms up, and
+ * sends load to each target, printing throughput, errors and latency
+ * percentiles. Exits with status 1 if the error rate of a target is above the
+ * allowed one.
+ *
+ * Options, given as <code>--name value</code>:
+ * <ul>
+ * <li><code>targets</code> - comma separated <code>ws</code>, <code>rest</code>
+ * and <code>socket</code> (all)</li>
+ * <li><code>tests</code> - tests set up per target (100)</li>
+ * <li><code>threads</code> - sending threads (8)</li>
+ * <li><code>duration</code> - seconds of load per target (10)</li>
+ * <li><code>warmup</code> - seconds of warmup per target (3)</li>
+ * <li><code>rate</code> - requests per second for an open loop, or 0 for a
+ * closed loop (0)</li>
+ * <li><code>maxErrorRate</code> - allowed fraction of failed requests (0)</li>
+ * </ul>
+ */
+public final class LoadTest {
+
+	private LoadTest() {
+
+	}
+
+	public static void main(final String[] args) throws Exception {
+		final Map<String, String> options = parseOptions(args);
+		final String[] targetNames = option(options, "targets", "ws,rest,socket").split(",");
+		final int tests = Integer.parseInt(option(options, "tests", "100"));
+		final int threads = Integer.parseInt(option(options, "threads", "8"));
+		final long duration = Long.parseLong(option(options, "duration", "10"));
+		final long warmup = Long.parseLong(option(options, "warmup", "3"));
+		final double rate = Double.parseDouble(option(options, "rate", "0"));
+		final double maxErrorRate = Double.parseDouble(option(options, "maxErrorRate", "0"));
+
+		final EmbeddedSimulator simulator = new EmbeddedSimulator();
+		simulator.start();
+		boolean failed = false;
+		try {
+			final List<LoadResult> results = new ArrayList<LoadResult>();
+			for (final String targetName : targetNames) {
+				final Target target = createTarget(targetName.trim(), simulator);
+				target.setUp(tests);
+				final LoadGenerator generator = new LoadGenerator(target, threads, tests);
+				final LoadResult warmupResult = generator.runClosedLoop(warmup, TimeUnit.SECONDS, 0);
+				final LoadResult result;
+				if (rate > 0) {
+					result = generator.runOpenLoop(duration, TimeUnit.SECONDS, rate);
+				} else {
+					// Requests are expected as often as during the warmup
+					result = generator.runClosedLoop(duration, TimeUnit.SECONDS, expectedInterval(warmupResult, threads));
+				}
+				System.out.println(result);
+				results.add(result);
+			}
+			for (final LoadResult result : results) {
+				failed |= result.getErrorRate() > maxErrorRate;
+			}
+		} finally {
+			simulator.stop();
+		}
+		System.exit(failed ? 1 : 0);
+	}
+
+	/**
+	 * Returns the mean number of microseconds between the requests of a
+	 * thread.
+	 */
+	private static long expectedInterval(final LoadResult result, final int threads) {
+		return result.getThroughput() > 0 ? (long) (threads * 1e6 / result.getThroughput()) : 0;
+	}
+
+	private static Target createTarget(final String name, final EmbeddedSimulator simulator) {
+		if ("ws".equals(name)) {
+			return new WSTarget(simulator.getBaseUrl());
+		} else if ("rest".equals(name)) {
+			return new RestTarget(simulator.getBaseUrl());
+		} else if ("socket".equals(name)) {
+			return new SocketTarget(simulator.getBaseUrl(), simulator.getSocketPort());
+		}
+		throw new IllegalArgumentException("Unknown target: " + name);
+	}
+
+	private static Map<String, String> parseOptions(final String[] args) {
+		final Map<String, String> options = new HashMap<String, String>();
+		for (int i = 0; i < args.length; i++) {
+			if (!args[i].startsWith("--") || i + 1 == args.length) {
+				throw new IllegalArgumentException("Expected --name value: " + args[i]);
+			}
+			options.put(args[i].substring(2), args[++i]);
+		}
+		return options;
+	}
+
+	private static String option(final Map<String, String> options, final String name, final String defaultValue) {
+		final String value = options.get(name);
+		return value != null ? value : defaultValue;
+	}
+
+}
@@ -0,0 +1,43 @@
+package org.baessie.simulator.loadtest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Sends GET requests to the REST simulator.
+ */
+public class RestTarget implements Target {
+
+	private final String baseUrl;
+
+	public RestTarget(final String baseUrl) {
+		this.baseUrl = baseUrl;
+	}
+
+	@Override
+	public String getName() {
+		return "rest";
+	}
+
+	@Override
+	public void setUp(final int tests) throws Exception {
+		for (int i = 0; i < tests; i++) {
+			final Map<String, String> parameters = new LinkedHashMap<String, String>();
+			parameters.put("testId", "REST " + i);
+			parameters.put("path", "/customers/" + i);
+			parameters.put("queryString", "view=full");
+			parameters.put("response", "customer " + i);
+			HttpClient.postForm(baseUrl + "/servlet/setup", parameters);
+		}
+	}
+
+	@Override
+	public boolean call(final int test) throws Exception {
+		return ("customer " + test).equals(HttpClient.get(baseUrl + "/customers/" + test + "?view=full"));
+	}
+
+	@Override
+	public void close() {
+	}
+
+}
@@ -0,0 +1,91 @@
+package org.baessie.simulator.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Sends requests to the socket simulator, over one connection per thread.
+ * Every read of the simulator is taken as a request, so each request waits
+ * for the whole response of the previous one.
+ */
+public class SocketTarget implements Target {
+
+	private final String baseUrl;
+	private final int port;
+	private final ThreadLocal<Socket> sockets = new ThreadLocal<Socket>();
+
+	public SocketTarget(final String baseUrl, final int port) {
+		this.baseUrl = baseUrl;
+		this.port = port;
+	}
+
+	@Override
+	public String getName() {
+		return "socket";
+	}
+
+	@Override
+	public void setUp(final int tests) throws Exception {
+		for (int i = 0; i < tests; i++) {
+			final Map<String, String> parameters = new LinkedHashMap<String, String>();
+			parameters.put("testId", "SOCKET " + i);
+			parameters.put("request", createRequest(i));
+			parameters.put("response", createResponse(i));
+			HttpClient.postForm(baseUrl + "/socket/setup", parameters);
+		}
+	}
+
+	private static String createRequest(final int test) {
+		return "GET subscriber?identity=" + test;
+	}
+
+	private static String createResponse(final int test) {
+		return "identity=" + test + "&status=00";
+	}
+
+	@Override
+	public boolean call(final int test) throws Exception {
+		Socket socket = sockets.get();
+		if (socket == null) {
+			socket = new Socket("localhost", port);
+			socket.setTcpNoDelay(true);
+			sockets.set(socket);
+		}
+		try {
+			socket.getOutputStream().write(createRequest(test).getBytes(HttpClient.CHARSET));
+			final byte[] expected = createResponse(test).getBytes(HttpClient.CHARSET);
+			final byte[] response = new byte[expected.length];
+			final InputStream in = socket.getInputStream();
+			int read = 0;
+			while (read < response.length) {
+				final int n = in.read(response, read, response.length - read);
+				if (n < 0) {
+					throw new IOException("Connection closed by the simulator");
+				}
+				read += n;
+			}
+			return Arrays.equals(response, expected);
+		} catch (final IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	@Override
+	public void close() {
+		final Socket socket = sockets.get();
+		if (socket != null) {
+			sockets.remove();
+			try {
+				socket.close();
+			} catch (final IOException e) {
+				// Already broken
+			}
+		}
+	}
+
+}
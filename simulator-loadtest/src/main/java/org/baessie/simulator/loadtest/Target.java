@@ -0,0 +1,29 @@
+package org.baessie.simulator.loadtest;
+
+/**
+ * Something to send load to, with tests that are set up before the load
+ * starts.
+ */
+public interface Target {
+
+	String getName();
+
+	/**
+	 * Sets up the given number of tests through the setup endpoint of the
+	 * simulator.
+	 */
+	void setUp(int tests) throws Exception;
+
+	/**
+	 * Sends a request matching the given test and checks the response.
+	 *
+	 * @return true if the response was the one of the test
+	 */
+	boolean call(int test) throws Exception;
+
+	/**
+	 * Releases resources held by the calling thread.
+	 */
+	void close();
+
+}
@@ -0,0 +1,53 @@
+package org.baessie.simulator.loadtest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Posts xml requests to the WS simulator.
+ */
+public class WSTarget implements Target {
+
+	private static final String CONTENT_TYPE = "text/xml; charset=" + HttpClient.CHARSET;
+
+	private final String baseUrl;
+
+	public WSTarget(final String baseUrl) {
+		this.baseUrl = baseUrl;
+	}
+
+	@Override
+	public String getName() {
+		return "ws";
+	}
+
+	@Override
+	public void setUp(final int tests) throws Exception {
+		for (int i = 0; i < tests; i++) {
+			final Map<String, String> parameters = new LinkedHashMap<String, String>();
+			parameters.put("testId", "WS " + i);
+			parameters.put("request", createRequest(i));
+			parameters.put("response", createResponse(i));
+			HttpClient.postForm(baseUrl + "/ws/setup", parameters);
+		}
+	}
+
+	private static String createRequest(final int test) {
+		return "<request><operation>getCustomer</operation><customer>" + test + "</customer></request>";
+	}
+
+	private static String createResponse(final int test) {
+		return "<response><customer>" + test + "</customer><status>OK</status></response>";
+	}
+
+	@Override
+	public boolean call(final int test) throws Exception {
+		final String response = HttpClient.post(baseUrl + "/load", CONTENT_TYPE, createRequest(test).getBytes(HttpClient.CHARSET));
+		return response.contains("<customer>" + test + "</customer>");
+	}
+
+	@Override
+	public void close() {
+	}
+
+}
@@ -0,0 +1,47 @@
+package org.baessie.simulator.loadtest;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void percentilesAreWithinBucketPrecision() {
+		final LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 1; i <= 10000; i++) {
+			histogram.record(i);
+		}
+		assertEquals("Count", 10000, histogram.getTotalCount());
+		assertEquals("p50", 5000, histogram.getValueAtPercentile(50), 5000 / 64);
+		assertEquals("p99", 9900, histogram.getValueAtPercentile(99), 9900 / 64);
+		assertEquals("p100", 10000, histogram.getValueAtPercentile(100));
+		assertEquals("Small values are exact", 1, histogram.getValueAtPercentile(0.01));
+	}
+
+	@Test
+	public void bucketsCoverAllValues() {
+		long previous = -1;
+		for (int i = 0; i < 3712; i++) {
+			final long highest = LatencyHistogram.highestValue(i);
+			assertEquals("Index of " + highest, i, LatencyHistogram.index(highest));
+			assertEquals("Index of " + (previous + 1), i, LatencyHistogram.index(previous + 1));
+			previous = highest;
+		}
+		assertEquals("Last bucket", Long.MAX_VALUE, previous);
+	}
+
+	@Test
+	public void coordinatedOmissionIsCorrected() {
+		final LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 0; i < 98; i++) {
+			histogram.record(10, 10);
+		}
+		// One stall of 1000 hides the 99 requests that would have been sent
+		histogram.record(1000, 10);
+
+		assertEquals("Count with the requests that were not sent", 98 + 100, histogram.getTotalCount());
+		assertEquals("p90 shows the stall", 810, histogram.getValueAtPercentile(90), 810 / 64);
+	}
+
+}
@@ -8,7 +8,6 @@ import java.util.{List, ArrayList}
 import javax.xml.xpath.{XPathConstants, XPathFactory}
 import org.w3c.dom.{NodeList, Document}
 import javax.xml.transform.dom.{DOMResult, DOMSource}
-import javax.xml.transform.TransformerFactory
 
 class WSTestData(
                   val testId: String,
@@ -20,7 +19,8 @@ class WSTestData(
                   val responseHeaders: Map[String, String]) extends TestData {
   var callCount: Int = 0
   val backReferenceRegexp = "\\*\\(([[a-zA-Z0-9_-]\\s]*)\\)\\*".r
-  val expression = XPathFactory.newInstance().newXPath().compile("//*")
+  // Lazy since the test data built for each request never handles back references
+  lazy val expression = XPathFactory.newInstance().newXPath().compile("//*")
 
   XMLUnit.setIgnoreWhitespace(true)
   XMLUnit.setIgnoreComments(true)
@@ -99,7 +99,7 @@ class WSTestData(
   private def copyDocument(document: Document): Document = {
     val source = new DOMSource(document)
     val result = new DOMResult()
-    TransformerFactory.newInstance().newTransformer().transform(source, result)
+    XmlTransformer.transform(source, result)
     return result.getNode().asInstanceOf[Document]
   }
 }
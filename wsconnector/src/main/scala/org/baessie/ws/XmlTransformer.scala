@@ -0,0 +1,26 @@
+package org.baessie.ws
+
+import javax.xml.transform.{Result, Source, Transformer, TransformerFactory}
+
+/**
+ * Identity transformation with one reusable transformer per thread, instead of
+ * looking up a factory and creating a transformer for every request.
+ */
+object XmlTransformer {
+  private val transformerFactory = TransformerFactory.newInstance()
+
+  private val transformers = new ThreadLocal[Transformer] {
+    override def initialValue(): Transformer = transformerFactory.synchronized {
+      transformerFactory.newTransformer()
+    }
+  }
+
+  def transform(source: Source, result: Result) {
+    val transformer = transformers.get
+    try {
+      transformer.transform(source, result)
+    } finally {
+      transformer.reset()
+    }
+  }
+}
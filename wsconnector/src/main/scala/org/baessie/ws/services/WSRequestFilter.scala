@@ -5,10 +5,9 @@ import org.apache.tapestry5.services._
 import javax.servlet.http.HttpServletRequest
 import org.custommonkey.xmlunit.XMLUnit
 import org.xml.sax.InputSource
-import org.baessie.ws.WSTestData
+import org.baessie.ws.{WSTestData, XmlTransformer}
 import javax.xml.transform.dom.DOMSource
 import javax.xml.transform.stream.StreamResult
-import javax.xml.transform.TransformerFactory
 import org.baessie.common.TestDataManager
 
 class WSRequestFilter extends ComponentRequestFilter {
@@ -33,7 +32,7 @@ class WSRequestFilter extends ComponentRequestFilter {
         val out = response.getOutputStream("text/xml")
         val domSource = new DOMSource(result.get.asInstanceOf[WSTestData].outControlDocument)
         val streamResult = new StreamResult(out)
-        TransformerFactory.newInstance().newTransformer().transform(domSource, streamResult)
+        XmlTransformer.transform(domSource, streamResult)
         out.flush()
       } else {
         // TODO: Fix error output